@@ -69,7 +69,7 @@ public class Evaluator {
 			else if(cfg.ttSplit <= 0 && cfg.tvSplit > 0)
 				out.println("Train-Validation split: " + cfg.tvSplit);
 		}
-		out.println("Feature vector representation: " + ((cfg.useSparseRepresentation)?"Sparse":"Dense") + ".");
+		out.println("Feature vector representation: " + ((cfg.useColumnarRepresentation)?"Columnar":(cfg.useSparseRepresentation)?"Sparse":"Dense") + ".");
 		out.println("Ranking method:\t" + ranker.name());
 		if(cfg.featureDescriptionFile.compareTo("")!=0)
 			out.println("Feature description file:\t" + cfg.featureDescriptionFile);
@@ -192,7 +192,7 @@ public class Evaluator {
 	}
 
 	public Dataset readInput(String inputFile) {
-		return FeatureManager.readInput(inputFile, cfg.mustHaveRelDoc, cfg.useSparseRepresentation);
+		return FeatureManager.readInput(inputFile, cfg.mustHaveRelDoc, cfg.useSparseRepresentation, cfg.useColumnarRepresentation);
 	}
 	public int[] readFeature(String featureDefFile) {
 		if(featureDefFile.compareTo("") == 0)
@@ -587,32 +587,40 @@ public class Evaluator {
 		}
 	}
 
+	/**
+	 * Open a model file for scoring test files one ranked list at a time.
+	 * @param modelFile Pre-trained model
+	 * @return
+	 */
+	public StreamingScorer streamingScorer(String modelFile)
+	{
+		return new StreamingScorer(cfg.factory, modelFile, cfg.nml, cfg.mustHaveRelDoc, cfg.useSparseRepresentation);
+	}
+	/**
+	 * As streamingScorer(), for the test files of the k-fold variants, which have always been read as by
+	 * FeatureManager.readInput(file): every ranked list is kept, whatever -mustHaveRelDoc says.
+	 */
+	private StreamingScorer foldScorer(String modelFile)
+	{
+		return new StreamingScorer(cfg.factory, modelFile, cfg.nml, false, false);
+	}
 	/**
 	 * Write the model's score for each of the documents in a test rankings. 
+	 * The test file is streamed: only a bounded number of ranked lists are in memory at any time.
 	 * @param modelFile Pre-trained model
 	 * @param testFile Test data
 	 * @param outputFile Output file
 	 */
 	public void score(String modelFile, String testFile, String outputFile)
 	{
-		ranker = cfg.factory.loadRankerFromFile(modelFile);
-		int[] features = ranker.getFeatures();
-		Dataset test = readInput(testFile);
-		cfg.nml.normalize(test, features);
-		
-		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"));
-			for (RankList l : test.samples) {
-				for (int j = 0; j < l.size(); j++) {
-					out.write(l.getID() + "\t" + j + "\t" + ranker.eval(l.get(j)) + "");
-					out.newLine();
-				}
-			}
-			out.close();
+		StreamingScorer scorer = streamingScorer(modelFile);
+		ranker = scorer.getRanker();
+		try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"))) {
+			scorer.run(testFile, out, StreamingScorer.Format.SCORES);
 		}
 		catch(IOException ex)
 		{
-			throw RankLibError.create("Error in Evaluator::rank(): ", ex);
+			throw RankLibError.create("Error in Evaluator::score(): ", ex);
 		}
 	}
 	/**
@@ -641,8 +649,10 @@ public class Evaluator {
 				int[] features = ranker.getFeatures();
 				cfg.nml.normalizeLists(dataset, test, features);
 				for (RankList l : test) {
+					double[] scores = new double[l.size()];
+					ranker.scoreBatch(l, scores);
 					for (int j = 0; j < l.size(); j++) {
-						out.write(l.getID() + "\t" + j + "\t" + ranker.eval(l.get(j)) + "");
+						out.write(l.getID() + "\t" + j + "\t" + scores[j] + "");
 						out.newLine();
 					}
 				}
@@ -664,18 +674,8 @@ public class Evaluator {
 	{
 		int nFold = modelFiles.size();
 		try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"))) {
-			for(int f=0;f<nFold;f++) {
-				Dataset test = FeatureManager.readInput(testFiles.get(f));
-				Ranker ranker = cfg.factory.loadRankerFromFile(modelFiles.get(f));
-				int[] features = ranker.getFeatures();
-				cfg.nml.normalize(test, features);
-				for (RankList l : test.samples) {
-					for (int j = 0; j < l.size(); j++) {
-						out.write(l.getID() + "\t" + j + "\t" + ranker.eval(l.get(j)) + "");
-						out.newLine();
-					}
-				}
-			}
+			for(int f=0;f<nFold;f++)
+				foldScorer(modelFiles.get(f)).run(testFiles.get(f), out, StreamingScorer.Format.SCORES);
 		}
 		catch(IOException ex)
 		{
@@ -684,31 +684,16 @@ public class Evaluator {
 	}
 	/**
 	 * Use a pre-trained model to re-rank the test rankings. Save the output ranking in indri's run format
+	 * The test file is streamed: only a bounded number of ranked lists are in memory at any time.
 	 * @param modelFile
 	 * @param testFile
 	 * @param indriRanking
 	 */
 	public void rank(String modelFile, String testFile, String indriRanking)
 	{
-		Ranker ranker = cfg.factory.loadRankerFromFile(modelFile);
-		int[] features = ranker.getFeatures();
-		Dataset test = readInput(testFile);
-		cfg.nml.normalize(test, features);
-		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"));
-			for (RankList l : test.samples) {
-				double[] scores = new double[l.size()];
-				for (int j = 0; j < l.size(); j++)
-					scores[j] = ranker.eval(l.get(j));
-				int[] idx = MergeSorter.sort(scores, false);
-				for (int j = 0; j < idx.length; j++) {
-					int k = idx[j];
-					String str = l.getID() + " Q0 " + l.get(k).getDescription().replace("#", "").trim() + " " + (j + 1) + " " + SimpleMath.round(scores[k], 5) + " ranklib";
-					out.write(str);
-					out.newLine();
-				}
-			}
-			out.close();
+		StreamingScorer scorer = streamingScorer(modelFile);
+		try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"))) {
+			scorer.run(testFile, out, StreamingScorer.Format.INDRI);
 		}
 		catch(IOException ex)
 		{
@@ -767,8 +752,7 @@ public class Evaluator {
 
 				for (RankList l : test) {
 					double[] scores = new double[l.size()];
-					for (int j = 0; j < l.size(); j++)
-						scores[j] = ranker.eval(l.get(j));
+					ranker.scoreBatch(l, scores);
 					int[] idx = MergeSorter.sort(scores, false);
 					for (int j = 0; j < idx.length; j++) {
 						int k = idx[j];
@@ -794,28 +778,9 @@ public class Evaluator {
 	public void rank(List<String> modelFiles, List<String> testFiles, String indriRanking)
 	{
 		int nFold = modelFiles.size();
-		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"));
-			for(int f=0;f<nFold;f++) {
-				Dataset test = FeatureManager.readInput(testFiles.get(f));
-				Ranker ranker = cfg.factory.loadRankerFromFile(modelFiles.get(f));
-				int[] features = ranker.getFeatures();
-				cfg.nml.normalize(test, features);
-
-				for (RankList l : test.samples) {
-					double[] scores = new double[l.size()];
-					for (int j = 0; j < l.size(); j++)
-						scores[j] = ranker.eval(l.get(j));
-					int[] idx = MergeSorter.sort(scores, false);
-					for (int j = 0; j < idx.length; j++) {
-						int k = idx[j];
-						String str = l.getID() + " Q0 " + l.get(k).getDescription().replace("#", "").trim() + " " + (j + 1) + " " + SimpleMath.round(scores[k], 5) + " ranklib";
-						out.write(str);
-						out.newLine();
-					}
-				}				
-			}
-			out.close();
+		try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"))) {
+			for(int f=0;f<nFold;f++)
+				foldScorer(modelFiles.get(f)).run(testFiles.get(f), out, StreamingScorer.Format.INDRI);
 		}
 		catch(IOException ex)
 		{
@@ -3,6 +3,7 @@ package ciir.umass.edu.eval;
 import ciir.umass.edu.features.*;
 import ciir.umass.edu.learning.CoorAscent;
 import ciir.umass.edu.learning.LinearRegRank;
+import ciir.umass.edu.learning.Ranker;
 import ciir.umass.edu.learning.RankerFactory;
 import ciir.umass.edu.learning.RankerType;
 import ciir.umass.edu.learning.boosting.AdaRank;
@@ -10,14 +11,21 @@ import ciir.umass.edu.learning.boosting.RankBoost;
 import ciir.umass.edu.learning.neuralnet.ListNet;
 import ciir.umass.edu.learning.neuralnet.Neuron;
 import ciir.umass.edu.learning.neuralnet.RankNet;
+import ciir.umass.edu.learning.tree.CompiledEnsemble;
+import ciir.umass.edu.learning.tree.GeneratedEnsemble;
+import ciir.umass.edu.learning.tree.LambdaMART;
+import ciir.umass.edu.learning.tree.QuickScorer;
 import ciir.umass.edu.learning.tree.RFRanker;
 import ciir.umass.edu.metric.ERRScorer;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.metric.MetricScorerFactory;
 import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.Sigmoid;
+import ciir.umass.edu.utilities.WorkStealingPool;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
+import java.io.File;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -47,8 +55,10 @@ public class RanklibArgs {
   String prpFile = "";
   boolean mustHaveRelDoc = false;
   boolean useSparseRepresentation = false;
+  boolean useColumnarRepresentation = false;
   Normalizer nml = new NoopNormalizer();
   String modelFile = "";
+  String initialModelFile = "";
 
 
   int nThread = -1; // nThread = #cpu-cores
@@ -80,6 +90,7 @@ public class RanklibArgs {
     out.println("Params:");
     out.println("  [+] Training (+ tuning and evaluation)");
     out.println("\t-train <file>\t\tTraining data");
+    out.println("\t\t\t\t(any data file may be LibSVM text, gzipped text, or binary as made by FeatureManager -binary)");
     out.println("\t-ranker <type>\t\tSpecify which ranking algorithm to use");
     out.println("\t\t\t\t0: MART (gradient boosted regression tree)");
     out.println("\t\t\t\t1: RankNet");
@@ -97,6 +108,9 @@ public class RanklibArgs {
     out.println("\t[ -gmax <label> ]\tHighest judged relevance label. It affects the calculation of ERR (default=" + (int) SimpleMath.logBase2(ERRScorer.MAX) + ", i.e. 5-point scale {0,1,2,3,4})");
     out.println("\t[ -qrel <file> ]\tTREC-style relevance judgment file. It only affects MAP and NDCG (default=unspecified)");
     out.println("\t[ -silent ]\t\tDo not print progress messages (which are printed by default)");
+    out.println("\t[ -sigmoid <s> ]\tHow LambdaMART, RankNet and LambdaRank compute 1/(1+e^-x) for each pair of documents: exact (default),");
+    out.println("\t\t\t\tor table[:<range>:<resolution>] to read it off a table over [-range, range] with <resolution> entries per unit");
+    out.println("\t\t\t\t(table is table:" + (int) Sigmoid.DEFAULT_RANGE + ":" + Sigmoid.DEFAULT_RESOLUTION + ")");
 
     out.println("");
     //out.println("        Use the entire specified training data");
@@ -119,6 +133,7 @@ public class RanklibArgs {
 
     //out.println("");
     //out.println("\t[ -sparse ]\t\tUse sparse representation for all feature vectors (default=dense)");
+    out.println("\t[ -columnar ]\t\tStore all feature vectors column-wise, one array per feature (default=one object per document)");
 
     out.println("");
     out.println("\t[ -kcv <k> ]\t\tSpecify if you want to perform k-fold cross validation using the specified training data (default=NoCV)");
@@ -160,10 +175,18 @@ public class RanklibArgs {
     out.println("    [-] {MART, LambdaMART}-specific parameters");
     out.println("\t[ -tree <t> ]\t\tNumber of trees (default=" + factory.lambdaMart.nTrees + ")");
     out.println("\t[ -leaf <l> ]\t\tNumber of leaves for each tree (default=" + factory.lambdaMart.nTreeLeaves + ")");
+    out.println("\t[ -depth <d> ]\t\tMaximum depth of each tree, -1 for no limit (default=" + factory.lambdaMart.maxDepth + ")");
     out.println("\t[ -shrinkage <factor> ]\tShrinkage, or learning rate (default=" + factory.lambdaMart.learningRate + ")");
     out.println("\t[ -tc <k> ]\t\tNumber of threshold candidates for tree spliting. -1 to use all feature values (default=" + factory.lambdaMart.nThreshold + ")");
+    out.println("\t[ -quantile ]\t\tPlace threshold candidates at the quantiles of each feature, instead of evenly between its min and max");
     out.println("\t[ -mls <n> ]\t\tMin leaf support -- minimum % of docs each leaf has to contain (default=" + factory.lambdaMart.minLeafSupport + ")");
     out.println("\t[ -estop <e> ]\t\tStop early when no improvement is observed on validaton data in e consecutive rounds (default=" + factory.lambdaMart.nRoundToStopEarly + ")");
+    out.println("\t[ -vfreq <n> ]\t\tEvaluate on validation data only every n trees, and after the last one (default=" + factory.lambdaMart.validationInterval + ")");
+    out.println("\t[ -initmodel <model> ]\tAdd the trees to those of this (LambdaMART or MART) model instead of starting from scratch");
+    out.println("\t[ -checkpoint <file> ]\tSave the state of the training to this file every now and then, to resume it with -resume if it is interrupted");
+    out.println("\t[ -cktree <n> ]\t\tCheckpoint every n trees, 0 for never (default=" + factory.lambdaMart.checkpointTrees + ")");
+    out.println("\t[ -ckmin <m> ]\t\tAlso checkpoint whenever m minutes have passed since the last checkpoint, 0 for never (default=" + factory.lambdaMart.checkpointMinutes + ")");
+    out.println("\t[ -resume ]\t\tResume the training from the file given with -checkpoint, if it exists (same data and parameters only)");
 
     out.println("");
     out.println("    [-] ListNet-specific parameters");
@@ -175,12 +198,16 @@ public class RanklibArgs {
     out.println("\t[ -bag <r> ]\t\tNumber of bags (default=" + RFRanker.nBag + ")");
     out.println("\t[ -srate <r> ]\t\tSub-sampling rate (default=" + RFRanker.subSamplingRate + ")");
     out.println("\t[ -frate <r> ]\t\tFeature sampling rate (default=" + RFRanker.featureSamplingRate + ")");
+    out.println("\t[ -oobstop <n> ]\tStop adding bags once the out-of-bag score has been stable over the last <n> bags (default=" + RFRanker.oobStopWindow + ", i.e. never)");
+    out.println("\t[ -oobtol <t> ]\t\tHow much the out-of-bag score may move and still be stable (default=" + RFRanker.oobTolerance + ")");
     int type = (RFRanker.rType.ordinal()- RankerType.MART.ordinal());
     out.println("\t[ -rtype <type> ]\tRanker to bag (default=" + type + ", i.e. " + factory.getRankerNames().get(type) + ")");
     out.println("\t[ -tree <t> ]\t\tNumber of trees in each bag (default=" + RFRanker.nTrees + ")");
     out.println("\t[ -leaf <l> ]\t\tNumber of leaves for each tree (default=" + RFRanker.nTreeLeaves + ")");
+    out.println("\t[ -depth <d> ]\t\tMaximum depth of each tree, -1 for no limit (default=" + RFRanker.maxDepth + ")");
     out.println("\t[ -shrinkage <factor> ]\tShrinkage, or learning rate (default=" + RFRanker.learningRate + ")");
     out.println("\t[ -tc <k> ]\t\tNumber of threshold candidates for tree spliting. -1 to use all feature values (default=" + RFRanker.nThreshold + ")");
+    out.println("\t[ -quantile ]\t\tPlace threshold candidates at the quantiles of each feature (see above)");
     out.println("\t[ -mls <n> ]\t\tMin leaf support -- minimum % of docs each leaf has to contain (default=" + RFRanker.minLeafSupport + ")");
 
     out.println("");
@@ -200,6 +227,12 @@ public class RanklibArgs {
     out.println("\t[ -qrel <file> ]\tTREC-style relevance judgment file. It only affects MAP and NDCG (default=unspecified)");
     out.println("\t[ -idv <file> ]\t\tSave model performance (in test metric) on individual ranked lists (has to be used with -test)");
     out.println("\t[ -norm ]\t\tNormalize feature vectors (similar to -norm for training/tuning)");
+    out.println("\t[ -inference <i> ]\tHow tree ensembles (MART, LambdaMART, Random Forests) score documents, with the same scores:");
+    out.println("\t\t\t\tflat (default) walks each tree over arrays; quickscorer finds the exit leaves of all trees at once");
+    out.println("\t\t\t\t(QuickScorer), for trees of up to " + QuickScorer.MAX_LEAVES + " leaves; codegen compiles the trees");
+    out.println("\t\t\t\tinto Java classes at runtime (needs a JDK)");
+    out.println("\t[ -codegencache <dir> ]\tWhere -inference codegen keeps compiled models, to load them again without compiling");
+    out.println("\t\t\t\t(default=" + GeneratedEnsemble.getCacheDirectory() + ")");
     //out.println("\t[ -sparse ]\t\tUse sparse representation for all feature vectors (default=dense)");
 
     out.println("");
@@ -253,6 +286,8 @@ public class RanklibArgs {
       }
       else if(args[i].compareTo("-sparse")==0)
         useSparseRepresentation = true;
+      else if(args[i].compareTo("-columnar")==0)
+        useColumnarRepresentation = true;
       else if(args[i].compareTo("-save")==0)
         modelFile = args[++i];
       else if(args[i].compareTo("-kcvmd")==0)
@@ -340,6 +375,14 @@ public class RanklibArgs {
         factory.mart.nTreeLeaves = factory.lambdaMart.nTreeLeaves;
         RFRanker.nTreeLeaves = Integer.parseInt(args[i]);
       }
+      else if(args[i].compareTo("-depth")==0)
+      {
+        factory.lambdaMart.maxDepth = Integer.parseInt(args[++i]);
+        if(factory.lambdaMart.maxDepth < -1)
+          throw RankLibError.create("-depth must be -1 (no limit) or at least 0, not " + factory.lambdaMart.maxDepth);
+        factory.mart.maxDepth = factory.lambdaMart.maxDepth;
+        RFRanker.maxDepth = factory.lambdaMart.maxDepth;
+      }
       else if(args[i].compareTo("-shrinkage")==0)
       {
         factory.lambdaMart.learningRate = Float.parseFloat(args[++i]);
@@ -352,9 +395,37 @@ public class RanklibArgs {
         factory.mart.minLeafSupport = factory.lambdaMart.minLeafSupport;
         RFRanker.minLeafSupport = factory.lambdaMart.minLeafSupport;
       }
+      else if(args[i].compareTo("-quantile")==0)
+      {
+        factory.lambdaMart.quantileThresholds = true;
+        factory.mart.quantileThresholds = true;
+        RFRanker.quantileThresholds = true;
+      }
       else if(args[i].compareTo("-estop")==0) {
         factory.lambdaMart.nRoundToStopEarly = Integer.parseInt(args[++i]);
         factory.mart.nRoundToStopEarly = factory.lambdaMart.nRoundToStopEarly;
+      }
+      else if(args[i].compareTo("-vfreq")==0) {
+        factory.lambdaMart.validationInterval = Integer.parseInt(args[++i]);
+        factory.mart.validationInterval = factory.lambdaMart.validationInterval;
+      }
+      else if(args[i].compareTo("-initmodel")==0)
+        initialModelFile = args[++i];
+      else if(args[i].compareTo("-checkpoint")==0) {
+        factory.lambdaMart.checkpointFile = args[++i];
+        factory.mart.checkpointFile = factory.lambdaMart.checkpointFile;
+      }
+      else if(args[i].compareTo("-cktree")==0) {
+        factory.lambdaMart.checkpointTrees = Integer.parseInt(args[++i]);
+        factory.mart.checkpointTrees = factory.lambdaMart.checkpointTrees;
+      }
+      else if(args[i].compareTo("-ckmin")==0) {
+        factory.lambdaMart.checkpointMinutes = Integer.parseInt(args[++i]);
+        factory.mart.checkpointMinutes = factory.lambdaMart.checkpointMinutes;
+      }
+      else if(args[i].compareTo("-resume")==0) {
+        factory.lambdaMart.resume = true;
+        factory.mart.resume = true;
       }
         //Random forest
       else if(args[i].compareTo("-bag")==0)
@@ -363,6 +434,10 @@ public class RanklibArgs {
         RFRanker.subSamplingRate = Float.parseFloat(args[++i]);
       else if(args[i].compareTo("-frate")==0)
         RFRanker.featureSamplingRate = Float.parseFloat(args[++i]);
+      else if(args[i].compareTo("-oobstop")==0)
+        RFRanker.oobStopWindow = Integer.parseInt(args[++i]);
+      else if(args[i].compareTo("-oobtol")==0)
+        RFRanker.oobTolerance = Double.parseDouble(args[++i]);
       else if(args[i].compareTo("-rtype")==0)
       {
         int rt = Integer.parseInt(args[++i]);
@@ -374,6 +449,12 @@ public class RanklibArgs {
 
       else if(args[i].compareTo("-thread")==0)
         nThread = Integer.parseInt(args[++i]);
+      else if(args[i].compareTo("-sigmoid")==0)
+        Sigmoid.set(Sigmoid.parse(args[++i]));
+      else if(args[i].compareTo("-inference")==0)
+        CompiledEnsemble.setMode(CompiledEnsemble.parseMode(args[++i]));
+      else if(args[i].compareTo("-codegencache")==0)
+        GeneratedEnsemble.setCacheDirectory(new File(args[++i]));
 
         /////////////////////////////////////////////////////
         // These parameters are *ONLY* for my personal use
@@ -404,9 +485,19 @@ public class RanklibArgs {
     if(nThread == -1)
       nThread = Runtime.getRuntime().availableProcessors();
     MyThreadPool.init(nThread);
+    WorkStealingPool.init(nThread);
 
     if(testMetric.compareTo("")==0)
       testMetric = trainMetric;
+    if(foldCV != -1 && factory.lambdaMart.checkpointFile != null)
+      throw RankLibError.create("-checkpoint cannot be used with -kcv: all folds would share the same checkpoint");
+    if(!initialModelFile.isEmpty()) {
+      Ranker initialModel = factory.loadRankerFromFile(initialModelFile);
+      if(!(initialModel instanceof LambdaMART))
+        throw RankLibError.create("-initmodel must be a LambdaMART or MART model, not " + initialModel.name());
+      factory.lambdaMart.initialModel = (LambdaMART) initialModel;
+      factory.mart.initialModel = factory.lambdaMart.initialModel;
+    }
 
     out.println("");
     //out.println((keepOrigFeatures)?"Keep orig. features":"Discard orig. features");
@@ -426,6 +517,10 @@ public class RanklibArgs {
       out.println("TREC-format relevance judgment (only affects MAP and NDCG scores): " + qrelFile);
 
     out.println("Feature normalization: " + (nml instanceof NoopNormalizer ? "No" : nml.name()));
+    if(!Sigmoid.get().isExact())
+      out.println("Sigmoid: " + Sigmoid.get());
+    if(CompiledEnsemble.getMode() != CompiledEnsemble.Mode.FLAT)
+      out.println("Tree inference: " + CompiledEnsemble.getMode().name().toLowerCase());
 
     return new Evaluator(this);
   }
@@ -0,0 +1,186 @@
+package ciir.umass.edu.eval;
+
+import ciir.umass.edu.features.Normalizer;
+import ciir.umass.edu.features.QueryReader;
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.learning.RankerFactory;
+import ciir.umass.edu.utilities.FileUtils;
+import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.RankLibError;
+import ciir.umass.edu.utilities.SimpleMath;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Applies a model to a data file one ranked list at a time: each query is read, normalized, scored and written out,
+ * and then dropped, so memory use does not depend on the size of the file.
+ *
+ * Queries are scored in parallel on {@link MyThreadPool}, while the output is still written in input order. At most
+ * {@link #getReadAhead()} queries are read ahead of the one being written.
+ *
+ * @author jfoley.
+ */
+public class StreamingScorer {
+  public static final int DEFAULT_READ_AHEAD = 256;
+
+  /** What is written for each ranked list. */
+  public enum Format {
+    /** "qid \t index \t score" per document, in input order (-score). */
+    SCORES,
+    /** A TREC/Indri run, by decreasing score (-rank). */
+    INDRI
+  }
+
+  private final RankerFactory factory;
+  private final String modelFile;
+  private final Ranker ranker;
+  private final int[] features;
+  private final Normalizer nml;
+  private final boolean mustHaveRelDoc;
+  private final boolean useSparseRepresentation;
+  private int readAhead = DEFAULT_READ_AHEAD;
+  /**
+   * Most rankers score from any number of threads at once (see Ranker.isStatelessEval()), and every task shares the
+   * loaded model. Others (e.g. the neural nets) keep state while scoring a point, so each task borrows a copy of the
+   * model, read again from the model file, from here; there are at most as many copies as tasks running at once, and
+   * they are dropped at the end of run().
+   */
+  private final ConcurrentLinkedQueue<Ranker> idleCopies = new ConcurrentLinkedQueue<>();
+
+  public StreamingScorer(RankerFactory factory, String modelFile, Normalizer nml, boolean mustHaveRelDoc, boolean useSparseRepresentation) {
+    this.factory = factory;
+    this.modelFile = modelFile;
+    this.ranker = factory.loadRankerFromFile(modelFile);
+    this.features = ranker.getFeatures();
+    this.nml = nml;
+    this.mustHaveRelDoc = mustHaveRelDoc;
+    this.useSparseRepresentation = useSparseRepresentation;
+  }
+
+  /** The model, as loaded from its file. It is what scores, unless it keeps state while scoring. */
+  public Ranker getRanker() {
+    return ranker;
+  }
+
+  public int getReadAhead() {
+    return readAhead;
+  }
+
+  public StreamingScorer setReadAhead(int readAhead) {
+    if(readAhead < 1) {
+      throw RankLibError.create("Error in StreamingScorer::setReadAhead(): read-ahead must be positive, not "+readAhead);
+    }
+    this.readAhead = readAhead;
+    return this;
+  }
+
+  /**
+   * Score every ranked list of a file, writing the results to @out in the order of the file.
+   * @return the number of ranked lists written.
+   */
+  public int run(String inputFile, Writer out, Format format) {
+    MyThreadPool pool = MyThreadPool.getInstance();
+    ArrayDeque<Future<String>> inFlight = new ArrayDeque<>();
+    int count = 0;
+    try (QueryReader reader = new QueryReader(inputFile, mustHaveRelDoc, useSparseRepresentation)) {
+      Dataset dataset = reader.getDataset();
+      RankList rl;
+      while ((rl = reader.next()) != null) {
+        if(inFlight.size() >= readAhead) {
+          out.write(inFlight.removeFirst().get());
+          count++;
+        }
+        // blocks while every thread of the pool is busy
+        inFlight.addLast(pool.submit(new ScoreTask(dataset, rl, format)));
+      }
+      while (!inFlight.isEmpty()) {
+        out.write(inFlight.removeFirst().get());
+        count++;
+      }
+    } catch (IOException | InterruptedException ex) {
+      throw RankLibError.create("Error in StreamingScorer::run(): ", ex);
+    } catch (ExecutionException ex) {
+      throw RankLibError.create("Error in StreamingScorer::run(): ", ex.getCause());
+    } finally {
+      for (Future<String> f : inFlight) {
+        f.cancel(false);
+      }
+      idleCopies.clear();
+    }
+    return count;
+  }
+
+  private Ranker borrowRanker() {
+    if(ranker.isStatelessEval()) {
+      return ranker;
+    }
+    Ranker copy = idleCopies.poll();
+    if(copy != null) {
+      return copy;
+    }
+    copy = factory.createRanker(ranker.rankerType());
+    try (BufferedReader in = FileUtils.openReader(modelFile, "ASCII")) {
+      copy.loadFromReader(in);
+    } catch (IOException e) {
+      throw RankLibError.create("Couldn't read file=" + modelFile, e);
+    }
+    return copy;
+  }
+
+  private void returnRanker(Ranker r) {
+    if(r != ranker) {
+      idleCopies.add(r);
+    }
+  }
+
+  /** Normalizes and scores one ranked list, and formats its output lines. */
+  private class ScoreTask implements Callable<String> {
+    private final Dataset dataset;
+    private final RankList rl;
+    private final Format format;
+
+    ScoreTask(Dataset dataset, RankList rl, Format format) {
+      this.dataset = dataset;
+      this.rl = rl;
+      this.format = format;
+    }
+
+    @Override
+    public String call() {
+      nml.normalize(dataset, rl, features);
+      double[] scores = new double[rl.size()];
+      Ranker scorer = borrowRanker();
+      try {
+        scorer.scoreBatch(rl, scores);
+      } finally {
+        returnRanker(scorer);
+      }
+
+      String nl = System.lineSeparator();
+      StringBuilder sb = new StringBuilder();
+      if(format == Format.SCORES) {
+        for (int j = 0; j < scores.length; j++) {
+          sb.append(rl.getID()).append('\t').append(j).append('\t').append(scores[j]).append(nl);
+        }
+      } else {
+        int[] idx = MergeSorter.sort(scores, false);
+        for (int j = 0; j < idx.length; j++) {
+          int k = idx[j];
+          sb.append(rl.getID()).append(" Q0 ").append(rl.get(k).getDescription().replace("#", "").trim())
+              .append(' ').append(j + 1).append(' ').append(SimpleMath.round(scores[k], 5)).append(" ranklib").append(nl);
+        }
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,404 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.FeatureMatrix;
+import ciir.umass.edu.learning.MappedColumn;
+import ciir.umass.edu.learning.PointBuilder;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RankLib's binary dataset format: a {@link FeatureMatrix} written to disk as-is, so that loading it is a matter of
+ * mapping the file ({@link FileChannel#map}) rather than parsing text. Feature columns are not even read: the matrix
+ * reads them in place ({@link MappedColumn}), so loading takes about the same time whatever the size of the file, and
+ * processes that load the same file share its pages in the OS page cache.
+ *
+ * Layout (little-endian; every section starts on an 8-byte boundary):
+ * <pre>
+ *   header       int magic, int version, int rows, int queries, int maxFeature, int flags
+ *   directory    long[maxFeature+1] column positions, long[maxFeature+1] bitmap positions (0 = every row known)
+ *   queries      int[queries+1] first row of each query, then the number of rows
+ *   labels       float[rows]
+ *   qids         int[queries+1] offsets into a UTF-8 blob, then the blob
+ *   descriptions (if flags has HAS_DESCRIPTIONS) long[rows+1] offsets into a UTF-8 blob, then the blob
+ *   columns      for each feature: float[rows], and, unless every row is known, long[(rows+63)/64] bitmap
+ * </pre>
+ *
+ * Files are recognized by their first four bytes, so they can be given anywhere a LibSVM file is accepted.
+ *
+ * @author jfoley.
+ */
+public class BinaryDataset {
+  /** "RLBD" */
+  public static final int MAGIC = 0x44424c52;
+  public static final int VERSION = 1;
+  static final int HAS_DESCRIPTIONS = 1;
+  private static final int HEADER_SIZE = 24;
+  /** Largest piece of a file mapped at once. */
+  private static final long MAX_MAP = 1L << 30;
+  /** Feature columns are mapped in windows of 2^COLUMN_WINDOW_BITS floats, i.e. MAX_MAP bytes. */
+  private static final int COLUMN_WINDOW_BITS = 28;
+
+  /** Whether a file starts with {@link #MAGIC}. */
+  public static boolean isBinary(String file) {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return Integer.reverseBytes(in.readInt()) == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** Write a matrix (every row of it) to a file. The file is replaced atomically. */
+  public static void write(FeatureMatrix fm, String file) {
+    int rows = fm.rows();
+    int queries = fm.queryCount();
+    int maxFeature = fm.getMaxFeature();
+    boolean hasDescriptions = false;
+    for (int i = 0; i < rows && !hasDescriptions; i++) {
+      hasDescriptions = fm.getDescription(i) != null;
+    }
+
+    Path target = Paths.get(file).toAbsolutePath();
+    Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      Output o = new Output(out);
+      o.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(queries).putInt(maxFeature).putInt(hasDescriptions ? HAS_DESCRIPTIONS : 0);
+      // the directory is filled in at the end
+      long directory = o.align();
+      long[] columnPos = new long[maxFeature+1];
+      long[] bitmapPos = new long[maxFeature+1];
+      o.skip(16L * (maxFeature+1));
+
+      o.align();
+      for (int q = 0; q < queries; q++) {
+        o.putInt(fm.getQueryStart(q));
+      }
+      o.putInt(rows);
+
+      o.align();
+      float[] labels = fm.getLabels();
+      for (int i = 0; i < rows; i++) {
+        o.putFloat(labels[i]);
+      }
+
+      o.align();
+      byte[][] qids = new byte[queries][];
+      int offset = 0;
+      for (int q = 0; q < queries; q++) {
+        qids[q] = fm.getQueryId(q).getBytes(StandardCharsets.UTF_8);
+        o.putInt(offset);
+        offset += qids[q].length;
+      }
+      o.putInt(offset);
+      for (byte[] qid : qids) {
+        o.put(qid);
+      }
+
+      if(hasDescriptions) {
+        o.align();
+        long pos = 0;
+        for (int i = 0; i < rows; i++) {
+          o.putLong(pos);
+          String desc = fm.getDescription(i);
+          if(desc != null) {
+            pos += desc.getBytes(StandardCharsets.UTF_8).length;
+          }
+        }
+        o.putLong(pos);
+        for (int i = 0; i < rows; i++) {
+          String desc = fm.getDescription(i);
+          if(desc != null) {
+            o.put(desc.getBytes(StandardCharsets.UTF_8));
+          }
+        }
+      }
+
+      for (int fid = 1; fid <= maxFeature; fid++) {
+        columnPos[fid] = o.align();
+        float[] column = fm.readColumn(fid);
+        for (int i = 0; i < rows; i++) {
+          o.putFloat(column[i]);
+        }
+        long[] bits = fm.getKnownBits(fid);
+        if(bits != null) {
+          bitmapPos[fid] = o.align();
+          for (int w = 0; w < (rows + 63) >>> 6; w++) {
+            o.putLong(bits[w]);
+          }
+        }
+      }
+      o.flush();
+
+      ByteBuffer dir = ByteBuffer.allocate(16 * (maxFeature+1)).order(ByteOrder.LITTLE_ENDIAN);
+      for (long p : columnPos) dir.putLong(p);
+      for (long p : bitmapPos) dir.putLong(p);
+      dir.flip();
+      while (dir.hasRemaining()) {
+        out.write(dir, directory + dir.position());
+      }
+    } catch (IOException e) {
+      throw RankLibError.create("Error in BinaryDataset::write(): cannot write "+file, e);
+    }
+    try {
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw RankLibError.create("Error in BinaryDataset::write(): cannot replace "+file, e);
+    }
+  }
+
+  /** Load a whole file. Feature columns stay in the mapped file; the other sections are read onto the heap. */
+  public static FeatureMatrix read(String file) {
+    return read(file, COLUMN_WINDOW_BITS);
+  }
+
+  static FeatureMatrix read(String file, int windowBits) {
+    try (FileChannel in = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+      ByteBuffer header = map(in, 0, HEADER_SIZE);
+      if(header.getInt() != MAGIC) {
+        throw RankLibError.create("Not a RankLib binary dataset: "+file);
+      }
+      int version = header.getInt();
+      if(version != VERSION) {
+        throw RankLibError.create("Unsupported RankLib binary dataset version "+version+": "+file);
+      }
+      int rows = header.getInt();
+      int queries = header.getInt();
+      int maxFeature = header.getInt();
+      int flags = header.getInt();
+      long pos = align(HEADER_SIZE);
+
+      ByteBuffer dir = map(in, pos, 16L * (maxFeature+1));
+      long[] columnPos = new long[maxFeature+1];
+      long[] bitmapPos = new long[maxFeature+1];
+      dir.asLongBuffer().get(columnPos).get(bitmapPos);
+      pos = align(pos + 16L * (maxFeature+1));
+
+      int[] queryOffsets = new int[queries+1];
+      readInts(in, pos, queryOffsets);
+      pos = align(pos + 4L * (queries+1));
+
+      float[] labels = new float[rows];
+      readFloats(in, pos, labels);
+      pos = align(pos + 4L * rows);
+
+      int[] qidOffsets = new int[queries+1];
+      readInts(in, pos, qidOffsets);
+      pos += 4L * (queries+1);
+      byte[] qidBytes = new byte[qidOffsets[queries]];
+      map(in, pos, qidBytes.length).get(qidBytes);
+      pos += qidBytes.length;
+      String[] queryIds = new String[queries];
+      for (int q = 0; q < queries; q++) {
+        queryIds[q] = new String(qidBytes, qidOffsets[q], qidOffsets[q+1] - qidOffsets[q], StandardCharsets.UTF_8);
+      }
+
+      String[] descriptions = null;
+      if((flags & HAS_DESCRIPTIONS) != 0) {
+        pos = align(pos);
+        descriptions = readDescriptions(in, pos, rows);
+      }
+
+      MappedColumn[] columns = new MappedColumn[maxFeature+1];
+      long window = 1L << windowBits;
+      for (int fid = 1; fid <= maxFeature; fid++) {
+        FloatBuffer[] windows = new FloatBuffer[(int) ((rows + window - 1) / window)];
+        for (int w = 0; w < windows.length; w++) {
+          long from = w * window;
+          windows[w] = map(in, columnPos[fid] + 4L * from, 4L * Math.min(window, rows - from)).asFloatBuffer();
+        }
+        LongBuffer known = null;
+        if(bitmapPos[fid] != 0) {
+          known = map(in, bitmapPos[fid], 8L * ((rows + 63) >>> 6)).asLongBuffer();
+        }
+        columns[fid] = new MappedColumn(windows, windowBits, known, rows);
+      }
+      return new FeatureMatrix(labels, columns, queryOffsets, queryIds, descriptions);
+    } catch (IOException e) {
+      throw RankLibError.create("Error in BinaryDataset::read(): cannot read "+file, e);
+    }
+  }
+
+  private static String[] readDescriptions(FileChannel in, long pos, int rows) throws IOException {
+    long[] offsets = new long[rows+1];
+    readLongs(in, pos, offsets);
+    long blob = pos + 8L * (rows+1);
+
+    String[] descriptions = new String[rows];
+    byte[] tmp = new byte[256];
+    // the blob may be larger than a single mapping allows, so map it piece by piece
+    MappedByteBuffer window = null;
+    long windowStart = 0;
+    for (int i = 0; i < rows; i++) {
+      long start = offsets[i];
+      int length = (int) (offsets[i+1] - start);
+      if(length == 0) continue;
+      if(window == null || start + length > windowStart + window.capacity()) {
+        windowStart = start;
+        window = map(in, blob + start, Math.min(offsets[rows] - start, Math.max(MAX_MAP, length)));
+      }
+      if(tmp.length < length) {
+        tmp = new byte[length * 2];
+      }
+      window.position((int) (start - windowStart));
+      window.get(tmp, 0, length);
+      descriptions[i] = new String(tmp, 0, length, StandardCharsets.UTF_8);
+    }
+    return descriptions;
+  }
+
+  // sections with an entry per row or per query may be larger than a single mapping allows, so they are read piece by piece
+
+  private static void readInts(FileChannel in, long pos, int[] dst) throws IOException {
+    for (int i = 0; i < dst.length; ) {
+      int n = (int) Math.min(dst.length - i, MAX_MAP / 4);
+      map(in, pos + 4L * i, 4L * n).asIntBuffer().get(dst, i, n);
+      i += n;
+    }
+  }
+
+  private static void readLongs(FileChannel in, long pos, long[] dst) throws IOException {
+    for (int i = 0; i < dst.length; ) {
+      int n = (int) Math.min(dst.length - i, MAX_MAP / 8);
+      map(in, pos + 8L * i, 8L * n).asLongBuffer().get(dst, i, n);
+      i += n;
+    }
+  }
+
+  private static void readFloats(FileChannel in, long pos, float[] dst) throws IOException {
+    for (int i = 0; i < dst.length; ) {
+      int n = (int) Math.min(dst.length - i, MAX_MAP / 4);
+      map(in, pos + 4L * i, 4L * n).asFloatBuffer().get(dst, i, n);
+      i += n;
+    }
+  }
+
+  private static MappedByteBuffer map(FileChannel in, long pos, long size) throws IOException {
+    if(size > Integer.MAX_VALUE) {
+      throw RankLibError.create("Error in BinaryDataset: section of "+size+" bytes is too large.");
+    }
+    if(pos + size > in.size()) {
+      throw RankLibError.create("Error in BinaryDataset: file is truncated.");
+    }
+    MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, pos, size);
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    return buf;
+  }
+
+  private static long align(long pos) {
+    return (pos + 7) & ~7L;
+  }
+
+  /**
+   * Reads the rows of a matrix back as points, for datasets that are not stored column-wise.
+   */
+  public static class RowReader implements PointReader {
+    private final FeatureMatrix fm;
+    private int row = -1;
+    private int query = 0;
+
+    public RowReader(FeatureMatrix fm) {
+      this.fm = fm;
+    }
+
+    @Override
+    public boolean next(PointBuilder pb) {
+      if(row + 1 >= fm.rows()) {
+        return false;
+      }
+      row++;
+      while (row >= fm.getQueryEnd(query)) {
+        query++;
+      }
+      pb.reset();
+      pb.setLabel(fm.getLabel(row));
+      pb.setQID(fm.getQueryId(query));
+      String desc = fm.getDescription(row);
+      if(desc != null) {
+        pb.setDescription(desc);
+      }
+      for (int fid = 1; fid <= fm.getMaxFeature(); fid++) {
+        if(fm.isKnown(row, fid)) {
+          pb.set(fid, fm.get(row, fid));
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public String currentLine() {
+      return "row "+row+" of query "+fm.getQueryId(query);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /** Buffered little-endian writes to a channel, keeping track of the position. */
+  private static class Output {
+    private final FileChannel out;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    private long written = 0;
+
+    Output(FileChannel out) {
+      this.out = out;
+    }
+
+    long position() {
+      return written + buf.position();
+    }
+
+    Output putInt(int x) throws IOException { ensure(4); buf.putInt(x); return this; }
+    Output putLong(long x) throws IOException { ensure(8); buf.putLong(x); return this; }
+    Output putFloat(float x) throws IOException { ensure(4); buf.putFloat(x); return this; }
+
+    Output put(byte[] data) throws IOException {
+      for (int i = 0; i < data.length; ) {
+        ensure(1);
+        int n = Math.min(buf.remaining(), data.length - i);
+        buf.put(data, i, n);
+        i += n;
+      }
+      return this;
+    }
+
+    void skip(long n) throws IOException {
+      for (long i = 0; i < n; i++) {
+        ensure(1);
+        buf.put((byte) 0);
+      }
+    }
+
+    /** Pad to an 8-byte boundary; returns the new position. */
+    long align() throws IOException {
+      skip(BinaryDataset.align(position()) - position());
+      return position();
+    }
+
+    private void ensure(int n) throws IOException {
+      if(buf.remaining() < n) flush();
+    }
+
+    void flush() throws IOException {
+      buf.flip();
+      while (buf.hasRemaining()) {
+        written += out.write(buf);
+      }
+      buf.clear();
+    }
+  }
+}
@@ -11,10 +11,13 @@ package ciir.umass.edu.features;
 
 import ciir.umass.edu.learning.*;
 import ciir.umass.edu.utilities.FileUtils;
+import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.RankLibError;
+import ciir.umass.edu.utilities.WorkerThread;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -31,6 +34,7 @@ public class FeatureManager {
 		boolean shuffle = false;
 		int nFold = 0;
 		float tvs = -1;//train-validation split in each fold
+		boolean binary = false;
 		
 		if(args.length < 3)
 		{
@@ -49,6 +53,11 @@ public class FeatureManager {
 			System.out.println("\t-k <fold>\t\tThe number of folds");
 			System.out.println("\t[ -tvs <x \\in [0..1]> ] Train-validation split ratio (x)(1.0-x)");
 			
+			System.out.println("");
+			System.out.println("  [+] Binary conversion");
+			System.out.println("\t-binary\t\t\tConvert each input file into RankLib's binary format, saved as <output dir>/<file name>.bin");
+			System.out.println("\t\t\t\t(binary files load much faster, and can be used anywhere a data file is accepted)");
+
 			System.out.println("");
 			System.out.println("  NOTE: If both -shuffle and -k are specified, the input data will be shuffled and then sequentially partitioned.");
 			System.out.println("");
@@ -67,7 +76,22 @@ public class FeatureManager {
 				tvs = Float.parseFloat(args[++i]);
 			else if(args[i].compareTo("-output")==0)
 				outputDir = FileUtils.makePathStandard(args[++i]);
+			else if(args[i].compareTo("-binary")==0)
+				binary = true;
 		}		
+
+		if(binary)
+		{
+			for(String file : rankingFiles)
+			{
+				String name = FileUtils.getFileName(file) + ".bin";
+				String output = outputDir.isEmpty() ? name : new File(outputDir, name).getPath();
+				Dataset dataset = readInput(file, false, false, true);
+				System.out.print("Saving " + output + "... ");
+				BinaryDataset.write(dataset.getFeatureMatrix(), output);
+				System.out.println("[Done]");
+			}
+		}
 	
 		if(shuffle || nFold > 0)
 		{
@@ -129,9 +153,20 @@ public class FeatureManager {
 	}
 
 	public static Dataset readInput(String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation) {
-		Dataset dataset = new Dataset();
+		return readInput(inputFile, mustHaveRelDoc, useSparseRepresentation, false);
+	}
+
+	/**
+	 * Read a set of rankings from a single file.
+	 * @param inputFile
+	 * @param mustHaveRelDoc
+	 * @param useSparseRepresentation
+	 * @param useColumnarRepresentation Store all feature values in a {@link FeatureMatrix} instead of one object per document.
+	 * @return
+	 */
+	public static Dataset readInput(String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation, boolean useColumnarRepresentation) {
 		try {
-			return readInput(dataset, inputFile, mustHaveRelDoc, useSparseRepresentation);
+			return readInput(Collections.singletonList(inputFile), mustHaveRelDoc, useSparseRepresentation, useColumnarRepresentation);
 		} catch (RankLibError rle) {
 			throw new RuntimeException("Error parsing inputFile: '"+inputFile+"'",rle);
 		}
@@ -145,66 +180,144 @@ public class FeatureManager {
 	 * @return
 	 */
 	public static Dataset readInput(Dataset dataset, String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation)
+	{
+		return readInput(dataset, inputFile, mustHaveRelDoc, useSparseRepresentation, true);
+	}
+	static Dataset readInput(Dataset dataset, String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation, boolean verbose)
 	{
 		dataset.inputFiles.add(inputFile);
 
-		int countRL = 0;
-		int countEntries = 0;
 		try {
-			String content = "";
-			BufferedReader in;
-			if(inputFile.endsWith(".gz")) {
-				in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(inputFile)), "UTF-8"));
-			} else {
-				in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
-			}
-
-			String lastID = "";
-			boolean hasRel = false;
-			List<DataPoint> rl = new ArrayList<>();
-			while((content = in.readLine()) != null)
+			PointReader reader;
+			if(BinaryDataset.isBinary(inputFile))
 			{
-				content = content.trim();
-				if(content.length() == 0)
-					continue;
-				if(content.indexOf("#")==0)
-					continue;
-				
-				if(countEntries % 10000 == 0)
-					System.out.print("\rReading feature file [" + inputFile + "]: " + countRL + "... ");
-
-				try {
-					PointBuilder pb = LibSVMFormat.parsePoint(content, dataset);
-					DataPoint qp = useSparseRepresentation ? pb.toSparsePoint() : pb.toDensePoint();
-
-					if(lastID.compareTo("")!=0 && lastID.compareTo(qp.getID())!=0)
+				FeatureMatrix fm = BinaryDataset.read(inputFile);
+				//an empty columnar dataset can use the loaded columns as they are
+				if(dataset.isColumnar() && dataset.samples.isEmpty() && (!mustHaveRelDoc || everyQueryHasRelDoc(fm)))
+				{
+					dataset.setFeatureMatrix(fm);
+					if(verbose)
 					{
-						if(!mustHaveRelDoc || hasRel)
-							dataset.samples.add(new RankList(rl));
-						rl = new ArrayList<>();
-						hasRel = false;
+						System.out.println("Reading feature file [" + inputFile + "]... [Done.]");
+						System.out.println("(" + dataset.samples.size() + " ranked lists, " + fm.rows() + " entries read)");
 					}
-
-					if(qp.getLabel() > 0)
-						hasRel = true;
-					lastID = qp.getID();
-					rl.add(qp);
-					countEntries++;
-				} catch (Throwable err) {
-					throw new RankLibError(content, err);
+					return dataset;
 				}
+				reader = new BinaryDataset.RowReader(fm);
+			}
+			else
+				reader = openReader(inputFile);
+			int countEntries = readPoints(dataset, reader, inputFile, mustHaveRelDoc, useSparseRepresentation, verbose);
+			reader.close();
+			if(verbose)
+			{
+				System.out.println("\rReading feature file [" + inputFile + "]... [Done.]            ");
+				System.out.println("(" + dataset.samples.size() + " ranked lists, " + countEntries + " entries read)");
 			}
-			if(rl.size() > 0 && (!mustHaveRelDoc || hasRel))
-				dataset.samples.add(new RankList(rl));
-			in.close();
-			System.out.println("\rReading feature file [" + inputFile + "]... [Done.]            ");
-			System.out.println("(" + dataset.samples.size() + " ranked lists, " + countEntries + " entries read)");
 		}
 		catch(Exception ex) {
 			throw RankLibError.create("Error in FeatureManager::readInput(): ", ex);
 		}
 		return dataset;
 	}
+	/**
+	 * Open a data file for reading one point at a time, whatever its format.
+	 * @param inputFile
+	 * @return
+	 */
+	public static PointReader openReader(String inputFile)
+	{
+		if(BinaryDataset.isBinary(inputFile))
+			return new BinaryDataset.RowReader(BinaryDataset.read(inputFile));
+		try {
+			InputStream in = new FileInputStream(inputFile);
+			if(inputFile.endsWith(".gz"))
+				in = new GZIPInputStream(in);
+			return new LibSVMReader(in);
+		}
+		catch(IOException ex) {
+			throw RankLibError.create("Error in FeatureManager::openReader(): ", ex);
+		}
+	}
+	/**
+	 * Add every point of a reader to a dataset, grouping consecutive points with the same qid into ranked lists.
+	 * @return the number of points read.
+	 */
+	static int readPoints(Dataset dataset, PointReader reader, String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation, boolean verbose)
+	{
+		int countRL = 0;
+		int countEntries = 0;
+		//columnar datasets get their rows appended to the matrix, without creating a DataPoint per document
+		FeatureMatrix matrix = dataset.getFeatureMatrix();
+		//a single builder is reused for every line
+		PointBuilder pb = dataset.makePointBuilder();
+		String lastID = "";
+		boolean hasRel = false;
+		List<DataPoint> rl = new ArrayList<>();
+		int pending = 0;//rows read for the current ranked list
+		while(reader.next(pb))
+		{
+			if(verbose && countEntries % 10000 == 0)
+				System.out.print("\rReading feature file [" + inputFile + "]: " + countRL + "... ");
+
+			try {
+				if(lastID.compareTo("")!=0 && lastID.compareTo(pb.getQID())!=0)
+				{
+					addRankList(dataset, rl, lastID, !mustHaveRelDoc || hasRel);
+					rl = new ArrayList<>();
+					pending = 0;
+					hasRel = false;
+				}
+
+				if(pb.getLabel() > 0)
+					hasRel = true;
+				lastID = pb.getQID();
+				if(matrix != null)
+					matrix.addRow(pb);
+				else
+					rl.add(useSparseRepresentation ? pb.toSparsePoint() : pb.toDensePoint());
+				pending++;
+				countEntries++;
+			} catch (Throwable err) {
+				throw new RankLibError(reader.currentLine(), err);
+			}
+		}
+		if(pending > 0)
+			addRankList(dataset, rl, lastID, !mustHaveRelDoc || hasRel);
+		if(matrix != null)
+			matrix.trim();
+		return countEntries;
+	}
+	private static boolean everyQueryHasRelDoc(FeatureMatrix fm)
+	{
+		float[] labels = fm.getLabels();
+		for(int q=0;q<fm.queryCount();q++)
+		{
+			boolean hasRel = false;
+			for(int i=fm.getQueryStart(q);i<fm.getQueryEnd(q) && !hasRel;i++)
+				hasRel = labels[i] > 0;
+			if(!hasRel)
+				return false;
+		}
+		return true;
+	}
+	/**
+	 * Finish the ranked list that was just read: either keep it, or throw it away.
+	 * For columnar datasets its rows are already in the matrix and @rl is empty.
+	 */
+	private static void addRankList(Dataset dataset, List<DataPoint> rl, String qid, boolean keep)
+	{
+		FeatureMatrix matrix = dataset.getFeatureMatrix();
+		if(matrix == null) {
+			if(keep)
+				dataset.samples.add(new RankList(rl));
+		} else if(keep) {
+			matrix.endQuery(qid);
+			dataset.samples.add(matrix.getRankList(matrix.queryCount()-1));
+		} else {
+			matrix.dropQuery();
+		}
+	}
 	/**
 	 * Read sets of rankings from multiple files. Then merge them altogether into a single ranking.
 	 * @param inputFiles
@@ -212,10 +325,48 @@ public class FeatureManager {
 	 */
 	public static Dataset readInput(List<String> inputFiles)
 	{
-		Dataset dataset = new Dataset();
-		for(int i=0;i<inputFiles.size();i++) {
-			readInput(dataset, inputFiles.get(i), false, false);
+		return readInput(inputFiles, false, false, false);
+	}
+	/**
+	 * Read sets of rankings from multiple files, using every thread of the pool, and merge them into a single dataset
+	 * in which ranked lists keep the order they have in the files. Large (uncompressed, text) files are split into
+	 * pieces that start and end on query boundaries, so a single file is also read in parallel.
+	 * @param inputFiles
+	 * @param mustHaveRelDoc
+	 * @param useSparseRepresentation
+	 * @param useColumnarRepresentation
+	 * @return
+	 */
+	public static Dataset readInput(List<String> inputFiles, boolean mustHaveRelDoc, boolean useSparseRepresentation, boolean useColumnarRepresentation)
+	{
+		MyThreadPool p = MyThreadPool.getInstance();
+		List<FileChunk> chunks = new ArrayList<>();
+		for(String inputFile : inputFiles)
+			chunks.addAll(FileChunk.split(inputFile, p.size()));
+
+		Dataset dataset;
+		if(chunks.size() == 1)
+		{
+			dataset = new Dataset();
+			if(useColumnarRepresentation)
+				dataset.toColumnar();
+			return readInput(dataset, inputFiles.get(0), mustHaveRelDoc, useSparseRepresentation, true);
 		}
+
+		System.out.print("Reading feature file(s) " + inputFiles + " in " + chunks.size() + " pieces... ");
+		Dataset[] parts = new Dataset[chunks.size()];
+		RankLibError[] errors = new RankLibError[chunks.size()];
+		p.execute(new ChunkReader(chunks, parts, errors, mustHaveRelDoc, useSparseRepresentation, useColumnarRepresentation), chunks.size());
+		for(RankLibError err : errors)
+			if(err != null)
+				throw err;
+		dataset = Dataset.concat(Arrays.asList(parts));
+
+		int countEntries = 0;
+		for(RankList rl : dataset.samples)
+			countEntries += rl.size();
+		System.out.println("[Done.]");
+		System.out.println("(" + dataset.samples.size() + " ranked lists, " + countEntries + " entries read)");
 		return dataset;
 	}
 	/**
@@ -405,4 +556,41 @@ public class FeatureManager {
 			out.newLine();
 		}
 	}
+
+	/**
+	 * Reads a range of pieces of the input, each into its own dataset.
+	 */
+	static class ChunkReader extends WorkerThread {
+		private final List<FileChunk> chunks;
+		private final Dataset[] parts;
+		private final RankLibError[] errors;
+		private final boolean mustHaveRelDoc;
+		private final boolean useSparseRepresentation;
+		private final boolean useColumnarRepresentation;
+
+		ChunkReader(List<FileChunk> chunks, Dataset[] parts, RankLibError[] errors, boolean mustHaveRelDoc, boolean useSparseRepresentation, boolean useColumnarRepresentation)
+		{
+			this.chunks = chunks;
+			this.parts = parts;
+			this.errors = errors;
+			this.mustHaveRelDoc = mustHaveRelDoc;
+			this.useSparseRepresentation = useSparseRepresentation;
+			this.useColumnarRepresentation = useColumnarRepresentation;
+		}
+		public void run()
+		{
+			for(int i=start;i<=end;i++)
+			{
+				try {
+					parts[i] = chunks.get(i).read(mustHaveRelDoc, useSparseRepresentation, useColumnarRepresentation);
+				} catch (Throwable err) {
+					errors[i] = new RankLibError("Error parsing inputFile: '" + chunks.get(i) + "'", err);
+				}
+			}
+		}
+		public WorkerThread clone()
+		{
+			return new ChunkReader(chunks, parts, errors, mustHaveRelDoc, useSparseRepresentation, useColumnarRepresentation);
+		}
+	}
 }
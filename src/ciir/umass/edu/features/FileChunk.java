@@ -0,0 +1,143 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.PointBuilder;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A piece of an input file that can be read independently of the others: either the whole file, or a byte range of
+ * a LibSVM text file that starts and ends where the qid changes, so that no ranked list is split across pieces.
+ *
+ * @author jfoley.
+ */
+public class FileChunk {
+  /** Files are not split into pieces smaller than this. */
+  static final long MIN_CHUNK_SIZE = 32L << 20;
+
+  final String file;
+  /** Byte range [start, end) of the file, or -1 for the whole file. */
+  final long start;
+  final long end;
+
+  FileChunk(String file, long start, long end) {
+    this.file = file;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Cut a file into about @pieces chunks of similar size. Compressed and binary files, and small files, are not cut.
+   */
+  public static List<FileChunk> split(String file, int pieces) {
+    return split(file, pieces, MIN_CHUNK_SIZE);
+  }
+
+  static List<FileChunk> split(String file, int pieces, long minChunkSize) {
+    long size = new File(file).length();
+    pieces = (int) Math.min(pieces, size / minChunkSize);
+    if(pieces <= 1 || file.endsWith(".gz") || BinaryDataset.isBinary(file)) {
+      return Collections.singletonList(new FileChunk(file, -1, -1));
+    }
+
+    List<FileChunk> chunks = new ArrayList<>();
+    try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+      long start = 0;
+      for (int i = 1; i <= pieces && start < size; i++) {
+        long end = (i == pieces) ? size : nextQueryBoundary(ch, Math.max(start, size / pieces * i), size);
+        if(end > start) {
+          chunks.add(new FileChunk(file, start, end));
+          start = end;
+        }
+      }
+    } catch (IOException e) {
+      throw RankLibError.create("Error in FileChunk::split(): cannot read "+file, e);
+    }
+    return chunks;
+  }
+
+  /**
+   * The offset of the first line, after @pos, whose qid differs from that of the line containing @pos.
+   * Blank and comment lines are skipped. Returns @size if there is no such line.
+   */
+  static long nextQueryBoundary(FileChannel ch, long pos, long size) {
+    if(pos <= 0) return 0;
+    if(pos >= size) return size;
+    // start one byte early: if pos is the start of a line, the "partial" line skipped below is empty
+    LibSVMReader reader = new LibSVMReader(new RangeInputStream(ch, pos - 1, size));
+    reader.skipLine();
+    PointBuilder pb = new Dataset().makePointBuilder();
+    String qid = null;
+    while (reader.next(pb)) {
+      if(qid == null) {
+        qid = pb.getQID();
+      } else if(!qid.equals(pb.getQID())) {
+        return pos - 1 + reader.getLineOffset();
+      }
+    }
+    return size;
+  }
+
+  /** Read this piece into a new dataset. */
+  public Dataset read(boolean mustHaveRelDoc, boolean useSparseRepresentation, boolean useColumnarRepresentation) {
+    Dataset dataset = new Dataset();
+    if(useColumnarRepresentation) {
+      dataset.toColumnar();
+    }
+    if(start < 0) {
+      return FeatureManager.readInput(dataset, file, mustHaveRelDoc, useSparseRepresentation, false);
+    }
+
+    dataset.inputFiles.add(file);
+    try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+         LibSVMReader reader = new LibSVMReader(new RangeInputStream(ch, start, end))) {
+      FeatureManager.readPoints(dataset, reader, file, mustHaveRelDoc, useSparseRepresentation, false);
+    } catch (IOException e) {
+      throw RankLibError.create("Error in FileChunk::read(): cannot read "+this, e);
+    }
+    return dataset;
+  }
+
+  @Override
+  public String toString() {
+    return start < 0 ? file : file + "[" + start + ", " + end + ")";
+  }
+
+  /** Reads bytes [start, end) of a channel with positional reads, so the channel's own position is never used. */
+  static class RangeInputStream extends InputStream {
+    private final FileChannel ch;
+    private long pos;
+    private final long end;
+
+    RangeInputStream(FileChannel ch, long start, long end) {
+      this.ch = ch;
+      this.pos = start;
+      this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : (one[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if(pos >= end) return -1;
+      len = (int) Math.min(len, end - pos);
+      int n = ch.read(ByteBuffer.wrap(b, off, len), pos);
+      if(n > 0) pos += n;
+      return n;
+    }
+  }
+}
@@ -0,0 +1,365 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.PointBuilder;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming reader for LibSVM/LETOR files that works directly on bytes: lines are tokenized in place and labels,
+ * feature ids and values are parsed without creating temporary Strings. Only the qid (when it changes) and the
+ * trailing "# ..." description of each line become Strings.
+ *
+ * It accepts exactly what {@link LibSVMFormat#parsePoint(String, ciir.umass.edu.learning.Dataset)} accepts, and
+ * fills a caller-supplied {@link PointBuilder} that is {@link PointBuilder#reset() reset} for every line, so
+ * reading a file needs a single builder.
+ *
+ * @author jfoley.
+ */
+public class LibSVMReader implements PointReader {
+  private static final int BUFFER_SIZE = 1 << 16;
+  /** Exact powers of ten as doubles; 10^22 is the largest one. */
+  private static final double[] POW10 = new double[23];
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i-1] * 10;
+    }
+  }
+
+  private final InputStream in;
+  private byte[] buf;
+  /** Unread bytes are buf[pos, limit). */
+  private int pos;
+  private int limit;
+  private boolean eof;
+
+  /** The current line is buf[lineStart, lineEnd). */
+  private int lineStart = 0;
+  private int lineEnd = 0;
+  private long lineNumber = 0;
+  /** Offset, within the input, of buf[0]. */
+  private long bufferOffset;
+
+  /** The qid of the previous line; reused when the next line has the same bytes. */
+  private String lastQid = null;
+  private byte[] lastQidBytes = new byte[16];
+  private int lastQidLength = -1;
+
+  public LibSVMReader(InputStream in) {
+    this.in = in;
+    this.buf = new byte[BUFFER_SIZE];
+    this.pos = 0;
+    this.limit = 0;
+    this.eof = false;
+    this.bufferOffset = 0;
+  }
+
+  /** Read lines out of data[start, end) only. The array is not copied, nor modified. */
+  public LibSVMReader(byte[] data, int start, int end) {
+    this.in = null;
+    this.buf = data;
+    this.pos = start;
+    this.limit = end;
+    this.eof = true;
+    this.bufferOffset = -start;
+  }
+
+  /**
+   * Parse the next data line (blank lines and lines starting with '#' are skipped) into a builder.
+   * @param pb a builder; it is reset first.
+   * @return false, leaving the builder untouched, if there are no more lines.
+   */
+  @Override
+  public boolean next(PointBuilder pb) {
+    while (nextLine()) {
+      int start = skipSpace(lineStart, lineEnd);
+      int end = lineEnd;
+      while (end > start && buf[end-1] <= ' ' && buf[end-1] >= 0) end--;
+      if(start == end || buf[start] == '#') {
+        continue;
+      }
+      pb.reset();
+      parse(pb, start, end);
+      return true;
+    }
+    return false;
+  }
+
+  /** Skip the rest of the current line (e.g. when starting in the middle of a file) without parsing it. */
+  public boolean skipLine() {
+    return nextLine();
+  }
+
+  /** Offset of the first byte of the current line, counted from the start of the input. */
+  public long getLineOffset() {
+    return bufferOffset + lineStart;
+  }
+
+  /** Number of lines seen so far, including the current one. */
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  /** The text of the current line; for error messages. */
+  @Override
+  public String currentLine() {
+    return new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8).trim();
+  }
+
+  private void parse(PointBuilder pb, int start, int end) {
+    try {
+      // the description is everything from the first '#', as in LibSVMFormat
+      for (int i = start; i < end; i++) {
+        if(buf[i] == '#') {
+          pb.setDescription(new String(buf, i, end - i, StandardCharsets.UTF_8));
+          end = i;
+          break;
+        }
+      }
+
+      int tokEnd = skipToken(start, end);
+      float label = parseFloat(start, tokEnd);
+      if(label < 0) {
+        System.out.println("Relevance label cannot be negative. System will now exit.");
+        System.exit(1);
+      }
+      pb.setLabel(label);
+
+      start = skipSpace(tokEnd, end);
+      if(start == end) {
+        throw RankLibError.create("Missing qid.");
+      }
+      tokEnd = skipToken(start, end);
+      pb.setQID(qid(lastIndexOf(':', start, tokEnd) + 1, tokEnd));
+
+      for (start = skipSpace(tokEnd, end); start < end; start = skipSpace(tokEnd, end)) {
+        tokEnd = skipToken(start, end);
+        int keyEnd = indexOf(':', start, tokEnd);
+        if(keyEnd < 0) {
+          throw RankLibError.create("Expected <fid>:<value>, found: "+new String(buf, start, tokEnd - start, StandardCharsets.UTF_8));
+        }
+        int f = parseInt(start, keyEnd);
+        if(f <= 0) throw RankLibError.create("Cannot use feature numbering less than or equal to zero. Start your features at 1.");
+
+        pb.set(f, parseFloat(lastIndexOf(':', keyEnd, tokEnd) + 1, tokEnd));
+      }
+    } catch (Exception ex) {
+      throw new RankLibError("Error in LibSVMReader::next() at line "+lineNumber+": "+currentLine(), ex);
+    }
+  }
+
+  /** Advance to the next line, refilling the buffer if needed. */
+  private boolean nextLine() {
+    int scan = pos;
+    while (true) {
+      for (int i = scan; i < limit; i++) {
+        if(buf[i] == '\n') {
+          lineStart = pos;
+          lineEnd = i;
+          pos = i + 1;
+          lineNumber++;
+          return true;
+        }
+      }
+      scan = limit;
+      if(eof) {
+        if(pos == limit) {
+          return false;
+        }
+        // last line, without a newline
+        lineStart = pos;
+        lineEnd = limit;
+        pos = limit;
+        lineNumber++;
+        return true;
+      }
+      scan -= pos;
+      fill();
+    }
+  }
+
+  /** Move the unread bytes to the front of the buffer (growing it for very long lines) and read more after them. */
+  private void fill() {
+    int remaining = limit - pos;
+    if(remaining == buf.length) {
+      byte[] bigger = new byte[buf.length * 2];
+      System.arraycopy(buf, pos, bigger, 0, remaining);
+      buf = bigger;
+    } else {
+      System.arraycopy(buf, pos, buf, 0, remaining);
+    }
+    bufferOffset += pos;
+    pos = 0;
+    limit = remaining;
+    try {
+      int n = in.read(buf, limit, buf.length - limit);
+      if(n < 0) {
+        eof = true;
+      } else {
+        limit += n;
+      }
+    } catch (IOException e) {
+      throw RankLibError.create(e);
+    }
+  }
+
+  private String qid(int start, int end) {
+    int n = end - start;
+    if(lastQid != null && n == lastQidLength) {
+      boolean same = true;
+      for (int i = 0; i < n; i++) {
+        if(buf[start+i] != lastQidBytes[i]) {
+          same = false;
+          break;
+        }
+      }
+      if(same) return lastQid;
+    }
+    if(lastQidBytes.length < n) {
+      lastQidBytes = new byte[n * 2];
+    }
+    System.arraycopy(buf, start, lastQidBytes, 0, n);
+    lastQidLength = n;
+    lastQid = new String(buf, start, n, StandardCharsets.UTF_8);
+    return lastQid;
+  }
+
+  private int skipSpace(int i, int end) {
+    while (i < end && buf[i] <= ' ' && buf[i] >= 0) i++;
+    return i;
+  }
+
+  private int skipToken(int i, int end) {
+    while (i < end && (buf[i] > ' ' || buf[i] < 0)) i++;
+    return i;
+  }
+
+  private int indexOf(char c, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if(buf[i] == c) return i;
+    }
+    return -1;
+  }
+
+  private int lastIndexOf(char c, int start, int end) {
+    for (int i = end - 1; i >= start; i--) {
+      if(buf[i] == c) return i;
+    }
+    return start - 1;
+  }
+
+  /** Same results as Integer.parseInt on the text of buf[start, end). */
+  int parseInt(int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if(i < end && (buf[i] == '-' || buf[i] == '+')) {
+      negative = buf[i] == '-';
+      i++;
+    }
+    // up to 9 digits cannot overflow
+    if(i == end || end - i > 9) {
+      return Integer.parseInt(text(start, end));
+    }
+    int value = 0;
+    for (; i < end; i++) {
+      int d = buf[i] - '0';
+      if(d < 0 || d > 9) {
+        return Integer.parseInt(text(start, end));
+      }
+      value = value * 10 + d;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Same results as Float.parseFloat on the text of buf[start, end).
+   *
+   * Plain decimals with at most 18 significant digits and a small exponent are computed as one exact double
+   * multiplication or division, which is correctly rounded; rounding that double to float is then exact unless the
+   * double landed on a point halfway between two floats. Anything else goes through Float.parseFloat.
+   */
+  float parseFloat(int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if(i < end && (buf[i] == '-' || buf[i] == '+')) {
+      negative = buf[i] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;//significant digits in mantissa
+    int exponent = 0;
+    boolean any = false;
+    for (; i < end; i++) {
+      int d = buf[i] - '0';
+      if(d < 0 || d > 9) break;
+      any = true;
+      if(mantissa == 0 && d == 0) continue;
+      if(++digits > 18) return slowFloat(start, end);
+      mantissa = mantissa * 10 + d;
+    }
+    if(i < end && buf[i] == '.') {
+      for (i++; i < end; i++) {
+        int d = buf[i] - '0';
+        if(d < 0 || d > 9) break;
+        any = true;
+        exponent--;
+        if(mantissa == 0 && d == 0) continue;
+        if(++digits > 18) return slowFloat(start, end);
+        mantissa = mantissa * 10 + d;
+      }
+    }
+    if(!any) return slowFloat(start, end);
+    if(i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+      i++;
+      boolean negativeExp = false;
+      if(i < end && (buf[i] == '-' || buf[i] == '+')) {
+        negativeExp = buf[i] == '-';
+        i++;
+      }
+      if(i == end || end - i > 3) return slowFloat(start, end);
+      int e = 0;
+      for (; i < end; i++) {
+        int d = buf[i] - '0';
+        if(d < 0 || d > 9) return slowFloat(start, end);
+        e = e * 10 + d;
+      }
+      exponent += negativeExp ? -e : e;
+    }
+    if(i != end) return slowFloat(start, end);
+
+    if(mantissa == 0) {
+      return negative ? -0f : 0f;
+    }
+    if(mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+      return slowFloat(start, end);
+    }
+    double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+    if(value < Float.MIN_NORMAL || value > Float.MAX_VALUE) {
+      return slowFloat(start, end);
+    }
+    // the 29 low bits of the double are dropped when rounding to float: 0x10000000 means exactly halfway
+    if((Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L) {
+      return slowFloat(start, end);
+    }
+    float f = (float) value;
+    return negative ? -f : f;
+  }
+
+  private float slowFloat(int start, int end) {
+    return Float.parseFloat(text(start, end));
+  }
+
+  private String text(int start, int end) {
+    return new String(buf, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(in != null) {
+      in.close();
+    }
+  }
+}
@@ -58,6 +58,25 @@ public class LinearNormalizer extends Normalizer {
       }
     }
   }
+  @Override
+  protected boolean normalize(float[] column, int start, int end)
+  {
+    float min = 0;
+    float max = 0;
+    for(int i=start;i<end;i++)
+    {
+      min = Math.min(min, column[i]);
+      max = Math.max(max, column[i]);
+    }
+    for(int i=start;i<end;i++)
+    {
+      if(max > min)
+        column[i] = (column[i] - min) / (max - min);
+      else
+        column[i] = 0;
+    }
+    return true;
+  }
   public String name()
   {
     return "linear";
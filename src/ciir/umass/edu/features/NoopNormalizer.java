@@ -10,6 +10,11 @@ public class NoopNormalizer extends Normalizer {
   @Override
   public void normalize(Dataset ds, RankList rl, int[] fids) { }
 
+  @Override
+  protected boolean normalize(float[] column, int start, int end) {
+    return false;
+  }
+
   @Override
   public String name() {
     return "noop";
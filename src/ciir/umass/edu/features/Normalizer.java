@@ -10,6 +10,7 @@
 package ciir.umass.edu.features;
 
 import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.FeatureMatrix;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.utilities.RankLibError;
 
@@ -34,18 +35,53 @@ public abstract class Normalizer {
 	}
 	public abstract void normalize(Dataset ds, RankList rl, int[] fids);
 
+	/**
+	 * Normalize the rows [start, end) of a single feature column in place -- this is the same as normalizing that
+	 * feature over a ranked list whose points are those rows. Used for columnar datasets.
+	 * @return Whether any value was written.
+	 */
+	protected abstract boolean normalize(float[] column, int start, int end);
+
 	public void normalize(Dataset ds) {
 		if(ds == null) return;
+		if(isColumnar(ds)) {
+			normalize(ds, ds.getFeatureArray());
+			return;
+		}
 		for (RankList sample : ds.samples) {
 			normalize(ds, sample);
 		}
 	}
 	public void normalize(Dataset ds, int[] fids) {
 		if(ds == null) return;
+		if(isColumnar(ds)) {
+			normalize(ds.getFeatureMatrix(), fids);
+			return;
+		}
 		for (RankList sample : ds.samples) {
 			normalize(ds, sample, fids);
 		}
 	}
+	/**
+	 * Normalize every query of a feature matrix, reading the feature columns directly.
+	 */
+	public void normalize(FeatureMatrix fm, int[] fids) {
+		fids = removeDuplicateFeatures(fids);
+		for (int fid : fids) {
+			float[] column = fm.getColumn(fid);
+			for (int q = 0; q < fm.queryCount(); q++) {
+				int start = fm.getQueryStart(q);
+				int end = fm.getQueryEnd(q);
+				if(normalize(column, start, end))
+					fm.markKnown(fid, start, end);
+			}
+		}
+	}
+	/** The column path is only used if the dataset's ranked lists are still exactly the queries of its matrix. */
+	private static boolean isColumnar(Dataset ds) {
+		FeatureMatrix fm = ds.getFeatureMatrix();
+		return fm != null && fm.queryCount() == ds.size();
+	}
 	public void normalizeLists(Dataset ds, List<RankList> list, int[] fids) {
 		if(ds == null) return;
 		for (RankList sample : list) {
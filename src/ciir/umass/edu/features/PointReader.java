@@ -0,0 +1,20 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.PointBuilder;
+
+import java.io.Closeable;
+
+/**
+ * A source of data points, read one at a time into a reusable {@link PointBuilder}.
+ * @author jfoley.
+ */
+public interface PointReader extends Closeable {
+  /**
+   * Fill the builder with the next point.
+   * @return false, leaving the builder untouched, if there are no more points.
+   */
+  boolean next(PointBuilder pb);
+
+  /** A description of the current point, for error messages. */
+  String currentLine();
+}
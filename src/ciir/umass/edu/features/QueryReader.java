@@ -0,0 +1,97 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.PointBuilder;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a data file one ranked list at a time, so that only the current query is ever in memory.
+ * Consecutive points with the same qid make up a ranked list, exactly as in {@link FeatureManager#readInput(String)}.
+ *
+ * @author jfoley.
+ */
+public class QueryReader implements Closeable {
+  private final PointReader reader;
+  private final String inputFile;
+  private final boolean mustHaveRelDoc;
+  private final boolean useSparseRepresentation;
+  /** Never holds any ranked list; it only keeps track of the feature ids seen so far. */
+  private final Dataset dataset = new Dataset();
+  private final PointBuilder pb = dataset.makePointBuilder();
+  /** Whether pb holds a point that was read but belongs to the next ranked list. */
+  private boolean pending = false;
+  private boolean done = false;
+  private int countEntries = 0;
+
+  public QueryReader(String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation) {
+    this.reader = FeatureManager.openReader(inputFile);
+    this.inputFile = inputFile;
+    this.mustHaveRelDoc = mustHaveRelDoc;
+    this.useSparseRepresentation = useSparseRepresentation;
+    dataset.inputFiles.add(inputFile);
+  }
+
+  /**
+   * @return the next ranked list of the file, or null at the end of it.
+   */
+  public RankList next() {
+    while (pending || (!done && advance())) {
+      pending = false;
+      String qid = pb.getQID();
+      List<DataPoint> points = new ArrayList<>();
+      boolean hasRel = false;
+      do {
+        if(!qid.equals(pb.getQID())) {
+          pending = true;
+          break;
+        }
+        try {
+          points.add(useSparseRepresentation ? pb.toSparsePoint() : pb.toDensePoint());
+        } catch (Throwable err) {
+          throw new RankLibError(reader.currentLine(), err);
+        }
+        hasRel |= pb.getLabel() > 0;
+      } while (advance());
+
+      if(!mustHaveRelDoc || hasRel) {
+        return new RankList(points);
+      }
+    }
+    return null;
+  }
+
+  private boolean advance() {
+    if(!done && reader.next(pb)) {
+      countEntries++;
+      return true;
+    }
+    done = true;
+    return false;
+  }
+
+  /** Keeps track of the largest feature id read so far; has no samples. */
+  public Dataset getDataset() {
+    return dataset;
+  }
+
+  /** The number of points read so far, including those of discarded ranked lists. */
+  public int getEntriesRead() {
+    return countEntries;
+  }
+
+  @Override
+  public void close() {
+    try {
+      reader.close();
+    } catch (IOException e) {
+      throw RankLibError.create("Error in QueryReader::close(): cannot close "+inputFile, e);
+    }
+  }
+}
@@ -41,6 +41,17 @@ public class SumNormalizor extends Normalizer {
 					dp.setFeatureValue(fids[j], (float) (dp.getFeatureValue(fids[j]) / norm[j]));
 		}
 	}
+	@Override
+	protected boolean normalize(float[] column, int start, int end) {
+		double norm = 0;
+		for(int i=start;i<end;i++)
+			norm += Math.abs(column[i]);
+		if(norm <= 0)
+			return false;
+		for(int i=start;i<end;i++)
+			column[i] = (float) (column[i] / norm);
+		return true;
+	}
 	public String name()
 	{
 		return "sum";
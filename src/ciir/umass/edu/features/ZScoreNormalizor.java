@@ -54,6 +54,24 @@ public class ZScoreNormalizor extends Normalizer {
 			}
 		}
 	}
+	@Override
+	protected boolean normalize(float[] column, int start, int end) {
+		double mean = 0;
+		for(int i=start;i<end;i++)
+			mean += column[i];
+		mean = mean / (end - start);
+		double std = 0;
+		for(int i=start;i<end;i++) {
+			double x = column[i] - mean;
+			std += x*x;
+		}
+		std = Math.sqrt(std / (end - start - 1));
+		if(!(std > 0.0))
+			return false;
+		for(int i=start;i<end;i++)
+			column[i] = (float) ((column[i] - mean)/std);//x ~ standard normal (0, 1)
+		return true;
+	}
 	public String name()
 	{
 		return "zscore";
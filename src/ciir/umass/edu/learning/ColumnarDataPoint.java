@@ -0,0 +1,98 @@
+package ciir.umass.edu.learning;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * A lightweight view of one row of a {@link FeatureMatrix}. Feature values and the label live in the matrix; this
+ * object only remembers where.
+ */
+public class ColumnarDataPoint extends DataPoint {
+  final FeatureMatrix matrix;
+  final int row;
+
+  ColumnarDataPoint(FeatureMatrix matrix, int row, String qid) {
+    this.matrix = matrix;
+    this.row = row;
+    this.id = qid;
+  }
+
+  public FeatureMatrix getMatrix() {
+    return matrix;
+  }
+
+  public int getRow() {
+    return row;
+  }
+
+  @Override
+  public float getLabel() {
+    return matrix.getLabel(row);
+  }
+
+  @Override
+  public void setLabel(float label) {
+    matrix.setLabel(row, label);
+  }
+
+  @Override
+  public String getDescription() {
+    return matrix.getDescription(row);
+  }
+
+  @Override
+  public void setDescription(String description) {
+    matrix.setDescription(row, description);
+  }
+
+  @Override
+  public boolean hasFeature(int fid) {
+    return matrix.isKnown(row, fid);
+  }
+
+  @Override
+  public float getFeatureValue(int fid) {
+    if(fid <= 0 || fid > matrix.getMaxFeature()) {
+      throw RankLibError.create("Error in ColumnarDataPoint::getFeatureValue(): requesting unspecified feature, fid=" + fid);
+    }
+    return matrix.get(row, fid);
+  }
+
+  @Override
+  public void setFeatureValue(int fid, float fval) {
+    if(fid <= 0 || fid > matrix.getMaxFeature()) {
+      throw RankLibError.create("Error in ColumnarDataPoint::setFeatureValue(): feature (id=" + fid + ") not found.");
+    }
+    matrix.set(row, fid, fval);
+  }
+
+  @Override
+  public void setFeatureVector(float[] dfVals) {
+    int last = Math.min(dfVals.length-1, matrix.getMaxFeature());
+    for (int fid = 1; fid <= last; fid++) {
+      if(!isUnknown(dfVals[fid])) {
+        matrix.set(row, fid, dfVals[fid]);
+      }
+    }
+  }
+
+  /** Returns a copy; unknown values are NaN, as for {@link DenseDataPoint}. */
+  @Override
+  public float[] getFeatureVector() {
+    float[] fVals = new float[matrix.getMaxFeature()+1];
+    fVals[0] = UNKNOWN;
+    for (int fid = 1; fid < fVals.length; fid++) {
+      fVals[fid] = matrix.isKnown(row, fid) ? matrix.get(row, fid) : UNKNOWN;
+    }
+    return fVals;
+  }
+
+  @Override
+  public int getKnownFeatures() {
+    for (int fid = matrix.getMaxFeature(); fid > 0; fid--) {
+      if(matrix.isKnown(row, fid)) {
+        return fid+1;
+      }
+    }
+    return 0;
+  }
+}
@@ -239,6 +239,16 @@ public class CoorAscent extends Ranker {
 			score += weight[i] * p.getFeatureValue(features[i]);
 		return score;
 	}
+	@Override
+	public void scoreBatch(RankList rl, double[] out)
+	{
+		scoreLinear(rl, features, weight, 0.0, out);
+	}
+	@Override
+	public boolean isStatelessEval()
+	{
+		return true;
+	}
 	public Ranker createNew()
 	{
 		return new CoorAscent();
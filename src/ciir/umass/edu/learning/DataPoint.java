@@ -116,11 +116,11 @@ public abstract class DataPoint {
 	{
 		float[] fVals = getFeatureVector();
 		StringBuilder output = new StringBuilder();
-		output.append((int) label).append(" ").append("qid:").append(id).append(" ");
+		output.append((int) getLabel()).append(" ").append("qid:").append(id).append(" ");
 		for(int i=1;i<fVals.length;i++)
 			if(!isUnknown(fVals[i]))
 				output.append(i).append(":").append(fVals[i]).append((i == fVals.length - 1) ? "" : " ");
-		output.append(" ").append(description);
+		output.append(" ").append(getDescription());
 		return output.toString();
 	}
 
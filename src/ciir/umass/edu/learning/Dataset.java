@@ -1,5 +1,7 @@
 package ciir.umass.edu.learning;
 
+import ciir.umass.edu.utilities.RankLibError;
+
 import java.util.*;
 
 /**
@@ -15,6 +17,9 @@ public class Dataset extends AbstractList<RankList> {
   /** Datastorage */
   public List<RankList> samples;
 
+  /** Column-wise storage behind {@link #samples}, if this dataset is columnar; see {@link #toColumnar()}. */
+  FeatureMatrix matrix = null;
+
   public Dataset() {
     this.inputFiles = new ArrayList<>();
     this.samples = new ArrayList<>();
@@ -39,6 +44,81 @@ public class Dataset extends AbstractList<RankList> {
     return samples.set(i, rl);
   }
 
+  /**
+   * Whether this dataset keeps its feature values in a {@link FeatureMatrix}. Readers use this to decide whether
+   * to append rows to the matrix rather than create a separate object for each document.
+   */
+  public boolean isColumnar() {
+    return matrix != null;
+  }
+
+  /** The column-wise storage behind this dataset, or null if its points are stored one by one. */
+  public FeatureMatrix getFeatureMatrix() {
+    return matrix;
+  }
+
+  /**
+   * Switch this dataset to column-wise storage: every point is copied into a {@link FeatureMatrix} and the rank lists
+   * are replaced by views over it. An empty dataset simply starts accepting rows into a new matrix.
+   * @return this dataset.
+   */
+  public Dataset toColumnar() {
+    if(matrix == null) {
+      if(samples.isEmpty()) {
+        matrix = new FeatureMatrix();
+      } else {
+        matrix = FeatureMatrix.fromRankLists(samples, maxFeaturePosition);
+        samples = matrix.toRankLists();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Make an empty dataset columnar, using an existing matrix (e.g. one loaded from disk) as its storage.
+   * @return this dataset.
+   */
+  public Dataset setFeatureMatrix(FeatureMatrix fm) {
+    if(!samples.isEmpty()) {
+      throw RankLibError.create("Error in Dataset::setFeatureMatrix(): cannot replace the storage of a non-empty Dataset.");
+    }
+    matrix = fm;
+    samples = fm.toRankLists();
+    resizeToFit(fm.getMaxFeature());
+    return this;
+  }
+
+  /**
+   * Put datasets (e.g. read in parallel from pieces of the same files) end to end, keeping the order of their rank
+   * lists. If every part is columnar, so is the result, with a single matrix.
+   */
+  public static Dataset concat(List<Dataset> parts) {
+    Dataset ds = new Dataset();
+    boolean columnar = !parts.isEmpty();
+    for (Dataset part : parts) {
+      for (String file : part.inputFiles) {
+        if(!ds.inputFiles.contains(file)) {
+          ds.inputFiles.add(file);
+        }
+      }
+      ds.maxFeature = Math.max(ds.maxFeature, part.maxFeature);
+      ds.maxFeaturePosition = Math.max(ds.maxFeaturePosition, part.maxFeaturePosition);
+      columnar &= part.isColumnar();
+    }
+    if(columnar) {
+      List<FeatureMatrix> matrices = new ArrayList<>(parts.size());
+      for (Dataset part : parts) {
+        matrices.add(part.matrix);
+      }
+      ds.setFeatureMatrix(FeatureMatrix.concat(matrices));
+    } else {
+      for (Dataset part : parts) {
+        ds.samples.addAll(part.samples);
+      }
+    }
+    return ds;
+  }
+
   public PointBuilder makePointBuilder() {
     return new PointBuilder(this);
   }
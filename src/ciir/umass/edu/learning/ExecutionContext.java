@@ -0,0 +1,71 @@
+package ciir.umass.edu.learning;
+
+import ciir.umass.edu.utilities.WorkStealingPool;
+
+import java.util.Random;
+
+/**
+ * What a {@link Ranker} trains with besides its data and its parameters: the threads it may use, and its per-model
+ * sampling settings. Every Ranker has its own, so several rankers can train at once in one JVM -- e.g. the trials of a
+ * hyper-parameter search, over one shared {@link Dataset} -- without stepping on each other.
+ *
+ * A default context runs on the process-wide {@link WorkStealingPool} (sized by -thread); a context may instead own a pool.
+ *
+ * @author jfoley
+ */
+public class ExecutionContext {
+  private final WorkStealingPool pool; // null for the process-wide pool
+  private final Random random;
+  /** The fraction of features tree splits are chosen from, sampled anew for each split (random forests use < 1). */
+  public float featureSamplingRate = 1;
+
+  /** Use the process-wide pool. */
+  public ExecutionContext() {
+    this(null, new Random());
+  }
+
+  /** Use a pool of @nThreads threads of its own. */
+  public ExecutionContext(int nThreads) {
+    this(new WorkStealingPool(nThreads), new Random());
+  }
+
+  /** Use a pool of @nThreads threads of its own, and draw random samples from a generator seeded with @seed. */
+  public ExecutionContext(int nThreads, long seed) {
+    this(new WorkStealingPool(nThreads), new Random(seed));
+  }
+
+  private ExecutionContext(WorkStealingPool pool, Random random) {
+    this.pool = pool;
+    this.random = random;
+  }
+
+  public WorkStealingPool getPool() {
+    return pool == null ? WorkStealingPool.getInstance() : pool;
+  }
+
+  public int getParallelism() {
+    return getPool().size();
+  }
+
+  /** Where all the random sampling of training (bags, features...) comes from. */
+  public Random getRandom() {
+    return random;
+  }
+
+  /** @return a context sharing the pool and random generator of this one, with sampling settings of its own. */
+  public ExecutionContext copy() {
+    ExecutionContext copy = new ExecutionContext(pool, random);
+    copy.featureSamplingRate = featureSamplingRate;
+    return copy;
+  }
+
+  /**
+   * @return a context sharing the pool of this one, with a random generator of its own seeded with @seed: models trained
+   * at once (e.g. the bags of a forest) then each sample the same way, whichever finishes first.
+   */
+  public ExecutionContext copy(long seed) {
+    ExecutionContext copy = new ExecutionContext(pool, new Random(seed));
+    copy.featureSamplingRate = featureSamplingRate;
+    return copy;
+  }
+}
@@ -0,0 +1,522 @@
+package ciir.umass.edu.learning;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column-major storage for a whole {@link Dataset}: one contiguous float column per feature, plus a label column
+ * and the row offsets of each query. Rows of the same query are always contiguous.
+ *
+ * Unknown feature values are stored as 0 (which is what {@link DataPoint#getFeatureValue(int)} reports for them);
+ * whether a value was actually given is tracked in a per-column bitmap, which is dropped by {@link #trim()} once
+ * every row of the column is known.
+ *
+ * {@link RankList}s handed out by this class are made of {@link ColumnarDataPoint} views, so code that reads
+ * points one at a time keeps working while learners can read {@link #getColumn(int)} directly.
+ *
+ * Columns loaded from a binary dataset may stay in the mapped file ({@link MappedColumn}): they are read in place
+ * through {@link #get(int, int)}, and only copied onto the heap when they are changed or asked for as an array.
+ */
+public class FeatureMatrix {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** columns[fid][row]; columns[0] is unused, like DataPoint.fVals[0]. */
+  private float[][] columns;
+  /** known[fid] has bit (row) set if the value was given; null means every row is known. */
+  private long[][] known;
+  /** mapped[fid], if set, holds column fid instead of columns[fid] and known[fid], which are then null. */
+  private MappedColumn[] mapped = null;
+  private float[] labels;
+  /** Per-row comments ("# ..."); allocated once the first one is seen. */
+  private String[] descriptions = null;
+  private int rows = 0;
+  private int capacity;
+  private int maxFeature = 0;
+
+  /** queryOffsets[q] is the first row of query q; queryOffsets[queryCount] == rows once a query is closed. */
+  private int[] queryOffsets = new int[16];
+  private String[] queryIds = new String[16];
+  private int queries = 0;
+
+  public FeatureMatrix() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public FeatureMatrix(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    this.columns = new float[1][];
+    this.known = new long[1][];
+    this.labels = new float[this.capacity];
+  }
+
+  /**
+   * Wrap arrays that were built elsewhere, e.g. loaded from disk; they are used as-is, not copied.
+   * @param labels one label per row.
+   * @param columns columns[fid] for fid in [1, columns.length), each with one value per row; columns[0] is ignored.
+   * @param known bitmaps as returned by {@link #getKnownBits(int)}; may be null if every value is known.
+   * @param queryOffsets first row of each query, followed by the total number of rows.
+   * @param queryIds one id per query.
+   * @param descriptions one per row, or null.
+   */
+  public FeatureMatrix(float[] labels, float[][] columns, long[][] known, int[] queryOffsets, String[] queryIds, String[] descriptions) {
+    int n = labels.length;
+    int nq = queryIds.length;
+    if(queryOffsets.length != nq+1 || queryOffsets[0] != 0 || queryOffsets[nq] != n) {
+      throw RankLibError.create("Error in FeatureMatrix: query offsets do not match "+nq+" queries and "+n+" rows.");
+    }
+    if(descriptions != null && descriptions.length != n) {
+      throw RankLibError.create("Error in FeatureMatrix: expected "+n+" descriptions, found "+descriptions.length);
+    }
+    for (int fid = 1; fid < columns.length; fid++) {
+      if(columns[fid] == null || columns[fid].length != n) {
+        throw RankLibError.create("Error in FeatureMatrix: column "+fid+" does not have "+n+" rows.");
+      }
+    }
+    this.rows = n;
+    this.capacity = n;
+    this.labels = labels;
+    this.columns = columns;
+    this.known = known != null ? known : new long[columns.length][];
+    this.maxFeature = columns.length - 1;
+    this.queryOffsets = queryOffsets;
+    this.queryIds = queryIds;
+    this.queries = nq;
+    this.descriptions = descriptions;
+  }
+
+  /**
+   * Wrap columns that stay in a mapped file; they are not read until used. See the array constructor for the other
+   * arguments.
+   * @param columns columns[fid] for fid in [1, columns.length), each with one value per row; columns[0] is ignored.
+   */
+  public FeatureMatrix(float[] labels, MappedColumn[] columns, int[] queryOffsets, String[] queryIds, String[] descriptions) {
+    this(labels, new float[1][], null, queryOffsets, queryIds, descriptions);
+    for (int fid = 1; fid < columns.length; fid++) {
+      if(columns[fid] == null || columns[fid].rows() != rows) {
+        throw RankLibError.create("Error in FeatureMatrix: column "+fid+" does not have "+rows+" rows.");
+      }
+    }
+    this.columns = new float[columns.length][];
+    this.known = new long[columns.length][];
+    this.mapped = columns;
+    this.maxFeature = columns.length - 1;
+  }
+
+  /**
+   * Build a matrix out of already-parsed rank lists. The input points are not modified.
+   * @param samples the rank lists to copy.
+   * @param nFeatures the largest feature id to keep.
+   */
+  public static FeatureMatrix fromRankLists(List<RankList> samples, int nFeatures) {
+    int total = 0;
+    for (RankList rl : samples) {
+      total += rl.size();
+    }
+    FeatureMatrix fm = new FeatureMatrix(total);
+    fm.ensureFeature(nFeatures);
+    for (RankList rl : samples) {
+      for (DataPoint dp : rl) {
+        fm.addRow(dp, nFeatures);
+      }
+      fm.endQuery(rl.getID());
+    }
+    fm.trim();
+    return fm;
+  }
+
+  /**
+   * Stack matrices on top of each other, e.g. ones read in parallel from pieces of a file. Queries keep their order;
+   * features a part does not have are unknown for its rows.
+   */
+  public static FeatureMatrix concat(List<FeatureMatrix> parts) {
+    int total = 0;
+    int nFeatures = 0;
+    boolean hasDescriptions = false;
+    for (FeatureMatrix part : parts) {
+      total += part.rows;
+      nFeatures = Math.max(nFeatures, part.maxFeature);
+      hasDescriptions |= part.descriptions != null;
+    }
+    FeatureMatrix fm = new FeatureMatrix(total);
+    fm.ensureFeature(nFeatures);
+    if(hasDescriptions) {
+      fm.descriptions = new String[fm.capacity];
+    }
+    for (FeatureMatrix part : parts) {
+      int offset = fm.rows;
+      System.arraycopy(part.labels, 0, fm.labels, offset, part.rows);
+      if(part.descriptions != null) {
+        System.arraycopy(part.descriptions, 0, fm.descriptions, offset, part.rows);
+      }
+      for (int fid = 1; fid <= part.maxFeature; fid++) {
+        System.arraycopy(part.readColumn(fid), 0, fm.columns[fid], offset, part.rows);
+        long[] bits = part.getKnownBits(fid);
+        if(bits == null) {
+          fm.markKnown(fid, offset, offset + part.rows);
+        } else {
+          for (int row = 0; row < part.rows; row++) {
+            if((bits[row >>> 6] & (1L << row)) != 0) {
+              fm.known[fid][(offset + row) >>> 6] |= (1L << (offset + row));
+            }
+          }
+        }
+      }
+      fm.rows += part.rows;
+      for (int q = 0; q < part.queries; q++) {
+        fm.endQuery(part.queryIds[q], offset + part.queryOffsets[q+1]);
+      }
+    }
+    fm.trim();
+    return fm;
+  }
+
+  /** Number of rows (documents) stored. */
+  public int rows() {
+    return rows;
+  }
+
+  /** Number of closed queries. */
+  public int queryCount() {
+    return queries;
+  }
+
+  /** The largest feature id that has a column. */
+  public int getMaxFeature() {
+    return maxFeature;
+  }
+
+  public int getQueryStart(int q) {
+    return queryOffsets[q];
+  }
+
+  public int getQueryEnd(int q) {
+    return queryOffsets[q+1];
+  }
+
+  public String getQueryId(int q) {
+    return queryIds[q];
+  }
+
+  /**
+   * The raw column for a feature: value of row k is at index k. Unknown values are 0.
+   * The array may be longer than {@link #rows()} unless {@link #trim()} has been called.
+   * A mapped column is copied onto the heap first, for good; use {@link #readColumn(int)} to only read it.
+   */
+  public float[] getColumn(int fid) {
+    checkFeature(fid);
+    unmap(fid);
+    return columns[fid];
+  }
+
+  /**
+   * The values of a column, as by {@link #getColumn(int)}, without copying a mapped column onto the heap for good: the
+   * array is a copy if the column is mapped, and must not be modified.
+   */
+  public float[] readColumn(int fid) {
+    checkFeature(fid);
+    return isMapped(fid) ? mapped[fid].toArray() : columns[fid];
+  }
+
+  /** The raw label column; see {@link #getColumn(int)}. */
+  public float[] getLabels() {
+    return labels;
+  }
+
+  /**
+   * Which rows of a column are known: bit (row &amp; 63) of word (row &gt;&gt;&gt; 6). Null if every row is known.
+   * Do not modify.
+   */
+  public long[] getKnownBits(int fid) {
+    checkFeature(fid);
+    return isMapped(fid) ? mapped[fid].knownBitsToArray() : known[fid];
+  }
+
+  public float get(int row, int fid) {
+    checkFeature(fid);
+    float[] column = columns[fid];
+    return column != null ? column[row] : mapped[fid].get(row);
+  }
+
+  public void set(int row, int fid, float value) {
+    checkFeature(fid);
+    unmap(fid);
+    columns[fid][row] = value;
+    markKnown(fid, row, row+1);
+  }
+
+  public boolean isKnown(int row, int fid) {
+    if(fid <= 0 || fid > maxFeature) {
+      return false;
+    }
+    if(isMapped(fid)) {
+      return mapped[fid].isKnown(row);
+    }
+    long[] bits = known[fid];
+    return bits == null || (bits[row >>> 6] & (1L << row)) != 0;
+  }
+
+  /** Mark rows [start, end) of a column as known, e.g. after a normalizer rewrote them. */
+  public void markKnown(int fid, int start, int end) {
+    unmap(fid);
+    long[] bits = known[fid];
+    if(bits == null) return;
+    for (int row = start; row < end; row++) {
+      bits[row >>> 6] |= (1L << row);
+    }
+  }
+
+  public float getLabel(int row) {
+    return labels[row];
+  }
+
+  public void setLabel(int row, float label) {
+    labels[row] = label;
+  }
+
+  public String getDescription(int row) {
+    return descriptions == null ? null : descriptions[row];
+  }
+
+  public void setDescription(int row, String description) {
+    if(descriptions == null) {
+      if(description == null) return;
+      descriptions = new String[capacity];
+    }
+    descriptions[row] = description;
+  }
+
+  /** Append a row from a builder. Call {@link #endQuery(String)} once all rows of a query have been added. */
+  public int addRow(PointBuilder pb) {
+    int row = newRow(pb.getLabel());
+    setDescription(row, pb.getDescription());
+    ensureFeature(pb.getMaxObservedFeature());
+    float[] fVals = pb.getFeatureBuffer();
+    int last = pb.getMaxObservedFeature();
+    for (int fid = 1; fid <= last; fid++) {
+      float v = fVals[fid];
+      if(!DataPoint.isUnknown(v)) {
+        columns[fid][row] = v;
+        known[fid][row >>> 6] |= (1L << row);
+      }
+    }
+    return row;
+  }
+
+  private void addRow(DataPoint dp, int nFeatures) {
+    int row = newRow(dp.getLabel());
+    setDescription(row, dp.getDescription());
+    if(dp instanceof DenseDataPoint) {
+      float[] fVals = dp.getFeatureVector();
+      int last = Math.min(fVals.length-1, nFeatures);
+      for (int fid = 1; fid <= last; fid++) {
+        float v = fVals[fid];
+        if(!DataPoint.isUnknown(v)) {
+          columns[fid][row] = v;
+          known[fid][row >>> 6] |= (1L << row);
+        }
+      }
+    } else {
+      for (int fid = 1; fid <= nFeatures; fid++) {
+        if(dp.hasFeature(fid)) {
+          columns[fid][row] = dp.getFeatureValue(fid);
+          known[fid][row >>> 6] |= (1L << row);
+        }
+      }
+    }
+  }
+
+  /** Close the query made of the rows added since the last call. */
+  public void endQuery(String qid) {
+    endQuery(qid, rows);
+  }
+
+  /** Close the query made of the rows from the end of the last one up to (not including) row @end. */
+  private void endQuery(String qid, int end) {
+    int start = queries == 0 ? 0 : queryOffsets[queries];
+    if(start == end) {
+      throw RankLibError.create("Error in FeatureMatrix::endQuery(): query "+qid+" has no rows.");
+    }
+    if(queries + 2 > queryOffsets.length || queries + 1 > queryIds.length) {
+      int n = Math.max(16, (queries + 2) * 2);
+      queryOffsets = Arrays.copyOf(queryOffsets, n);
+      queryIds = Arrays.copyOf(queryIds, n);
+    }
+    queryOffsets[queries] = start;
+    queryIds[queries] = qid;
+    queries++;
+    queryOffsets[queries] = end;
+  }
+
+  /** Throw away the rows added since the last {@link #endQuery(String)}. */
+  public void dropQuery() {
+    unmapAll();
+    int start = queries == 0 ? 0 : queryOffsets[queries];
+    for (int fid = 1; fid <= maxFeature; fid++) {
+      Arrays.fill(columns[fid], start, rows, 0f);
+      long[] bits = known[fid];
+      if(bits == null) {
+        // the column was complete before these rows were added; rebuild its bitmap
+        known[fid] = bits = allKnown(capacity, start);
+      }
+      for (int row = start; row < rows; row++) {
+        bits[row >>> 6] &= ~(1L << row);
+      }
+    }
+    Arrays.fill(labels, start, rows, 0f);
+    if(descriptions != null) {
+      Arrays.fill(descriptions, start, rows, null);
+    }
+    rows = start;
+  }
+
+  /**
+   * Shrink every column to exactly {@link #rows()} entries and drop the bitmaps of columns that are complete.
+   * More rows may still be appended afterwards.
+   */
+  public void trim() {
+    if(capacity != rows) {
+      resize(rows);
+    }
+    for (int fid = 1; fid <= maxFeature; fid++) {
+      long[] bits = known[fid];
+      if(bits != null && isComplete(bits, rows)) {
+        known[fid] = null;
+      }
+    }
+  }
+
+  /** A view of query q. */
+  public RankList getRankList(int q) {
+    int start = queryOffsets[q];
+    int end = queryOffsets[q+1];
+    String qid = queryIds[q];
+    List<DataPoint> points = new ArrayList<>(end - start);
+    for (int row = start; row < end; row++) {
+      points.add(new ColumnarDataPoint(this, row, qid));
+    }
+    return new RankList(points);
+  }
+
+  /** Views of every query, in order. */
+  public List<RankList> toRankLists() {
+    List<RankList> lists = new ArrayList<>(queries);
+    for (int q = 0; q < queries; q++) {
+      lists.add(getRankList(q));
+    }
+    return lists;
+  }
+
+  /**
+   * The matrix whose rows are exactly these points, in order, with no spare capacity -- i.e. the matrix whose columns
+   * can be used in place of reading these points one by one. Null if there is no such matrix.
+   */
+  public static FeatureMatrix backingMatrix(DataPoint[] points) {
+    if(points.length == 0 || !(points[0] instanceof ColumnarDataPoint)) {
+      return null;
+    }
+    FeatureMatrix fm = ((ColumnarDataPoint) points[0]).matrix;
+    if(fm.rows != points.length || fm.capacity != fm.rows) {
+      return null;
+    }
+    for (int i = 0; i < points.length; i++) {
+      DataPoint dp = points[i];
+      if(!(dp instanceof ColumnarDataPoint)) return null;
+      ColumnarDataPoint cdp = (ColumnarDataPoint) dp;
+      if(cdp.matrix != fm || cdp.row != i) return null;
+    }
+    return fm;
+  }
+
+  private int newRow(float label) {
+    if(rows == capacity) {
+      resize(Math.max(capacity * 2, INITIAL_CAPACITY));
+    }
+    labels[rows] = label;
+    return rows++;
+  }
+
+  private void checkFeature(int fid) {
+    if(fid <= 0 || fid > maxFeature) {
+      throw RankLibError.create("Error in FeatureMatrix: requesting unspecified feature, fid=" + fid);
+    }
+  }
+
+  private void ensureFeature(int fid) {
+    if(fid <= maxFeature) return;
+    columns = Arrays.copyOf(columns, fid+1);
+    known = Arrays.copyOf(known, fid+1);
+    if(mapped != null) {
+      mapped = Arrays.copyOf(mapped, fid+1);
+    }
+    for (int f = maxFeature+1; f <= fid; f++) {
+      columns[f] = new float[capacity];
+      known[f] = new long[words(capacity)];
+    }
+    maxFeature = fid;
+  }
+
+  private void resize(int newCapacity) {
+    unmapAll();
+    for (int fid = 1; fid <= maxFeature; fid++) {
+      columns[fid] = Arrays.copyOf(columns[fid], newCapacity);
+      if(known[fid] != null) {
+        known[fid] = Arrays.copyOf(known[fid], words(newCapacity));
+      } else if(newCapacity > rows) {
+        // complete columns need a bitmap again before we can append rows that may not have them
+        known[fid] = allKnown(newCapacity, rows);
+      }
+    }
+    labels = Arrays.copyOf(labels, newCapacity);
+    if(descriptions != null) {
+      descriptions = Arrays.copyOf(descriptions, newCapacity);
+    }
+    capacity = newCapacity;
+  }
+
+  private boolean isMapped(int fid) {
+    return mapped != null && mapped[fid] != null;
+  }
+
+  /** Copy a mapped column onto the heap, so that it can be changed. */
+  private void unmap(int fid) {
+    if(isMapped(fid)) {
+      columns[fid] = mapped[fid].toArray();
+      known[fid] = mapped[fid].knownBitsToArray();
+      mapped[fid] = null;
+    }
+  }
+
+  private void unmapAll() {
+    for (int fid = 1; fid <= maxFeature; fid++) {
+      unmap(fid);
+    }
+    mapped = null;
+  }
+
+  private static int words(int nBits) {
+    return (nBits + 63) >>> 6;
+  }
+
+  private static long[] allKnown(int capacity, int nRows) {
+    long[] bits = new long[words(capacity)];
+    Arrays.fill(bits, 0, nRows >>> 6, -1L);
+    for (int row = nRows & ~63; row < nRows; row++) {
+      bits[row >>> 6] |= (1L << row);
+    }
+    return bits;
+  }
+
+  private static boolean isComplete(long[] bits, int nRows) {
+    int full = nRows >>> 6;
+    for (int i = 0; i < full; i++) {
+      if(bits[i] != -1L) return false;
+    }
+    int rest = nRows & 63;
+    if(rest == 0) return true;
+    long mask = (1L << rest) - 1;
+    return (bits[full] & mask) == mask;
+  }
+}
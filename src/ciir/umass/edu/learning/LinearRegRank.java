@@ -103,6 +103,16 @@ public class LinearRegRank extends Ranker {
 			score += weight[i] * p.getFeatureValue(features[i]);
 		return score;
 	}
+	@Override
+	public void scoreBatch(RankList rl, double[] out)
+	{
+		scoreLinear(rl, features, weight, weight[weight.length-1], out);
+	}
+	@Override
+	public boolean isStatelessEval()
+	{
+		return true;
+	}
 	public Ranker createNew()
 	{
 		return new LinearRegRank();
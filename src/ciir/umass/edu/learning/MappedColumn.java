@@ -0,0 +1,74 @@
+package ciir.umass.edu.learning;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A column of a {@link FeatureMatrix} that stays in a memory-mapped file (see ciir.umass.edu.features.BinaryDataset)
+ * instead of being copied onto the heap: pages are read from disk as rows are used, and are shared through the OS page
+ * cache by every process that maps the same file.
+ *
+ * A single mapping holds at most 2 GB, so values are mapped in windows of 2^windowBits rows: row k is at index
+ * (k &amp; (2^windowBits - 1)) of windows[k &gt;&gt;&gt; windowBits]. Mappings are read-only; the matrix copies a column to the
+ * heap before changing it.
+ */
+public final class MappedColumn {
+  private final FloatBuffer[] windows;
+  private final int windowBits;
+  private final int windowMask;
+  /** Bit (row &amp; 63) of word (row &gt;&gt;&gt; 6) is set if the value was given; null means every row is known. */
+  private final LongBuffer known;
+  private final int rows;
+
+  public MappedColumn(FloatBuffer[] windows, int windowBits, LongBuffer known, int rows) {
+    long capacity = 0;
+    for (FloatBuffer w : windows) {
+      capacity += w.limit();
+    }
+    if(capacity < rows || (known != null && known.limit() < (rows + 63) >>> 6)) {
+      throw new IllegalArgumentException("MappedColumn: mappings do not cover "+rows+" rows");
+    }
+    this.windows = windows;
+    this.windowBits = windowBits;
+    this.windowMask = (1 << windowBits) - 1;
+    this.known = known;
+    this.rows = rows;
+  }
+
+  public int rows() {
+    return rows;
+  }
+
+  public float get(int row) {
+    return windows[row >>> windowBits].get(row & windowMask);
+  }
+
+  public boolean isKnown(int row) {
+    return known == null || (known.get(row >>> 6) & (1L << row)) != 0;
+  }
+
+  /** A heap copy of the values. */
+  public float[] toArray() {
+    float[] values = new float[rows];
+    for (int w = 0, from = 0; from < rows; w++) {
+      int n = Math.min(rows - from, windowMask + 1);
+      FloatBuffer window = windows[w].duplicate();
+      window.position(0);
+      window.get(values, from, n);
+      from += n;
+    }
+    return values;
+  }
+
+  /** A heap copy of the known bitmap, or null if every row is known. */
+  public long[] knownBitsToArray() {
+    if(known == null) {
+      return null;
+    }
+    long[] bits = new long[(rows + 63) >>> 6];
+    LongBuffer b = known.duplicate();
+    b.position(0);
+    b.get(bits);
+    return bits;
+  }
+}
@@ -67,6 +67,20 @@ public class PointBuilder {
     return this;
   }
 
+  /**
+   * Forget the point being built so this builder (and its feature buffer) can be used for the next one.
+   * Points already built from it are not affected.
+   */
+  public PointBuilder reset() {
+    Arrays.fill(fVals, 0, Math.min(fVals.length, lastFeature + 1), DataPoint.UNKNOWN);
+    knownFeatures.clear();
+    lastFeature = 0;
+    description = null;
+    qid = null;
+    label = -1;
+    return this;
+  }
+
   public int getMaxObservedFeature() {
     return this.lastFeature;
   }
@@ -76,6 +90,11 @@ public class PointBuilder {
     return Arrays.copyOf(this.fVals, this.lastFeature + 1);
   }
 
+  /** The builder's own buffer, indexed by feature id; NaN marks unknown values. Do not modify. */
+  float[] getFeatureBuffer() {
+    return this.fVals;
+  }
+
   public DenseDataPoint toDensePoint() {
     DenseDataPoint pt = new DenseDataPoint();
     build(pt);
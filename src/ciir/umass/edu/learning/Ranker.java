@@ -13,8 +13,12 @@ package ciir.umass.edu.learning;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.utilities.FileUtils;
 import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.RankLibError;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -42,7 +46,9 @@ public abstract class Ranker {
 	protected Dataset dataset;
 	
 	protected List<RankList> validationSamples = null;
+	protected ExecutionContext context = new ExecutionContext();//threads and sampling settings of this ranker
 	PrintStream out = System.out;
+	private boolean quiet = false;
 
 	public int getFeatureCount() {
 		if(this.dataset != null) {
@@ -81,6 +87,21 @@ public abstract class Ranker {
 	{
 		this.scorer = scorer;
 	}
+	public void setContext(ExecutionContext context)
+	{
+		this.context = context;
+	}
+	public ExecutionContext getContext()
+	{
+		return context;
+	}
+	/**
+	 * Turn off the progress messages of this ranker only, whatever @verbose says: e.g. for rankers trained as part of another one.
+	 */
+	public void setQuiet(boolean quiet)
+	{
+		this.quiet = quiet;
+	}
 	
 	public double getScoreOnTrainingData()
 	{
@@ -99,8 +120,7 @@ public abstract class Ranker {
 	public RankList rank(RankList rl)
 	{
 		double[] scores = new double[rl.size()];
-		for(int i=0;i<rl.size();i++)
-			scores[i] = eval(rl.get(i));
+		scoreBatch(rl, scores);
 		int[] idx = MergeSorter.sort(scores, false);
 		return new RankList(rl, idx);
 	}
@@ -128,22 +148,45 @@ public abstract class Ranker {
 			}
 		}
 
-		FileUtils.write(modelFile, "ASCII", model());
+		try (Writer out = FileUtils.openWriter(modelFile, "ASCII")) {
+			writeModel(out);
+		} catch(IOException ex) {
+			throw RankLibError.create("Couldn't write file=" + modelFile, ex);
+		}
+	}
+	/**
+	 * Write the model to @out, as model() returns it. Rankers whose models can be large write them as they go instead of
+	 * building the whole text first.
+	 */
+	public void writeModel(Writer out) throws IOException {
+		out.write(model());
+	}
+	/**
+	 * Load the model from @in, which holds the text of a model file (as given to loadFromString()). By default the text
+	 * is read whole; rankers whose models can be large parse it as it is read instead.
+	 */
+	public void loadFromReader(Reader in) throws IOException {
+		StringBuilder text = new StringBuilder();
+		char[] buf = new char[8192];
+		int n;
+		while((n = in.read(buf)) != -1)
+			text.append(buf, 0, n);
+		loadFromString(text.toString());
 	}
 
 	protected void PRINT(String msg) {
-		if(verbose)
+		if(verbose && !quiet)
 			out.print(msg);
 	}
 
 	protected void PRINTLN(String msg) {
-		if(verbose)
+		if(verbose && !quiet)
 			out.println(msg);
 	}
 
 	protected void PRINT(int[] len, String[] msgs)
 	{
-		if(verbose) {
+		if(verbose && !quiet) {
 			for(int i=0;i<msgs.length;i++) {
 				String msg = msgs[i];
 				if(msg.length() > len[i])
@@ -174,6 +217,56 @@ public abstract class Ranker {
 	{
 		return -1.0;
 	}
+	/**
+	 * Score all documents of @rl at once: out[i] = eval(rl.get(i)), exactly. Rankers that can share work across the documents
+	 * of a list (walk a tree for a block of them, go through the weights once) override this.
+	 * @param out at least rl.size() long.
+	 */
+	public void scoreBatch(RankList rl, double[] out)
+	{
+		for(int i=0;i<rl.size();i++)
+			out[i] = eval(rl.get(i));
+	}
+	/**
+	 * scoreBatch() for linear models: out[i] = bias + the sum over k of weight[k] * the value of feature features[k] in
+	 * rl.get(i), added up in that order. Dense documents are read off their feature vector.
+	 */
+	protected static void scoreLinear(RankList rl, int[] features, double[] weight, double bias, double[] out)
+	{
+		int minFeature = Integer.MAX_VALUE;
+		int maxFeature = 0;
+		for(int f : features)
+		{
+			minFeature = Math.min(minFeature, f);
+			maxFeature = Math.max(maxFeature, f);
+		}
+		for(int i=0;i<rl.size();i++)
+		{
+			DataPoint p = rl.get(i);
+			double score = bias;
+			if(p instanceof DenseDataPoint && minFeature > 0 && p.getFeatureVector().length > maxFeature)
+			{
+				float[] fv = p.getFeatureVector();
+				for(int k=0;k<features.length;k++)
+				{
+					float v = fv[features[k]];
+					score += weight[k] * (v != v ? 0 : v);//an unknown value (NaN) is 0
+				}
+			}
+			else
+				for(int k=0;k<features.length;k++)
+					score += weight[k] * p.getFeatureValue(features[k]);
+			out[i] = score;
+		}
+	}
+
+	/**
+	 * Whether eval() and scoreBatch() leave the ranker as it was, so that one model can score from several threads at
+	 * once. Rankers that keep state while scoring (the neural nets) must be copied for each thread instead.
+	 */
+	public boolean isStatelessEval() {
+		return false;
+	}
 
 	public abstract Ranker createNew();
 	public abstract String toString();
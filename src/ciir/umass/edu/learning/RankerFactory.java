@@ -22,6 +22,7 @@ import ciir.umass.edu.utilities.FileUtils;
 import ciir.umass.edu.utilities.RankLibError;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.*;
 
@@ -56,6 +57,8 @@ public class RankerFactory {
 			rfRanker,
 			linearRegRank);
 
+	private static final int MAX_NAME_LINE = 1024;
+
 	protected TreeMap<String, RankerType> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
 	public RankerFactory() {
@@ -80,22 +83,40 @@ public class RankerFactory {
 		if(rankerType == null) throw new IllegalArgumentException("No such RANKER="+rankerName);
 		return createRanker(rankerType);
 	}
+	/**
+	 * Load a model file a buffer at a time: it is never read into memory whole, so that rankers that parse it as they
+	 * go (see Ranker.loadFromReader()) can load models of any size.
+	 */
 	public Ranker loadRankerFromFile(String modelFile) {
-    return loadRankerFromString(FileUtils.read(modelFile, "ASCII"));
+		try (BufferedReader in = FileUtils.openReader(modelFile, "ASCII")) {
+			in.mark(MAX_NAME_LINE);//the ranker reads the first line too
+			Ranker r = createRankerFromName(in.readLine());
+			in.reset();
+			r.loadFromReader(in);
+			return r;
+		} catch(IOException ex) {
+			throw RankLibError.create("Couldn't read file=" + modelFile, ex);
+		}
 	}
   public Ranker loadRankerFromString(String fullText) {
     try (BufferedReader in = new BufferedReader(new StringReader(fullText))) {
-			Ranker r;
-      String content = in.readLine();//read the first line to get the name of the ranking algorithm
-      content = content.replace("## ", "").trim();
-      System.out.println("Model:\t\t" + content);
-      r = createRanker(content);
+			Ranker r = createRankerFromName(in.readLine());
       r.loadFromString(fullText);
 			return r;
     } catch(Exception ex) {
 			throw RankLibError.create(ex);
     }
   }
+	/**
+	 * @param content the first line of a model, "## " and the name of the ranking algorithm.
+	 */
+	private Ranker createRankerFromName(String content) {
+		if(content == null)
+			throw RankLibError.create("Error in RankerFactory: the model is empty");
+		content = content.replace("## ", "").trim();
+		System.out.println("Model:\t\t" + content);
+		return createRanker(content);
+	}
 
 	public List<String> getRankerNames() {
 		List<String> names = new ArrayList<>();
@@ -55,6 +55,18 @@ public class RankerTrainer {
 		//printTrainingTime();
 		return ranker;
 	}
+	/**
+	 * Train with the threads and sampling settings of @context, e.g. alongside other trainings (over the same data) in this JVM.
+	 */
+	public Ranker train(RankerType type, List<RankList> train, List<RankList> validation, int[] features, MetricScorer scorer, ExecutionContext context) {
+		Ranker ranker = rf.createRanker(type, train, features, scorer);
+		ranker.setContext(context);
+		return train(ranker, train, validation, features, scorer);
+	}
+	public Ranker train(Ranker ranker, List<RankList> train, List<RankList> validation, int[] features, MetricScorer scorer, ExecutionContext context) {
+		ranker.setContext(context);
+		return train(ranker, train, validation, features, scorer);
+	}
 	public double getTrainingTime()
 	{
 		return trainingTime;
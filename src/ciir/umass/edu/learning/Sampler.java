@@ -19,7 +19,10 @@ public class Sampler {
 	protected List<RankList> remains = null;//out-of-bag data
 	public List<RankList> doSampling(List<RankList> samplingPool, float samplingRate, boolean withReplacement)
 	{
-		Random r = new Random();
+		return doSampling(samplingPool, samplingRate, withReplacement, new Random());
+	}
+	public List<RankList> doSampling(List<RankList> samplingPool, float samplingRate, boolean withReplacement, Random r)
+	{
 		samples = new ArrayList<>();
 		int size = (int)(samplingRate * samplingPool.size());
 		if(withReplacement) {
@@ -288,6 +288,11 @@ public class AdaRank extends Ranker {
 			score += rweight.get(j) * p.getFeatureValue(rankers.get(j).getFID());
 		return score;
 	}
+	@Override
+	public boolean isStatelessEval()
+	{
+		return true;
+	}
 	public Ranker createNew()
 	{
 		return new AdaRank();
@@ -364,6 +364,11 @@ public class RankBoost extends Ranker {
 			score += rWeight.get(j) * wRankers.get(j).score(p);
 		return score;
 	}
+	@Override
+	public boolean isStatelessEval()
+	{
+		return true;
+	}
 	public Ranker createNew()
 	{
 		return new RankBoost();
@@ -9,6 +9,8 @@
 
 package ciir.umass.edu.learning.neuralnet;
 
+import ciir.umass.edu.utilities.Sigmoid;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -106,6 +108,7 @@ public class Neuron {
 		delta =      (targetValue-pij) * tfunc.computeDerivative(output);*/
 		int[][] pairMap = param.pairMap;
 		int current = param.current;
+		Sigmoid sigmoid = Sigmoid.get();
 		
 		delta_i = 0.0;
 		deltas_j = new double[pairMap[current].length];
@@ -117,12 +120,12 @@ public class Neuron {
 			if(param.pairWeight == null)//RankNet, no pair-weight needed
 			{
 				weight = 1;
-				pij = (double) (1.0 / (1.0 + Math.exp(outputs.get(current)-outputs.get(j))));//this is in fact not "pij", but "targetValue-pij":  1 - 1/(1+e^{-o_ij})
+				pij = sigmoid.value(outputs.get(j)-outputs.get(current));//this is in fact not "pij", but "targetValue-pij":  1 - 1/(1+e^{-o_ij}) = 1/(1+e^{o_ij})
 			}
 			else//LambdaRank
 			{
 				weight = param.pairWeight[current][k];
-				pij = (double) ( param.targetValue[current][k]  -  1.0 / (1.0 + Math.exp(-(outputs.get(current)-outputs.get(j)))));
+				pij = param.targetValue[current][k] - sigmoid.value(outputs.get(current)-outputs.get(j));
 			}
 			double lambda = weight * pij;
 			delta_i += lambda;
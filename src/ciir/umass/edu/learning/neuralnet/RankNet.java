@@ -12,12 +12,16 @@ package ciir.umass.edu.learning.neuralnet;
 import ciir.umass.edu.learning.*;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.utilities.RankLibError;
+import ciir.umass.edu.utilities.Sigmoid;
 import ciir.umass.edu.utilities.SimpleMath;
 
 import java.io.BufferedReader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author vdang
@@ -34,6 +38,8 @@ public class RankNet extends Ranker {
 	public static int nHiddenNodePerLayer = 10;
 	public static double learningRate = 0.00005;
 	
+	private static final double LN2 = Math.log(2);
+	
 	//Variables
 	protected List<Layer> layers = new ArrayList<Layer>();
 	protected Layer inputLayer = null;
@@ -234,7 +240,7 @@ public class RankNet extends Ranker {
 	protected double crossEntropy(double o1, double o2, double targetValue)
 	{
 		double oij = o1 - o2;
-		double ce = -targetValue * oij + SimpleMath.logBase2(1+Math.exp(oij));
+		double ce = -targetValue * oij + Sigmoid.get().softplus(oij) / LN2;//log2(1 + e^oij)
 		return (double) ce;
 	}
 	protected void estimateLoss() 
@@ -366,6 +372,50 @@ public class RankNet extends Ranker {
 			layers.get(k).computeOutput();		
 		return outputLayer.get(0).getOutput();
 	}	
+	/**
+	 * The forward pass of eval(), for a block of documents at a time: a neuron's weights are read once for the block, not
+	 * once per document. The outputs of the neurons themselves are left as they were.
+	 */
+	public void scoreBatch(RankList rl, double[] out)
+	{
+		final int block = 256;
+		Map<Neuron, double[]> outputs = new IdentityHashMap<Neuron, double[]>();//of each neuron, on each document of the block
+		for(Layer layer : layers)
+			for(int j=0;j<layer.size();j++)
+				outputs.put(layer.get(j), new double[block]);
+		Arrays.fill(outputs.get(inputLayer.get(inputLayer.size()-1)), 1.0f);//the "bias" node
+		for(int from=0;from<rl.size();from+=block)
+		{
+			int n = Math.min(block, rl.size()-from);
+			for(int k=0;k<inputLayer.size()-1;k++)
+			{
+				double[] x = outputs.get(inputLayer.get(k));
+				for(int i=0;i<n;i++)
+					x[i] = rl.get(from+i).getFeatureValue(features[k]);
+			}
+			for(int l=1;l<layers.size();l++)
+			{
+				Layer layer = layers.get(l);
+				for(int j=0;j<layer.size();j++)
+				{
+					Neuron neuron = layer.get(j);
+					double[] wsum = outputs.get(neuron);
+					for(int i=0;i<n;i++)
+						wsum[i] = 0.0;
+					for(Synapse s : neuron.getInLinks())
+					{
+						double[] x = outputs.get(s.getSource());
+						double w = s.getWeight();
+						for(int i=0;i<n;i++)
+							wsum[i] += x[i] * w;
+					}
+					for(int i=0;i<n;i++)
+						wsum[i] = neuron.tfunc.compute(wsum[i]);
+				}
+			}
+			System.arraycopy(outputs.get(outputLayer.get(0)), 0, out, from, n);
+		}
+	}
 	public Ranker createNew()
 	{
 		return new RankNet();
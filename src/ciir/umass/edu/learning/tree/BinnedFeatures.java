@@ -0,0 +1,301 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * @author jfoley
+ *
+ * The training samples, quantized: for each feature, the index of the threshold bin of every sample, i.e. the smallest t
+ * such that value <= thresholds[f][t]. Trees are trained from these bins only; the feature values themselves are no
+ * longer needed once they are binned.
+ *
+ * Bins of a feature are stored as bytes if it has at most 256 thresholds, and as shorts if it has at most 65536.
+ *
+ * A view() of some of the samples (e.g. the bag of a random forest) shares the bins of the whole set instead of copying them.
+ */
+public class BinnedFeatures {
+	public static final int MAX_BYTE_BINS = 1 << 8;
+	public static final int MAX_SHORT_BINS = 1 << 16;
+
+	private final int nSamples;
+	private final float[][] thresholds;
+	//exactly one of these is set for each feature
+	private final byte[][] byteBins;
+	private final short[][] shortBins;
+	private final int[][] intBins;
+	private final int[] rows;//for a view: sample k of the view is sample rows[k] of the bins above; null otherwise
+
+	/**
+	 * Make room for @nFeatures features of @nSamples samples; each feature must then be filled in with set().
+	 */
+	public BinnedFeatures(int nFeatures, int nSamples)
+	{
+		this.nSamples = nSamples;
+		thresholds = new float[nFeatures][];
+		byteBins = new byte[nFeatures][];
+		shortBins = new short[nFeatures][];
+		intBins = new int[nFeatures][];
+		rows = null;
+	}
+	private BinnedFeatures(BinnedFeatures all, int[] rows)
+	{
+		this.nSamples = rows.length;
+		this.thresholds = all.thresholds;
+		this.byteBins = all.byteBins;
+		this.shortBins = all.shortBins;
+		this.intBins = all.intBins;
+		this.rows = rows;
+	}
+	/**
+	 * @param featureValues featureValues[f][k] is the value of feature f on sample k.
+	 * @param thresholds thresholds[f] are the (ascending) threshold candidates of feature f.
+	 */
+	public BinnedFeatures(float[][] featureValues, float[][] thresholds)
+	{
+		this(featureValues.length, featureValues.length == 0 ? 0 : featureValues[0].length);
+		for(int f=0;f<featureValues.length;f++)
+			set(f, featureValues[f], thresholds[f]);
+	}
+
+	/**
+	 * Bin all values of feature @f. Different features can be set concurrently.
+	 * @param values values[k] is the value of this feature on sample k.
+	 * @param threshold the ascending threshold candidates of this feature.
+	 */
+	public void set(int f, float[] values, float[] threshold)
+	{
+		if(rows != null)
+			throw RankLibError.create("Error in BinnedFeatures::set(): the bins of a view cannot be set");
+		if(values.length != nSamples)
+			throw RankLibError.create("Error in BinnedFeatures::set(): expected " + nSamples + " values, found " + values.length);
+		thresholds[f] = threshold;
+		if(threshold.length <= MAX_BYTE_BINS) {
+			byte[] bins = new byte[nSamples];
+			for(int k=0;k<nSamples;k++)
+				bins[k] = (byte)findBin(threshold, values[k]);
+			byteBins[f] = bins;
+		} else if(threshold.length <= MAX_SHORT_BINS) {
+			short[] bins = new short[nSamples];
+			for(int k=0;k<nSamples;k++)
+				bins[k] = (short)findBin(threshold, values[k]);
+			shortBins[f] = bins;
+		} else {
+			int[] bins = new int[nSamples];
+			for(int k=0;k<nSamples;k++)
+				bins[k] = findBin(threshold, values[k]);
+			intBins[f] = bins;
+		}
+	}
+	/**
+	 * @return the smallest t such that @value <= @threshold[t]; the last bin if there is none.
+	 */
+	public static int findBin(float[] threshold, float value)
+	{
+		int lo = 0;
+		int hi = threshold.length-1;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(value <= threshold[mid])
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return samples @rows[0], @rows[1]... of these (repeated as often as they are in @rows), sharing their bins: all features
+	 * must have been set, and stay as they are.
+	 */
+	public BinnedFeatures view(int[] rows)
+	{
+		if(this.rows == null)
+			return new BinnedFeatures(this, rows);
+		int[] composed = new int[rows.length];
+		for(int k=0;k<rows.length;k++)
+			composed[k] = this.rows[rows[k]];
+		return new BinnedFeatures(this, composed);
+	}
+	public int featureCount()
+	{
+		return thresholds.length;
+	}
+	public int sampleCount()
+	{
+		return nSamples;
+	}
+	public float[][] getThresholds()
+	{
+		return thresholds;
+	}
+	/**
+	 * @return the bin of sample @k on feature @f.
+	 */
+	public int bin(int f, int k)
+	{
+		if(rows != null)
+			k = rows[k];
+		if(byteBins[f] != null)
+			return byteBins[f][k] & 0xff;
+		if(shortBins[f] != null)
+			return shortBins[f][k] & 0xffff;
+		return intBins[f][k];
+	}
+
+	/**
+	 * sum[t] += labels[k] for every sample k in bin t of feature @f.
+	 */
+	void accumulate(int f, double[] labels, double[] sum)
+	{
+		accumulate(f, 0, nSamples, labels, sum);
+	}
+	/**
+	 * sum[t] += labels[k] for every sample k in [@from, @to) that is in bin t of feature @f.
+	 */
+	void accumulate(int f, int from, int to, double[] labels, double[] sum)
+	{
+		if(rows != null) {
+			accumulateView(f, from, to, labels, sum);
+		} else if(byteBins[f] != null) {
+			byte[] bins = byteBins[f];
+			for(int k=from;k<to;k++)
+				sum[bins[k] & 0xff] += labels[k];
+		} else if(shortBins[f] != null) {
+			short[] bins = shortBins[f];
+			for(int k=from;k<to;k++)
+				sum[bins[k] & 0xffff] += labels[k];
+		} else {
+			int[] bins = intBins[f];
+			for(int k=from;k<to;k++)
+				sum[bins[k]] += labels[k];
+		}
+	}
+	/**
+	 * sum[t] += labels[k] and count[t]++ for every sample k of @samples in bin t of feature @f.
+	 */
+	void accumulate(int f, int[] samples, double[] labels, double[] sum, int[] count)
+	{
+		accumulate(f, samples, 0, samples.length, labels, sum, count);
+	}
+	/**
+	 * sum[t] += labels[k] and count[t]++ for every sample k of @samples[@from..@to) in bin t of feature @f.
+	 */
+	void accumulate(int f, int[] samples, int from, int to, double[] labels, double[] sum, int[] count)
+	{
+		if(rows != null) {
+			accumulateView(f, samples, from, to, labels, sum, count);
+		} else if(byteBins[f] != null) {
+			byte[] bins = byteBins[f];
+			for(int i=from;i<to;i++) {
+				int k = samples[i];
+				int t = bins[k] & 0xff;
+				sum[t] += labels[k];
+				count[t]++;
+			}
+		} else if(shortBins[f] != null) {
+			short[] bins = shortBins[f];
+			for(int i=from;i<to;i++) {
+				int k = samples[i];
+				int t = bins[k] & 0xffff;
+				sum[t] += labels[k];
+				count[t]++;
+			}
+		} else {
+			int[] bins = intBins[f];
+			for(int i=from;i<to;i++) {
+				int k = samples[i];
+				int t = bins[k];
+				sum[t] += labels[k];
+				count[t]++;
+			}
+		}
+	}
+	//same as above, for a view
+	private void accumulateView(int f, int from, int to, double[] labels, double[] sum)
+	{
+		int[] rows = this.rows;
+		if(byteBins[f] != null) {
+			byte[] bins = byteBins[f];
+			for(int k=from;k<to;k++)
+				sum[bins[rows[k]] & 0xff] += labels[k];
+		} else if(shortBins[f] != null) {
+			short[] bins = shortBins[f];
+			for(int k=from;k<to;k++)
+				sum[bins[rows[k]] & 0xffff] += labels[k];
+		} else {
+			int[] bins = intBins[f];
+			for(int k=from;k<to;k++)
+				sum[bins[rows[k]]] += labels[k];
+		}
+	}
+	private void accumulateView(int f, int[] samples, int from, int to, double[] labels, double[] sum, int[] count)
+	{
+		int[] rows = this.rows;
+		if(byteBins[f] != null) {
+			byte[] bins = byteBins[f];
+			for(int i=from;i<to;i++) {
+				int k = samples[i];
+				int t = bins[rows[k]] & 0xff;
+				sum[t] += labels[k];
+				count[t]++;
+			}
+		} else if(shortBins[f] != null) {
+			short[] bins = shortBins[f];
+			for(int i=from;i<to;i++) {
+				int k = samples[i];
+				int t = bins[rows[k]] & 0xffff;
+				sum[t] += labels[k];
+				count[t]++;
+			}
+		} else {
+			int[] bins = intBins[f];
+			for(int i=from;i<to;i++) {
+				int k = samples[i];
+				int t = bins[rows[k]];
+				sum[t] += labels[k];
+				count[t]++;
+			}
+		}
+	}
+	/**
+	 * count[t]++ for every sample in bin t of feature @f.
+	 */
+	void count(int f, int[] count)
+	{
+		count(f, 0, nSamples, count);
+	}
+	/**
+	 * count[t]++ for every sample in [@from, @to) that is in bin t of feature @f.
+	 */
+	void count(int f, int from, int to, int[] count)
+	{
+		for(int k=from;k<to;k++)
+			count[bin(f, k)]++;
+	}
+	/**
+	 * Send each of @samples to @left if its bin on feature @f is at most @t, and to @right otherwise, keeping their order.
+	 * @return the number of samples sent to the left.
+	 */
+	int partition(int f, int t, int[] samples, int[] left, int[] right)
+	{
+		int l = 0;
+		int r = 0;
+		for (int k : samples) {
+			if(bin(f, k) <= t)
+				left[l++] = k;
+			else
+				right[r++] = k;
+		}
+		return l;
+	}
+}
@@ -0,0 +1,79 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+
+/**
+ * @author jfoley
+ *
+ * The trees of one or more {@link Ensemble}s, compiled for scoring, with the same scores as Ensemble.eval(). Tree rankers
+ * compile their ensembles once learnt or loaded, the way -inference on the command line picks:
+ *  flat: walk each tree down from its root, over arrays ({@link FlatEnsemble}).
+ *  quickscorer: find the exit leaf of every tree at once, feature by feature ({@link QuickScorer}); only for trees of
+ *    up to 64 leaves, others are walked.
+ *  codegen: turn the trees into Java code, compiled and loaded at runtime ({@link GeneratedEnsemble}); needs a JDK.
+ */
+public abstract class CompiledEnsemble {
+	public enum Mode { FLAT, QUICKSCORER, CODEGEN }
+
+	private static volatile Mode mode = Mode.FLAT;
+
+	public static Mode getMode()
+	{
+		return mode;
+	}
+	public static void setMode(Mode m)
+	{
+		mode = m;
+	}
+	/**
+	 * Parse "flat", "quickscorer" or "codegen", as given to -inference.
+	 */
+	public static Mode parseMode(String spec)
+	{
+		for(Mode m : Mode.values())
+			if(m.name().equalsIgnoreCase(spec))
+				return m;
+		throw RankLibError.create("Unknown inference: " + spec + " (expected flat, quickscorer or codegen)");
+	}
+
+	/**
+	 * @return the trees of @ensembles, one ensemble after the other, compiled the current way.
+	 */
+	public static CompiledEnsemble compile(Ensemble... ensembles)
+	{
+		if(mode == Mode.QUICKSCORER && QuickScorer.supports(ensembles))
+			return new QuickScorer(ensembles);
+		if(mode == Mode.CODEGEN)
+			return new GeneratedEnsemble(ensembles);
+		return new FlatEnsemble(ensembles);
+	}
+
+	public abstract int treeCount();
+	/**
+	 * @return the sum of the (weighted) outputs of all trees on @dp.
+	 */
+	public abstract float eval(DataPoint dp);
+	/**
+	 * @return the average over the ensembles of the sum of their outputs on @dp, as in random forests.
+	 */
+	public abstract double evalAverage(DataPoint dp);
+	/**
+	 * Score the documents of @rl together: out[i] = eval(rl.get(i)).
+	 */
+	public abstract void eval(RankList rl, double[] out);
+	/**
+	 * Score the documents of @rl together: out[i] = evalAverage(rl.get(i)).
+	 */
+	public abstract void evalAverage(RankList rl, double[] out);
+}
@@ -11,13 +11,18 @@ package ciir.umass.edu.learning.tree;
 
 import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.utilities.RankLibError;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.ByteArrayInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -26,6 +31,12 @@ import java.util.List;
  * @author vdang
  */
 public class Ensemble {
+	private static final XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
+	static {
+		xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
 	protected List<RegressionTree> trees = null;
 	protected List<Float> weights = null;
 	protected int[] features = null;
@@ -41,23 +52,31 @@ public class Ensemble {
 		weights.addAll(e.weights);
 	}
 	public Ensemble(String xmlRep) {
+		this(new StringReader(xmlRep));
+	}
+	/**
+	 * Read the trees of the <ensemble> element in @xml (as written by write(Writer)) as they are parsed: the text of
+	 * the model is never held in memory. Reading stops at the end of the element, so @xml may go on after it.
+	 */
+	public Ensemble(Reader xml) {
+		trees = new ArrayList<>();
+		weights = new ArrayList<>();
+		XMLStreamReader r = null;
 		try {
-			trees = new ArrayList<>();
-			weights = new ArrayList<>();
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			byte[] xmlDATA = xmlRep.getBytes();
-			ByteArrayInputStream in = new ByteArrayInputStream(xmlDATA);
-			Document doc = dBuilder.parse(in);
-			NodeList nl = doc.getElementsByTagName("tree");
+			r = xmlFactory.createXMLStreamReader(xml);
 			HashMap<Integer, Integer> fids = new HashMap<>();
-			for(int i=0;i<nl.getLength();i++)
+			while(r.hasNext())
 			{
-				Node n = nl.item(i);//each node corresponds to a "tree" (tag)
-				//create a regression tree from this node
-				Split root = create(n.getFirstChild(), fids);
+				int event = r.next();
+				if(event == XMLStreamConstants.END_ELEMENT && r.getLocalName().equals("ensemble"))
+					break;
+				if(event != XMLStreamConstants.START_ELEMENT || !r.getLocalName().equals("tree"))
+					continue;
 				//get the weight for this tree
-				float weight = Float.parseFloat(n.getAttributes().getNamedItem("weight").getNodeValue());
+				float weight = Float.parseFloat(r.getAttributeValue(null, "weight"));
+				//create a regression tree from its <split>
+				r.nextTag();
+				Split root = create(r, fids);
 				//add it to the ensemble
 				trees.add(new RegressionTree(root));
 				weights.add(weight);
@@ -68,6 +87,12 @@ public class Ensemble {
 				features[i++] = fid;
 		} catch(Exception ex) {
 			throw RankLibError.create("Error in Emsemble(xmlRepresentation): ", ex);
+		} finally {
+			if(r != null)
+				try {
+					r.close();
+				} catch(XMLStreamException ignored) {
+				}
 		}
 	}
 	
@@ -108,41 +133,78 @@ public class Ensemble {
 		return s;
 	}
 	public String toString() {
-		String strRep = "<ensemble>" + "\n";
+		StringWriter out = new StringWriter();
+		try {
+			write(out);
+		} catch(IOException ex) {
+			throw RankLibError.create(ex);
+		}
+		return out.toString();
+	}
+	/**
+	 * Write the trees and their weights as XML, as toString() returns them, a tree at a time.
+	 */
+	public void write(Writer out) throws IOException {
+		out.write("<ensemble>\n");
 		for(int i=0;i<trees.size();i++)
 		{
-			strRep += "\t<tree id=\"" + (i+1) + "\" weight=\"" + weights.get(i) + "\">" + "\n";
-			strRep += trees.get(i).toString("\t\t");
-			strRep += "\t</tree>" + "\n";
+			out.write("\t<tree id=\"" + (i+1) + "\" weight=\"" + weights.get(i) + "\">\n");
+			trees.get(i).write(out, "\t\t");
+			out.write("\t</tree>\n");
 		}
-		strRep += "</ensemble>" + "\n";
-		return strRep;
+		out.write("</ensemble>\n");
 	}
 	public int[] getFeatures()
 	{
 		return features;
 	}
+	/**
+	 * Write the trees and their weights in binary, as read back by read().
+	 */
+	void write(DataOutput out) throws IOException
+	{
+		out.writeInt(trees.size());
+		for(int i=0;i<trees.size();i++)
+		{
+			out.writeFloat(weights.get(i));
+			trees.get(i).root.write(out);
+		}
+	}
+	static Ensemble read(DataInput in) throws IOException
+	{
+		Ensemble e = new Ensemble();
+		int n = in.readInt();
+		for(int i=0;i<n;i++)
+		{
+			float weight = in.readFloat();
+			e.add(new RegressionTree(Split.read(in)), weight);
+		}
+		return e;
+	}
 	
 	/**
-	 * Each input node @n corersponds to a <split> tag in the model file.
-	 * @param n
-	 * @return
+	 * Read the <split> element @r is at (a <split> tag in the model file), and the ones inside it. @r is left at its end.
 	 */
-	private Split create(Node n, HashMap<Integer, Integer> fids) {
+	private Split create(XMLStreamReader r, HashMap<Integer, Integer> fids) throws XMLStreamException {
+		r.nextTag();
 		//this is a split
-		if(n.getFirstChild().getNodeName().compareToIgnoreCase("feature") == 0) {
-			NodeList nl = n.getChildNodes();
-			int fid = Integer.parseInt(nl.item(0).getFirstChild().getNodeValue().trim());//<feature>
+		if(r.getLocalName().equalsIgnoreCase("feature")) {
+			int fid = Integer.parseInt(r.getElementText().trim());//<feature>
 			fids.put(fid, 0);
-			float threshold = Float.parseFloat(nl.item(1).getFirstChild().getNodeValue().trim());//<threshold>
+			r.nextTag();
+			float threshold = Float.parseFloat(r.getElementText().trim());//<threshold>
 			Split s = new Split(fid, threshold, 0);
-			s.setLeft(create(nl.item(2), fids));
-			s.setRight(create(nl.item(3), fids));
+			r.nextTag();
+			s.setLeft(create(r, fids));
+			r.nextTag();
+			s.setRight(create(r, fids));
+			r.nextTag();//</split>
 			return s;
 		}
 
 		//this is a stump
-		float output = Float.parseFloat(n.getFirstChild().getFirstChild().getNodeValue().trim());
+		float output = Float.parseFloat(r.getElementText().trim());//<output>
+		r.nextTag();//</split>
 		Split s = new Split();
 		s.setOutput(output);
 		return s;
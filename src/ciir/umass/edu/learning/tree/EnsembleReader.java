@@ -0,0 +1,85 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * @author jfoley
+ *
+ * The <ensemble> elements of a tree model file, one at a time, for Ensemble(Reader). The lines of the file are read as the
+ * XML parser asks for them, trimmed, and without the "##" comments and blank lines, which are not XML; the text of an
+ * ensemble ends after the line that closes it (contains "</ensemble>"), and next() moves on to the following one.
+ */
+class EnsembleReader extends Reader {
+	private final BufferedReader in;
+	private String line = null;//the line being read; null before the first ensemble and at the end of the file
+	private int pos = 0;//in @line
+
+	EnsembleReader(Reader in)
+	{
+		this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+	}
+
+	/**
+	 * Skip what is left of the current ensemble and start reading the next one.
+	 * @return false if there is none.
+	 */
+	boolean next() throws IOException
+	{
+		while(line != null && !line.contains("</ensemble>"))
+			line = nextLine();
+		line = nextLine();
+		pos = 0;
+		return line != null;
+	}
+	/**
+	 * @return the next line of the model that is neither blank nor a comment (trimmed), or null at the end of the file.
+	 */
+	private String nextLine() throws IOException
+	{
+		String content;
+		while((content = in.readLine()) != null)
+		{
+			content = content.trim();
+			if(content.length() == 0 || content.startsWith("##"))
+				continue;
+			return content;
+		}
+		return null;
+	}
+
+	@Override
+	public int read(char[] buf, int off, int len) throws IOException
+	{
+		if(len == 0)
+			return 0;
+		while(line != null && pos == line.length())
+		{
+			if(line.contains("</ensemble>"))
+				return -1;
+			line = nextLine();
+			pos = 0;
+		}
+		if(line == null)
+			return -1;
+		int n = Math.min(len, line.length() - pos);
+		line.getChars(pos, pos + n, buf, off);
+		pos += n;
+		return n;
+	}
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
@@ -9,8 +9,8 @@
 
 package ciir.umass.edu.learning.tree;
 
-import ciir.umass.edu.learning.DataPoint;
-import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.learning.ExecutionContext;
+import ciir.umass.edu.utilities.WorkStealingPool;
 import ciir.umass.edu.utilities.WorkerThread;
 
 import java.util.ArrayList;
@@ -29,7 +29,11 @@ public class FeatureHistogram {
 	}
 	
 	//Parameter
-	public static float samplingRate = 1;
+	//rows are accumulated a block at a time, with every feature done for a block before moving on to the next, so that the
+	//labels and sample ids of a block are read from cache rather than from memory once per feature
+	protected static final int ROW_BLOCK = 4096;
+	//with fewer rows than this per thread, threads split the features instead of the rows (each row range needs its own tables)
+	protected static final int MIN_ROWS_PER_THREAD = 16384;
 	
 	//Variables
 	public int[] features = null;
@@ -38,111 +42,62 @@ public class FeatureHistogram {
 	public double sumResponse = 0;
 	public double sqSumResponse = 0;
 	public int[][] count = null;
-	public int[][] sampleToThresholdMap = null;
+	public BinnedFeatures bins = null;//the threshold bin of every sample, for each feature
+	protected ExecutionContext context = null;//the threads to use, and how to sample features
 	
 	//whether to re-use its parents @sum and @count instead of cleaning up the parent and re-allocate for the children.
 	//@sum and @count of any intermediate tree node (except for root) can be re-used.  
 	private boolean reuseParent = false;
+	//where the @sum and @count of the nodes below the root come from, and go back to once the node is split or the tree is done.
+	private HistogramPool pool = null;
+	private boolean pooled = false;//false for the root, whose tables are kept from one tree to the next
 	
 	public FeatureHistogram()
 	{
 		
 	}
 	
-	public void construct(DataPoint[] samples, double[] labels, int[][] sampleSortedIdx, int[] features, float[][] thresholds)
+	/**
+	 * Build the root histogram.
+	 * @param bins the training samples, binned by the thresholds of each feature.
+	 * @param labels
+	 * @param features
+	 */
+	public void construct(BinnedFeatures bins, double[] labels, int[] features)
 	{
+		construct(bins, labels, features, new ExecutionContext());
+	}
+	public void construct(BinnedFeatures bins, double[] labels, int[] features, ExecutionContext context)
+	{
+		this.context = context;
 		this.features = features;
-		this.thresholds = thresholds;
+		this.thresholds = bins.getThresholds();
+		this.bins = bins;
+		this.pool = new HistogramPool(thresholds);
 		
 		sumResponse = 0;
 		sqSumResponse = 0;
-		
-		sum = new double[features.length][];
-		count = new int[features.length][];
-		sampleToThresholdMap = new int[features.length][];
-		
-		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)
-			construct(samples, labels, sampleSortedIdx, thresholds, 0, features.length-1);
-		else
-			p.execute(new Worker(this, samples, labels, sampleSortedIdx, thresholds), features.length);			
-	}
-	protected void construct(DataPoint[] samples, double[] labels, int[][] sampleSortedIdx, float[][] thresholds, int start, int end)
-	{
-		for(int i=start;i<=end;i++)
-		{
-			int fid = features[i];			
-			//get the list of samples associated with this node (sorted in ascending order with respect to the current feature)
-			int[] idx = sampleSortedIdx[i];
-			
-			double sumLeft = 0;
-			float[] threshold = thresholds[i];
-			double[] sumLabel = new double[threshold.length];
-			int[] c = new int[threshold.length];
-			int[] stMap = new int[samples.length];
-			
-			int last = -1;
-			for(int t=0;t<threshold.length;t++)
-			{
-				int j=last+1;
-				//find the first sample that exceeds the current threshold
-				for(;j<idx.length;j++)
-				{
-					int k = idx[j];
-					if(samples[k].getFeatureValue(fid) >  threshold[t])
-						break;
-					sumLeft += labels[k];
-					if(i == 0)
-					{
-						sumResponse += labels[k];
-						sqSumResponse += labels[k] * labels[k];
-					}
-					stMap[k] =  t;
-				}
-				last = j-1;	
-				sumLabel[t] = sumLeft;
-				c[t] = last+1;
-			}
-			sampleToThresholdMap[i] = stMap;
-			sum[i] = sumLabel;
-			count[i] = c;
+		for (double label : labels) {
+			sumResponse += label;
+			sqSumResponse += label * label;
 		}
+		
+		sum = pool.acquireSum();
+		count = pool.acquireCount();
+		fill(null, labels, true);
 	}
 	
 	protected void update(double[] labels)
 	{
 		sumResponse = 0;
 		sqSumResponse = 0;
-		
-		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)
-			update(labels, 0, features.length-1);
-		else
-			p.execute(new Worker(this, labels), features.length);
-	}
-	protected void update(double[] labels, int start, int end)
-	{
-		for(int f=start;f<=end;f++)
-			Arrays.fill(sum[f], 0);
-		for(int k=0;k<labels.length;k++)
-		{
-			for(int f=start;f<=end;f++)
-			{
-				int t = sampleToThresholdMap[f][k];
-				sum[f][t] += labels[k];
-				if(f == 0)
-				{
-					sumResponse += labels[k];
-					sqSumResponse += labels[k]*labels[k];
-				}
-				//count doesn't change, so no need to re-compute
-			}
-		}
-		for(int f=start;f<=end;f++)
-		{			
-			for(int t=1;t<thresholds[f].length;t++)
-				sum[f][t] += sum[f][t-1];
+		for (double label : labels) {
+			sumResponse += label;
+			sqSumResponse += label * label;
 		}
+		
+		//count doesn't change, so no need to re-compute
+		fill(null, labels, false);
 	}
 	
 	public void construct(FeatureHistogram parent, int[] soi, double[] labels)
@@ -151,85 +106,163 @@ public class FeatureHistogram {
 		this.thresholds = parent.thresholds;
 		sumResponse = 0;
 		sqSumResponse = 0;
-		sum = new double[features.length][];
-		count = new int[features.length][];
-		sampleToThresholdMap = parent.sampleToThresholdMap;
-		
-		MyThreadPool p = MyThreadPool.getInstance();
+		for (int k : soi) {
+			sumResponse += labels[k];
+			sqSumResponse += labels[k] * labels[k];
+		}
+		pool = parent.pool;
+		pooled = true;
+		sum = pool.acquireSum();
+		count = pool.acquireCount();
+		bins = parent.bins;
+		context = parent.context;
+		fill(soi, labels, true);
+	}
+	
+	/**
+	 * Compute @sum (and @count, if @withCount) from scratch from the labels of the samples in @soi, or of all samples if @soi is
+	 * null, and make them cumulative over the thresholds of each feature.
+	 */
+	protected void fill(int[] soi, double[] labels, boolean withCount)
+	{
+		int nRows = (soi == null) ? bins.sampleCount() : soi.length;
+		WorkStealingPool p = context.getPool();
 		if(p.size() == 1)
-			construct(soi, labels, 0, features.length-1);
+			fill(soi, labels, withCount, 0, features.length-1);
+		else if(nRows < p.size() * MIN_ROWS_PER_THREAD)
+			p.execute(new Worker(this, soi, labels, withCount, false), features.length);
 		else
-			p.execute(new Worker(this, parent, soi, labels), features.length);	
+		{
+			//each thread accumulates its own range of rows into tables of its own, which are then merged feature by feature
+			WorkerThread[] partials = p.execute(new Worker(this, soi, labels, withCount, true), nRows, p.size());
+			p.execute(new Worker(this, partials, withCount), features.length);
+			for(WorkerThread wk : partials)
+				pool.release(((Worker)wk).partialSum, ((Worker)wk).partialCount);
+		}
 	}
-	protected void construct(int[] soi, double[] labels, int start, int end)
+	protected void fill(int[] soi, double[] labels, boolean withCount, int start, int end)
 	{
-		//init
-		for(int i=start;i<=end;i++)
-		{			
-			float[] threshold = thresholds[i];
-			sum[i] = new double[threshold.length];
-			count[i] = new int[threshold.length];
-			Arrays.fill(sum[i], 0);
-			Arrays.fill(count[i], 0);
+		for(int f=start;f<=end;f++) {
+			Arrays.fill(sum[f], 0);
+			if(withCount)
+				Arrays.fill(count[f], 0);
 		}
-		
-		//update
-		for (int k : soi) {
-			for (int f = start; f <= end; f++) {
-				int t = sampleToThresholdMap[f][k];
-				sum[f][t] += labels[k];
-				count[f][t]++;
-				if (f == 0) {
-					sumResponse += labels[k];
-					sqSumResponse += labels[k] * labels[k];
-				}
+		int nRows = (soi == null) ? bins.sampleCount() : soi.length;
+		accumulate(soi, labels, 0, nRows, start, end, sum, withCount ? count : null);
+		cumulate(withCount, start, end);
+	}
+	/**
+	 * Merge the (non-cumulative) tables filled by the workers of fill(), and make them cumulative.
+	 */
+	protected void merge(WorkerThread[] partials, boolean withCount, int start, int end)
+	{
+		for(int f=start;f<=end;f++) {
+			System.arraycopy(((Worker)partials[0]).partialSum[f], 0, sum[f], 0, sum[f].length);
+			for(int i=1;i<partials.length;i++) {
+				double[] ps = ((Worker)partials[i]).partialSum[f];
+				for(int t=0;t<ps.length;t++)
+					sum[f][t] += ps[t];
+			}
+			if(!withCount)
+				continue;
+			System.arraycopy(((Worker)partials[0]).partialCount[f], 0, count[f], 0, count[f].length);
+			for(int i=1;i<partials.length;i++) {
+				int[] pc = ((Worker)partials[i]).partialCount[f];
+				for(int t=0;t<pc.length;t++)
+					count[f][t] += pc[t];
 			}
 		}
-		
+		cumulate(withCount, start, end);
+	}
+	protected void cumulate(boolean withCount, int start, int end)
+	{
 		for(int f=start;f<=end;f++) {
-			for(int t=1;t<thresholds[f].length;t++) {
+			for(int t=1;t<thresholds[f].length;t++)
 				sum[f][t] += sum[f][t-1];
-				count[f][t] += count[f][t-1];
+			if(withCount) {
+				for(int t=1;t<thresholds[f].length;t++)
+					count[f][t] += count[f][t-1];
+			}
+		}
+	}
+	/**
+	 * Add the labels of rows [@rStart, @rEnd) -- positions in @soi, or sample ids if @soi is null -- to @sum, and their counts to
+	 * @count unless it is null (it must not be, with @soi), for features [@fStart, @fEnd]. Rows go a block of ROW_BLOCK at a time.
+	 */
+	protected void accumulate(int[] soi, double[] labels, int rStart, int rEnd, int fStart, int fEnd, double[][] sum, int[][] count)
+	{
+		for(int b=rStart;b<rEnd;b+=ROW_BLOCK)
+		{
+			int bEnd = Math.min(b + ROW_BLOCK, rEnd);
+			for(int f=fStart;f<=fEnd;f++)
+			{
+				if(soi != null)
+					bins.accumulate(f, soi, b, bEnd, labels, sum[f], count[f]);
+				else
+				{
+					bins.accumulate(f, b, bEnd, labels, sum[f]);
+					if(count != null)
+						bins.count(f, b, bEnd, count[f]);
+				}
 			}
 		}
-	}	
+	}
 	
-	public void construct(FeatureHistogram parent, FeatureHistogram leftSibling, boolean reuseParent)
+	/**
+	 * Build the histogram of a node from those of its parent and its sibling, by subtraction.
+	 * @param reuseParent whether to overwrite the tables of the parent instead of taking new ones; the root's are never reused.
+	 */
+	public void construct(FeatureHistogram parent, FeatureHistogram sibling, boolean reuseParent)
 	{
-		this.reuseParent = reuseParent;
+		this.reuseParent = reuseParent && parent.pooled;
 		this.features = parent.features;
 		this.thresholds = parent.thresholds;
-		sumResponse = parent.sumResponse - leftSibling.sumResponse;
-		sqSumResponse = parent.sqSumResponse - leftSibling.sqSumResponse;
+		sumResponse = parent.sumResponse - sibling.sumResponse;
+		sqSumResponse = parent.sqSumResponse - sibling.sqSumResponse;
 		
-		if(reuseParent) {
+		pool = parent.pool;
+		pooled = true;
+		if(this.reuseParent) {
 			sum = parent.sum;
 			count = parent.count;
 		} else {
-			sum = new double[features.length][];
-			count = new int[features.length][];
+			sum = pool.acquireSum();
+			count = pool.acquireCount();
 		}
-		sampleToThresholdMap = parent.sampleToThresholdMap;
+		bins = parent.bins;
+		context = parent.context;
 		
-		MyThreadPool p = MyThreadPool.getInstance();
+		WorkStealingPool p = context.getPool();
 		if(p.size() == 1)
-			construct(parent, leftSibling, 0, features.length-1);
+			construct(parent, sibling, 0, features.length-1);
 		else
-			p.execute(new Worker(this, parent, leftSibling), features.length);
+			p.execute(new Worker(this, parent, sibling), features.length);
 	}
-	protected void construct(FeatureHistogram parent, FeatureHistogram leftSibling, int start, int end) {
+	protected void construct(FeatureHistogram parent, FeatureHistogram sibling, int start, int end) {
 		for(int f=start;f<=end;f++) {
-			float[] threshold = thresholds[f];
-			if(!reuseParent) {
-				sum[f] = new double[threshold.length];
-				count[f] = new int[threshold.length];
-			}
-			for(int t=0;t<threshold.length;t++) {
-				sum[f][t] = parent.sum[f][t] - leftSibling.sum[f][t];
-				count[f][t] = parent.count[f][t] - leftSibling.count[f][t];
+			double[] s = sum[f];
+			int[] c = count[f];
+			double[] ps = parent.sum[f];
+			int[] pc = parent.count[f];
+			double[] ss = sibling.sum[f];
+			int[] sc = sibling.count[f];
+			for(int t=0;t<s.length;t++) {
+				s[t] = ps[t] - ss[t];
+				c[t] = pc[t] - sc[t];
 			}
 		}
 	}
+	/**
+	 * Give the tables of this histogram back to the pool, when its node is done with them. The root keeps its tables.
+	 */
+	public void release()
+	{
+		if(!pooled || sum == null)
+			return;
+		pool.release(sum, count);
+		sum = null;
+		count = null;
+	}
 	
 	protected Config findBestSplit(int[] usedFeatures, int minLeafSupport, int start, int end)
 	{
@@ -261,22 +294,38 @@ public class FeatureHistogram {
 		}		
 		return cfg;
 	}
+	/**
+	 * Find the best split of a node, and split it there.
+	 * @return false if the node cannot be split.
+	 */
 	public boolean findBestSplit(Split sp, double[] labels, int minLeafSupport)
+	{
+		if(!findBestSplit(sp, minLeafSupport))
+			return false;
+		split(sp, labels, true);
+		return true;
+	}
+	/**
+	 * Find the best split of a node (whose histogram this is) without splitting it yet: the split and its gain, i.e. how
+	 * much it reduces the squared error of the node, are kept in @sp.
+	 * @return false if the node cannot be split.
+	 */
+	public boolean findBestSplit(Split sp, int minLeafSupport)
 	{
 		if(sp.getDeviance() >= 0.0 && sp.getDeviance() <= 0.0)//equals 0
 			return false;//no need to split
 		
 		int[] usedFeatures = null;//index of the features to be used for tree splitting
-		if(samplingRate < 1)//need to do sub sampling (feature sampling)
+		if(context.featureSamplingRate < 1)//need to do sub sampling (feature sampling)
 		{
-			int size = (int)(samplingRate * features.length);
+			int size = (int)(context.featureSamplingRate * features.length);
 			usedFeatures = new int[size];
 			//put all features into a pool
 			List<Integer> fpool = new ArrayList<>();
 			for(int i=0;i<features.length;i++)
 				fpool.add(i);
 			//do sampling, without replacement
-			Random r = new Random();
+			Random r = context.getRandom();
 			for(int i=0;i<size;i++)
 			{
 				int sel = r.nextInt(fpool.size());
@@ -293,7 +342,7 @@ public class FeatureHistogram {
 		
 		//find the best split
 		Config best = new Config();
-		MyThreadPool p = MyThreadPool.getInstance();
+		WorkStealingPool p = context.getPool();
 		if(p.size() == 1)
 			best = findBestSplit(usedFeatures, minLeafSupport, 0, usedFeatures.length-1);
 		else
@@ -310,53 +359,78 @@ public class FeatureHistogram {
 		if(best.S == -1)//unsplitable, for some reason...
 			return false;
 		
-		//if(minS >= sp.getDeviance())
-			//return null;
-		
-		double[] sumLabel = sum[best.featureIdx];
-		int[] sampleCount = count[best.featureIdx];
+		int c = count[best.featureIdx][count[best.featureIdx].length-1];
+		sp.setBestSplit(best.featureIdx, best.thresholdIdx, best.S - sumResponse * sumResponse / c);
+		return true;
+	}
+	/**
+	 * Split a node at the split found for it by findBestSplit(Split, int), creating its two children.
+	 * @param buildHistograms whether to build the histograms of the children, i.e. whether they may be split further.
+	 */
+	public void split(Split sp, double[] labels, boolean buildHistograms)
+	{
+		int featureIdx = sp.getBestFeatureIdx();
+		int thresholdIdx = sp.getBestThresholdIdx();
+		double[] sumLabel = sum[featureIdx];
+		int[] sampleCount = count[featureIdx];
 		
 		double s = sumLabel[sumLabel.length-1];
 		int c = sampleCount[sumLabel.length-1];
 		
-		double sumLeft = sumLabel[best.thresholdIdx];
-		int countLeft = sampleCount[best.thresholdIdx];
+		double sumLeft = sumLabel[thresholdIdx];
+		int countLeft = sampleCount[thresholdIdx];
 		
 		double sumRight = s - sumLeft;
 		int countRight = c - countLeft;
 		
 		int[] left = new int[countLeft];
 		int[] right = new int[countRight];
-		int l = 0;
-		int r = 0;
-		int k = 0;
 		int[] idx = sp.getSamples();
-		for(int j=0;j<idx.length;j++)
-		{
-			k = idx[j];
-			if(sampleToThresholdMap[best.featureIdx][k] <= best.thresholdIdx)//go to the left
-				left[l++] = k;
-			else//go to the right
-				right[r++] = k;
-		}
+		bins.partition(featureIdx, thresholdIdx, idx, left, right);
 		
 		FeatureHistogram lh = new FeatureHistogram();
-		lh.construct(sp.hist, left, labels);
 		FeatureHistogram rh = new FeatureHistogram();
-		rh.construct(sp.hist, lh, !sp.isRoot());
+		if(buildHistograms)
+		{
+			//build the smaller child from its samples, and get the other one by subtraction (re-using the tables of this node)
+			if(countLeft <= countRight)
+			{
+				lh.construct(sp.hist, left, labels);
+				rh.construct(sp.hist, lh, true);
+			}
+			else
+			{
+				rh.construct(sp.hist, right, labels);
+				lh.construct(sp.hist, rh, true);
+			}
+		}
+		else
+		{
+			//only the label sums are needed
+			for (int k : left) {
+				lh.sumResponse += labels[k];
+				lh.sqSumResponse += labels[k] * labels[k];
+			}
+			rh.sumResponse = sumResponse - lh.sumResponse;
+			rh.sqSumResponse = sqSumResponse - lh.sqSumResponse;
+		}
 
 		double var = sqSumResponse - sumResponse * sumResponse / idx.length;
 		double varLeft = lh.sqSumResponse - lh.sumResponse * lh.sumResponse / left.length;
 		double varRight = rh.sqSumResponse - rh.sumResponse * rh.sumResponse / right.length;
+		if(!buildHistograms)
+		{
+			lh = null;
+			rh = null;
+			sp.hist.release();
+		}
 		
-		sp.set(features[best.featureIdx], thresholds[best.featureIdx][best.thresholdIdx], var);
+		sp.set(features[featureIdx], thresholds[featureIdx][thresholdIdx], var);
 		sp.setLeft(new Split(left, lh, varLeft, sumLeft));
 		sp.setRight(new Split(right, rh, varRight, sumRight));
 		
 		sp.clearSamples();
-		
-		return true;
-	}	
+	}
 
 	class Worker extends WorkerThread {
 		FeatureHistogram fh = null;
@@ -367,20 +441,19 @@ public class FeatureHistogram {
 		int minLeafSup = -1;
 		Config cfg = null;
 		
-		//update (type = 1)
+		//fill a range of features (type = 1), or partial tables from a range of rows (type = 2)
+		int[] soi = null;
 		double[] labels = null;
+		boolean withCount = false;
+		double[][] partialSum = null;
+		int[][] partialCount = null;
 		
-		//construct (type = 2)
+		//construct by subtraction (type = 3)
 		FeatureHistogram parent = null;
-		int[] soi = null;
-		
-		//construct (type = 3)
 		FeatureHistogram leftSibling = null;
 		
-		//construct (type = 4)
-		DataPoint[] samples;
-		int[][] sampleSortedIdx;
-		float[][] thresholds;
+		//merge the partial tables of type 2 workers (type = 4)
+		WorkerThread[] partials = null;
 		
 		public Worker()
 		{
@@ -392,19 +465,13 @@ public class FeatureHistogram {
 			this.usedFeatures = usedFeatures;
 			this.minLeafSup = minLeafSup;
 		}
-		public Worker(FeatureHistogram fh, double[] labels)
-		{
-			type = 1;
-			this.fh = fh;
-			this.labels = labels;
-		}
-		public Worker(FeatureHistogram fh, FeatureHistogram parent, int[] soi, double[] labels)
+		public Worker(FeatureHistogram fh, int[] soi, double[] labels, boolean withCount, boolean byRows)
 		{
-			type = 2;
+			type = byRows ? 2 : 1;
 			this.fh = fh;
-			this.parent = parent;
 			this.soi = soi;
 			this.labels = labels;
+			this.withCount = withCount;
 		}
 		public Worker(FeatureHistogram fh, FeatureHistogram parent, FeatureHistogram leftSibling)
 		{
@@ -413,27 +480,36 @@ public class FeatureHistogram {
 			this.parent = parent;
 			this.leftSibling = leftSibling;
 		}
-		public Worker(FeatureHistogram fh, DataPoint[] samples, double[] labels, int[][] sampleSortedIdx, float[][] thresholds)
+		public Worker(FeatureHistogram fh, WorkerThread[] partials, boolean withCount)
 		{
 			type = 4;
 			this.fh = fh;
-			this.samples = samples;
-			this.labels = labels;
-			this.sampleSortedIdx = sampleSortedIdx;
-			this.thresholds = thresholds;			
+			this.partials = partials;
+			this.withCount = withCount;
 		}
 		public void run()
 		{
 			if(type == 0)
 				cfg = fh.findBestSplit(usedFeatures, minLeafSup, start, end);
 			else if(type == 1)
-				fh.update(labels, start, end);
+				fh.fill(soi, labels, withCount, start, end);
 			else if(type == 2)
-				fh.construct(soi, labels, start, end);
+			{
+				partialSum = fh.pool.acquireSum();
+				for(double[] s : partialSum)
+					Arrays.fill(s, 0);
+				if(withCount)
+				{
+					partialCount = fh.pool.acquireCount();
+					for(int[] c : partialCount)
+						Arrays.fill(c, 0);
+				}
+				fh.accumulate(soi, labels, start, end+1, 0, fh.features.length-1, partialSum, partialCount);
+			}
 			else if(type == 3)
 				fh.construct(parent, leftSibling, start, end);
 			else if(type == 4)
-				fh.construct(samples, labels, sampleSortedIdx, thresholds, start, end);
+				fh.merge(partials, withCount, start, end);
 		}		
 		public WorkerThread clone()
 		{
@@ -446,20 +522,17 @@ public class FeatureHistogram {
 			wk.minLeafSup = minLeafSup;
 			//wk.cfg = cfg;
 			
-			//update (type = 1)
-			wk.labels = labels;
-			
-			//construct (type = 2)
-			wk.parent = parent;
+			//fill (type = 1, 2); each type 2 worker gets its own partial tables when it runs
 			wk.soi = soi;
+			wk.labels = labels;
+			wk.withCount = withCount;
 			
 			//construct (type = 3)
+			wk.parent = parent;
 			wk.leftSibling = leftSibling;
 			
-			//construct (type = 1)
-			wk.samples = samples;
-			wk.sampleSortedIdx = sampleSortedIdx;
-			wk.thresholds = thresholds;			
+			//merge (type = 4)
+			wk.partials = partials;
 			
 			return wk;
 		}
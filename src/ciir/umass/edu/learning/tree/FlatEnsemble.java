@@ -0,0 +1,269 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author jfoley
+ *
+ * The trees of one or more {@link Ensemble}s, compiled for scoring. The split nodes of each tree are laid out breadth-first
+ * in one int array, four ints per node (feature, threshold, left child, right child), and leaf outputs in another; a document
+ * goes down a tree by array lookups instead of following pointers from Split to Split.
+ *
+ * Scores are exactly those of Ensemble.eval(): outputs are added up in the same order, with the same precision. Dense
+ * documents are scored off their feature vector directly; others through DataPoint.getFeatureValue().
+ *
+ * A list of documents is scored in blocks of BLOCK documents, tree by tree: the nodes of a tree are read once for the
+ * whole block instead of once per document, while the trees are too many to stay in cache.
+ *
+ * The trees are copied: changes to the ensembles afterwards are not seen.
+ */
+public class FlatEnsemble extends CompiledEnsemble {
+	//a child (or root) c >= 0 is the split node at nodes[c..c+3]; c < 0 is the leaf at output[~c]
+	private static final int FEATURE = 0;
+	private static final int THRESHOLD = 1;//Float.floatToIntBits()
+	private static final int LEFT = 2;
+	private static final int RIGHT = 3;
+	private static final int NODE_SIZE = 4;
+	private static final int BLOCK = 64;
+
+	private final int[] ends;//trees of ensemble e are [ends[e-1], ends[e])
+	private final float[] weights;//of each tree
+	private final int[] roots;
+	private final int[] nodes;
+	private final double[] output;
+	private final int maxFeature;
+
+	public FlatEnsemble(Ensemble... ensembles)
+	{
+		int nTrees = 0;
+		int nLeaves = 0;
+		for(Ensemble e : ensembles)
+		{
+			nTrees += e.treeCount();
+			nLeaves += e.leafCount();
+		}
+		ends = new int[ensembles.length];
+		weights = new float[nTrees];
+		roots = new int[nTrees];
+		nodes = new int[(nLeaves - nTrees) * NODE_SIZE];
+		output = new double[nLeaves];
+
+		int t = 0;
+		int nextNode = 0;
+		int nextLeaf = 0;
+		int maxFid = 0;
+		List<Split> queue = new ArrayList<>();
+		List<Integer> at = new ArrayList<>();//where each node of the queue goes
+		for(int e=0;e<ensembles.length;e++)
+		{
+			for(int i=0;i<ensembles[e].treeCount();i++)
+			{
+				weights[t] = ensembles[e].getWeight(i);
+				queue.clear();
+				at.clear();
+				queue.add(ensembles[e].getTree(i).root);
+				at.add(-1);
+				//breadth-first: a node's place is known when its parent is laid out, so that the parent can point to it
+				for(int q=0;q<queue.size();q++)
+				{
+					Split s = queue.get(q);
+					int c;
+					if(s.getFeatureID() == -1)
+					{
+						output[nextLeaf] = s.getOutput();
+						c = ~nextLeaf++;
+					}
+					else
+					{
+						c = nextNode;
+						nextNode += NODE_SIZE;
+						nodes[c+FEATURE] = s.getFeatureID();
+						nodes[c+THRESHOLD] = Float.floatToIntBits(s.getThreshold());
+						queue.add(s.getLeft());
+						at.add(c+LEFT);
+						queue.add(s.getRight());
+						at.add(c+RIGHT);
+						maxFid = Math.max(maxFid, s.getFeatureID());
+					}
+					if(at.get(q) == -1)
+						roots[t] = c;
+					else
+						nodes[at.get(q)] = c;
+				}
+				t++;
+			}
+			ends[e] = t;
+		}
+		maxFeature = maxFid;
+	}
+
+	@Override
+	public int treeCount()
+	{
+		return roots.length;
+	}
+	public int leafCount()
+	{
+		return output.length;
+	}
+	/**
+	 * @return the largest feature id the trees split on.
+	 */
+	public int getMaxFeature()
+	{
+		return maxFeature;
+	}
+
+	@Override
+	public float eval(DataPoint dp)
+	{
+		return eval(dp, 0, roots.length);
+	}
+	/**
+	 * @param fv fv[fid] is the value of feature fid, as in DataPoint.getFeatureVector(): fv[0] is unused, and NaN stands
+	 *           for an unknown value, i.e. 0. It must cover every feature of the trees.
+	 * @return the sum of the (weighted) outputs of all trees.
+	 */
+	public float eval(float[] fv)
+	{
+		if(fv.length <= maxFeature)
+			throw RankLibError.create("Error in FlatEnsemble::eval(): the trees use feature " + maxFeature + ", but the vector ends at " + (fv.length-1));
+		return eval(fv, 0, roots.length);
+	}
+	@Override
+	public double evalAverage(DataPoint dp)
+	{
+		double s = 0;
+		int start = 0;
+		for (int end : ends)
+		{
+			s += eval(dp, start, end);
+			start = end;
+		}
+		return s/ends.length;
+	}
+
+	@Override
+	public void eval(RankList rl, double[] out)
+	{
+		float[][] fv = new float[BLOCK][];
+		float[] s = new float[BLOCK];
+		for(int from=0;from<rl.size();from+=BLOCK)
+		{
+			int n = Math.min(BLOCK, rl.size()-from);
+			evalBlock(rl, from, n, fv, 0, roots.length, s);
+			for(int d=0;d<n;d++)
+				out[from+d] = s[d];
+		}
+	}
+	@Override
+	public void evalAverage(RankList rl, double[] out)
+	{
+		float[][] fv = new float[BLOCK][];
+		float[] s = new float[BLOCK];
+		for(int from=0;from<rl.size();from+=BLOCK)
+		{
+			int n = Math.min(BLOCK, rl.size()-from);
+			for(int d=0;d<n;d++)
+				out[from+d] = 0;
+			int start = 0;
+			for (int end : ends)
+			{
+				evalBlock(rl, from, n, fv, start, end, s);
+				for(int d=0;d<n;d++)
+					out[from+d] += s[d];
+				start = end;
+			}
+			for(int d=0;d<n;d++)
+				out[from+d] /= ends.length;
+		}
+	}
+
+	/**
+	 * s[d] = eval(rl.get(from+d), treeFrom, treeTo) for the @n documents from @from on: dense ones tree by tree, the others
+	 * one at a time. @fv is scratch space.
+	 */
+	private void evalBlock(RankList rl, int from, int n, float[][] fv, int treeFrom, int treeTo, float[] s)
+	{
+		for(int d=0;d<n;d++)
+		{
+			DataPoint dp = rl.get(from+d);
+			fv[d] = dp instanceof DenseDataPoint ? dp.getFeatureVector() : null;
+			if(fv[d] != null && fv[d].length <= maxFeature)
+				fv[d] = null;
+			s[d] = fv[d] == null ? eval(dp, treeFrom, treeTo) : 0;
+		}
+		final int[] nodes = this.nodes;
+		for(int t=treeFrom;t<treeTo;t++)
+		{
+			int root = roots[t];
+			float w = weights[t];
+			for(int d=0;d<n;d++)
+			{
+				float[] x = fv[d];
+				if(x == null)
+					continue;
+				int c = root;
+				while(c >= 0)
+				{
+					float v = x[nodes[c+FEATURE]];
+					float thr = Float.intBitsToFloat(nodes[c+THRESHOLD]);
+					c = nodes[c + ((v > thr || (v != v && thr < 0)) ? RIGHT : LEFT)];
+				}
+				s[d] += output[~c] * w;
+			}
+		}
+	}
+	private float eval(DataPoint dp, int from, int to)
+	{
+		if(dp instanceof DenseDataPoint)
+		{
+			float[] fv = dp.getFeatureVector();
+			if(fv.length > maxFeature)
+				return eval(fv, from, to);
+		}
+		final int[] nodes = this.nodes;
+		float s = 0;
+		for(int t=from;t<to;t++)
+		{
+			int c = roots[t];
+			while(c >= 0)
+				c = nodes[c + (dp.getFeatureValue(nodes[c+FEATURE]) <= Float.intBitsToFloat(nodes[c+THRESHOLD]) ? LEFT : RIGHT)];
+			s += output[~c] * weights[t];
+		}
+		return s;
+	}
+	private float eval(float[] fv, int from, int to)
+	{
+		final int[] nodes = this.nodes;
+		float s = 0;
+		for(int t=from;t<to;t++)
+		{
+			int c = roots[t];
+			while(c >= 0)
+			{
+				float v = fv[nodes[c+FEATURE]];
+				float thr = Float.intBitsToFloat(nodes[c+THRESHOLD]);
+				//an unknown value (NaN) is 0, as in DenseDataPoint.getFeatureValue()
+				c = nodes[c + ((v > thr || (v != v && thr < 0)) ? RIGHT : LEFT)];
+			}
+			s += output[~c] * weights[t];
+		}
+		return s;
+	}
+}
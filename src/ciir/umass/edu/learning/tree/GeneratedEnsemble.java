@@ -0,0 +1,465 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * @author jfoley
+ *
+ * The trees of one or more {@link Ensemble}s, turned into Java code: every tree is a method of nested if/else on constant
+ * thresholds, returning constant outputs. The code is compiled in-process (javax.tools, so this needs a JDK, not just a
+ * JRE) and loaded, and the JIT compiles it into straight-line machine code.
+ *
+ * Scores are exactly those of Ensemble.eval(): a document goes left when its value is at most the threshold, an unknown value
+ * is 0, and outputs are added up in tree order, with the same precision.
+ *
+ * The JIT does not compile methods of more than 8000 bytes of bytecode, and a class holds at most 65535 constants, so:
+ *  - a subtree is moved to a method of its own past METHOD_NODES split nodes in a method, or MAX_DEPTH levels of nesting;
+ *  - trees go into classes of about CLASS_NODES split nodes each.
+ *
+ * Compiled classes are kept in the cache directory (see setCacheDirectory()) under a hash of their source, so that loading
+ * the same model again, in this process or another one, skips the compilation.
+ *
+ * Whether this beats {@link FlatEnsemble} depends on the model and the machine: the JIT takes a while to compile the generated
+ * code (longer on few cores), and hundreds of large trees make more code than the instruction cache holds. Measure with
+ * EnsembleScoringBenchmark (under test/).
+ */
+public class GeneratedEnsemble extends CompiledEnsemble {
+	private static final int METHOD_NODES = 256;
+	private static final int MAX_DEPTH = 32;
+	private static final int CLASS_NODES = 8192;
+	private static final int METHOD_STATEMENTS = 512;//out[t] = ...; lines per method
+	private static final int BLOCK = 16;
+	private static final String PACKAGE = "ciir.umass.edu.learning.tree.generated";
+	private static final String NAME = "__NAME__";//in the source until the hash is known
+
+	private static volatile File cacheDirectory = new File(System.getProperty("java.io.tmpdir"), "ranklib-trees");
+
+	/**
+	 * What a generated class does: out[at + t*stride] = the output of its tree t, for each of its trees.
+	 * @return where the next tree goes: at + (number of trees)*stride.
+	 */
+	public interface Trees {
+		int outputs(float[] x, double[] out, int at, int stride);
+	}
+
+	private final int[] ends;//trees of ensemble e are [ends[e-1], ends[e])
+	private final float[] weights;//of each tree
+	private final int[] fids;//the features the trees split on
+	private final int maxFeature;
+	private final Trees[] classes;
+	private final String hash;
+
+	public static File getCacheDirectory()
+	{
+		return cacheDirectory;
+	}
+	public static void setCacheDirectory(File dir)
+	{
+		cacheDirectory = dir;
+	}
+
+	public GeneratedEnsemble(Ensemble... ensembles)
+	{
+		int nTrees = 0;
+		for(Ensemble e : ensembles)
+			nTrees += e.treeCount();
+		ends = new int[ensembles.length];
+		weights = new float[nTrees];
+		List<Split> roots = new ArrayList<>();
+		TreeSet<Integer> features = new TreeSet<>();
+		int t = 0;
+		for(int e=0;e<ensembles.length;e++)
+		{
+			for(int i=0;i<ensembles[e].treeCount();i++)
+			{
+				weights[t++] = ensembles[e].getWeight(i);
+				Split root = ensembles[e].getTree(i).root;
+				roots.add(root);
+				features(root, features);
+			}
+			ends[e] = t;
+		}
+		fids = new int[features.size()];
+		t = 0;
+		for(int f : features)
+			fids[t++] = f;
+		maxFeature = fids.length == 0 ? 0 : fids[fids.length-1];
+
+		List<String> sources = generate(roots);
+		hash = hash(sources);
+		for(int k=0;k<sources.size();k++)
+			sources.set(k, sources.get(k).replace(NAME, className(k)));
+		File dir = new File(cacheDirectory, hash);
+		if(!new File(dir, className(sources.size()-1) + ".class").exists())
+			compile(sources, dir);
+		classes = load(dir, sources.size());
+	}
+
+	private static void features(Split s, TreeSet<Integer> features)
+	{
+		if(s.getFeatureID() == -1)
+			return;
+		features.add(s.getFeatureID());
+		features(s.getLeft(), features);
+		features(s.getRight(), features);
+	}
+
+	@Override
+	public int treeCount()
+	{
+		return weights.length;
+	}
+	/**
+	 * @return the hash the generated classes are cached under.
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+	@Override
+	public float eval(DataPoint dp)
+	{
+		double[] out = new double[weights.length];
+		outputs(dp, new float[maxFeature+1], out, 0, 1);
+		return sum(out, 0, weights.length);
+	}
+	@Override
+	public double evalAverage(DataPoint dp)
+	{
+		double[] out = new double[weights.length];
+		outputs(dp, new float[maxFeature+1], out, 0, 1);
+		return average(out);
+	}
+	@Override
+	public void eval(RankList rl, double[] out)
+	{
+		evalBlocks(rl, out, false);
+	}
+	@Override
+	public void evalAverage(RankList rl, double[] out)
+	{
+		evalBlocks(rl, out, true);
+	}
+
+	/**
+	 * out[at + t*stride] = the output of tree t on @dp. @x is scratch space, to hold the values of the features of the trees.
+	 */
+	private void outputs(DataPoint dp, float[] x, double[] out, int at, int stride)
+	{
+		float[] fv = dp instanceof DenseDataPoint ? dp.getFeatureVector() : null;
+		if(fv != null && fv.length > maxFeature)
+		{
+			for(int f : fids)
+			{
+				float v = fv[f];
+				x[f] = v != v ? 0 : v;//an unknown value (NaN) is 0, as in DenseDataPoint.getFeatureValue()
+			}
+		}
+		else
+			for(int f : fids)
+				x[f] = dp.getFeatureValue(f);
+		for(Trees c : classes)
+			at = c.outputs(x, out, at, stride);
+	}
+	/**
+	 * out[i] = eval() (or evalAverage()) of the documents of @rl, BLOCK at a time. Rounding each partial sum to a float makes
+	 * adding up the outputs of one document a chain of dependent steps, slower than running the trees: the outputs are added
+	 * up tree by tree across the block instead, where the sums of different documents do not wait on one another.
+	 */
+	private void evalBlocks(RankList rl, double[] out, boolean average)
+	{
+		float[] x = new float[maxFeature+1];
+		double[] outputs = new double[weights.length * BLOCK];//tree by tree, document by document
+		float[] s = new float[BLOCK];
+		for(int from=0;from<rl.size();from+=BLOCK)
+		{
+			int n = Math.min(BLOCK, rl.size()-from);
+			for(int d=0;d<n;d++)
+			{
+				outputs(rl.get(from+d), x, outputs, d, BLOCK);
+				out[from+d] = 0;
+			}
+			int start = 0;
+			for(int e=0;e<ends.length;e++)
+			{
+				int end = average ? ends[e] : weights.length;
+				Arrays.fill(s, 0);
+				for(int t=start;t<end;t++)
+				{
+					float w = weights[t];
+					for(int d=0;d<n;d++)
+						s[d] += outputs[t*BLOCK + d] * w;
+				}
+				for(int d=0;d<n;d++)
+					out[from+d] += s[d];
+				if(!average)
+					break;
+				start = end;
+			}
+			if(average)
+				for(int d=0;d<n;d++)
+					out[from+d] /= ends.length;
+		}
+	}
+	private float sum(double[] out, int from, int to)
+	{
+		float s = 0;
+		for(int t=from;t<to;t++)
+			s += out[t] * weights[t];
+		return s;
+	}
+	private double average(double[] out)
+	{
+		double s = 0;
+		int from = 0;
+		for (int end : ends)
+		{
+			s += sum(out, from, end);
+			from = end;
+		}
+		return s/ends.length;
+	}
+
+	//code generation
+	private String className(int k)
+	{
+		return "Trees" + hash + "_" + k;
+	}
+	/**
+	 * @return the source of each class, NAME standing for its name.
+	 */
+	private static List<String> generate(List<Split> roots)
+	{
+		List<String> sources = new ArrayList<>();
+		StringBuilder methods = new StringBuilder();
+		List<String> statements = new ArrayList<>();
+		int nodes = 0;
+		for(int t=0;t<roots.size();t++)
+		{
+			int[] count = new int[2];//split nodes, moved subtrees of the tree
+			method("t" + t, "t" + t, roots.get(t), methods, count);
+			statements.add("out[at] = t" + t + "(x); at += stride;");
+			nodes += count[0];
+			if(nodes >= CLASS_NODES || t == roots.size()-1)
+			{
+				sources.add(source(methods, statements));
+				methods.setLength(0);
+				statements.clear();
+				nodes = 0;
+			}
+		}
+		if(sources.isEmpty())
+			sources.add(source(methods, statements));
+		return sources;
+	}
+	private static String source(StringBuilder methods, List<String> statements)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(PACKAGE).append(";\n\n");
+		sb.append("public final class ").append(NAME).append(" implements ").append(Trees.class.getCanonicalName()).append(" {\n");
+		sb.append("public int outputs(float[] x, double[] out, int at, int stride) {\n");
+		int nMethods = (statements.size() + METHOD_STATEMENTS - 1) / METHOD_STATEMENTS;
+		for(int m=0;m<nMethods;m++)
+			sb.append("at = outputs").append(m).append("(x, out, at, stride);\n");
+		sb.append("return at;\n}\n");
+		for(int m=0;m<nMethods;m++)
+		{
+			sb.append("private static int outputs").append(m).append("(float[] x, double[] out, int at, int stride) {\n");
+			for(String s : statements.subList(m * METHOD_STATEMENTS, Math.min(statements.size(), (m+1) * METHOD_STATEMENTS)))
+				sb.append(s).append('\n');
+			sb.append("return at;\n}\n");
+		}
+		sb.append(methods);
+		sb.append("}\n");
+		return sb.toString();
+	}
+	/**
+	 * Append to @sb the method @name, returning the output of the (sub)tree @s, and the methods its subtrees are moved to:
+	 * tree_1, tree_2, ... count[0] is the number of split nodes of the tree appended so far, count[1] of moved subtrees.
+	 */
+	private static void method(String tree, String name, Split s, StringBuilder sb, int[] count)
+	{
+		StringBuilder body = new StringBuilder();
+		List<Split> moved = new ArrayList<>();
+		int first = count[1] + 1;
+		count[0] += body(s, 0, 0, body, moved, tree, first);
+		count[1] += moved.size();
+		sb.append("private static double ").append(name).append("(float[] x) {\n").append(body).append("}\n");
+		for(int i=0;i<moved.size();i++)
+			method(tree, tree + "_" + (first+i), moved.get(i), sb, count);
+	}
+	/**
+	 * Append to @body the code returning the output of @s, @nodes split nodes into the method. Subtrees that do not fit in
+	 * the method are added to @moved, and called as methods tree_firstMoved, tree_(firstMoved+1), ...
+	 * @return @nodes plus the split nodes appended.
+	 */
+	private static int body(Split s, int depth, int nodes, StringBuilder body, List<Split> moved, String tree, int firstMoved)
+	{
+		if(s.getFeatureID() == -1)
+			body.append("return ").append(literal(s.getOutput())).append(";\n");
+		else if(depth >= MAX_DEPTH || nodes >= METHOD_NODES)
+		{
+			body.append("return ").append(tree).append('_').append(firstMoved + moved.size()).append("(x);\n");
+			moved.add(s);
+		}
+		else
+		{
+			body.append("if(x[").append(s.getFeatureID()).append("] <= ").append(literal(s.getThreshold())).append(") {\n");
+			nodes = body(s.getLeft(), depth+1, nodes+1, body, moved, tree, firstMoved);
+			body.append("} else {\n");
+			nodes = body(s.getRight(), depth+1, nodes, body, moved, tree, firstMoved);
+			body.append("}\n");
+		}
+		return nodes;
+	}
+	/**
+	 * @return a Java literal of exactly @v.
+	 */
+	private static String literal(float v)
+	{
+		if(Float.isNaN(v))
+			return "Float.NaN";
+		if(Float.isInfinite(v))
+			return v > 0 ? "Float.POSITIVE_INFINITY" : "Float.NEGATIVE_INFINITY";
+		return Float.toHexString(v) + "f";
+	}
+	private static String literal(double v)
+	{
+		if(Double.isNaN(v))
+			return "Double.NaN";
+		if(Double.isInfinite(v))
+			return v > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+		return Double.toHexString(v);
+	}
+
+	//compilation and loading
+	private static String hash(List<String> sources)
+	{
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			//class files are only loaded by the version of Java they were compiled for, or later ones
+			md.update(System.getProperty("java.specification.version").getBytes(StandardCharsets.UTF_8));
+			for(String s : sources)
+				md.update(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for(byte b : Arrays.copyOf(md.digest(), 16))
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw RankLibError.create(e);
+		}
+	}
+	/**
+	 * Compile @sources into @dir: into a directory of their own first, then moved, so that @dir never holds only part of
+	 * them (e.g. when two processes compile the same model).
+	 */
+	private void compile(List<String> sources, File dir)
+	{
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if(compiler == null)
+			throw RankLibError.create("Error in GeneratedEnsemble: no Java compiler (Java is a JRE, not a JDK), and no compiled trees in " + dir);
+		File tmp = null;
+		try {
+			Files.createDirectories(cacheDirectory.toPath());
+			tmp = Files.createTempDirectory(cacheDirectory.toPath(), hash + ".").toFile();
+			List<File> files = new ArrayList<>();
+			for(int k=0;k<sources.size();k++)
+			{
+				File f = new File(tmp, className(k) + ".java");
+				Files.write(f.toPath(), sources.get(k).getBytes(StandardCharsets.UTF_8));
+				files.add(f);
+			}
+			//the generated classes only need Trees
+			String classPath = System.getProperty("java.class.path");
+			if(Trees.class.getProtectionDomain().getCodeSource() != null)
+				classPath = new File(Trees.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+			DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+			try (StandardJavaFileManager fm = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+				List<String> options = Arrays.asList("-d", tmp.getPath(), "-classpath", classPath, "-g:none", "-nowarn");
+				if(!compiler.getTask(null, fm, diagnostics, options, null, fm.getJavaFileObjectsFromFiles(files)).call())
+				{
+					StringBuilder msg = new StringBuilder("Error in GeneratedEnsemble: compilation failed");
+					for(Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics())
+						msg.append("\n").append(d.getMessage(null));
+					throw RankLibError.create(msg.toString());
+				}
+			}
+			File classes = new File(tmp, PACKAGE.replace('.', File.separatorChar));
+			try {
+				Files.move(classes.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				if(!dir.exists())//not already there from someone else
+					throw e;
+			}
+		} catch (Exception e) {
+			throw RankLibError.create(e);
+		} finally {
+			if(tmp != null)
+				delete(tmp);
+		}
+	}
+	private static void delete(File f)
+	{
+		File[] children = f.listFiles();
+		if(children != null)
+			for(File c : children)
+				delete(c);
+		f.delete();
+	}
+	private Trees[] load(File dir, int nClasses)
+	{
+		try {
+			//@dir holds the class files of the package
+			ClassLoader loader = new ClassLoader(Trees.class.getClassLoader()) {
+				@Override
+				protected Class<?> findClass(String name) throws ClassNotFoundException
+				{
+					if(!name.startsWith(PACKAGE + "."))
+						throw new ClassNotFoundException(name);
+					try {
+						byte[] code = Files.readAllBytes(new File(dir, name.substring(PACKAGE.length()+1) + ".class").toPath());
+						return defineClass(name, code, 0, code.length);
+					} catch (IOException e) {
+						throw new ClassNotFoundException(name, e);
+					}
+				}
+			};
+			Trees[] classes = new Trees[nClasses];
+			for(int k=0;k<nClasses;k++)
+				classes[k] = (Trees) loader.loadClass(PACKAGE + "." + className(k)).getDeclaredConstructor().newInstance();
+			return classes;
+		} catch (Exception e) {
+			throw RankLibError.create(e);
+		}
+	}
+}
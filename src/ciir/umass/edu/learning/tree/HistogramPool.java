@@ -0,0 +1,59 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import java.util.ArrayDeque;
+
+/**
+ * @author jfoley
+ *
+ * Recycles the @sum and @count tables of the histograms of tree nodes, so that they are allocated once per training run
+ * instead of once per node. Tables handed out are *NOT* cleared.
+ */
+class HistogramPool {
+	private final float[][] thresholds;
+	private final ArrayDeque<double[][]> sums = new ArrayDeque<>();
+	private final ArrayDeque<int[][]> counts = new ArrayDeque<>();
+
+	HistogramPool(float[][] thresholds)
+	{
+		this.thresholds = thresholds;
+	}
+
+	synchronized double[][] acquireSum()
+	{
+		double[][] sum = sums.poll();
+		if(sum == null)
+		{
+			sum = new double[thresholds.length][];
+			for(int f=0;f<thresholds.length;f++)
+				sum[f] = new double[thresholds[f].length];
+		}
+		return sum;
+	}
+	synchronized int[][] acquireCount()
+	{
+		int[][] count = counts.poll();
+		if(count == null)
+		{
+			count = new int[thresholds.length][];
+			for(int f=0;f<thresholds.length;f++)
+				count[f] = new int[thresholds[f].length];
+		}
+		return count;
+	}
+	synchronized void release(double[][] sum, int[][] count)
+	{
+		if(sum != null)
+			sums.push(sum);
+		if(count != null)
+			counts.push(count);
+	}
+}
@@ -11,13 +11,19 @@ package ciir.umass.edu.learning.tree;
 
 import ciir.umass.edu.learning.*;
 import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.metric.MetricScorer.SwapDelta;
 import ciir.umass.edu.utilities.MergeSorter;
-import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.RankLibError;
+import ciir.umass.edu.utilities.Sigmoid;
 import ciir.umass.edu.utilities.SimpleMath;
+import ciir.umass.edu.utilities.WorkStealingPool;
+import ciir.umass.edu.utilities.WorkerThread;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -37,27 +43,64 @@ public class LambdaMART extends Ranker {
 	public float learningRate = 0.1F;
 	/** Number of threshold candidates. */
 	public int nThreshold = 256;
+	/**
+	 * Whether to place the threshold candidates of a feature at its quantiles (estimated by a {@link QuantileSketch}) rather than
+	 * evenly between its min and max, when it has more than @nThreshold distinct values.
+	 */
+	public boolean quantileThresholds = false;
 	/**
 	 * If no performance gain on the *VALIDATION* data is observed in #rounds, stop the training process right away.
 	 */
 	public int nRoundToStopEarly = 100;
+	/** Evaluate the model on the *VALIDATION* data only every this many trees (and after the last one). */
+	public int validationInterval = 1;
+	/** If set, the state of the training is saved to this file (see saveCheckpoint()) every @checkpointTrees trees or @checkpointMinutes minutes. */
+	public String checkpointFile = null;
+	public int checkpointTrees = 100;//0 to only checkpoint by time
+	public int checkpointMinutes = 0;//0 to only checkpoint by tree count
+	/** Resume the training from @checkpointFile, if it exists, instead of starting from scratch. */
+	public boolean resume = false;
+	/**
+	 * If set, boosting starts from the trees of this model (e.g. loaded with RankerFactory.loadRankerFromFile()) instead of
+	 * from scratch, and @nTrees trees are added to them.
+	 */
+	public LambdaMART initialModel = null;
 	public int nTreeLeaves = 10;
+	/** Nodes of this depth are not split (the root is at depth 0); -1 for no limit. */
+	public int maxDepth = -1;
 	public int minLeafSupport = 1;
 
+	/** Size of the quantile sketches, relative to @nThreshold: the larger, the more accurate the quantiles. */
+	protected static final int QUANTILE_SKETCH_FACTOR = 8;
+
 	//Local variables
 	protected float[][] thresholds = null;
 	protected Ensemble ensemble = null;
+	protected CompiledEnsemble compiled = null;//the ensemble as learnt or loaded, for eval()
 	protected double[] modelScores = null;//on training data
+	protected int[] order = null;//indices of @martSamples, list by list, each list sorted by modelScores (see sortSamples())
+	protected int[] offsets = null;//where the samples of each ranked list start in @martSamples
 	
 	protected double[][] modelScoresOnValidation = null;
+	protected int[][] orderOnValidation = null;//each validation list, sorted by modelScoresOnValidation
+	protected BinnedFeatures validationBins = null;//validation samples, list by list, binned with the thresholds of the training data
+	protected int[] validationOffsets = null;//where the samples of each validation list start in @validationBins
 	protected int bestModelOnValidation = Integer.MAX_VALUE-2;
 	
 	//Training instances prepared for MART
 	protected DataPoint[] martSamples = null;//Need initializing only once
-	protected int[][] sortedIdx = null;//sorted list of samples in @martSamples by each feature -- Need initializing only once 
+	protected FeatureMatrix backingMatrix = null;//if @martSamples are exactly the rows of a columnar dataset, its columns are used as-is -- only used by init()
+	protected BinnedFeatures bins = null;//bins.bin(f, i) = threshold bin of feature @features[f] on martSamples[i] -- Need initializing only once
 	protected FeatureHistogram hist = null;
+	protected BinnedFeatures sharedBins = null;//if set, @bins are rows @sharedRows of these (see setSharedBins())
+	protected int[] sharedRows = null;
+	protected float[] labels = null;//of @martSamples
 	protected double[] pseudoResponses = null;//different for each iteration
 	protected double[] weights = null;//different for each iteration
+	//per-thread buffers of computePseudoResponses(), kept from one list (and iteration) to the next
+	protected final ThreadLocal<LambdaScratch> lambdaScratch = ThreadLocal.withInitial(() -> new LambdaScratch(scorer));
+	//per-thread copies of @scorer for the parallel evaluation of the model: score() may fill caches (e.g. NDCG's ideal gains)
+	protected final ThreadLocal<MetricScorer> evalScorer = ThreadLocal.withInitial(() -> scorer.copy());
 	
 	public LambdaMART() {	}
 	public LambdaMART(List<RankList> samples, int[] features, MetricScorer scorer) {
@@ -69,8 +112,16 @@ public class LambdaMART extends Ranker {
 		this.nTrees = config.nTrees;
 		this.learningRate = config.learningRate;
 		this.nThreshold = config.nThreshold;
+		this.quantileThresholds = config.quantileThresholds;
 		this.nRoundToStopEarly = config.nRoundToStopEarly;
+		this.validationInterval = config.validationInterval;
+		this.checkpointFile = config.checkpointFile;
+		this.checkpointTrees = config.checkpointTrees;
+		this.checkpointMinutes = config.checkpointMinutes;
+		this.resume = config.resume;
+		this.initialModel = config.initialModel;
 		this.nTreeLeaves = config.nTreeLeaves;
+		this.maxDepth = config.maxDepth;
 		this.minLeafSupport = config.minLeafSupport;
 		this.factory = config.factory;
 	}
@@ -85,12 +136,19 @@ public class LambdaMART extends Ranker {
 		}
 		int current = 0;
 		martSamples = new DataPoint[dpCount];
+		labels = new float[dpCount];
 		modelScores = new double[dpCount];
+		order = new int[dpCount];//all scores are 0: every list is in order as it is
+		offsets = new int[samples.size()];
 		pseudoResponses = new double[dpCount];
 		weights = new double[dpCount];
-		for (RankList rl : samples) {
+		for (int i = 0; i < samples.size(); i++) {
+			RankList rl = samples.get(i);
+			offsets[i] = current;
 			for (int j = 0; j < rl.size(); j++) {
 				martSamples[current + j] = rl.get(j);
+				order[current + j] = current + j;
+				labels[current + j] = rl.get(j).getLabel();
 				modelScores[current + j] = 0.0F;
 				pseudoResponses[current + j] = 0.0F;
 				weights[current + j] = 0;
@@ -98,82 +156,53 @@ public class LambdaMART extends Ranker {
 			current += rl.size();
 		}			
 		
-		//sort (MART) samples by each feature so that we can quickly retrieve a sorted list of samples by any feature later on.
-		sortedIdx = new int[features.length][];
-		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)//single-thread
-			sortSamplesByFeature(0, features.length-1);
-		else//multi-thread
+		if(sharedBins != null)
 		{
-			int[] partition = p.partition(features.length);
-			for(int i=0;i<partition.length-1;i++)
-				p.execute(new SortWorker(this, partition[i], partition[i+1]-1));
-			p.await();
-		}
-		
-		//Create a table of candidate thresholds (for each feature). Later on, we will select the best tree split from these candidates 
-		thresholds = new float[features.length][];
-		for(int f=0;f<features.length;f++) {
-			//For this feature, keep track of the list of unique values and the max/min 
-			List<Float> values = new ArrayList<>();
-			float fmax = Float.NEGATIVE_INFINITY;
-			float fmin = Float.MAX_VALUE;
-			for(int i=0;i<martSamples.length;i++)
-			{
-				int k = sortedIdx[f][i];//get samples sorted with respect to this feature
-				float fv = martSamples[k].getFeatureValue(features[f]);
-				values.add(fv);
-				if(fmax < fv)
-					fmax = fv;
-				if(fmin > fv)
-					fmin = fv;
-				//skip all samples with the same feature value
-				int j=i+1;
-				while(j < martSamples.length)
-				{
-					if(martSamples[sortedIdx[f][j]].getFeatureValue(features[f]) > fv)
-						break;
-					j++;
-				}
-				i = j-1;//[i, j] gives the range of samples with the same feature value
-			}
-			
-			if(values.size() <= nThreshold || nThreshold == -1) {
-				thresholds[f] = new float[values.size()+1];
-				for(int i=0;i<values.size();i++)
-					thresholds[f][i] = values.get(i);
-				thresholds[f][values.size()] = Float.MAX_VALUE;
-			} else {
-				float step = (Math.abs(fmax - fmin))/nThreshold;
-				thresholds[f] = new float[nThreshold+1];
-				thresholds[f][0] = fmin;
-				for(int j=1;j<nThreshold;j++)
-					thresholds[f][j] = thresholds[f][j-1] + step;
-				thresholds[f][nThreshold] = Float.MAX_VALUE;
-			}
+			//binned once for a larger set of samples (e.g. for all bags of a forest): these samples are just some of its rows
+			thresholds = sharedBins.getThresholds();
+			bins = sharedBins.view(sharedRows);
 		}
+		else
+			binSamples();
 		
+		WorkStealingPool p = context.getPool();
 		if(validationSamples != null)
 		{
 			modelScoresOnValidation = new double[validationSamples.size()][];
+			orderOnValidation = new int[validationSamples.size()][];
 			for(int i=0;i<validationSamples.size();i++)
 			{
 				modelScoresOnValidation[i] = new double[validationSamples.get(i).size()];
 				Arrays.fill(modelScoresOnValidation[i], 0);
+				orderOnValidation[i] = new int[modelScoresOnValidation[i].length];
+				for(int j=0;j<orderOnValidation[i].length;j++)
+					orderOnValidation[i][j] = j;
+			}
+			//bin the validation samples too, so that each new tree is applied to them by comparing bins, like on training samples
+			validationOffsets = new int[validationSamples.size()];
+			int nValidation = 0;
+			for(int i=0;i<validationSamples.size();i++)
+			{
+				validationOffsets[i] = nValidation;
+				nValidation += validationSamples.get(i).size();
 			}
+			validationBins = new BinnedFeatures(features.length, nValidation);
+			if(p.size() == 1)
+				binValidation(0, features.length-1);
+			else
+				p.execute(new SortWorker(this, true), features.length);
 		}
 		
 		//compute the feature histogram (this is used to speed up the procedure of finding the best tree split later on)
 		hist = new FeatureHistogram();
-		hist.construct(martSamples, pseudoResponses, sortedIdx, features, thresholds);
-		//we no longer need the sorted indexes of samples
-		sortedIdx = null;
+		hist.construct(bins, pseudoResponses, features, context);
 		
 		System.gc();
 		PRINTLN("[Done]");
 	}
 	public void learn() {
 		ensemble = new Ensemble();
+		compiled = null;
 		
 		PRINTLN("---------------------------------");
 		PRINTLN("Training starts...");
@@ -181,8 +210,23 @@ public class LambdaMART extends Ranker {
 		PRINTLN(new int[]{7, 9, 9}, new String[]{"#tree", scorer.name()+"-T", scorer.name()+"-V"});
 		PRINTLN("---------------------------------");		
 		
+		//trees are numbered from the first tree of the initial model, if any
+		int start = 0;
+		int end = initialTreeCount() + nTrees;
+		if(resume && checkpointFile != null && new File(checkpointFile).exists())
+		{
+			start = loadCheckpoint(checkpointFile);
+			PRINTLN("Resumed from " + checkpointFile + " after " + start + " trees");
+		}
+		else if(initialModel != null)
+		{
+			start = warmStart(initialModel.getEnsemble());
+			PRINTLN("Starting from the " + start + " trees of the initial model" + (validationSamples != null ? " (" + scorer.name() + "-V: " + SimpleMath.round(bestScoreOnValidationData, 4) + ")" : ""));
+		}
+		long lastCheckpoint = System.currentTimeMillis();
+		
 		//Start the gradient boosting process
-		for(int m=0; m<nTrees; m++)
+		for(int m=start; m<end; m++)
 		{
 			PRINT(new int[]{7}, new String[]{(m+1)+""});
 			
@@ -196,7 +240,7 @@ public class LambdaMART extends Ranker {
 			hist.update(pseudoResponses);
 		
 			//Fit a regression tree			
-			RegressionTree rt = new RegressionTree(nTreeLeaves, martSamples, pseudoResponses, hist, minLeafSupport);
+			RegressionTree rt = new RegressionTree(nTreeLeaves, maxDepth, pseudoResponses, hist, minLeafSupport);
 			rt.fit();
 			
 			//Add this tree to the ensemble (our model)
@@ -212,6 +256,9 @@ public class LambdaMART extends Ranker {
 				for (int i : idx)
 					modelScores[i] += learningRate * s.getOutput();
 			}
+			//scores only moved by this tree's outputs, so each list is nearly in order already: bring it up to date, for both
+			//the evaluation below and the lambdas of the next iteration
+			sortSamples();
 
 			//clear references to data that is no longer used
 			rt.clearSamples();
@@ -231,19 +278,19 @@ public class LambdaMART extends Ranker {
 			//Evaluate the current model on the validation data (if available)
 			if(validationSamples != null)
 			{
-				//Update the model's scores on all validation samples
-				for(int i=0;i<modelScoresOnValidation.length;i++)
-					for(int j=0;j<modelScoresOnValidation[i].length;j++)
-						modelScoresOnValidation[i][j] += learningRate * rt.eval(validationSamples.get(i).get(j));
-				
+				//Update the model's scores on all validation samples, and (every validationInterval trees) evaluate it:
 				//again, equivalent to scoreOnValidation=scorer.score(rank(validationSamples)), but more efficient since we use the cached models' outputs
-				double score = computeModelScoreOnValidation();
+				boolean evaluate = (m+1) % validationInterval == 0 || m == end-1;
+				double score = updateModelScoreOnValidation(rt, evaluate);
 				
-				PRINT(new int[]{9}, new String[]{SimpleMath.round(score, 4) + ""});
-				if(score > bestScoreOnValidationData)
+				if(evaluate)
 				{
-					bestScoreOnValidationData = score;
-					bestModelOnValidation = ensemble.treeCount()-1;
+					PRINT(new int[]{9}, new String[]{SimpleMath.round(score, 4) + ""});
+					if(score > bestScoreOnValidationData)
+					{
+						bestScoreOnValidationData = score;
+						bestModelOnValidation = ensemble.treeCount()-1;
+					}
 				}
 			}
 			
@@ -252,11 +299,24 @@ public class LambdaMART extends Ranker {
 			//Should we stop early?
 			if(m - bestModelOnValidation > nRoundToStopEarly)
 				break;
+			
+			if(checkpointFile != null && m+1 < end)
+			{
+				long now = System.currentTimeMillis();
+				if((checkpointTrees > 0 && (m+1) % checkpointTrees == 0) || (checkpointMinutes > 0 && now - lastCheckpoint >= checkpointMinutes * 60000L))
+				{
+					saveCheckpoint(checkpointFile);
+					lastCheckpoint = now;
+				}
+			}
 		}
 		
 		//Rollback to the best model observed on the validation data
 		while(ensemble.treeCount() > bestModelOnValidation+1)
 			ensemble.remove(ensemble.treeCount()-1);
+		//a bag of a forest (see setSharedBins()) is only scored on its own training lists, once: its trees are walked, and
+		//the forest compiles all of them when it is done
+		compiled = sharedBins != null ? new FlatEnsemble(ensemble) : CompiledEnsemble.compile(ensemble);
 		
 		//Finishing up
 		scoreOnTrainingData = scorer.score(rank(samples));
@@ -270,38 +330,56 @@ public class LambdaMART extends Ranker {
 		}
 		PRINTLN("---------------------------------");
 	}
-	public double eval(DataPoint dp) { return ensemble.eval(dp); }
+	public double eval(DataPoint dp) { return compiled != null ? compiled.eval(dp) : ensemble.eval(dp); }
+	public void scoreBatch(RankList rl, double[] out)
+	{
+		if(compiled != null)
+			compiled.eval(rl, out);
+		else
+			super.scoreBatch(rl, out);
+	}
+	public boolean isStatelessEval() { return true; }
 	public Ranker createNew() { return new LambdaMART(this); }
 	public String toString() { return ensemble.toString(); }
 	public String model() {
-		String output = "## " + name() + "\n";
-		output += "## No. of trees = " + nTrees + "\n";
-		output += "## No. of leaves = " + nTreeLeaves + "\n";
-		output += "## No. of threshold candidates = " + nThreshold + "\n";
-		output += "## Learning rate = " + learningRate + "\n";
-		output += "## Stop early = " + nRoundToStopEarly + "\n";
-		output += "\n";
-		output += toString();
-		return output;
+		StringWriter output = new StringWriter();
+		try {
+			writeModel(output);
+		} catch(IOException ex) {
+			throw RankLibError.create(ex);
+		}
+		return output.toString();
+	}
+	@Override
+	public void writeModel(Writer out) throws IOException {
+		out.write("## " + name() + "\n");
+		out.write("## No. of trees = " + nTrees + "\n");
+		out.write("## No. of leaves = " + nTreeLeaves + "\n");
+		out.write("## No. of threshold candidates = " + nThreshold + "\n");
+		out.write("## Learning rate = " + learningRate + "\n");
+		out.write("## Stop early = " + nRoundToStopEarly + "\n");
+		out.write("\n");
+		ensemble.write(out);
 	}
   @Override
 	public void loadFromString(String fullText) {
 		try {
-			String content;
-			StringBuilder model = new StringBuilder();
-			try (BufferedReader in = new BufferedReader(new StringReader(fullText))) {
-				while ((content = in.readLine()) != null) {
-					content = content.trim();
-					if (content.length() == 0)
-						continue;
-					if (content.indexOf("##") == 0)
-						continue;
-					//actual model component
-					model.append(content);
-				}
-			}
+			loadFromReader(new StringReader(fullText));
+		} catch(IOException ex) {
+			throw RankLibError.create("Error in LambdaMART::load(): ", ex);
+		}
+	}
+	/**
+	 * Parse the trees as the model is read, without its text in memory.
+	 */
+	@Override
+	public void loadFromReader(Reader in) throws IOException {
+		try {
+			EnsembleReader model = new EnsembleReader(in);
+			model.next();
 			//load the ensemble
-			ensemble = new Ensemble(model.toString());
+			ensemble = new Ensemble(model);
+			compiled = CompiledEnsemble.compile(ensemble);
 			features = ensemble.getFeatures();
 		}
 		catch(Exception ex)
@@ -313,10 +391,16 @@ public class LambdaMART extends Ranker {
 	{
 		PRINTLN("No. of trees: " + nTrees);
 		PRINTLN("No. of leaves: " + nTreeLeaves);
-		PRINTLN("No. of threshold candidates: " + nThreshold);
+		if(maxDepth != -1)
+			PRINTLN("Max depth: " + maxDepth);
+		PRINTLN("No. of threshold candidates: " + nThreshold + (quantileThresholds ? " (quantiles)" : ""));
 		PRINTLN("Min leaf support: " + minLeafSupport);
 		PRINTLN("Learning rate: " + learningRate);
 		PRINTLN("Stop early: " + nRoundToStopEarly + " rounds without performance gain on validation data");		
+		if(validationInterval > 1)
+			PRINTLN("Validation every: " + validationInterval + " trees");
+		if(checkpointFile != null)
+			PRINTLN("Checkpoint: " + checkpointFile + (checkpointTrees > 0 ? ", every " + checkpointTrees + " trees" : "") + (checkpointMinutes > 0 ? ", every " + checkpointMinutes + " minutes" : "") + (resume ? " (resuming from it if it exists)" : ""));
 	}
 
 	@Override
@@ -333,60 +417,202 @@ public class LambdaMART extends Ranker {
 		return ensemble;
 	}
 	
-	protected void computePseudoResponses()
+	private static final int CHECKPOINT_MAGIC = 0x524c434b;//"RLCK"
+	private static final int CHECKPOINT_VERSION = 1;
+	/**
+	 * Save the state of the training after the trees in the ensemble so far: the ensemble itself, the model's scores on
+	 * the training and validation samples, and the best model on the validation data. Together with the same data (and
+	 * parameters), this is all learn() needs to go on from there, as if it had never stopped. The file is replaced
+	 * atomically, so a crash while writing it leaves the previous checkpoint intact.
+	 */
+	public void saveCheckpoint(String filename)
 	{
-		Arrays.fill(pseudoResponses, 0F);
-		Arrays.fill(weights, 0);
-		MyThreadPool p = MyThreadPool.getInstance();
+		Path file = Paths.get(filename).toAbsolutePath();
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeInt(CHECKPOINT_VERSION);
+			writeCheckpointHeader(out);
+			ensemble.write(out);
+			for(double s : modelScores)
+				out.writeDouble(s);
+			if(validationSamples != null)
+				for(double[] scores : modelScoresOnValidation)
+					for(double s : scores)
+						out.writeDouble(s);
+			out.writeInt(bestModelOnValidation);
+			out.writeDouble(bestScoreOnValidationData);
+			out.writeDouble(scoreOnTrainingData);
+		} catch (IOException e) {
+			throw RankLibError.create("Error in LambdaMART::saveCheckpoint(): ", e);
+		}
+		try {
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw RankLibError.create("Error in LambdaMART::saveCheckpoint(): ", e);
+		}
+	}
+	/**
+	 * Restore the state saved by saveCheckpoint(), on the same data; init() must have been called.
+	 * @return the number of trees trained so far.
+	 */
+	protected int loadCheckpoint(String filename)
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+			if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION)
+				throw RankLibError.create("Error in LambdaMART::loadCheckpoint(): " + filename + " is not a checkpoint (or of another version)");
+			//the checkpoint must come from the same ranker, parameters and data
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			writeCheckpointHeader(new DataOutputStream(expected));
+			byte[] header = new byte[expected.size()];
+			in.readFully(header);
+			if(!Arrays.equals(header, expected.toByteArray()))
+				throw RankLibError.create("Error in LambdaMART::loadCheckpoint(): " + filename + " was saved by another ranker, with other parameters or on other data");
+			ensemble = Ensemble.read(in);
+			for(int i=0;i<modelScores.length;i++)
+				modelScores[i] = in.readDouble();
+			if(validationSamples != null)
+				for(double[] scores : modelScoresOnValidation)
+					for(int j=0;j<scores.length;j++)
+						scores[j] = in.readDouble();
+			bestModelOnValidation = in.readInt();
+			bestScoreOnValidationData = in.readDouble();
+			scoreOnTrainingData = in.readDouble();
+		} catch (IOException e) {
+			throw RankLibError.create("Error in LambdaMART::loadCheckpoint(): ", e);
+		}
+		sortSamples();//validation lists get re-sorted as they are evaluated
+		return ensemble.treeCount();
+	}
+	/**
+	 * What a checkpoint must agree on with this training to be resumed: the ranker, the parameters that shape the
+	 * trees, and the shape of the data.
+	 */
+	private void writeCheckpointHeader(DataOutputStream out) throws IOException
+	{
+		out.writeUTF(name());
+		out.writeUTF(scorer.name());
+		out.writeFloat(learningRate);
+		out.writeInt(nTreeLeaves);
+		out.writeInt(maxDepth);
+		out.writeInt(nThreshold);
+		out.writeBoolean(quantileThresholds);
+		out.writeInt(minLeafSupport);
+		out.writeInt(initialTreeCount());
+		out.writeInt(features.length);
+		for(int f : features)
+			out.writeInt(f);
+		out.writeInt(samples.size());
+		out.writeInt(martSamples.length);
+		out.writeInt(validationSamples == null ? -1 : validationSamples.size());
+		out.writeInt(validationSamples == null ? -1 : validationBins.sampleCount());
+	}
+	
+	protected int initialTreeCount()
+	{
+		return initialModel == null ? 0 : initialModel.getEnsemble().treeCount();
+	}
+	/**
+	 * Start boosting from the trees of @initial: the model's scores are computed from them once, adding up their outputs as
+	 * they would have been had these trees been trained here, and the initial model is the best one on the validation data
+	 * so far.
+	 * @return the number of trees.
+	 */
+	protected int warmStart(Ensemble initial)
+	{
+		ensemble = new Ensemble(initial);
+		WorkStealingPool p = context.getPool();
 		if(p.size() == 1)//single-thread
-			computePseudoResponses(0, samples.size()-1, 0);
+			warmStart(0, martSamples.length-1, false);
 		else //multi-threading
+			p.execute(new WarmStartWorker(this, false), martSamples.length);
+		sortSamples();
+		if(validationSamples != null)
 		{
-			//divide the entire dataset into chunks of equal size for each worker thread
-			int[] partition = p.partition(samples.size());
-			int current = 0;
-			for(int i=0;i<partition.length-1;i++)
+			if(p.size() == 1)
+				warmStart(0, validationSamples.size()-1, true);
+			else
+				p.execute(new WarmStartWorker(this, true), validationSamples.size());
+			bestScoreOnValidationData = updateModelScoreOnValidation(null, true);
+			bestModelOnValidation = ensemble.treeCount()-1;
+		}
+		return ensemble.treeCount();
+	}
+	/**
+	 * Set the model's scores on training samples [start, end] (or validation lists [start, end]) to those of the ensemble.
+	 */
+	protected void warmStart(int start, int end, boolean validation)
+	{
+		for(int i=start;i<=end;i++)
+		{
+			if(!validation)
+				modelScores[i] = eval(ensemble, martSamples[i]);
+			else
 			{
-				//execute the worker
-				LambdaComputationWorker wk = new LambdaComputationWorker(this, partition[i], partition[i+1]-1, current); 
-				p.execute(wk);
-				
-				if(i < partition.length-2)
-					for(int j=partition[i]; j<=partition[i+1]-1;j++)
-						current += samples.get(j).size();
+				RankList rl = validationSamples.get(i);
+				for(int j=0;j<rl.size();j++)
+					modelScoresOnValidation[i][j] = eval(ensemble, rl.get(j));
 			}
-			
-			//wait for all workers to complete before we move on to the next stage
-			p.await();
 		}
 	}
+	/**
+	 * Same as e.eval(dp), but adding up the outputs in double precision, as modelScores does during training.
+	 */
+	private static double eval(Ensemble e, DataPoint dp)
+	{
+		double s = 0;
+		for(int t=0;t<e.treeCount();t++)
+			s += e.getWeight(t) * e.getTree(t).eval(dp);
+		return s;
+	}
+	
+	protected void computePseudoResponses()
+	{
+		Arrays.fill(pseudoResponses, 0F);
+		Arrays.fill(weights, 0);
+		WorkStealingPool p = context.getPool();
+		if(p.size() == 1)//single-thread
+			computePseudoResponses(0, samples.size()-1, 0);
+		else //multi-threading
+			p.execute(new LambdaComputationWorker(this, offsets), samples.size());
+	}
 	protected void computePseudoResponses(int start, int end, int current) {
 		int cutoff = scorer.getK();
+		Sigmoid sigmoid = Sigmoid.get();
+		LambdaScratch s = lambdaScratch.get();
 		//compute the lambda for each document (a.k.a "pseudo response")
 		for(int i=start;i<=end;i++)
 		{
-			RankList orig = samples.get(i);			
-			int[] idx = MergeSorter.sort(modelScores, current, current+orig.size()-1, false);
-			RankList rl = new RankList(orig, idx, current);
-			double[][] changes = scorer.swapChange(rl);
-			//NOTE: j, k are indices in the sorted (by modelScore) list, not the original
-			// ==> need to map back with idx[j] and idx[k] 
-			for(int j=0;j<rl.size();j++)
+			RankList orig = samples.get(i);
+			int n = orig.size();
+			s.reserve(n);
+			//NOTE: j, k below are ranks in the list sorted by modelScore; idx[j] is the index (in @martSamples) of the j-th
+			int[] idx = s.idx;
+			System.arraycopy(order, current, idx, 0, n);
+			float[] label = s.label;
+			int[] rel = s.rel;
+			for(int j=0;j<n;j++)
+			{
+				label[j] = labels[idx[j]];
+				rel[j] = (int)label[j];
+			}
+			//metric changes are computed only for the pairs that get this far, never for the whole list
+			SwapDelta changes = s.changes;
+			changes.prepare(orig, idx, current, rel, n);
+			for(int j=0;j<n;j++)
 			{
-				DataPoint p1 = rl.get(j);
 				int mj = idx[j];
-				for(int k=0;k<rl.size();k++)
+				//swapping two documents below the cut-off point won't result in any change in target measures
+				int kEnd = (j > cutoff) ? Math.min(n, cutoff+1) : n;
+				for(int k=0;k<kEnd;k++)
 				{
-					if(j > cutoff && k > cutoff)//swaping these pair won't result in any change in target measures since they're below the cut-off point
-						break;
-					DataPoint p2 = rl.get(k);
 					int mk = idx[k];
-					if(p1.getLabel() > p2.getLabel())
+					if(label[j] > label[k])
 					{
-						double deltaNDCG = Math.abs(changes[j][k]);
+						double deltaNDCG = Math.abs(changes.delta(j, k));
 						if(deltaNDCG > 0)
 						{
-							double rho = 1.0 / (1 + Math.exp(modelScores[mj] - modelScores[mk]));
+							double rho = sigmoid.value(modelScores[mk] - modelScores[mj]);//1 / (1 + e^(s_j - s_k))
 							double lambda = rho * deltaNDCG;
 							pseudoResponses[mj] += lambda;
 							pseudoResponses[mk] -= lambda;
@@ -417,11 +643,49 @@ public class LambdaMART extends Ranker {
 			}
 		}
 	}
-	protected int[] sortSamplesByFeature(DataPoint[] samples, int fid) {
-		double[] score = new double[samples.length];
-		for(int i=0;i<samples.length;i++)
-			score[i] = samples[i].getFeatureValue(fid);
-		return MergeSorter.sort(score, true);
+	/**
+	 * Values of a feature on all of @martSamples, in order. This is the dataset's own column if it is stored column-wise
+	 * (or a copy of it, if the column is still in a mapped file); it is only read.
+	 */
+	protected float[] featureColumn(int fid) {
+		if(backingMatrix != null)
+			return backingMatrix.readColumn(fid);
+		float[] column = new float[martSamples.length];
+		for(int i=0;i<martSamples.length;i++)
+			column[i] = martSamples[i].getFeatureValue(fid);
+		return column;
+	}
+	/**
+	 * Re-sort every ranked list in @order after modelScores have changed. Lists are sorted from their previous order,
+	 * which is cheap as long as the scores have only moved a little.
+	 */
+	protected void sortSamples() {
+		WorkStealingPool p = context.getPool();
+		if(p.size() == 1)//single-thread
+			sortSamples(0, samples.size()-1, 0);
+		else //multi-threading
+			p.execute(new OrderWorker(this, offsets), samples.size());
+	}
+	protected void sortSamples(int start, int end, int current) {
+		for(int i=start;i<=end;i++)
+		{
+			int n = samples.get(i).size();
+			if(!MergeSorter.resort(modelScores, order, current, current+n-1, false, maxShifts(n)))
+			{
+				//too much has changed: sort the list from scratch
+				LambdaScratch s = lambdaScratch.get();
+				s.reserve(n);
+				MergeSorter.sort(modelScores, current, current+n-1, false, s.idx, s.tmp, s.runs);
+				System.arraycopy(s.idx, 0, order, current, n);
+			}
+			current += n;
+		}
+	}
+	/**
+	 * Past this many moves, re-sorting a list of @n samples from its previous order costs about as much as a merge sort.
+	 */
+	protected static long maxShifts(int n) {
+		return (long)n * (32 - Integer.numberOfLeadingZeros(n));
 	}
 	/**
 	 * This function is equivalent to the inherited function rank(...), but it uses the cached model's outputs instead of computing them from scratch.
@@ -430,74 +694,308 @@ public class LambdaMART extends Ranker {
 	 * @return RankList sorted by scored outputs
 	 */
 	protected RankList rank(int rankListIndex, int current) {
-		RankList orig = samples.get(rankListIndex);	
-		double[] scores = new double[orig.size()];
-		for(int i=0;i<scores.length;i++)
-			scores[i] = modelScores[current+i];
-		int[] idx = MergeSorter.sort(scores, false);
-		return new RankList(orig, idx);
+		RankList orig = samples.get(rankListIndex);
+		return new RankList(orig, Arrays.copyOfRange(order, current, current+orig.size()), current);
 	}
 	protected float computeModelScoreOnTraining() {
-		float s = computeModelScoreOnTraining(0, samples.size()-1, 0);
-		s = s / samples.size();
-		return s;
+		double[] scores = new double[samples.size()];
+		WorkStealingPool p = context.getPool();
+		if(p.size() == 1)//single-thread
+			computeModelScoreOnTraining(scorer, 0, samples.size()-1, 0, scores);
+		else //multi-threading
+			p.execute(new EvaluationWorker(this, null, scores, true), samples.size());
+		return sum(scores) / samples.size();
 	}
-	protected float computeModelScoreOnTraining(int start, int end, int current) {
-		float s = 0;
-		int c = current;
+	/**
+	 * Score the current ranking of each of the training lists [start, end] (the first of which begins at @current) into @scores,
+	 * with @scorer (which must not be in use by other threads).
+	 */
+	protected void computeModelScoreOnTraining(MetricScorer scorer, int start, int end, int current, double[] scores) {
 		for(int i=start;i<=end;i++)
 		{
-			s += scorer.score(rank(i, c));
-			c += samples.get(i).size();
+			scores[i] = scorer.score(rank(i, current));
+			current += samples.get(i).size();
 		}
-		return s;
 	}
-	protected float computeModelScoreOnValidation() {
-		float score = computeModelScoreOnValidation(0, validationSamples.size()-1);
-		return score/validationSamples.size();
+	/**
+	 * Add the outputs of the new tree @rt (unless it is null) to the model's scores on all validation samples.
+	 * @param evaluate whether to also evaluate the model on the validation data.
+	 * @return the model's score on the validation data, if evaluated.
+	 */
+	protected float updateModelScoreOnValidation(RegressionTree rt, boolean evaluate) {
+		double[] scores = evaluate ? new double[validationSamples.size()] : null;
+		WorkStealingPool p = context.getPool();
+		if(p.size() == 1)//single-thread
+			updateModelScoreOnValidation(scorer, rt, 0, validationSamples.size()-1, scores);
+		else //multi-threading
+			p.execute(new EvaluationWorker(this, rt, scores, false), validationSamples.size());
+		return evaluate ? sum(scores) / validationSamples.size() : 0;
 	}
-	protected float computeModelScoreOnValidation(int start, int end) {
-		float score = 0;
+	/**
+	 * Add the outputs of @rt (unless it is null) to the model's scores on the validation lists [start, end]; if @scores is
+	 * not null, also score the ranking of each of these lists into it with @scorer (which must not be in use by other threads).
+	 */
+	protected void updateModelScoreOnValidation(MetricScorer scorer, RegressionTree rt, int start, int end, double[] scores) {
 		for(int i=start;i<=end;i++)
 		{
-			int[] idx = MergeSorter.sort(modelScoresOnValidation[i], false);
-			score += scorer.score(new RankList(validationSamples.get(i), idx));
+			double[] modelScores = modelScoresOnValidation[i];
+			int k = validationOffsets[i];
+			if(rt != null)
+				for(int j=0;j<modelScores.length;j++)
+					modelScores[j] += learningRate * rt.eval(validationBins, k+j);
+			if(scores == null)
+				continue;
+			if(!MergeSorter.resort(modelScores, orderOnValidation[i], 0, modelScores.length-1, false, maxShifts(modelScores.length)))
+				orderOnValidation[i] = MergeSorter.sort(modelScores, false);
+			scores[i] = scorer.score(new RankList(validationSamples.get(i), orderOnValidation[i]));
 		}
-		return score;
+	}
+	/**
+	 * @return the sum of @scores, added up in order (as floats), so that it does not depend on how lists were split among threads.
+	 */
+	private static float sum(double[] scores) {
+		float s = 0;
+		for(double score : scores)
+			s += score;
+		return s;
+	}
+	
+	/**
+	 * Read each feature of @martSamples as a column (directly from the dataset if it is stored column-wise), create its table of
+	 * candidate thresholds (later on, we will select the best tree split from these candidates) and map every sample to its
+	 * threshold bin. Trees are trained from these bins only, so each column is dropped as soon as it is binned.
+	 */
+	protected void binSamples() {
+		backingMatrix = FeatureMatrix.backingMatrix(martSamples);
+		thresholds = new float[features.length][];
+		bins = new BinnedFeatures(features.length, martSamples.length);
+		WorkStealingPool p = context.getPool();
+		if(p.size() == 1)//single-thread
+			binFeatures(0, features.length-1);
+		else//multi-thread
+			p.execute(new SortWorker(this, false), features.length);
+		backingMatrix = null;
+	}
+	/**
+	 * Bin the training samples as init() does, without training anything, for other rankers to share (see setSharedBins()).
+	 * @return the bins of the samples of all training lists, list after list.
+	 */
+	public BinnedFeatures binTrainingSamples() {
+		List<DataPoint> all = new ArrayList<>();
+		for(RankList rl : samples)
+			for(int j=0;j<rl.size();j++)
+				all.add(rl.get(j));
+		martSamples = all.toArray(new DataPoint[0]);
+		binSamples();
+		BinnedFeatures shared = bins;
+		martSamples = null;
+		thresholds = null;
+		bins = null;
+		return shared;
+	}
+	/**
+	 * Train on rows of @bins instead of binning the training samples: the training samples (list after list) are rows @rows[0],
+	 * @rows[1]... of @bins, which must have been binned on the same features (e.g. by binTrainingSamples() of a larger set).
+	 */
+	public void setSharedBins(BinnedFeatures bins, int[] rows) {
+		this.sharedBins = bins;
+		this.sharedRows = rows;
 	}
 	
-	protected void sortSamplesByFeature(int fStart, int fEnd) {
-		for(int i=fStart;i<=fEnd; i++)
-			sortedIdx[i] = sortSamplesByFeature(martSamples, features[i]);
+	protected void binFeatures(int fStart, int fEnd) {
+		for(int f=fStart;f<=fEnd; f++)
+		{
+			float[] column = featureColumn(features[f]);
+			if(quantileThresholds && nThreshold > 0)
+				thresholds[f] = computeQuantileThresholds(column);
+			else
+			{
+				//sort samples by this feature, to go through its distinct values in order
+				int[] sortedIdx = MergeSorter.sort(column, true);
+				thresholds[f] = computeThresholds(column, sortedIdx);
+			}
+			bins.set(f, column, thresholds[f]);
+		}
+	}
+	/**
+	 * Bin features [fStart, fEnd] of the validation samples, with the thresholds of the training data.
+	 */
+	protected void binValidation(int fStart, int fEnd) {
+		float[] column = new float[validationBins.sampleCount()];
+		for(int f=fStart;f<=fEnd; f++)
+		{
+			int k = 0;
+			for(RankList rl : validationSamples)
+				for(int j=0;j<rl.size();j++)
+					column[k++] = rl.get(j).getFeatureValue(features[f]);
+			validationBins.set(f, column, thresholds[f]);
+		}
+	}
+	/**
+	 * Candidate thresholds of a feature: its distinct values if there are at most @nThreshold of them, evenly spaced values
+	 * between its min and max otherwise. The last threshold is always Float.MAX_VALUE.
+	 * @param column values of the feature on all of @martSamples.
+	 * @param sortedIdx samples in ascending order of @column.
+	 */
+	protected float[] computeThresholds(float[] column, int[] sortedIdx) {
+		//For this feature, keep track of the list of unique values and the max/min 
+		List<Float> values = new ArrayList<>();
+		float fmax = Float.NEGATIVE_INFINITY;
+		float fmin = Float.MAX_VALUE;
+		for(int i=0;i<sortedIdx.length;i++)
+		{
+			int k = sortedIdx[i];//get samples sorted with respect to this feature
+			float fv = column[k];
+			values.add(fv);
+			if(fmax < fv)
+				fmax = fv;
+			if(fmin > fv)
+				fmin = fv;
+			//skip all samples with the same feature value
+			int j=i+1;
+			while(j < sortedIdx.length)
+			{
+				if(column[sortedIdx[j]] > fv)
+					break;
+				j++;
+			}
+			i = j-1;//[i, j] gives the range of samples with the same feature value
+		}
+		
+		float[] threshold;
+		if(values.size() <= nThreshold || nThreshold == -1) {
+			threshold = new float[values.size()+1];
+			for(int i=0;i<values.size();i++)
+				threshold[i] = values.get(i);
+			threshold[values.size()] = Float.MAX_VALUE;
+		} else {
+			float step = (Math.abs(fmax - fmin))/nThreshold;
+			threshold = new float[nThreshold+1];
+			threshold[0] = fmin;
+			for(int j=1;j<nThreshold;j++)
+				threshold[j] = threshold[j-1] + step;
+			threshold[nThreshold] = Float.MAX_VALUE;
+		}
+		return threshold;
+	}
+	/**
+	 * Candidate thresholds of a feature: its distinct values if there are at most @nThreshold of them, @nThreshold of its
+	 * quantiles otherwise (always including its min and max). The last threshold is always Float.MAX_VALUE.
+	 * Unlike computeThresholds(), this needs no sorting: values are streamed through a sketch of QUANTILE_SKETCH_FACTOR*@nThreshold entries.
+	 * @param column values of the feature on all of @martSamples.
+	 */
+	protected float[] computeQuantileThresholds(float[] column) {
+		QuantileSketch sketch = new QuantileSketch(QUANTILE_SKETCH_FACTOR * nThreshold);
+		for (float fv : column)
+			sketch.add(fv);
+		float[] values = (sketch.isExact() && sketch.getValues().length <= nThreshold) ? sketch.getValues() : sketch.quantiles(nThreshold);
+		float[] threshold = Arrays.copyOf(values, values.length+1);
+		threshold[values.length] = Float.MAX_VALUE;
+		return threshold;
 	}
 
 	//For multi-threading processing
-	static class SortWorker implements Runnable {
+	/**
+	 * Buffers for the lambdas of one ranked list at a time, grown to the largest list seen.
+	 */
+	static class LambdaScratch {
+		int[] idx = new int[0];
+		int[] tmp = new int[0];
+		int[] runs = new int[0];
+		float[] label = new float[0];
+		int[] rel = new int[0];
+		final SwapDelta changes;
+		LambdaScratch(MetricScorer scorer) {
+			changes = scorer.swapDelta();
+		}
+		void reserve(int n) {
+			if(idx.length >= n)
+				return;
+			idx = new int[n];
+			tmp = new int[n];
+			runs = new int[n/2+3];
+			label = new float[n];
+			rel = new int[n];
+		}
+	}
+	static class SortWorker extends WorkerThread {
 		LambdaMART ranker = null;
-		int start = -1;
-		int end = -1;
-		SortWorker(LambdaMART ranker, int start, int end) {
+		boolean validation = false;//bin the validation samples instead of the training ones
+		SortWorker(LambdaMART ranker, boolean validation) {
 			this.ranker = ranker;
-			this.start = start;
-			this.end = end;
+			this.validation = validation;
 		}		
 		public void run() {
-			ranker.sortSamplesByFeature(start, end);
+			if(validation)
+				ranker.binValidation(start, end);
+			else
+				ranker.binFeatures(start, end);
+		}
+		public WorkerThread clone() {
+			return new SortWorker(ranker, validation);
 		}
 	}
-	static class LambdaComputationWorker implements Runnable {
+	static class LambdaComputationWorker extends WorkerThread {
 		LambdaMART ranker = null;
-		int rlStart = -1;
-		int rlEnd = -1;
-		int martStart = -1;
-		LambdaComputationWorker(LambdaMART ranker, int rlStart, int rlEnd, int martStart) {
+		int[] offsets = null;//where the samples of each ranked list start
+		LambdaComputationWorker(LambdaMART ranker, int[] offsets) {
 			this.ranker = ranker;
-			this.rlStart = rlStart;
-			this.rlEnd = rlEnd;
-			this.martStart = martStart;
+			this.offsets = offsets;
 		}		
 		public void run() {
-			ranker.computePseudoResponses(rlStart, rlEnd, martStart);
+			ranker.computePseudoResponses(start, end, offsets[start]);
+		}
+		public WorkerThread clone() {
+			return new LambdaComputationWorker(ranker, offsets);
+		}
+	}
+	static class EvaluationWorker extends WorkerThread {
+		LambdaMART ranker = null;
+		RegressionTree rt = null;//the new tree, to add to the scores on validation lists
+		double[] scores = null;//of each list, if evaluating
+		boolean training = true;//training or validation lists
+		EvaluationWorker(LambdaMART ranker, RegressionTree rt, double[] scores, boolean training) {
+			this.ranker = ranker;
+			this.rt = rt;
+			this.scores = scores;
+			this.training = training;
+		}
+		public void run() {
+			if(training)
+				ranker.computeModelScoreOnTraining(ranker.evalScorer.get(), start, end, ranker.offsets[start], scores);
+			else
+				ranker.updateModelScoreOnValidation(ranker.evalScorer.get(), rt, start, end, scores);
+		}
+		public WorkerThread clone() {
+			return new EvaluationWorker(ranker, rt, scores, training);
+		}
+	}
+	static class WarmStartWorker extends WorkerThread {
+		LambdaMART ranker = null;
+		boolean validation = false;//validation lists, or training samples
+		WarmStartWorker(LambdaMART ranker, boolean validation) {
+			this.ranker = ranker;
+			this.validation = validation;
+		}
+		public void run() {
+			ranker.warmStart(start, end, validation);
+		}
+		public WorkerThread clone() {
+			return new WarmStartWorker(ranker, validation);
+		}
+	}
+	static class OrderWorker extends WorkerThread {
+		LambdaMART ranker = null;
+		int[] offsets = null;//where the samples of each ranked list start
+		OrderWorker(LambdaMART ranker, int[] offsets) {
+			this.ranker = ranker;
+			this.offsets = offsets;
+		}
+		public void run() {
+			ranker.sortSamples(start, end, offsets[start]);
+		}
+		public WorkerThread clone() {
+			return new OrderWorker(ranker, offsets);
 		}
 	}
 }
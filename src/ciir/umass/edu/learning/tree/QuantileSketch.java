@@ -0,0 +1,266 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.util.Arrays;
+
+/**
+ * @author jfoley
+ *
+ * A streaming, weighted quantile summary of a stream of values, in the style of the one used by XGBoost:
+ *  T. Chen and C. Guestrin. XGBoost: A Scalable Tree Boosting System. KDD 2016 (Appendix A).
+ *
+ * The summary is a list of distinct values in ascending order, each with bounds [rmin, rmax] on the total weight of the
+ * values up to and including it. Values are buffered, and each full buffer is merged into the summary, which is then
+ * pruned back to at most @maxSize entries. Until the first prune, the summary holds every distinct value exactly.
+ */
+public class QuantileSketch {
+	private final int maxSize;
+	//the summary
+	private float[] value = new float[0];
+	private double[] rmin = new double[0];//total weight of the values strictly below value[i]
+	private double[] rmax = new double[0];//total weight of the values up to value[i]
+	private double[] wmin = new double[0];//weight of value[i] itself
+	private boolean exact = true;
+	//values added since the last merge
+	private final float[] bufValues;
+	private final double[] bufWeights;
+	private int bufSize = 0;
+
+	/**
+	 * @param maxSize the most entries the summary keeps. The rank error of its quantiles is about (total weight)/@maxSize.
+	 */
+	public QuantileSketch(int maxSize)
+	{
+		if(maxSize < 2)
+			throw RankLibError.create("Error in QuantileSketch: maxSize must be at least 2, not " + maxSize);
+		this.maxSize = maxSize;
+		bufValues = new float[maxSize];
+		bufWeights = new double[maxSize];
+	}
+
+	public void add(float v)
+	{
+		add(v, 1.0);
+	}
+	public void add(float v, double weight)
+	{
+		if(bufSize == bufValues.length)
+			flush();
+		bufValues[bufSize] = v;
+		bufWeights[bufSize] = weight;
+		bufSize++;
+	}
+	/**
+	 * @return whether the summary holds every distinct value added so far.
+	 */
+	public boolean isExact()
+	{
+		flush();
+		return exact;
+	}
+	/**
+	 * @return the distinct values held by the summary, in ascending order.
+	 */
+	public float[] getValues()
+	{
+		flush();
+		return Arrays.copyOf(value, value.length);
+	}
+	/**
+	 * @return at most @n values, in ascending order, spread evenly over the weight of the data. The smallest and largest values
+	 * added so far are always included.
+	 */
+	public float[] quantiles(int n)
+	{
+		flush();
+		QuantileSketch pruned = new QuantileSketch(Math.max(n, 2));
+		pruned.setPruned(this, Math.max(n, 2));
+		return Arrays.copyOf(pruned.value, pruned.value.length);
+	}
+
+	/**
+	 * Merge the buffered values into the summary.
+	 */
+	private void flush()
+	{
+		if(bufSize == 0)
+			return;
+		//summarize the buffer exactly
+		int[] idx = MergeSorter.sort(bufValues, 0, bufSize-1, true);
+		QuantileSketch buffered = new QuantileSketch(2);
+		buffered.allocate(bufSize);
+		int n = 0;
+		double cum = 0;
+		for(int i=0;i<bufSize;i++)
+		{
+			float v = bufValues[idx[i]];
+			double w = bufWeights[idx[i]];
+			if(n > 0 && buffered.value[n-1] == v)
+			{
+				buffered.wmin[n-1] += w;
+				buffered.rmax[n-1] += w;
+			}
+			else
+			{
+				buffered.value[n] = v;
+				buffered.rmin[n] = cum;
+				buffered.rmax[n] = cum + w;
+				buffered.wmin[n] = w;
+				n++;
+			}
+			cum += w;
+		}
+		buffered.truncate(n);
+		bufSize = 0;
+
+		QuantileSketch merged = new QuantileSketch(2);
+		merged.setCombined(this, buffered);
+		if(merged.value.length > maxSize)
+		{
+			setPruned(merged, maxSize);
+			exact = false;
+		}
+		else
+			copyFrom(merged);
+	}
+	/**
+	 * Make this the combination of two summaries.
+	 */
+	private void setCombined(QuantileSketch a, QuantileSketch b)
+	{
+		allocate(a.value.length + b.value.length);
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		double aPrevRmin = 0;
+		double bPrevRmin = 0;
+		while(i < a.value.length && j < b.value.length)
+		{
+			if(a.value[i] == b.value[j])
+			{
+				put(n++, a.value[i], a.rmin[i] + b.rmin[j], a.rmax[i] + b.rmax[j], a.wmin[i] + b.wmin[j]);
+				aPrevRmin = a.rmin[i] + a.wmin[i];
+				bPrevRmin = b.rmin[j] + b.wmin[j];
+				i++;
+				j++;
+			}
+			else if(a.value[i] < b.value[j])
+			{
+				put(n++, a.value[i], a.rmin[i] + bPrevRmin, a.rmax[i] + b.rmax[j] - b.wmin[j], a.wmin[i]);
+				aPrevRmin = a.rmin[i] + a.wmin[i];
+				i++;
+			}
+			else
+			{
+				put(n++, b.value[j], b.rmin[j] + aPrevRmin, b.rmax[j] + a.rmax[i] - a.wmin[i], b.wmin[j]);
+				bPrevRmin = b.rmin[j] + b.wmin[j];
+				j++;
+			}
+		}
+		if(i < a.value.length)
+		{
+			int last = b.value.length-1;
+			double bRmin = last < 0 ? 0 : b.rmin[last] + b.wmin[last];
+			double bRmax = last < 0 ? 0 : b.rmax[last];
+			for(;i<a.value.length;i++)
+				put(n++, a.value[i], a.rmin[i] + bRmin, a.rmax[i] + bRmax, a.wmin[i]);
+		}
+		if(j < b.value.length)
+		{
+			int last = a.value.length-1;
+			double aRmin = last < 0 ? 0 : a.rmin[last] + a.wmin[last];
+			double aRmax = last < 0 ? 0 : a.rmax[last];
+			for(;j<b.value.length;j++)
+				put(n++, b.value[j], b.rmin[j] + aRmin, b.rmax[j] + aRmax, b.wmin[j]);
+		}
+		truncate(n);
+		exact = a.exact && b.exact;
+	}
+	/**
+	 * Make this a summary of at most @size entries of @src, keeping its first and last entries.
+	 */
+	private void setPruned(QuantileSketch src, int size)
+	{
+		int srcSize = src.value.length;
+		if(srcSize <= size)
+		{
+			copyFrom(src);
+			return;
+		}
+		allocate(size);
+		double begin = src.rmax[0];
+		double range = src.rmin[srcSize-1] - src.rmax[0];
+		int nIntervals = size - 1;
+		int n = 0;
+		put(n++, src, 0);
+		int i = 1;
+		int lastIdx = 0;
+		for(int k=1;k<nIntervals;k++)
+		{
+			double dx2 = 2 * ((k * range) / nIntervals + begin);
+			//find the first i such that dx2 < rmin[i+1] + rmax[i+1]
+			while(i < srcSize-1 && dx2 >= src.rmax[i+1] + src.rmin[i+1])
+				i++;
+			if(i == srcSize-1)
+				break;
+			//take whichever of i, i+1 is closer to the target rank
+			int pick = (dx2 < src.rmin[i] + src.wmin[i] + src.rmax[i+1] - src.wmin[i+1]) ? i : i+1;
+			if(pick != lastIdx)
+			{
+				put(n++, src, pick);
+				lastIdx = pick;
+			}
+		}
+		if(lastIdx != srcSize-1)
+			put(n++, src, srcSize-1);
+		truncate(n);
+		exact = false;
+	}
+
+	private void allocate(int size)
+	{
+		value = new float[size];
+		rmin = new double[size];
+		rmax = new double[size];
+		wmin = new double[size];
+	}
+	private void truncate(int size)
+	{
+		if(size == value.length)
+			return;
+		value = Arrays.copyOf(value, size);
+		rmin = Arrays.copyOf(rmin, size);
+		rmax = Arrays.copyOf(rmax, size);
+		wmin = Arrays.copyOf(wmin, size);
+	}
+	private void put(int i, float v, double rMin, double rMax, double wMin)
+	{
+		value[i] = v;
+		rmin[i] = rMin;
+		rmax[i] = rMax;
+		wmin[i] = wMin;
+	}
+	private void put(int i, QuantileSketch src, int j)
+	{
+		put(i, src.value[j], src.rmin[j], src.rmax[j], src.wmin[j]);
+	}
+	private void copyFrom(QuantileSketch src)
+	{
+		value = src.value;
+		rmin = src.rmin;
+		rmax = src.rmax;
+		wmin = src.wmin;
+		exact = src.exact;
+	}
+}
@@ -0,0 +1,324 @@
+/*===============================================================================
+ * Copyright (c) 2010-2015 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.util.Arrays;
+
+/**
+ * @author jfoley
+ *
+ * Trees of up to 64 leaves, scored the way of
+ *  C. Lucchese, F.M. Nardini, S. Orlando, R. Perego, N. Tonellotto and R. Venturini. QuickScorer: a Fast Algorithm to Rank
+ *  Documents with Additive Ensembles of Regression Trees. SIGIR 2015.
+ *
+ * The leaves of each tree are numbered left to right, and a document's exit leaf is the leftmost one none of its "false"
+ * nodes (where it goes right) rules out: a false node rules out the leaves of its left subtree. So instead of walking
+ * trees, the split nodes of all trees are sorted by threshold for each feature; for each feature of a document, the nodes
+ * with a threshold below its value are the false ones, and their masks are OR-ed into the dead leaves of their tree. The
+ * exit leaf of a tree is then its lowest leaf still alive.
+ *
+ * Scores are exactly those of Ensemble.eval(). Only dense documents are scored this way; others are walked down the trees
+ * as by {@link FlatEnsemble}.
+ *
+ * A list of documents is scored in blocks of BLOCK documents, feature by feature: the nodes of a feature are read once for
+ * the whole block.
+ */
+public class QuickScorer extends CompiledEnsemble {
+	public static final int MAX_LEAVES = 64;
+	private static final int BLOCK = 16;
+
+	private final int[] ends;//trees of ensemble e are [ends[e-1], ends[e])
+	private final float[] weights;//of each tree
+	private final int[] firstLeaf;//of each tree in @output
+	private final double[] output;
+	//split nodes, by feature, then by increasing threshold: those of feature fids[k] are [start[k], start[k+1])
+	private final int[] fids;
+	private final int[] start;
+	private final float[] threshold;
+	private final int[] tree;
+	private final long[] mask;//the leaves a node rules out when false
+	private final FlatEnsemble walker;//for documents that are not dense
+
+	/**
+	 * @return true if none of the trees of @ensembles has more than MAX_LEAVES leaves.
+	 */
+	public static boolean supports(Ensemble... ensembles)
+	{
+		for(Ensemble e : ensembles)
+			for(int t=0;t<e.treeCount();t++)
+				if(e.getTree(t).leaves().size() > MAX_LEAVES)
+					return false;
+		return true;
+	}
+
+	public QuickScorer(Ensemble... ensembles)
+	{
+		if(!supports(ensembles))
+			throw RankLibError.create("Error in QuickScorer: trees must have at most " + MAX_LEAVES + " leaves");
+		walker = new FlatEnsemble(ensembles);
+		int nTrees = walker.treeCount();
+		int nLeaves = walker.leafCount();
+		int nNodes = nLeaves - nTrees;
+		ends = new int[ensembles.length];
+		weights = new float[nTrees];
+		firstLeaf = new int[nTrees];
+		output = new double[nLeaves];
+
+		//the nodes in tree order, with their masks
+		int[] nodeFeature = new int[nNodes];
+		float[] nodeThreshold = new float[nNodes];
+		int[] nodeTree = new int[nNodes];
+		long[] nodeMask = new long[nNodes];
+		int[] next = new int[2];//next node, next leaf
+		int t = 0;
+		for(int e=0;e<ensembles.length;e++)
+		{
+			for(int i=0;i<ensembles[e].treeCount();i++)
+			{
+				weights[t] = ensembles[e].getWeight(i);
+				firstLeaf[t] = next[1];
+				layout(ensembles[e].getTree(i).root, t, next, nodeFeature, nodeThreshold, nodeTree, nodeMask);
+				t++;
+			}
+			ends[e] = t;
+		}
+
+		//group them by feature (counting sort, so that they stay in tree order)...
+		int maxFeature = walker.getMaxFeature();
+		int[] count = new int[maxFeature+2];
+		for(int f : nodeFeature)
+			count[f+1]++;
+		int nFeatures = 0;
+		for(int f=0;f<=maxFeature;f++)
+			if(count[f+1] > 0)
+				nFeatures++;
+		for(int f=1;f<count.length;f++)
+			count[f] += count[f-1];
+		float[] byFeature = new float[nNodes];
+		int[] order = new int[nNodes];
+		for(int n=0;n<nNodes;n++)
+		{
+			int pos = count[nodeFeature[n]]++;
+			byFeature[pos] = nodeThreshold[n];
+			order[pos] = n;
+		}
+		//...then by threshold
+		fids = new int[nFeatures];
+		start = new int[nFeatures+1];
+		threshold = new float[nNodes];
+		tree = new int[nNodes];
+		mask = new long[nNodes];
+		int k = 0;
+		int from = 0;
+		for(int f=0;f<=maxFeature;f++)
+		{
+			int to = count[f];//count[f] is now the end of feature f
+			if(to == from)
+				continue;
+			fids[k] = f;
+			start[k] = from;
+			int[] idx = MergeSorter.sort(byFeature, from, to-1, true);
+			for(int j=0;j<idx.length;j++)
+			{
+				int n = order[idx[j]];
+				threshold[from+j] = nodeThreshold[n];
+				tree[from+j] = nodeTree[n];
+				mask[from+j] = nodeMask[n];
+			}
+			k++;
+			from = to;
+		}
+		start[nFeatures] = nNodes;
+	}
+	/**
+	 * Number the leaves under @s from next[1] on, and record its split nodes from next[0] on.
+	 * @return the number of leaves under @s.
+	 */
+	private int layout(Split s, int t, int[] next, int[] nodeFeature, float[] nodeThreshold, int[] nodeTree, long[] nodeMask)
+	{
+		if(s.getFeatureID() == -1)
+		{
+			output[next[1]++] = s.getOutput();
+			return 1;
+		}
+		int n = next[0]++;
+		int leftmost = next[1] - firstLeaf[t];
+		int nLeft = layout(s.getLeft(), t, next, nodeFeature, nodeThreshold, nodeTree, nodeMask);
+		int nRight = layout(s.getRight(), t, next, nodeFeature, nodeThreshold, nodeTree, nodeMask);
+		nodeFeature[n] = s.getFeatureID();
+		nodeThreshold[n] = s.getThreshold();
+		nodeTree[n] = t;
+		nodeMask[n] = ((1L << nLeft) - 1) << leftmost;//nLeft < 64, since there are leaves on the right
+		return nLeft + nRight;
+	}
+
+	@Override
+	public int treeCount()
+	{
+		return weights.length;
+	}
+	@Override
+	public float eval(DataPoint dp)
+	{
+		float[] fv = denseVector(dp);
+		if(fv == null)
+			return walker.eval(dp);
+		return sum(deadLeaves(fv), 0, weights.length);
+	}
+	/**
+	 * @param fv fv[fid] is the value of feature fid, as in DataPoint.getFeatureVector(): fv[0] is unused, and NaN stands
+	 *           for an unknown value, i.e. 0. It must cover every feature of the trees.
+	 * @return the sum of the (weighted) outputs of all trees.
+	 */
+	public float eval(float[] fv)
+	{
+		if(fv.length <= walker.getMaxFeature())
+			throw RankLibError.create("Error in QuickScorer::eval(): the trees use feature " + walker.getMaxFeature() + ", but the vector ends at " + (fv.length-1));
+		return sum(deadLeaves(fv), 0, weights.length);
+	}
+	@Override
+	public double evalAverage(DataPoint dp)
+	{
+		float[] fv = denseVector(dp);
+		if(fv == null)
+			return walker.evalAverage(dp);
+		return average(deadLeaves(fv));
+	}
+	@Override
+	public void eval(RankList rl, double[] out)
+	{
+		evalBlocks(rl, out, false);
+	}
+	@Override
+	public void evalAverage(RankList rl, double[] out)
+	{
+		evalBlocks(rl, out, true);
+	}
+
+	/**
+	 * @return the feature vector of @dp if it is dense and covers every feature of the trees, null otherwise.
+	 */
+	private float[] denseVector(DataPoint dp)
+	{
+		if(!(dp instanceof DenseDataPoint))
+			return null;
+		float[] fv = dp.getFeatureVector();
+		return fv.length > walker.getMaxFeature() ? fv : null;
+	}
+	/**
+	 * @return the leaves of each tree that @fv cannot exit by (bit i: leaf firstLeaf[t]+i).
+	 */
+	private long[] deadLeaves(float[] fv)
+	{
+		final float[] threshold = this.threshold;
+		final int[] tree = this.tree;
+		final long[] mask = this.mask;
+		long[] dead = new long[weights.length];
+		for(int k=0;k<fids.length;k++)
+		{
+			float v = fv[fids[k]];
+			if(v != v)//unknown, i.e. 0 as in DenseDataPoint.getFeatureValue()
+				v = 0;
+			//the false nodes (threshold < v) come first
+			int end = falseEnd(v, start[k], start[k+1]);
+			for(int i=start[k];i<end;i++)
+				dead[tree[i]] |= mask[i];
+		}
+		return dead;
+	}
+	/**
+	 * out[i] = eval() (or evalAverage()) of the documents of @rl, BLOCK at a time: dense ones feature by feature, the
+	 * others walked one at a time.
+	 */
+	private void evalBlocks(RankList rl, double[] out, boolean average)
+	{
+		final float[] threshold = this.threshold;
+		final int[] tree = this.tree;
+		final long[] mask = this.mask;
+		float[][] fv = new float[BLOCK][];
+		long[][] dead = new long[BLOCK][weights.length];
+		for(int from=0;from<rl.size();from+=BLOCK)
+		{
+			int n = Math.min(BLOCK, rl.size()-from);
+			for(int d=0;d<n;d++)
+			{
+				DataPoint dp = rl.get(from+d);
+				fv[d] = denseVector(dp);
+				if(fv[d] == null)
+					out[from+d] = average ? walker.evalAverage(dp) : walker.eval(dp);
+				else
+					Arrays.fill(dead[d], 0L);
+			}
+			for(int k=0;k<fids.length;k++)
+			{
+				int fid = fids[k];
+				for(int d=0;d<n;d++)
+				{
+					if(fv[d] == null)
+						continue;
+					float v = fv[d][fid];
+					if(v != v)
+						v = 0;
+					int end = falseEnd(v, start[k], start[k+1]);
+					long[] dd = dead[d];
+					for(int i=start[k];i<end;i++)
+						dd[tree[i]] |= mask[i];
+				}
+			}
+			for(int d=0;d<n;d++)
+				if(fv[d] != null)
+					out[from+d] = average ? average(dead[d]) : sum(dead[d], 0, weights.length);
+		}
+	}
+	/**
+	 * @return the first node in [@from, @to) with a threshold of at least @v, or @to.
+	 */
+	private int falseEnd(float v, int from, int to)
+	{
+		int lo = from;
+		int hi = to;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(v > threshold[mid])
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	/**
+	 * @return the sum of the outputs of trees [@from, @to) at their exit leaf, the lowest one not in @dead.
+	 */
+	private float sum(long[] dead, int from, int to)
+	{
+		float s = 0;
+		for(int t=from;t<to;t++)
+			s += output[firstLeaf[t] + Long.numberOfTrailingZeros(~dead[t])] * weights[t];
+		return s;
+	}
+	private double average(long[] dead)
+	{
+		double s = 0;
+		int from = 0;
+		for (int end : ends)
+		{
+			s += sum(dead, from, end);
+			from = end;
+		}
+		return s/ends.length;
+	}
+}
@@ -10,14 +10,24 @@
 package ciir.umass.edu.learning.tree;
 
 import ciir.umass.edu.learning.*;
+import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.utilities.MergeSorter;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
+import ciir.umass.edu.utilities.WorkStealingPool;
+import ciir.umass.edu.utilities.WorkerThread;
 
-import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class RFRanker extends Ranker {
 	//Parameters
@@ -29,12 +39,32 @@ public class RFRanker extends Ranker {
 	public static RankerType rType = RankerType.MART;//which algorithm to bag
 	public static int nTrees = 1;//how many trees in each bag. If nTree > 1 ==> each bag will contain an ensemble of gradient boosted trees.
 	public static int nTreeLeaves = 100;
+	public static int maxDepth = -1;
 	public static float learningRate = 0.1F;//or shrinkage. *ONLY* matters if nTrees > 1.
 	public static int nThreshold = 256;
+	public static boolean quantileThresholds = false;
 	public static int minLeafSupport = 1;
+	//[c] out-of-bag evaluation
+	public static int oobStopWindow = 0;//stop adding bags once the out-of-bag score has moved by at most oobTolerance over this many bags (0: never)
+	public static double oobTolerance = 0.001;
 	
 	//Variables
 	protected Ensemble[] ensembles = null;//bag of ensembles, each can be a single tree or an ensemble of gradient boosted trees
+	protected CompiledEnsemble compiled = null;//all of them as learnt or loaded, for eval()
+	//the training samples, binned once for all bags: each bag trains on the rows of the lists sampled into it
+	protected BinnedFeatures bins = null;
+	protected Map<RankList, Integer> listIndex = null;//of each training list in @samples
+	protected int[] firstRow = null;//of each training list in @bins
+	//out-of-bag evaluation: the outputs of each bag on the training lists it did not sample are added up, bag after bag
+	protected int[][] outOfBag = null;//the training lists each bag left out, until its outputs have been added
+	protected MetricScorer oobScorer = null;//a copy of @scorer for addBag(): bags copy @scorer while out-of-bag lists are scored
+	protected double[] bagScores = null;//on the training lists in each bag
+	protected double[] oobSum = null;//for each row of @bins
+	protected int[] oobCount = null;//the number of bags each training list was out of
+	protected double[] oobListScores = null;//of each training list, ranked by its out-of-bag outputs
+	protected double[] oobScores = null;//the out-of-bag score after each bag
+	protected int nAdded = 0;//bags whose outputs have been added
+	protected volatile boolean stopped = false;//no more bags needed
 	
 	public RFRanker() {}
 
@@ -42,51 +72,73 @@ public class RFRanker extends Ranker {
 	{
 		PRINT("Initializing... ");
 		ensembles = new Ensemble[nBag];
+		compiled = null;
 		//initialize parameters for the tree(s) built in each bag
 		this.factory = new RankerFactory();
 		factory.mart.nTrees = factory.lambdaMart.nTrees = nTrees;
 		factory.mart.nTreeLeaves = factory.lambdaMart.nTreeLeaves = nTreeLeaves;
+		factory.mart.maxDepth = factory.lambdaMart.maxDepth = maxDepth;
 		factory.mart.learningRate = factory.lambdaMart.learningRate = learningRate;
 		factory.mart.nThreshold = factory.lambdaMart.nThreshold = nThreshold;
+		factory.mart.quantileThresholds = factory.lambdaMart.quantileThresholds = quantileThresholds;
 		factory.mart.minLeafSupport = factory.lambdaMart.minLeafSupport = minLeafSupport;
 		factory.mart.nRoundToStopEarly = factory.lambdaMart.nRoundToStopEarly = -1;//no early-stopping since we're doing bagging
-		//turn on feature sampling
-		FeatureHistogram.samplingRate = featureSamplingRate;
+		//sort, bin and compute the thresholds of every feature once, instead of once per bag
+		LambdaMART binner = (LambdaMART)factory.createRanker(rType, samples, features, scorer);
+		binner.setContext(context);
+		bins = binner.binTrainingSamples();
+		listIndex = new IdentityHashMap<>();
+		firstRow = new int[samples.size()];
+		int row = 0;
+		for(int i=0;i<samples.size();i++)
+		{
+			listIndex.put(samples.get(i), i);
+			firstRow[i] = row;
+			row += samples.get(i).size();
+		}
+		outOfBag = new int[nBag][];
+		oobScorer = scorer.copy();
+		bagScores = new double[nBag];
+		oobSum = new double[row];
+		oobCount = new int[samples.size()];
+		oobListScores = new double[samples.size()];
+		oobScores = new double[nBag];
+		nAdded = 0;
+		stopped = false;
 		PRINTLN("[Done]");
 	}
 	public void learn()
 	{
-		RankerFactory rf = this.factory;
 		PRINTLN("------------------------------------");
 		PRINTLN("Training starts...");
 		PRINTLN("------------------------------------");
 		PRINTLN(new int[]{9, 9, 11}, new String[]{"bag", scorer.name()+"-B", scorer.name()+"-OOB"});
 		PRINTLN("------------------------------------");
-		//start the bagging process
+		//start the bagging process: bags are trained at once, each with a random generator of its own, seeded up front so that
+		//the forest does not depend on which bags happen to finish first
+		long[] seeds = new long[nBag];
 		for(int i=0;i<nBag;i++)
-		{
-			Sampler sp = new Sampler();
-			//create a "bag" of samples by random sampling from the training set
-			List<RankList> bag = sp.doSampling(samples, subSamplingRate, true);
-			//"out-of-bag" samples
-			//List<RankList> outOfBag = sp.getRemains();
-			LambdaMART r = (LambdaMART)rf.createRanker(rType, bag, features, scorer);
-			//r.setValidationSet(outOfBag);
-			
-			boolean tmp = Ranker.verbose;
-			Ranker.verbose = false;//turn of the progress messages from training this ranker
-			r.init();
-			r.learn();
-			Ranker.verbose = tmp;
-			//PRINTLN(new int[]{9, 9, 11}, new String[]{"b["+(i+1)+"]", SimpleMath.round(r.getScoreOnTrainingData(), 4)+"", SimpleMath.round(r.getScoreOnValidationData(), 4)+""});
-			PRINTLN(new int[]{9, 9}, new String[]{"b["+(i+1)+"]", SimpleMath.round(r.getScoreOnTrainingData(), 4)+""});
-			ensembles[i] = r.getEnsemble();
-		}
+			seeds[i] = context.getRandom().nextLong();
+		//bags are trained at the same time: each gets its own scorer, copied here before any of them starts
+		MetricScorer[] scorers = new MetricScorer[nBag];
+		for(int i=0;i<nBag;i++)
+			scorers[i] = scorer.copy();
+		WorkStealingPool p = context.getPool();
+		if(p.size() == 1)
+			learn(seeds, scorers, 0, nBag-1);
+		else
+			p.execute(new BagWorker(this, seeds, scorers), nBag, nBag);
+		if(nAdded < nBag)//stopped early: bags that were still being trained are dropped
+			ensembles = Arrays.copyOf(ensembles, nAdded);
+		compiled = CompiledEnsemble.compile(ensembles);
+		
 		//Finishing up
 		scoreOnTrainingData = scorer.score(rank(samples));
 		PRINTLN("------------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + SimpleMath.round(scoreOnTrainingData, 4));
+		if(nAdded > 0)
+			PRINTLN(scorer.name() + " out-of-bag: " + SimpleMath.round(oobScores[nAdded-1], 4));
 		if(validationSamples != null)
 		{
 			bestScoreOnValidationData = scorer.score(rank(validationSamples));
@@ -94,61 +146,189 @@ public class RFRanker extends Ranker {
 		}
 		PRINTLN("------------------------------------");
 	}
+	/**
+	 * Train bags [start, end], bag i with the scorer @scorers[i].
+	 */
+	protected void learn(long[] seeds, MetricScorer[] scorers, int start, int end)
+	{
+		for(int i=start;i<=end && !stopped;i++)
+		{
+			//the bags share the threads of this ranker, with feature sampling turned on
+			ExecutionContext bagContext = context.copy(seeds[i]);
+			bagContext.featureSamplingRate = featureSamplingRate;
+			//create a "bag" of samples by random sampling from the training set
+			Sampler sp = new Sampler();
+			List<RankList> bag = sp.doSampling(samples, subSamplingRate, true, bagContext.getRandom());
+			//"out-of-bag" samples
+			List<RankList> remains = sp.getRemains();
+			int[] oob = new int[remains.size()];
+			for(int j=0;j<oob.length;j++)
+				oob[j] = listIndex.get(remains.get(j));
+			int n = 0;
+			for(RankList rl : bag)
+				n += rl.size();
+			int[] rows = new int[n];
+			int k = 0;
+			for(RankList rl : bag)
+			{
+				int row = firstRow[listIndex.get(rl)];
+				for(int j=0;j<rl.size();j++)
+					rows[k++] = row + j;
+			}
+			LambdaMART r = (LambdaMART)factory.createRanker(rType, bag, features, scorers[i]);
+			scorers[i] = null;//the bag's ranker keeps it while it is trained
+			r.setContext(bagContext);
+			r.setSharedBins(bins, rows);
+			r.setQuiet(true);//no progress messages from training this ranker
+			r.init();
+			r.learn();
+			addBag(i, r.getEnsemble(), r.getScoreOnTrainingData(), oob);
+		}
+	}
+	/**
+	 * Keep bag @i, then add the out-of-bag outputs of every bag that is done, in order: bags finish in any order, but the
+	 * out-of-bag scores -- and where to stop -- are always those of bags 0, 1, 2...
+	 */
+	protected synchronized void addBag(int i, Ensemble ensemble, double bagScore, int[] oob)
+	{
+		ensembles[i] = ensemble;
+		bagScores[i] = bagScore;
+		outOfBag[i] = oob;
+		while(nAdded < nBag && !stopped && ensembles[nAdded] != null)
+		{
+			int b = nAdded++;
+			for(int q : outOfBag[b])
+			{
+				RankList rl = samples.get(q);
+				int row = firstRow[q];
+				for(int j=0;j<rl.size();j++)
+					oobSum[row+j] += ensembles[b].eval(rl.get(j));
+				oobCount[q]++;
+				//outputs are averaged over the same bags for all documents of a list: ranking them by their sum will do
+				int[] idx = MergeSorter.sort(oobSum, row, row+rl.size()-1, false);
+				oobListScores[q] = oobScorer.score(new RankList(rl, idx, row));
+			}
+			outOfBag[b] = null;
+			//the score over the lists that have been out of some bag so far
+			double sum = 0;
+			int n = 0;
+			for(int q=0;q<samples.size();q++)
+			{
+				if(oobCount[q] > 0)
+				{
+					sum += oobListScores[q];
+					n++;
+				}
+			}
+			oobScores[b] = (n > 0) ? sum/n : 0;
+			PRINTLN(new int[]{9, 9, 11}, new String[]{"b["+(b+1)+"]", SimpleMath.round(bagScores[b], 4)+"", SimpleMath.round(oobScores[b], 4)+""});
+			if(oobStopWindow > 0 && b >= oobStopWindow && isStable(b))
+			{
+				stopped = true;
+				PRINTLN("Out-of-bag " + scorer.name() + " stable over the last " + oobStopWindow + " bags: stopping at " + (b+1) + " bags.");
+			}
+		}
+	}
+	/**
+	 * @return true if the out-of-bag score has moved by at most oobTolerance over the oobStopWindow bags up to bag @b.
+	 */
+	private boolean isStable(int b)
+	{
+		double min = oobScores[b];
+		double max = oobScores[b];
+		for(int i=b-oobStopWindow;i<b;i++)
+		{
+			min = Math.min(min, oobScores[i]);
+			max = Math.max(max, oobScores[i]);
+		}
+		return max - min <= oobTolerance;
+	}
 	public double eval(DataPoint dp)
 	{
+		if(compiled != null)
+			return compiled.evalAverage(dp);
 		double s = 0;
 		for (Ensemble ensemble : ensembles) s += ensemble.eval(dp);
 		return s/ensembles.length;
 	}
+	public void scoreBatch(RankList rl, double[] out)
+	{
+		if(compiled != null)
+			compiled.evalAverage(rl, out);
+		else
+			super.scoreBatch(rl, out);
+	}
+	@Override
+	public boolean isStatelessEval()
+	{
+		return true;
+	}
 	public Ranker createNew()
 	{
 		return new RFRanker();
 	}
 	public String toString()
 	{
-		String str = "";
-		for(int i=0;i<nBag;i++)
-			str += ensembles[i].toString() + "\n";
-		return str;
+		StringWriter out = new StringWriter();
+		try {
+			writeEnsembles(out);
+		} catch(IOException ex) {
+			throw RankLibError.create(ex);
+		}
+		return out.toString();
 	}
 	public String model()
 	{
-		String output = "## " + name() + "\n";
-		output += "## No. of bags = " + nBag + "\n";
-		output += "## Sub-sampling = " + subSamplingRate + "\n";
-		output += "## Feature-sampling = " + featureSamplingRate + "\n";
-		output += "## No. of trees = " + nTrees + "\n";
-		output += "## No. of leaves = " + nTreeLeaves + "\n";
-		output += "## No. of threshold candidates = " + nThreshold + "\n";
-		output += "## Learning rate = " + learningRate + "\n";
-		output += "\n";
-		output += toString();
-		return output;
+		StringWriter output = new StringWriter();
+		try {
+			writeModel(output);
+		} catch(IOException ex) {
+			throw RankLibError.create(ex);
+		}
+		return output.toString();
+	}
+	@Override
+	public void writeModel(Writer out) throws IOException
+	{
+		out.write("## " + name() + "\n");
+		out.write("## No. of bags = " + ensembles.length + "\n");
+		out.write("## Sub-sampling = " + subSamplingRate + "\n");
+		out.write("## Feature-sampling = " + featureSamplingRate + "\n");
+		out.write("## No. of trees = " + nTrees + "\n");
+		out.write("## No. of leaves = " + nTreeLeaves + "\n");
+		out.write("## No. of threshold candidates = " + nThreshold + "\n");
+		out.write("## Learning rate = " + learningRate + "\n");
+		out.write("\n");
+		writeEnsembles(out);
+	}
+	private void writeEnsembles(Writer out) throws IOException
+	{
+		for (Ensemble ensemble : ensembles)
+		{
+			ensemble.write(out);
+			out.write("\n");
+		}
 	}
   @Override
 	public void loadFromString(String fullText)
 	{
 		try {
-			String content;
-			String model = "";
-			BufferedReader in = new BufferedReader(new StringReader(fullText));
+			loadFromReader(new StringReader(fullText));
+		} catch(IOException ex) {
+			throw RankLibError.create("Error in RFRanker::load(): ", ex);
+		}
+	}
+	/**
+	 * Parse the bags one after the other as the model is read, without its text in memory.
+	 */
+	@Override
+	public void loadFromReader(Reader in) throws IOException
+	{
+		try {
+			EnsembleReader model = new EnsembleReader(in);
 			List<Ensemble> ens = new ArrayList<>();
-			while((content = in.readLine()) != null)
-			{
-				content = content.trim();
-				if(content.length() == 0)
-					continue;
-				if(content.indexOf("##")==0)
-					continue;
-				//actual model component
-				model += content;
-				if(content.contains("</ensemble>")) {
-					//load the ensemble
-					ens.add(new Ensemble(model));
-					model = "";
-				}				
-			}
-			in.close();
+			while(model.next())
+				ens.add(new Ensemble(model));//load the ensemble
 			HashSet<Integer> uniqueFeatures = new HashSet<>();
 			ensembles = new Ensemble[ens.size()];
 			for(int i=0;i<ens.size();i++) {
@@ -163,6 +343,7 @@ public class RFRanker extends Ranker {
 			features = new int[uniqueFeatures.size()];
 			for(int f : uniqueFeatures)
 				features[fi++] = f;
+			compiled = CompiledEnsemble.compile(ensembles);
 		}
 		catch(Exception ex)
 		{
@@ -175,8 +356,19 @@ public class RFRanker extends Ranker {
 		PRINTLN("Feature-sampling: " + featureSamplingRate);
 		PRINTLN("No. of trees: " + nTrees);
 		PRINTLN("No. of leaves: " + nTreeLeaves);
-		PRINTLN("No. of threshold candidates: " + nThreshold);
+		if(maxDepth != -1)
+			PRINTLN("Max depth: " + maxDepth);
+		PRINTLN("No. of threshold candidates: " + nThreshold + (quantileThresholds ? " (quantiles)" : ""));
 		PRINTLN("Learning rate: " + learningRate);
+		if(oobStopWindow > 0)
+			PRINTLN("Stop when out-of-bag score is stable over: " + oobStopWindow + " bags (+/- " + oobTolerance + ")");
+	}
+	
+	/**
+	 * @return the out-of-bag score of the forest: each training list ranked by the bags that did not sample it.
+	 */
+	public double getScoreOutOfBag() {
+		return nAdded > 0 ? oobScores[nAdded-1] : 0;
 	}
 
 	@Override
@@ -191,4 +383,21 @@ public class RFRanker extends Ranker {
 	public Ensemble[] getEnsembles() {
 		return ensembles;
 	}
+	
+	static class BagWorker extends WorkerThread {
+		RFRanker ranker = null;
+		long[] seeds = null;
+		MetricScorer[] scorers = null;
+		BagWorker(RFRanker ranker, long[] seeds, MetricScorer[] scorers) {
+			this.ranker = ranker;
+			this.seeds = seeds;
+			this.scorers = scorers;
+		}
+		public void run() {
+			ranker.learn(seeds, scorers, start, end);
+		}
+		public WorkerThread clone() {
+			return new BagWorker(ranker, seeds, scorers);
+		}
+	}
 }
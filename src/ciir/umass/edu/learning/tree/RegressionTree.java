@@ -11,9 +11,11 @@ package ciir.umass.edu.learning.tree;
 
 import ciir.umass.edu.learning.DataPoint;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
+import java.util.PriorityQueue;
 
 /**
  * @author vdang
@@ -23,6 +25,7 @@ public class RegressionTree {
 	//Parameters
 	protected int nodes = 10;//-1 for unlimited number of nodes (the size of the tree will then be controlled *ONLY* by minLeafSupport)
 	protected int minLeafSupport = 1;
+	protected int maxDepth = -1;//-1 for unlimited depth
 	
 	//Member variables and functions 
 	protected Split root = null;
@@ -42,49 +45,82 @@ public class RegressionTree {
 	}
 	public RegressionTree(int nLeaves, DataPoint[] trainingSamples, double[] labels, FeatureHistogram hist, int minLeafSupport)
 	{
-		this.nodes = nLeaves;
+		this(nLeaves, labels, hist, minLeafSupport);
 		this.trainingSamples = trainingSamples;
+	}
+	/**
+	 * A tree to be fit on the training samples binned in @hist: only their bins and @labels are used.
+	 */
+	public RegressionTree(int nLeaves, double[] labels, FeatureHistogram hist, int minLeafSupport)
+	{
+		this(nLeaves, -1, labels, hist, minLeafSupport);
+	}
+	/**
+	 * @param maxDepth nodes at this depth are not split (the root is at depth 0); -1 for no limit.
+	 */
+	public RegressionTree(int nLeaves, int maxDepth, double[] labels, FeatureHistogram hist, int minLeafSupport)
+	{
+		this.nodes = nLeaves;
+		this.maxDepth = maxDepth;
 		this.trainingLabels = labels;
 		this.hist = hist;
 		this.minLeafSupport = minLeafSupport;
-		index = new int[trainingSamples.length];
-		for(int i=0;i<trainingSamples.length;i++)
+		int nSamples = hist.bins.sampleCount();
+		index = new int[nSamples];
+		for(int i=0;i<nSamples;i++)
 			index[i] = i;
 	}
 	
 	/**
-	 * Fit the tree from the specified training data
+	 * Fit the tree from the specified training data.
+	 * The tree is grown best-first: the best split of every leaf is found as soon as the leaf is created, and the leaf whose
+	 * split reduces the squared error the most is split next, until there are @nodes leaves or no leaf can be split.
 	 */
 	public void fit()
 	{
-		List<Split> queue = new ArrayList<>();
 		root = new Split(index, hist, Float.MAX_VALUE, 0);
 		root.setRoot(true);
-		root.split(trainingLabels, minLeafSupport);
-		insert(queue, root.getLeft());
-		insert(queue, root.getRight());
-
-		int taken = 0;
-		while( (nodes == -1 || taken + queue.size() < nodes) && queue.size() > 0)
+		
+		PriorityQueue<Split> queue = new PriorityQueue<>(16, new Comparator<Split>() {
+			public int compare(Split a, Split b) {
+				return Double.compare(b.getGain(), a.getGain());
+			}
+		});
+		if(maxDepth != 0 && canSplit(root))
+			queue.add(root);
+		int nLeaves = 1;
+		while((nodes == -1 || nLeaves < nodes) && !queue.isEmpty())
 		{
-			Split leaf = queue.get(0);
-			queue.remove(0);
-			
-			if(leaf.getSamples().length < 2 * minLeafSupport)
+			Split leaf = queue.poll();
+			nLeaves++;
+			//no need to look for splits of the children if they won't be split anyway
+			boolean last = (nodes != -1 && nLeaves >= nodes) || (maxDepth != -1 && leaf.getDepth()+1 >= maxDepth);
+			leaf.split(trainingLabels, !last);
+			if(!last)
 			{
-				taken++;
-				continue;
+				if(canSplit(leaf.getLeft()))
+					queue.add(leaf.getLeft());
+				if(canSplit(leaf.getRight()))
+					queue.add(leaf.getRight());
 			}
-			
-			if(!leaf.split(trainingLabels, minLeafSupport))//unsplitable (i.e. variance(s)==0; or after-split variance is higher than before)
-				taken++;
-			else
-			{
-				insert(queue, leaf.getLeft());
-				insert(queue, leaf.getRight());
-			}			
 		}
 		leaves = root.leaves();
+		//histograms of the leaves are no longer needed
+		for (Split leaf : leaves)
+		{
+			if(leaf.hist != null)
+				leaf.hist.release();
+			leaf.hist = null;
+		}
+	}
+	/**
+	 * Whether a leaf can be split, finding its best split if so.
+	 */
+	protected boolean canSplit(Split leaf)
+	{
+		if(leaf.getSamples().length < 2 * minLeafSupport)
+			return false;
+		return leaf.findBestSplit(minLeafSupport);//false if unsplitable (i.e. variance(s)==0; or no split leaves enough samples on each side)
 	}
 	
 	/**
@@ -96,6 +132,13 @@ public class RegressionTree {
 	{
 		return root.eval(dp);
 	}
+	/**
+	 * Get the tree output for sample @k of @bins, binned with the same thresholds as the samples this tree was just fit on.
+	 */
+	public double eval(BinnedFeatures bins, int k)
+	{
+		return root.eval(bins, k);
+	}
 	/**
 	 * Retrieve all leave nodes in the tree
 	 * @return
@@ -133,6 +176,11 @@ public class RegressionTree {
 			return root.toString(indent);
 		return "";
 	}
+	public void write(Writer out, String indent) throws IOException
+	{
+		if(root != null)
+			root.write(out, indent);
+	}
 	
 	public double variance()
 	{
@@ -141,23 +189,4 @@ public class RegressionTree {
 		return var;
 	}
 
-	protected void insert(List<Split> ls, Split s)
-	{
-		if(s == null) return;
-		try {
-			int i = 0;
-			while (i < ls.size()) {
-				if (Objects.requireNonNull(ls.get(i)).getDeviance() >
-						Objects.requireNonNull(s).getDeviance())
-					i++;
-				else
-					break;
-			}
-			ls.add(i, s);
-		} catch (NullPointerException npe) {
-			System.err.println(ls);
-			throw npe;
-		}
-	}
-
 }
@@ -10,7 +10,13 @@
 package ciir.umass.edu.learning.tree;
 
 import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.utilities.RankLibError;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,6 +42,11 @@ public class Split {
 	private int[][] sortedSampleIDs = null;
 	public int[] samples = null;
 	public FeatureHistogram hist = null;
+	private int depth = 0;//the root is at depth 0
+	//best split of this node, as found by FeatureHistogram.findBestSplit()
+	private int bestFeatureIdx = -1;
+	private int bestThresholdIdx = -1;
+	private double gain = -1;//reduction in squared error from that split
 	
 	public Split() { }
 	public Split(int featureID, float threshold, double deviance)
@@ -70,10 +81,12 @@ public class Split {
 	public void setLeft(Split s)
 	{
 		left = s;
+		s.depth = depth + 1;
 	}
 	public void setRight(Split s)
 	{
 		right = s;
+		s.depth = depth + 1;
 	}
 	public void setOutput(float output)
 	{
@@ -96,6 +109,17 @@ public class Split {
 	{
 		return avgLabel;
 	}
+	/**
+	 * @return the feature this node splits on, or -1 for a leaf.
+	 */
+	int getFeatureID()
+	{
+		return featureID;
+	}
+	float getThreshold()
+	{
+		return threshold;
+	}
 	
 	public List<Split> leaves()
 	{
@@ -126,6 +150,55 @@ public class Split {
 		}
 		return n.avgLabel;
 	}
+	/**
+	 * Same as eval(DataPoint), on sample @k of @bins, binned with the thresholds this node was split on: only for trees
+	 * being fit, since loaded trees do not know the bins of their thresholds.
+	 */
+	double eval(BinnedFeatures bins, int k)
+	{
+		Split n = this;
+		while(n.featureID != -1)
+		{
+			if(bins.bin(n.bestFeatureIdx, k) <= n.bestThresholdIdx)
+				n = n.left;
+			else
+				n = n.right;
+		}
+		return n.avgLabel;
+	}
+	
+	/**
+	 * Write this (sub-)tree in binary, as read back by read(): only what eval() needs, and the deviance of each node.
+	 */
+	void write(DataOutput out) throws IOException
+	{
+		out.writeInt(featureID);
+		out.writeDouble(deviance);
+		if(featureID == -1)
+		{
+			out.writeDouble(avgLabel);
+			return;
+		}
+		out.writeFloat(threshold);
+		left.write(out);
+		right.write(out);
+	}
+	static Split read(DataInput in) throws IOException
+	{
+		int featureID = in.readInt();
+		double deviance = in.readDouble();
+		if(featureID == -1)
+		{
+			Split leaf = new Split();
+			leaf.deviance = deviance;
+			leaf.avgLabel = in.readDouble();
+			return leaf;
+		}
+		Split s = new Split(featureID, in.readFloat(), deviance);
+		s.setLeft(read(in));
+		s.setRight(read(in));
+		return s;
+	}
 	
 	public String toString()
 	{
@@ -133,30 +206,53 @@ public class Split {
 	}
 	public String toString(String indent)
 	{
-		String strOutput = indent + "<split>" + "\n";
-		strOutput += getString(indent + "\t");
-		strOutput += indent + "</split>" + "\n";
-		return strOutput;
+		StringWriter out = new StringWriter();
+		try {
+			write(out, indent);
+		} catch(IOException ex) {
+			throw RankLibError.create(ex);
+		}
+		return out.toString();
 	}
 	public String getString(String indent)
 	{
-		String strOutput = "";
+		StringWriter out = new StringWriter();
+		try {
+			writeContent(out, indent);
+		} catch(IOException ex) {
+			throw RankLibError.create(ex);
+		}
+		return out.toString();
+	}
+	/**
+	 * Write this node and the ones under it as XML (a <split> element), as toString(@indent) returns it.
+	 */
+	public void write(Writer out, String indent) throws IOException
+	{
+		out.write(indent + "<split>\n");
+		writeContent(out, indent + "\t");
+		out.write(indent + "</split>\n");
+	}
+	/**
+	 * Write what is inside the <split> element of this node, as getString(@indent) returns it.
+	 */
+	private void writeContent(Writer out, String indent) throws IOException
+	{
 		if(featureID == -1)
 		{
-			strOutput += indent + "<output> " + avgLabel + " </output>" + "\n";
+			out.write(indent + "<output> " + avgLabel + " </output>\n");
 		}
 		else
 		{
-			strOutput += indent + "<feature> " + featureID + " </feature>" + "\n";
-			strOutput += indent + "<threshold> " + threshold + " </threshold>" + "\n";
-			strOutput += indent + "<split pos=\"left\">" + "\n";
-			strOutput += left.getString(indent + "\t");
-			strOutput += indent + "</split>" + "\n";
-			strOutput += indent + "<split pos=\"right\">" + "\n";
-			strOutput += right.getString(indent + "\t");
-			strOutput += indent + "</split>" + "\n";
+			out.write(indent + "<feature> " + featureID + " </feature>\n");
+			out.write(indent + "<threshold> " + threshold + " </threshold>\n");
+			out.write(indent + "<split pos=\"left\">\n");
+			left.writeContent(out, indent + "\t");
+			out.write(indent + "</split>\n");
+			out.write(indent + "<split pos=\"right\">\n");
+			right.writeContent(out, indent + "\t");
+			out.write(indent + "</split>\n");
 		}
-		return strOutput;
 	}
 
 	//Internal functions(ONLY used during learning)
@@ -165,6 +261,44 @@ public class Split {
 	{
 		return hist.findBestSplit(this, trainingLabels, minLeafSupport);
 	}
+	/**
+	 * Find (but do not make) the best split of this node; see getGain().
+	 * @return false if it cannot be split.
+	 */
+	public boolean findBestSplit(int minLeafSupport)
+	{
+		return hist.findBestSplit(this, minLeafSupport);
+	}
+	/**
+	 * Split this node at the split found by findBestSplit(int).
+	 * @param buildHistograms whether the children may be split further.
+	 */
+	public void split(double[] trainingLabels, boolean buildHistograms)
+	{
+		hist.split(this, trainingLabels, buildHistograms);
+	}
+	void setBestSplit(int featureIdx, int thresholdIdx, double gain)
+	{
+		this.bestFeatureIdx = featureIdx;
+		this.bestThresholdIdx = thresholdIdx;
+		this.gain = gain;
+	}
+	int getBestFeatureIdx()
+	{
+		return bestFeatureIdx;
+	}
+	int getBestThresholdIdx()
+	{
+		return bestThresholdIdx;
+	}
+	public double getGain()
+	{
+		return gain;
+	}
+	public int getDepth()
+	{
+		return depth;
+	}
 	public int[] getSamples()
 	{
 		if(sortedSampleIDs != null)
@@ -185,4 +319,4 @@ public class Split {
 	{
 		return isRoot;
 	}
-}
\ No newline at end of file
+}
@@ -35,7 +35,9 @@ public class APScorer extends MetricScorer {
 	}
 	public MetricScorer copy()
 	{
-		return new APScorer();
+		APScorer copy = new APScorer();
+		copy.relDocCount = relDocCount;//read-only once loaded
+		return copy;
 	}
 	public void loadExternalRelevanceJudgment(String qrelFile) {
 		relDocCount = new HashMap<>();
@@ -156,4 +158,69 @@ public class APScorer extends MetricScorer {
 		}
 		return changes;
 	}
+	public SwapDelta swapDelta()
+	{
+		return new APSwapDelta(this);
+	}
+	
+	/**
+	 * swapChange() of AP, one pair at a time. The sum over the relevant documents between the two ranks is read off prefix
+	 * sums, so each pair takes constant time; the result is that of swapChange() up to rounding.
+	 */
+	protected static class APSwapDelta extends SwapDelta {
+		private int[] labels = new int[0];//1 if relevant
+		private int[] relCount = new int[0];//relevant documents up to each rank
+		private double[] prefix = new double[0];//sum of 1/(rank+1) over relevant documents up to each rank
+		private int count = 0;
+		private int rdCount = 0;
+		
+		public APSwapDelta(APScorer scorer)
+		{
+			super(scorer);
+		}
+		public void prepare(RankList rl, int[] order, int offset, int[] rel, int n)
+		{
+			if(labels.length < n)
+			{
+				labels = new int[n];
+				relCount = new int[n];
+				prefix = new double[n];
+			}
+			count = 0;
+			double s = 0;
+			for(int i=0;i<n;i++)
+			{
+				labels[i] = rl.get(order[i] - offset).getLabel() > 0 ? 1 : 0;
+				count += labels[i];
+				if(labels[i] > 0)
+					s += 1.0/(i+1);
+				relCount[i] = count;
+				prefix[i] = s;
+			}
+			HashMap<String, Integer> relDocCount = ((APScorer)scorer).relDocCount;
+			if(relDocCount != null)
+			{
+				Integer it = relDocCount.get(rl.getID());
+				rdCount = it != null ? it : 0;
+			}
+			else
+				rdCount = count;
+		}
+		public double delta(int i, int j)
+		{
+			if(i > j)
+			{
+				int t = i;
+				i = j;
+				j = t;
+			}
+			if(rdCount == 0 || count == 0 || labels[i] == labels[j])
+				return 0;
+			int diff = labels[j]-labels[i];
+			double change = ((double)((relCount[i]+diff)*labels[j] - relCount[i]*labels[i])) / (i+1);
+			change += diff * (prefix[j-1] - prefix[i]);
+			change += ((double)(-relCount[j]*diff)) / (j+1);
+			return change/rdCount;
+		}
+	}
 }
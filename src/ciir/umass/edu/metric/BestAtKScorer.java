@@ -32,7 +32,7 @@ public class BestAtKScorer extends MetricScorer {
 	}
 	public MetricScorer copy()
 	{
-		return new BestAtKScorer();
+		return new BestAtKScorer(k);
 	}
 	
 	/**
@@ -47,7 +47,7 @@ public class DCGScorer extends MetricScorer {
 	}
 	public MetricScorer copy()
 	{
-		return new DCGScorer();
+		return new DCGScorer(k);
 	}
 	/**
 	 * Compute DCG at k. 
@@ -83,6 +83,41 @@ public class DCGScorer extends MetricScorer {
 	{
 		return "DCG@"+k;
 	}
+	public SwapDelta swapDelta()
+	{
+		return new DCGSwapDelta(this);
+	}
+	
+	/**
+	 * swapChange() of DCG, one pair at a time: only swaps involving the top @k ranks change anything.
+	 */
+	protected static class DCGSwapDelta extends SwapDelta {
+		protected int[] rel = null;
+		protected int size = 0;
+		
+		public DCGSwapDelta(DCGScorer scorer)
+		{
+			super(scorer);
+		}
+		public void prepare(RankList rl, int[] order, int offset, int[] rel, int n)
+		{
+			this.rel = rel;
+			size = Math.min(n, scorer.getK());
+		}
+		public double delta(int i, int j)
+		{
+			if(i > j)
+			{
+				int t = i;
+				i = j;
+				j = t;
+			}
+			if(i >= size)
+				return 0;
+			DCGScorer dcg = (DCGScorer)scorer;
+			return (dcg.discount(i) - dcg.discount(j)) * (dcg.gain(rel[i]) - dcg.gain(rel[j]));
+		}
+	}
 	
 	protected double getDCG(int[] rel, int topK)
 	{
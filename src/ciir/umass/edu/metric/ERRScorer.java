@@ -34,7 +34,7 @@ public class ERRScorer extends MetricScorer {
 	}
 	public ERRScorer copy()
 	{
-		return new ERRScorer();
+		return new ERRScorer(k);
 	}
 	/**
 	 * Compute ERR at k. NDCG(k) = DCG(k) / DCG_{perfect}(k). Note that the "perfect ranking" must be computed based on the whole list,
@@ -115,4 +115,68 @@ public class ERRScorer extends MetricScorer {
 		}
 		return changes;
 	}
+	public SwapDelta swapDelta()
+	{
+		return new ERRSwapDelta(this);
+	}
+	
+	/**
+	 * swapChange() of ERR, one pair at a time, with the same arithmetic. Only swaps involving the top @k ranks change
+	 * anything; as in swapChange(), the labels below rank @k count as 0.
+	 */
+	protected static class ERRSwapDelta extends SwapDelta {
+		private int size = 0;
+		private int[] labels = new int[0];
+		private double[] R = new double[0];
+		private double[] np = new double[0];
+		
+		public ERRSwapDelta(ERRScorer scorer)
+		{
+			super(scorer);
+		}
+		public void prepare(RankList rl, int[] order, int offset, int[] rel, int n)
+		{
+			ERRScorer err = (ERRScorer)scorer;
+			size = Math.max(0, Math.min(n, scorer.getK()));
+			if(labels.length < n)
+			{
+				labels = new int[n];
+				R = new double[n];
+				np = new double[n];
+			}
+			double p = 1.0;
+			for(int i=0;i<size;i++)
+			{
+				labels[i] = rel[i];
+				R[i] = err.R(labels[i]);
+				np[i] = p * (1.0 - R[i]);
+				p *= np[i];
+			}
+			Arrays.fill(labels, size, n, 0);
+			Arrays.fill(R, size, n, 0);
+			Arrays.fill(np, size, n, 0);
+		}
+		public double delta(int i, int j)
+		{
+			if(i > j)
+			{
+				int t = i;
+				i = j;
+				j = t;
+			}
+			if(i >= size || labels[i] == labels[j])
+				return 0;
+			double v1 = 1.0/(i+1) * (i==0?1:np[i-1]);
+			double change = v1 * (R[j] - R[i]);
+			double p = (i==0?1:np[i-1]) * (R[i] - R[j]);
+			//R[k] is 0 from rank @size on, where the sum of swapChange() stops changing
+			for(int k=i+1;k<j && k<size;k++)
+			{
+				change += p * R[k]/(1+k);
+				p *= 1.0 - R[k];
+			}
+			change += (np[j-1]*(1.0 - R[j]) * R[i]/(1.0 - R[i]) - np[j-1] * R[j]) / (j+1);
+			return change;
+		}
+	}
 }
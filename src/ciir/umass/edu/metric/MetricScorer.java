@@ -11,6 +11,7 @@ package ciir.umass.edu.metric;
 
 import ciir.umass.edu.learning.RankList;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -60,7 +61,52 @@ public abstract class MetricScorer {
 	}
 	
 	public abstract double score(RankList rl);
+	/**
+	 * @return a scorer with the same settings (depth, external relevance judgments), to be used by another thread:
+	 * score() may update caches, so a scorer must not be used by several threads at once.
+	 */
 	public abstract MetricScorer copy();
 	public abstract String name();
 	public abstract double[][] swapChange(RankList rl);
+	
+	/**
+	 * @return a new calculator of the entries of swapChange(), one pair at a time. Each thread needs its own.
+	 */
+	public SwapDelta swapDelta()
+	{
+		return new SwapDelta(this);
+	}
+	
+	/**
+	 * Computes the entries of swapChange() one pair at a time, so that learners can ask for only the pairs they need. Measures
+	 * that can do it override this to never build the n x n matrix; by default, the matrix is built in prepare().
+	 * Instances may keep scratch space from one list to the next, so they are *NOT* thread-safe.
+	 */
+	public static class SwapDelta {
+		protected final MetricScorer scorer;
+		private double[][] changes = null;
+		
+		public SwapDelta(MetricScorer scorer)
+		{
+			this.scorer = scorer;
+		}
+		/**
+		 * Get ready for a new ranking of the documents of a list.
+		 * @param rl the list, in its original order.
+		 * @param order order[i] - @offset is the position in @rl of the document at rank i.
+		 * @param rel rel[i] is the label of the document at rank i.
+		 * @param n the size of the list; @order and @rel may be longer.
+		 */
+		public void prepare(RankList rl, int[] order, int offset, int[] rel, int n)
+		{
+			changes = scorer.swapChange(new RankList(rl, Arrays.copyOf(order, n), offset));
+		}
+		/**
+		 * @return the change in the measure from swapping the documents at ranks @i and @j.
+		 */
+		public double delta(int i, int j)
+		{
+			return changes[i][j];
+		}
+	}
 }
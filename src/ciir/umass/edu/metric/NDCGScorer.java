@@ -41,7 +41,9 @@ public class NDCGScorer extends DCGScorer {
 	}
 	public MetricScorer copy()
 	{
-		return new NDCGScorer();
+		NDCGScorer copy = new NDCGScorer(k);
+		copy.idealGains.putAll(idealGains);//including those of the external relevance judgments
+		return copy;
 	}
 	public void loadExternalRelevanceJudgment(String qrelFile)
 	{
@@ -155,6 +157,48 @@ public class NDCGScorer extends DCGScorer {
 	{
 		return "NDCG@"+k;
 	}
+	public SwapDelta swapDelta()
+	{
+		return new NDCGSwapDelta(this);
+	}
+	
+	/**
+	 * swapChange() of NDCG, one pair at a time: the DCG changes over the ideal DCG of the list.
+	 */
+	protected static class NDCGSwapDelta extends DCGSwapDelta {
+		private double ideal = 0;
+		private int[] sorted = new int[0];//scratch space for the ideal DCG
+		
+		public NDCGSwapDelta(NDCGScorer scorer)
+		{
+			super(scorer);
+		}
+		public void prepare(RankList rl, int[] order, int offset, int[] rel, int n)
+		{
+			super.prepare(rl, order, offset, rel, n);
+			NDCGScorer ndcg = (NDCGScorer)scorer;
+			Double d = ndcg.idealGains.get(rl.getID());
+			if(d != null)
+			{
+				ideal = d;
+				return;
+			}
+			//same as getIdealDCG(), without allocating
+			if(sorted.length < n)
+				sorted = new int[n];
+			System.arraycopy(rel, 0, sorted, 0, n);
+			Arrays.sort(sorted, 0, n);
+			ideal = 0;
+			for(int i=0;i<size;i++)
+				ideal += ndcg.gain(sorted[n-1-i]) * ndcg.discount(i);
+		}
+		public double delta(int i, int j)
+		{
+			if(ideal > 0)
+				return super.delta(i, j) / ideal;
+			return 0;
+		}
+	}
 	
 	private double getIdealDCG(int[] rel, int topK)
 	{
@@ -62,4 +62,41 @@ public class PrecisionScorer extends MetricScorer {
 		}
 		return changes;
 	}
+	public SwapDelta swapDelta()
+	{
+		return new PrecisionSwapDelta(this);
+	}
+	
+	/**
+	 * swapChange() of P@k, one pair at a time: only swaps across rank @k change anything.
+	 */
+	protected static class PrecisionSwapDelta extends SwapDelta {
+		private int[] labels = new int[0];
+		private int size = 0;
+		
+		public PrecisionSwapDelta(PrecisionScorer scorer)
+		{
+			super(scorer);
+		}
+		public void prepare(RankList rl, int[] order, int offset, int[] rel, int n)
+		{
+			size = Math.min(n, scorer.getK());
+			if(labels.length < n)
+				labels = new int[n];
+			for(int i=0;i<n;i++)
+				labels[i] = rl.get(order[i] - offset).getIntLabel();
+		}
+		public double delta(int i, int j)
+		{
+			if(i > j)
+			{
+				int t = i;
+				i = j;
+				j = t;
+			}
+			if(i >= size || j < size)
+				return 0;
+			return ((float)(labels[j] - labels[i]))/size;
+		}
+	}
 }
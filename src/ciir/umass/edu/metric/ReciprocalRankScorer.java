@@ -102,4 +102,72 @@ public class ReciprocalRankScorer extends MetricScorer {
 		}			
 		return changes;
 	}
+	public SwapDelta swapDelta()
+	{
+		return new RRSwapDelta(this);
+	}
+	
+	/**
+	 * swapChange() of RR, one pair at a time: only swaps that move the first relevant document within the top @k ranks
+	 * change anything.
+	 */
+	protected static class RRSwapDelta extends SwapDelta {
+		private float[] labels = new float[0];
+		private int size = 0;
+		private int firstRank = -1;
+		private int secondRank = -1;
+		private int first = 0;//firstRank, or @size if there is no relevant document in the top @size
+		private double rr = 0;
+		
+		public RRSwapDelta(ReciprocalRankScorer scorer)
+		{
+			super(scorer);
+		}
+		public void prepare(RankList rl, int[] order, int offset, int[] rel, int n)
+		{
+			size = Math.min(n, scorer.getK());
+			if(labels.length < n)
+				labels = new float[n];
+			for(int i=0;i<n;i++)
+				labels[i] = rl.get(order[i] - offset).getLabel();
+			firstRank = -1;
+			secondRank = -1;
+			for(int i=0;i<size;i++)
+			{
+				if(labels[i] > 0.0)//relevant
+				{
+					if(firstRank==-1)
+						firstRank = i;
+					else if(secondRank == -1)
+						secondRank = i;
+				}
+			}
+			rr = firstRank != -1 ? 1.0 / (firstRank+1) : 0.0;
+			first = firstRank != -1 ? firstRank : size;
+		}
+		public double delta(int i, int j)
+		{
+			if(i > j)
+			{
+				int t = i;
+				i = j;
+				j = t;
+			}
+			//swapping the first relevant document with a non-relevant one further down
+			if(firstRank != -1 && i == firstRank)
+			{
+				if(((int)labels[j]) != 0)
+					return 0;
+				if(j < size && (secondRank == -1 || j < secondRank))
+					return 1.0 / (j+1) - rr;
+				if(secondRank == -1)
+					return - rr;
+				return 1.0 / (secondRank+1) - rr;
+			}
+			//swapping a document above it with a relevant one
+			if(i < first && j >= first && labels[j] > 0)
+				return 1.0/(i+1) - rr;
+			return 0;
+		}
+	}
 }
@@ -42,6 +42,20 @@ public final class FileUtils {
 		}
 	}
 
+	/**
+	 * Open a file for reading text, a buffer at a time.
+	 * @param filename The file to read.
+	 * @param encoding The encoding of the file.
+	 */
+	@Nonnull
+	public static BufferedReader openReader(String filename, String encoding) {
+		try {
+			return new BufferedReader(new InputStreamReader(new FileInputStream(filename), encoding));
+		} catch(Exception e) {
+			throw new RankLibError("Couldn't read file="+filename, e);
+		}
+	}
+
 	@Nonnull
 	public static List<String> readLine(String filename, String encoding) {
 		try {
@@ -67,6 +81,19 @@ public final class FileUtils {
 			throw new RankLibError("Couldn't write file="+filename);
 		}
 	}
+	/**
+	 * Open a file for writing text, a buffer at a time.
+	 * @param filename The output filename.
+	 * @param encoding The encoding of the file.
+	 */
+	@Nonnull
+	public static BufferedWriter openWriter(String filename, String encoding) {
+		try {
+			return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), encoding));
+		} catch(Exception e) {
+			throw new RankLibError("Couldn't write file="+filename, e);
+		}
+	}
 	/**
 	 * Get all file (non-recursively) from a directory.
 	 * @param directory The directory to read.
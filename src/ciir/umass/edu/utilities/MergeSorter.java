@@ -134,7 +134,18 @@ public class MergeSorter {
 	{
 		int len = end - begin + 1;
 		int[] idx = new int[len];
-		int[] tmp = new int[len];
+		sort(list, begin, end, asc, idx, new int[len], new int[len/2+3]);
+		return idx;
+	}
+	/**
+	 * Same as sort(list, begin, end, asc), but into buffers supplied by the caller, so that nothing is allocated.
+	 * @param idx receives the indices (begin..end) of the sorted elements; at least end-begin+1 long.
+	 * @param tmp scratch space, at least end-begin+1 long.
+	 * @param ph scratch space, at least (end-begin+1)/2+3 long.
+	 */
+	public static void sort(double[] list, int begin, int end, boolean asc, int[] idx, int[] tmp, int[] ph)
+	{
+		int len = end - begin + 1;
 		for(int i=begin;i<=end;i++)
 			idx[i-begin] = i;
 		
@@ -143,13 +154,12 @@ public class MergeSorter {
 		int j=0;
 		int k=0;
 		int start= 0;
-		int[] ph = new int[len/2+3];
 		ph[0] = 0;
 		int p=1;
 		do {
 			start = i-1;
-			while(i < idx.length && ((asc && list[begin+i] >= list[begin+i-1]) || (!asc && list[begin+i] <= list[begin+i-1]))) i++;
-			if(i == idx.length)
+			while(i < len && ((asc && list[begin+i] >= list[begin+i-1]) || (!asc && list[begin+i] <= list[begin+i-1]))) i++;
+			if(i == len)
 			{
 				System.arraycopy(idx, start, tmp, k, i-start);
 				k = i;
@@ -157,20 +167,20 @@ public class MergeSorter {
 			else
 			{
 				j=i+1;
-				while(j < idx.length && ((asc && list[begin+j] >= list[begin+j-1]) || (!asc && list[begin+j] <= list[begin+j-1]))) j++;
+				while(j < len && ((asc && list[begin+j] >= list[begin+j-1]) || (!asc && list[begin+j] <= list[begin+j-1]))) j++;
 				merge(list, idx, start, i-1, i, j-1, tmp, k, asc);
 				i = j+1;
 				k=j;				
 			}
 			ph[p++] = k;
-		}while(k < idx.length);
-		System.arraycopy(tmp, 0, idx, 0, idx.length);
+		}while(k < len);
+		System.arraycopy(tmp, 0, idx, 0, len);
 		
 		//subsequent iterations
 		while(p > 2)
 		{
 			if(p % 2 == 0)
-				ph[p++] = idx.length;
+				ph[p++] = len;
 			k=0;
 			int np = 1;
 			for(int w=0;w<p-1;w+=2)
@@ -180,9 +190,42 @@ public class MergeSorter {
 				ph[np++] = k;				
 			}
 			p = np;
-			System.arraycopy(tmp, 0, idx, 0, idx.length);
-		}		
-		return idx;
+			System.arraycopy(tmp, 0, idx, 0, len);
+		}
+	}
+	/**
+	 * Re-sort idx[from..to], indices into @list that were in order for earlier values of @list, with an insertion sort:
+	 * this is linear in the length plus the number of elements that changed places, so it is cheap when the values have
+	 * barely moved. Ties are kept in increasing index order, as sort() keeps them, so both give the same order.
+	 * @param maxShifts give up after moving elements this many places in total.
+	 * @return false if it gave up, leaving idx[from..to] a permutation of what it was, but not in order.
+	 */
+	public static boolean resort(double[] list, int[] idx, int from, int to, boolean asc, long maxShifts)
+	{
+		long shifts = 0;
+		for(int i=from+1;i<=to;i++)
+		{
+			int v = idx[i];
+			double key = list[v];
+			int j = i-1;
+			while(j >= from && precedes(list, key, v, idx[j], asc))
+			{
+				idx[j+1] = idx[j];
+				j--;
+				shifts++;
+			}
+			idx[j+1] = v;
+			if(shifts > maxShifts)
+				return false;
+		}
+		return true;
+	}
+	private static boolean precedes(double[] list, double key, int v, int w, boolean asc)
+	{
+		double other = list[w];
+		if(key == other)
+			return v < w;
+		return asc ? key < other : key > other;
 	}
 	private static void merge(double[] list, int[] idx, int s1, int e1, int s2, int e2, int[] tmp, int l, boolean asc)
 	{
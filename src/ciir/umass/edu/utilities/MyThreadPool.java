@@ -34,7 +34,7 @@ public class MyThreadPool extends ThreadPoolExecutor {
 	private static MyThreadPool singleton = null;
 	public static MyThreadPool getInstance()
 	{
-		if(singleton == null)
+		if(singleton == null || singleton.isShutdown())//e.g. a second Evaluator run in the same JVM
 			init(Runtime.getRuntime().availableProcessors());
 		return singleton;
 	}
@@ -0,0 +1,124 @@
+package ciir.umass.edu.utilities;
+
+/**
+ * The logistic function 1/(1+e^-x), and the softplus ln(1+e^x), for the pairwise gradients and losses of the learners.
+ * Either exact (Math.exp), or read off a table over [-range, range] with linear interpolation, which is much cheaper in the
+ * hot loops where they are computed once per pair of documents.
+ *
+ * Learners get the current implementation with {@link #get()} once per loop; -sigmoid on the command line picks it.
+ *
+ * @author jfoley
+ */
+public final class Sigmoid {
+  public static final double DEFAULT_RANGE = 16;
+  /** Table entries per unit of x; the interpolation error is then below 1e-6. */
+  public static final int DEFAULT_RESOLUTION = 256;
+
+  private static volatile Sigmoid current = exact();
+
+  /** @return the implementation learners should use. */
+  public static Sigmoid get() {
+    return current;
+  }
+
+  public static void set(Sigmoid sigmoid) {
+    current = sigmoid;
+  }
+
+  public static Sigmoid exact() {
+    return new Sigmoid(0, 0);
+  }
+
+  /**
+   * @param range the table covers [-range, range]; beyond it, values are clamped to the ends of the table (for the
+   *              logistic function) or to the asymptotes (for softplus).
+   * @param resolution table entries per unit of x.
+   */
+  public static Sigmoid table(double range, int resolution) {
+    if (range <= 0 || resolution <= 0) {
+      throw RankLibError.create("Error in Sigmoid: range and resolution must be positive, not " + range + " and " + resolution);
+    }
+    return new Sigmoid(range, resolution);
+  }
+
+  /**
+   * Parse "exact", "table", or "table:range:resolution", as given to -sigmoid.
+   */
+  public static Sigmoid parse(String spec) {
+    if (spec.equals("exact")) {
+      return exact();
+    }
+    String[] parts = spec.split(":");
+    if (!parts[0].equals("table") || (parts.length != 1 && parts.length != 3)) {
+      throw RankLibError.create("Unknown sigmoid: " + spec + " (expected exact, table or table:<range>:<resolution>)");
+    }
+    if (parts.length == 1) {
+      return table(DEFAULT_RANGE, DEFAULT_RESOLUTION);
+    }
+    return table(Double.parseDouble(parts[1]), Integer.parseInt(parts[2]));
+  }
+
+  private final boolean exact;
+  private final double range;
+  private final double scale; // entries per unit
+  private final double[] logistic; // logistic[i] = 1/(1+e^-x) at x = -range + i/scale
+  private final double[] softplus;
+
+  private Sigmoid(double range, int resolution) {
+    this.exact = resolution == 0;
+    this.range = range;
+    this.scale = resolution;
+    int n = exact ? 0 : (int) Math.ceil(2 * range * resolution) + 2;
+    logistic = new double[n];
+    softplus = new double[n];
+    for (int i = 0; i < n; i++) {
+      double x = -range + i / scale;
+      logistic[i] = 1.0 / (1.0 + Math.exp(-x));
+      softplus[i] = Math.log(1 + Math.exp(x));
+    }
+  }
+
+  public boolean isExact() {
+    return exact;
+  }
+
+  /** @return 1/(1+e^-x). */
+  public double value(double x) {
+    if (exact) {
+      return 1.0 / (1.0 + Math.exp(-x));
+    }
+    if (x <= -range) {
+      return logistic[0];
+    }
+    if (x >= range) {
+      return logistic[logistic.length - 2];
+    }
+    return interpolate(logistic, x);
+  }
+
+  /** @return ln(1+e^x). */
+  public double softplus(double x) {
+    if (exact) {
+      return Math.log(1 + Math.exp(x));
+    }
+    if (x <= -range) {
+      return 0;
+    }
+    if (x >= range) {
+      return x;
+    }
+    return interpolate(softplus, x);
+  }
+
+  private double interpolate(double[] table, double x) {
+    double pos = (x + range) * scale;
+    int i = (int) pos;
+    double frac = pos - i;
+    return table[i] + frac * (table[i + 1] - table[i]);
+  }
+
+  @Override
+  public String toString() {
+    return exact ? "exact" : "table:" + range + ":" + (int) scale;
+  }
+}
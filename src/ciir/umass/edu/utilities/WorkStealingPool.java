@@ -0,0 +1,118 @@
+package ciir.umass.edu.utilities;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs CPU-bound, data-parallel loops (over features, queries, rows...) on a {@link ForkJoinPool}.
+ *
+ * Unlike {@link MyThreadPool}, a range of tasks is cut into more chunks than there are threads, and the chunks are forked
+ * as a tree of halves, so threads that finish early steal work from busy ones: a few slow features or long queries no longer
+ * leave the other cores idle. A thread that waits on a region helps run its tasks instead of blocking, so regions can be
+ * started from within other regions (e.g. trees built inside parallel bags) without deadlocking or serializing.
+ *
+ * @author jfoley
+ */
+public class WorkStealingPool {
+  /** By default, execute() cuts a range into this many chunks per thread. */
+  public static final int CHUNKS_PER_THREAD = 4;
+
+  private static WorkStealingPool singleton = null;
+
+  public static synchronized WorkStealingPool getInstance() {
+    if (singleton == null) {
+      init(Runtime.getRuntime().availableProcessors());
+    }
+    return singleton;
+  }
+
+  public static synchronized void init(int poolSize) {
+    if (singleton != null) {
+      singleton.pool.shutdown();
+    }
+    singleton = new WorkStealingPool(poolSize);
+  }
+
+  private final ForkJoinPool pool;
+
+  /** A pool of its own, apart from the process-wide one; its threads go away on their own once idle. */
+  public WorkStealingPool(int poolSize) {
+    pool = new ForkJoinPool(poolSize);
+  }
+
+  public int size() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Run clones of @worker over tasks [0, @nTasks), cut into about CHUNKS_PER_THREAD chunks per thread.
+   * @return the clones, in the order of their ranges.
+   */
+  public WorkerThread[] execute(WorkerThread worker, int nTasks) {
+    return execute(worker, nTasks, size() * CHUNKS_PER_THREAD);
+  }
+
+  /**
+   * Run clones of @worker over tasks [0, @nTasks), cut into at most @nChunks contiguous ranges of (nearly) the same size,
+   * one clone per range, and wait for all of them. Exceptions thrown by a clone are re-thrown here.
+   * @return the clones, in the order of their ranges (e.g. to combine their results deterministically).
+   */
+  public WorkerThread[] execute(WorkerThread worker, int nTasks, int nChunks) {
+    int[] partition = partition(nTasks, nChunks);
+    WorkerThread[] workers = new WorkerThread[partition.length - 1];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = worker.clone();
+      workers[i].set(partition[i], partition[i + 1] - 1);
+    }
+    if (workers.length == 1) {
+      workers[0].run();
+    } else {
+      Chunks root = new Chunks(workers, 0, workers.length);
+      if (ForkJoinTask.getPool() == pool) {
+        root.invoke(); // nested region: fork onto the current thread's queue
+      } else {
+        pool.invoke(root);
+      }
+    }
+    return workers;
+  }
+
+  /**
+   * @return the boundaries of at most @nChunks (and at least one) contiguous ranges covering [0, @listSize).
+   */
+  public static int[] partition(int listSize, int nChunks) {
+    int n = Math.max(1, Math.min(listSize, nChunks));
+    int chunkSize = listSize / n;
+    int mod = listSize % n;
+    int[] partition = new int[n + 1];
+    for (int i = 1; i <= n; i++) {
+      partition[i] = partition[i - 1] + chunkSize + ((i <= mod) ? 1 : 0);
+    }
+    return partition;
+  }
+
+  private static class Chunks extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final WorkerThread[] workers;
+    private final int from;
+    private final int to;
+
+    Chunks(WorkerThread[] workers, int from, int to) {
+      this.workers = workers;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        workers[from].run();
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new Chunks(workers, from, mid), new Chunks(workers, mid, to));
+    }
+  }
+}
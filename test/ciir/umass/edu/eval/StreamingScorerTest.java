@@ -0,0 +1,133 @@
+package ciir.umass.edu.eval;
+
+import ciir.umass.edu.features.FeatureManager;
+import ciir.umass.edu.features.QueryReader;
+import ciir.umass.edu.features.SumNormalizor;
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.learning.RankerFactory;
+import ciir.umass.edu.learning.RankerTrainer;
+import ciir.umass.edu.learning.RankerType;
+import ciir.umass.edu.learning.neuralnet.RankNet;
+import ciir.umass.edu.metric.NDCGScorer;
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class StreamingScorerTest {
+
+  private static void writeData(TmpFile file, int numQueries) throws IOException {
+    Random rand = new Random(7);
+    try (PrintWriter out = file.getWriter()) {
+      for (int q = 0; q < numQueries; q++) {
+        int docs = 1 + rand.nextInt(10);
+        for (int d = 0; d < docs; d++) {
+          int label = (q % 5 == 0) ? 0 : rand.nextInt(3);
+          out.println(label + " qid:" + q + " 1:" + rand.nextFloat() + " 2:" + rand.nextFloat() + " 3:" + rand.nextFloat() + " # q" + q + "d" + d);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testQueryReader() throws IOException {
+    try (TmpFile data = new TmpFile()) {
+      writeData(data, 50);
+      for (boolean mustHaveRelDoc : new boolean[]{false, true}) {
+        Dataset all = FeatureManager.readInput(data.getPath(), mustHaveRelDoc, false);
+        try (QueryReader reader = new QueryReader(data.getPath(), mustHaveRelDoc, false)) {
+          for (RankList expected : all) {
+            RankList actual = reader.next();
+            assertNotNull(actual);
+            assertEquals(expected.getID(), actual.getID());
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.get(expected.size() - 1).getDescription(), actual.get(actual.size() - 1).getDescription());
+          }
+          assertNull(reader.next());
+          assertNull(reader.next());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSameAsInMemory() throws IOException {
+    try (TmpFile data = new TmpFile(); TmpFile model = new TmpFile()) {
+      writeData(data, 200);
+      try (PrintWriter out = model.getWriter()) {
+        out.println("## Coordinate Ascent");
+        out.println("1:0.5 2:-0.25 3:1.5");
+      }
+
+      RankerFactory factory = new RankerFactory();
+      Ranker ranker = factory.loadRankerFromFile(model.getPath());
+      Dataset test = FeatureManager.readInput(data.getPath(), true, false);
+      new SumNormalizor().normalize(test, ranker.getFeatures());
+      StringBuilder expected = new StringBuilder();
+      for (RankList rl : test) {
+        for (int j = 0; j < rl.size(); j++) {
+          expected.append(rl.getID()).append('\t').append(j).append('\t').append(ranker.eval(rl.get(j))).append(System.lineSeparator());
+        }
+      }
+
+      // a short read-ahead, so that the writer has to wait for the scoring tasks
+      StreamingScorer scorer = new StreamingScorer(factory, model.getPath(), new SumNormalizor(), true, false).setReadAhead(3);
+      StringWriter actual = new StringWriter();
+      assertEquals(test.size(), scorer.run(data.getPath(), actual, StreamingScorer.Format.SCORES));
+      assertEquals(expected.toString(), actual.toString());
+
+      StringWriter indri = new StringWriter();
+      scorer.run(data.getPath(), indri, StreamingScorer.Format.INDRI);
+      String[] lines = indri.toString().split(System.lineSeparator());
+      assertEquals(expected.toString().split(System.lineSeparator()).length, lines.length);
+      assertTrue(lines[0].startsWith(test.get(0).getID() + " Q0 q"));
+      assertEquals("1", lines[0].split(" ")[3]);
+      assertTrue(lines[0].endsWith(" ranklib"));
+    }
+  }
+
+  @Test
+  public void testStatefulRanker() throws IOException {
+    int epochs = RankNet.nIteration;
+    boolean verbose = Ranker.verbose;
+    try (TmpFile data = new TmpFile(); TmpFile model = new TmpFile()) {
+      RankNet.nIteration = 5;
+      Ranker.verbose = false;
+      writeData(data, 100);
+      RankerFactory factory = new RankerFactory();
+      Dataset train = FeatureManager.readInput(data.getPath(), true, false);
+      new RankerTrainer().train(RankerType.RANKNET, train.samples, new int[]{1, 2, 3}, new NDCGScorer(10)).save(model.getPath());
+
+      Ranker ranker = factory.loadRankerFromFile(model.getPath());
+      assertFalse(ranker.isStatelessEval());
+      Dataset test = FeatureManager.readInput(data.getPath(), false, false);
+      new SumNormalizor().normalize(test, ranker.getFeatures());
+      StringBuilder expected = new StringBuilder();
+      for (RankList rl : test) {
+        for (int j = 0; j < rl.size(); j++) {
+          expected.append(rl.getID()).append('\t').append(j).append('\t').append(ranker.eval(rl.get(j))).append(System.lineSeparator());
+        }
+      }
+
+      // each task scores with a copy of the model, which is reused by later tasks
+      StreamingScorer scorer = new StreamingScorer(factory, model.getPath(), new SumNormalizor(), false, false).setReadAhead(4);
+      assertTrue(scorer.getRanker().getFeatures().length > 0);
+      StringWriter actual = new StringWriter();
+      assertEquals(test.size(), scorer.run(data.getPath(), actual, StreamingScorer.Format.SCORES));
+      assertEquals(expected.toString(), actual.toString());
+    } finally {
+      RankNet.nIteration = epochs;
+      Ranker.verbose = verbose;
+    }
+  }
+}
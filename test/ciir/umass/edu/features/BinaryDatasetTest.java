@@ -0,0 +1,94 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.FeatureMatrix;
+import ciir.umass.edu.learning.PointBuilder;
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static ciir.umass.edu.features.DatasetTestUtil.assertSameDataset;
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class BinaryDatasetTest {
+
+  private static void writeText(TmpFile file) throws IOException {
+    try (PrintWriter out = file.getWriter()) {
+      out.println("0 qid:a 1:0.5 2:0.7 # d1");
+      out.println("0 qid:a 1:0.1");
+      out.println("1 qid:b 2:1.5 # d3");
+      out.println("2 qid:c 1:3 5:-1 # dé4");
+      for (int i = 0; i < 100; i++) {
+        out.println((i % 3) + " qid:d 1:" + i + " 2:" + (i * 0.5) + " 3:1");
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    try (TmpFile text = new TmpFile(); TmpFile bin = new TmpFile()) {
+      writeText(text);
+      assertFalse(BinaryDataset.isBinary(text.getPath()));
+
+      Dataset original = FeatureManager.readInput(text.getPath(), false, false, true);
+      BinaryDataset.write(original.getFeatureMatrix(), bin.getPath());
+      assertTrue(BinaryDataset.isBinary(bin.getPath()));
+
+      FeatureMatrix fm = BinaryDataset.read(bin.getPath());
+      assertEquals(original.getFeatureMatrix().rows(), fm.rows());
+      assertEquals(4, fm.queryCount());
+      assertArrayEquals(original.getFeatureMatrix().getColumn(2), fm.getColumn(2), 0f);
+      // query b has no feature 1
+      assertNotNull(fm.getKnownBits(1));
+
+      // readInput recognizes binary files, whatever the representation asked for
+      assertSameDataset(original, FeatureManager.readInput(bin.getPath(), false, false, true));
+      assertSameDataset(original, FeatureManager.readInput(bin.getPath(), false, false, false));
+      assertSameDataset(FeatureManager.readInput(text.getPath(), true, false),
+          FeatureManager.readInput(bin.getPath(), true, false));
+      assertSameDataset(FeatureManager.readInput(text.getPath(), true, false, true),
+          FeatureManager.readInput(bin.getPath(), true, false, true));
+    }
+  }
+
+  @Test
+  public void testMappedColumns() throws IOException {
+    try (TmpFile text = new TmpFile(); TmpFile bin = new TmpFile()) {
+      writeText(text);
+      FeatureMatrix original = FeatureManager.readInput(text.getPath(), false, false, true).getFeatureMatrix();
+      BinaryDataset.write(original, bin.getPath());
+
+      // 16 rows per mapping, so that columns span several of them
+      FeatureMatrix fm = BinaryDataset.read(bin.getPath(), 4);
+      for (int fid = 1; fid <= original.getMaxFeature(); fid++) {
+        assertArrayEquals(original.getColumn(fid), fm.readColumn(fid), 0f);
+        assertArrayEquals(original.getKnownBits(fid), fm.getKnownBits(fid));
+        for (int row = 0; row < original.rows(); row++) {
+          assertEquals(original.get(row, fid), fm.get(row, fid), 0f);
+          assertEquals(original.isKnown(row, fid), fm.isKnown(row, fid));
+        }
+      }
+
+      // changes go to a heap copy of the column, not to the file
+      fm.set(2, 1, 42f);
+      assertEquals(42f, fm.get(2, 1), 0f);
+      assertTrue(fm.isKnown(2, 1));
+      assertEquals(original.get(3, 1), fm.getColumn(1)[3], 0f);
+      FeatureMatrix again = BinaryDataset.read(bin.getPath(), 4);
+      assertEquals(0f, again.get(2, 1), 0f);
+      assertFalse(again.isKnown(2, 1));
+
+      // and rows can still be appended
+      fm.addRow(new PointBuilder(new Dataset()).setLabel(1).set(2, 3f));
+      fm.endQuery("e");
+      assertEquals(original.rows() + 1, fm.rows());
+      assertEquals(3f, fm.get(original.rows(), 2), 0f);
+      assertEquals(original.get(5, 3), fm.get(5, 3), 0f);
+    }
+  }
+}
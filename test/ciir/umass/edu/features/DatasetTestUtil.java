@@ -0,0 +1,36 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.RankList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author jfoley.
+ */
+public class DatasetTestUtil {
+  /** The same lists, in the same order, with the same documents: labels, descriptions and every feature. */
+  public static void assertSameDataset(Dataset expected, Dataset actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.getMaxFeaturePosition(), actual.getMaxFeaturePosition());
+    for (int q = 0; q < expected.size(); q++) {
+      RankList e = expected.get(q);
+      RankList a = actual.get(q);
+      assertEquals(e.getID(), a.getID());
+      assertEquals(e.size(), a.size());
+      for (int i = 0; i < e.size(); i++) {
+        DataPoint ep = e.get(i);
+        DataPoint ap = a.get(i);
+        assertEquals(ep.getLabel(), ap.getLabel(), 0f);
+        assertEquals(ep.getDescription(), ap.getDescription());
+        for (int fid = 1; fid <= expected.getMaxFeaturePosition(); fid++) {
+          assertEquals(ep.hasFeature(fid), ap.hasFeature(fid));
+          if(ep.hasFeature(fid)) {
+            assertEquals(ep.getFeatureValue(fid), ap.getFeatureValue(fid), 0f);
+          }
+        }
+      }
+    }
+  }
+}
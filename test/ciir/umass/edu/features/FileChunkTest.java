@@ -0,0 +1,83 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static ciir.umass.edu.features.DatasetTestUtil.assertSameDataset;
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class FileChunkTest {
+
+  /** Queries of random sizes; later queries use higher feature ids, and some have no relevant document. */
+  private static void writeData(TmpFile file, int numQueries) throws IOException {
+    Random rand = new Random(13);
+    try (PrintWriter out = file.getWriter()) {
+      for (int q = 0; q < numQueries; q++) {
+        int docs = 1 + rand.nextInt(30);
+        for (int d = 0; d < docs; d++) {
+          if(rand.nextInt(20) == 0) {
+            out.println("# a comment");
+          }
+          int label = (q % 7 == 0) ? 0 : rand.nextInt(3);
+          out.print(label + " qid:" + q);
+          for (int f = 1; f <= 3 + q / 10; f++) {
+            out.print(" " + f + ":" + rand.nextFloat());
+          }
+          out.println(" # q" + q + "d" + d);
+        }
+      }
+    }
+  }
+
+  private static Dataset readChunks(List<FileChunk> chunks, boolean mustHaveRelDoc, boolean columnar) {
+    List<Dataset> parts = new ArrayList<>();
+    for (FileChunk chunk : chunks) {
+      parts.add(chunk.read(mustHaveRelDoc, false, columnar));
+    }
+    return Dataset.concat(parts);
+  }
+
+  @Test
+  public void testChunksEndOnQueryBoundaries() throws IOException {
+    try (TmpFile data = new TmpFile()) {
+      writeData(data, 200);
+      List<FileChunk> chunks = FileChunk.split(data.getPath(), 7, 100);
+      assertTrue(chunks.size() > 1);
+
+      for (boolean mustHaveRelDoc : Arrays.asList(false, true)) {
+        Dataset serial = new Dataset();
+        FeatureManager.readInput(serial, data.getPath(), mustHaveRelDoc, false);
+        assertSameDataset(serial, readChunks(chunks, mustHaveRelDoc, false));
+
+        Dataset columnar = readChunks(chunks, mustHaveRelDoc, true);
+        assertTrue(columnar.isColumnar());
+        assertSameDataset(serial, columnar);
+      }
+    }
+  }
+
+  @Test
+  public void testMultipleFiles() throws IOException {
+    try (TmpFile a = new TmpFile(); TmpFile b = new TmpFile()) {
+      writeData(a, 20);
+      writeData(b, 40);
+      Dataset serial = new Dataset();
+      FeatureManager.readInput(serial, a.getPath(), false, false);
+      FeatureManager.readInput(serial, b.getPath(), false, false);
+
+      assertSameDataset(serial, FeatureManager.readInput(Arrays.asList(a.getPath(), b.getPath())));
+      assertSameDataset(serial, FeatureManager.readInput(Arrays.asList(a.getPath(), b.getPath()), false, false, true));
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.Dataset;
+import ciir.umass.edu.learning.PointBuilder;
+import ciir.umass.edu.utilities.RankLibError;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class LibSVMReaderTest {
+
+  private static LibSVMReader reader(String text) {
+    return new LibSVMReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testSameAsLibSVMFormat() {
+    String[] lines = {
+        "1 qid:foo 1:0.5 2:0.7 3:0.9 5:0.0 # name",
+        "0\tqid:foo  1:-1e-3 4:+2.5E2 7:.25   ",
+        "3 qid:bar 10:1234567.875 2:0x1p3 # a # b",
+        "2.5 qid:bar 1:NaN 2:-0 3:3.4028235e38 4:1.4e-45",
+        "0 qid:bär 1:1:0.125 # ü",
+    };
+    StringBuilder text = new StringBuilder();
+    for (String line : lines) {
+      text.append(line).append("\n\n# comment line\n");
+    }
+
+    Dataset expected = new Dataset();
+    Dataset actual = new Dataset();
+    LibSVMReader reader = reader(text.toString());
+    PointBuilder pb = actual.makePointBuilder();
+    for (String line : lines) {
+      PointBuilder truth = LibSVMFormat.parsePoint(line.trim(), expected);
+      assertTrue(reader.next(pb));
+      assertEquals(truth.getLabel(), pb.getLabel(), 0f);
+      assertEquals(truth.getQID(), pb.getQID());
+      assertEquals(truth.getDescription(), pb.getDescription());
+      assertEquals(truth.getObservedFeatures(), pb.getObservedFeatures());
+      assertArrayEquals(truth.getRawFeatures(), pb.getRawFeatures(), 0f);
+    }
+    assertFalse(reader.next(pb));
+    assertEquals(expected.getMaxFeaturePosition(), actual.getMaxFeaturePosition());
+  }
+
+  @Test
+  public void testQidIsReused() {
+    LibSVMReader reader = reader("1 qid:q1 1:1\n0 qid:q1 1:2\n0 qid:q2 1:3");
+    PointBuilder pb = new Dataset().makePointBuilder();
+    List<String> qids = new ArrayList<>();
+    while (reader.next(pb)) {
+      qids.add(pb.getQID());
+    }
+    assertEquals(3, qids.size());
+    assertSame(qids.get(0), qids.get(1));
+    assertEquals("q2", qids.get(2));
+  }
+
+  @Test
+  public void testLongLines() {
+    StringBuilder sb = new StringBuilder("1 qid:long");
+    for (int i = 1; i <= 20000; i++) {
+      sb.append(' ').append(i).append(':').append(i / 8.0);
+    }
+    LibSVMReader reader = reader(sb.toString());
+    Dataset ds = new Dataset();
+    PointBuilder pb = ds.makePointBuilder();
+    assertTrue(reader.next(pb));
+    assertEquals(20000, pb.getMaxObservedFeature());
+    assertEquals(2500f, pb.getRawFeatures()[20000], 0f);
+    assertFalse(reader.next(pb));
+  }
+
+  @Test
+  public void testErrorsIncludeLine() {
+    LibSVMReader reader = reader("1 qid:x 1:0.5\n1 qid:x 0:0.5\n");
+    PointBuilder pb = new Dataset().makePointBuilder();
+    assertTrue(reader.next(pb));
+    try {
+      reader.next(pb);
+      fail("Feature 0 should be rejected.");
+    } catch (RankLibError err) {
+      assertTrue(err.getMessage(), err.getMessage().contains("line 2: 1 qid:x 0:0.5"));
+    }
+  }
+
+  @Test
+  public void testParseFloat() {
+    Random rand = new Random(42);
+    List<String> inputs = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      float f = Float.intBitsToFloat(rand.nextInt());
+      inputs.add(Float.toString(f));
+      inputs.add(Double.toString(rand.nextDouble() * Math.pow(10, rand.nextInt(20) - 10)));
+      inputs.add(String.format(Locale.ROOT, "%.6f", rand.nextGaussian()));
+      inputs.add(Integer.toString(rand.nextInt()));
+    }
+    // exactly halfway between two floats: 1 + 2^-24, and values just around it
+    inputs.add("1.000000059604644775390625");
+    inputs.add("1.00000005960464477539062");
+    inputs.add("16777217");
+    inputs.add("0.000000000000000000000000000000000000011754943508222875");
+
+    for (String input : inputs) {
+      byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+      float actual = new LibSVMReader(bytes, 0, bytes.length).parseFloat(0, bytes.length);
+      assertEquals(input, Float.floatToIntBits(Float.parseFloat(input)), Float.floatToIntBits(actual));
+    }
+  }
+}
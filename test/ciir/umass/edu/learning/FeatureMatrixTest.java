@@ -0,0 +1,148 @@
+package ciir.umass.edu.learning;
+
+import ciir.umass.edu.features.FeatureManager;
+import ciir.umass.edu.features.Normalizer;
+import ciir.umass.edu.features.ZScoreNormalizor;
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class FeatureMatrixTest {
+
+  private static Dataset parse(String... lines) {
+    Dataset ds = new Dataset();
+    List<DataPoint> rl = new ArrayList<>();
+    for (String line : lines) {
+      DataPoint dp = new DenseDataPoint(line);
+      if(!rl.isEmpty() && !rl.get(0).getID().equals(dp.getID())) {
+        ds.samples.add(new RankList(rl));
+        rl = new ArrayList<>();
+      }
+      ds.maxFeaturePosition = Math.max(ds.maxFeaturePosition, dp.getFeatureVector().length-1);
+      rl.add(dp);
+    }
+    ds.samples.add(new RankList(rl));
+    return ds;
+  }
+
+  @Test
+  public void testFromRankLists() {
+    Dataset ds = parse(
+        "1 qid:a 1:0.5 2:0.7",
+        "0 qid:a 1:0.1 3:0.2 # d2",
+        "2 qid:b 2:1.5 3:-1");
+    ds.toColumnar();
+
+    FeatureMatrix fm = ds.getFeatureMatrix();
+    assertNotNull(fm);
+    assertEquals(3, fm.rows());
+    assertEquals(2, fm.queryCount());
+    assertEquals(3, fm.getMaxFeature());
+    assertEquals("a", fm.getQueryId(0));
+    assertEquals(2, fm.getQueryEnd(0));
+
+    assertArrayEquals(new float[] {0.5f, 0.1f, 0f}, fm.getColumn(1), 0.00001f);
+    assertArrayEquals(new float[] {0.7f, 0f, 1.5f}, fm.getColumn(2), 0.00001f);
+    assertArrayEquals(new float[] {1f, 0f, 2f}, fm.getLabels(), 0.00001f);
+
+    DataPoint dp = ds.get(0).get(1);
+    assertTrue(dp instanceof ColumnarDataPoint);
+    assertEquals("a", dp.getID());
+    assertEquals("# d2", dp.getDescription());
+    assertTrue(dp.hasFeature(1));
+    assertFalse(dp.hasFeature(2));
+    assertEquals(0f, dp.getFeatureValue(2), 0.00001f);
+    assertArrayEquals(new float[] {Float.NaN, 0.1f, Float.NaN, 0.2f}, dp.getFeatureVector(), 0.00001f);
+
+    dp.setFeatureValue(2, 4f);
+    assertTrue(dp.hasFeature(2));
+    assertEquals(4f, fm.get(1, 2), 0.00001f);
+  }
+
+  @Test
+  public void testBackingMatrix() {
+    Dataset ds = parse(
+        "1 qid:a 1:0.5",
+        "0 qid:b 1:0.1").toColumnar();
+
+    DataPoint[] all = new DataPoint[] { ds.get(0).get(0), ds.get(1).get(0) };
+    assertSame(ds.getFeatureMatrix(), FeatureMatrix.backingMatrix(all));
+
+    DataPoint[] reversed = new DataPoint[] { all[1], all[0] };
+    assertNull(FeatureMatrix.backingMatrix(reversed));
+    assertNull(FeatureMatrix.backingMatrix(new DataPoint[] { all[0] }));
+  }
+
+  @Test
+  public void testNormalizeMatchesDense() {
+    String[] lines = {
+        "1 qid:a 1:0.5 2:0.7",
+        "0 qid:a 1:0.1 2:0.2",
+        "0 qid:a 1:0.3 2:0.9",
+        "2 qid:b 1:1.5 2:-1",
+        "0 qid:b 1:2.5 2:3",
+    };
+    Dataset dense = parse(lines);
+    Dataset columnar = parse(lines).toColumnar();
+
+    Normalizer nml = new ZScoreNormalizor();
+    nml.normalize(dense);
+    nml.normalize(columnar);
+
+    for (int q = 0; q < dense.size(); q++) {
+      for (int i = 0; i < dense.get(q).size(); i++) {
+        for (int fid = 1; fid <= 2; fid++) {
+          assertEquals(dense.get(q).get(i).getFeatureValue(fid), columnar.get(q).get(i).getFeatureValue(fid), 0.00001f);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReadInput() throws IOException {
+    try (TmpFile dataFile = new TmpFile()) {
+      try (PrintWriter out = dataFile.getWriter()) {
+        out.println("0 qid:a 1:0.5 2:0.7 # d1");
+        out.println("0 qid:a 1:0.1 # d2");
+        out.println("1 qid:b 2:1.5 # d3");
+        out.println("0 qid:c 1:3 5:1 # d4");
+        out.println("1 qid:c 1:4 # d5");
+      }
+
+      Dataset dense = FeatureManager.readInput(dataFile.getPath(), true, false, false);
+      Dataset columnar = FeatureManager.readInput(dataFile.getPath(), true, false, true);
+      assertTrue(columnar.isColumnar());
+      assertEquals(2, columnar.size());
+      assertEquals(dense.getMaxFeaturePosition(), columnar.getMaxFeaturePosition());
+
+      FeatureMatrix fm = columnar.getFeatureMatrix();
+      // query "a" has no relevant document, so it must not leave rows behind
+      assertEquals(3, fm.rows());
+      assertArrayEquals(new float[] {0f, 3f, 4f}, fm.getColumn(1), 0.00001f);
+      for (int q = 0; q < dense.size(); q++) {
+        assertEquals(dense.get(q).getID(), columnar.get(q).getID());
+        for (int i = 0; i < dense.get(q).size(); i++) {
+          DataPoint expected = dense.get(q).get(i);
+          DataPoint actual = columnar.get(q).get(i);
+          assertEquals(expected.getLabel(), actual.getLabel(), 0.00001f);
+          assertEquals(expected.getDescription(), actual.getDescription());
+          float[] fv = Arrays.copyOf(expected.getFeatureVector(), fm.getMaxFeature()+1);
+          for (int fid = expected.getFeatureVector().length; fid < fv.length; fid++) {
+            fv[fid] = Float.NaN;
+          }
+          assertArrayEquals(fv, actual.getFeatureVector(), 0.00001f);
+        }
+      }
+    }
+  }
+}
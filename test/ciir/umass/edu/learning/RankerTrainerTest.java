@@ -0,0 +1,384 @@
+package ciir.umass.edu.learning;
+
+import ciir.umass.edu.learning.neuralnet.ListNet;
+import ciir.umass.edu.learning.neuralnet.RankNet;
+import ciir.umass.edu.learning.tree.LambdaMART;
+import ciir.umass.edu.learning.tree.RFRanker;
+import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.metric.NDCGScorer;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class RankerTrainerTest {
+  private static final int[] FEATURES = {1, 2, 3, 4, 5};
+
+  private static List<RankList> data() {
+    Random rand = new Random(13);
+    List<RankList> samples = new ArrayList<>();
+    for (int q = 0; q < 40; q++) {
+      List<DataPoint> docs = new ArrayList<>();
+      for (int d = 0; d < 15; d++) {
+        StringBuilder line = new StringBuilder();
+        float[] x = new float[FEATURES.length];
+        for (int f = 0; f < x.length; f++) {
+          x[f] = rand.nextFloat();
+        }
+        int label = Math.min(4, (int) (5 * (0.6 * x[0] + 0.4 * x[2] * x[2]) + rand.nextInt(2)));
+        line.append(label).append(" qid:").append(q);
+        for (int f = 0; f < x.length; f++) {
+          line.append(' ').append(f + 1).append(':').append(x[f]);
+        }
+        docs.add(new DenseDataPoint(line.toString()));
+      }
+      samples.add(new RankList(docs));
+    }
+    return samples;
+  }
+
+  private static String trainLambdaMART(List<RankList> samples, ExecutionContext context) {
+    LambdaMART ranker = (LambdaMART) new RankerFactory().createRanker(RankerType.LAMBDAMART);
+    ranker.nTrees = 30;
+    return new RankerTrainer().train(ranker, samples, null, FEATURES, new NDCGScorer(10), context).model();
+  }
+
+  @Test
+  public void testResumeFromCheckpoint() throws Exception {
+    boolean verbose = Ranker.verbose;
+    Ranker.verbose = false;
+    File checkpoint = File.createTempFile("ranklib", ".checkpoint");
+    try {
+      List<RankList> samples = data();
+      String expected = trainLambdaMART(samples, new ExecutionContext(1));
+
+      // a training that dies after 12 trees, with its last checkpoint at 10...
+      assertTrue(checkpoint.delete());
+      LambdaMART interrupted = (LambdaMART) new RankerFactory().createRanker(RankerType.LAMBDAMART);
+      interrupted.nTrees = 12;
+      interrupted.checkpointFile = checkpoint.getPath();
+      interrupted.checkpointTrees = 5;
+      new RankerTrainer().train(interrupted, samples, null, FEATURES, new NDCGScorer(10), new ExecutionContext(1));
+      assertTrue(checkpoint.exists());
+
+      // ...picks up from there
+      LambdaMART resumed = (LambdaMART) new RankerFactory().createRanker(RankerType.LAMBDAMART);
+      resumed.nTrees = 30;
+      resumed.checkpointFile = checkpoint.getPath();
+      resumed.resume = true;
+      assertEquals(expected, new RankerTrainer().train(resumed, samples, null, FEATURES, new NDCGScorer(10),
+          new ExecutionContext(1)).model());
+    } finally {
+      Ranker.verbose = verbose;
+      checkpoint.delete();
+    }
+  }
+
+  @Test
+  public void testWarmStart() {
+    boolean verbose = Ranker.verbose;
+    Ranker.verbose = false;
+    try {
+      List<RankList> samples = data();
+      String expected = trainLambdaMART(samples, new ExecutionContext(1));
+
+      LambdaMART first = (LambdaMART) new RankerFactory().createRanker(RankerType.LAMBDAMART);
+      first.nTrees = 10;
+      new RankerTrainer().train(first, samples, null, FEATURES, new NDCGScorer(10), new ExecutionContext(1));
+      // the rest of the trees, on top of the first ones: as if they had been trained all at once
+      LambdaMART more = (LambdaMART) new RankerFactory().createRanker(RankerType.LAMBDAMART);
+      more.nTrees = 20;
+      more.initialModel = (LambdaMART) new RankerFactory().loadRankerFromString(first.model());
+      new RankerTrainer().train(more, samples, null, FEATURES, new NDCGScorer(10), new ExecutionContext(2));
+      assertEquals(30, more.getEnsemble().treeCount());
+      assertEquals(expected.substring(expected.indexOf("<ensemble>")), more.model().substring(more.model().indexOf("<ensemble>")));
+    } finally {
+      Ranker.verbose = verbose;
+    }
+  }
+
+  @Test
+  public void testForestIndependentOfThreads() {
+    boolean verbose = Ranker.verbose;
+    int nBag = RFRanker.nBag;
+    Ranker.verbose = false;
+    RFRanker.nBag = 8;
+    try {
+      List<RankList> samples = data();
+      // bags trained one after the other, or several at once, on the same seed: the same forest
+      String expected = new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES, new NDCGScorer(10),
+          new ExecutionContext(1, 7)).model();
+      String model = new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES, new NDCGScorer(10),
+          new ExecutionContext(3, 7)).model();
+      assertEquals(expected, model);
+    } finally {
+      Ranker.verbose = verbose;
+      RFRanker.nBag = nBag;
+    }
+  }
+
+  /** NDCG that notes any time one of its instances is scored from two threads at once. */
+  private static class ExclusiveNDCG extends NDCGScorer {
+    private final AtomicBoolean shared;
+    private final AtomicInteger active = new AtomicInteger();
+
+    ExclusiveNDCG(int k, AtomicBoolean shared) {
+      super(k);
+      this.shared = shared;
+    }
+
+    @Override
+    public double score(RankList rl) {
+      if (active.incrementAndGet() > 1) {
+        shared.set(true);
+      }
+      try {
+        Thread.yield();
+        return super.score(rl);
+      } finally {
+        active.decrementAndGet();
+      }
+    }
+
+    @Override
+    public MetricScorer copy() {
+      return new ExclusiveNDCG(k, shared);
+    }
+  }
+
+  @Test
+  public void testParallelEvaluationOwnScorers() {
+    boolean verbose = Ranker.verbose;
+    Ranker.verbose = false;
+    try {
+      List<RankList> samples = data();
+      List<RankList> validation = samples.subList(30, 40);
+      samples = samples.subList(0, 30);
+      LambdaMART one = (LambdaMART) new RankerFactory().createRanker(RankerType.LAMBDAMART);
+      one.nTrees = 30;
+      String expected = new RankerTrainer().train(one, samples, validation, FEATURES, new NDCGScorer(5),
+          new ExecutionContext(1)).model();
+      // lists are scored from several threads: each gets a copy of the scorer, at the same depth
+      AtomicBoolean shared = new AtomicBoolean();
+      LambdaMART four = (LambdaMART) new RankerFactory().createRanker(RankerType.LAMBDAMART);
+      four.nTrees = 30;
+      String model = new RankerTrainer().train(four, samples, validation, FEATURES, new ExclusiveNDCG(5, shared),
+          new ExecutionContext(4)).model();
+      assertFalse(shared.get());
+      assertEquals(expected, model);
+      assertEquals(one.getScoreOnTrainingData(), four.getScoreOnTrainingData(), 0.0);
+      assertEquals(one.getScoreOnValidationData(), four.getScoreOnValidationData(), 0.0);
+    } finally {
+      Ranker.verbose = verbose;
+    }
+  }
+
+  @Test
+  public void testConcurrentBagsOwnScorers() {
+    boolean verbose = Ranker.verbose;
+    int nBag = RFRanker.nBag;
+    Ranker.verbose = false;
+    RFRanker.nBag = 12;
+    try {
+      List<RankList> samples = data();
+      String expected = new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES, new NDCGScorer(10),
+          new ExecutionContext(1, 7)).model();
+      AtomicBoolean shared = new AtomicBoolean();
+      String model = new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES,
+          new ExclusiveNDCG(10, shared), new ExecutionContext(4, 7)).model();
+      assertFalse(shared.get());
+      assertEquals(expected, model);
+    } finally {
+      Ranker.verbose = verbose;
+      RFRanker.nBag = nBag;
+    }
+  }
+
+  /** Ideal gains that note any time they are read (e.g. copied) or added to from two threads at once. */
+  private static class WatchedGains extends HashMap<String, Double> {
+    private final AtomicBoolean clash;
+    private final AtomicInteger active = new AtomicInteger();
+
+    WatchedGains(AtomicBoolean clash) {
+      this.clash = clash;
+    }
+
+    private void enter() {
+      if (active.incrementAndGet() > 1) {
+        clash.set(true);
+      }
+      Thread.yield();
+    }
+
+    @Override
+    public Double put(String key, Double value) {
+      enter();
+      try {
+        return super.put(key, value);
+      } finally {
+        active.decrementAndGet();
+      }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Double>> entrySet() {
+      enter();
+      try {
+        return new HashSet<>(super.entrySet());
+      } finally {
+        active.decrementAndGet();
+      }
+    }
+  }
+
+  /** NDCG with watched ideal gains, copied by NDCGScorer.copy() itself. */
+  private static class WatchedNDCG extends NDCGScorer {
+    WatchedNDCG(int k, AtomicBoolean clash) {
+      super(k);
+      idealGains = new WatchedGains(clash);
+    }
+  }
+
+  @Test
+  public void testConcurrentBagsCopyScorer() {
+    boolean verbose = Ranker.verbose;
+    int nBag = RFRanker.nBag;
+    Ranker.verbose = false;
+    RFRanker.nBag = 12;
+    try {
+      List<RankList> samples = data();
+      String expected = new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES, new NDCGScorer(10),
+          new ExecutionContext(1, 7)).model();
+      // the forest's scorer is copied for every bag, and scores the out-of-bag lists as bags finish
+      AtomicBoolean clash = new AtomicBoolean();
+      String model = new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES,
+          new WatchedNDCG(10, clash), new ExecutionContext(4, 7)).model();
+      assertFalse(clash.get());
+      assertEquals(expected, model);
+    } finally {
+      Ranker.verbose = verbose;
+      RFRanker.nBag = nBag;
+    }
+  }
+
+  @Test
+  public void testOutOfBagStop() {
+    boolean verbose = Ranker.verbose;
+    int nBag = RFRanker.nBag;
+    int window = RFRanker.oobStopWindow;
+    double tolerance = RFRanker.oobTolerance;
+    Ranker.verbose = false;
+    try {
+      List<RankList> samples = data();
+      RFRanker.nBag = 40;
+      RFRanker full = (RFRanker) new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES,
+          new NDCGScorer(10), new ExecutionContext(1, 7));
+      assertEquals(40, full.getEnsembles().length);
+      assertTrue(full.getScoreOutOfBag() > 0);
+
+      // a loose tolerance: the forest stops growing once the out-of-bag score settles, wherever the bags are trained
+      RFRanker.oobStopWindow = 5;
+      RFRanker.oobTolerance = 0.05;
+      RFRanker stopped = (RFRanker) new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES,
+          new NDCGScorer(10), new ExecutionContext(1, 7));
+      int n = stopped.getEnsembles().length;
+      assertTrue(n > 5 && n < 40);
+      RFRanker parallel = (RFRanker) new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, FEATURES,
+          new NDCGScorer(10), new ExecutionContext(3, 7));
+      assertEquals(stopped.model(), parallel.model());
+      // the first bags of the full forest
+      for (int i = 0; i < n; i++) {
+        assertEquals(full.getEnsembles()[i].toString(), stopped.getEnsembles()[i].toString());
+      }
+    } finally {
+      Ranker.verbose = verbose;
+      RFRanker.nBag = nBag;
+      RFRanker.oobStopWindow = window;
+      RFRanker.oobTolerance = tolerance;
+    }
+  }
+
+  @Test
+  public void testScoreBatch() {
+    boolean verbose = Ranker.verbose;
+    int nBag = RFRanker.nBag;
+    int nRestart = CoorAscent.nRestart;
+    int rankNetIterations = RankNet.nIteration;
+    int listNetIterations = ListNet.nIteration;
+    Ranker.verbose = false;
+    RFRanker.nBag = 3;
+    CoorAscent.nRestart = 1;
+    RankNet.nIteration = 5;
+    ListNet.nIteration = 5;
+    try {
+      List<RankList> samples = data();
+      // and a list with unknown features (1 to 5 are all used by the models)
+      List<RankList> lists = new ArrayList<>(samples);
+      lists.add(new RankList(Arrays.<DataPoint>asList(new DenseDataPoint("0 qid:99 1:0.5 3:0.25 5:0.75"),
+          new DenseDataPoint("1 qid:99 2:0.5 4:0.125 5:0.5"))));
+      for (RankerType type : RankerType.values()) {
+        Ranker ranker = new RankerTrainer().train(type, samples, null, FEATURES, new NDCGScorer(10),
+            new ExecutionContext(1, 3));
+        for (RankList rl : lists) {
+          double[] scores = new double[rl.size()];
+          ranker.scoreBatch(rl, scores);
+          for (int i = 0; i < rl.size(); i++) {
+            assertEquals(type.toString(), ranker.eval(rl.get(i)), scores[i], 0.0);
+          }
+        }
+      }
+    } finally {
+      Ranker.verbose = verbose;
+      RFRanker.nBag = nBag;
+      CoorAscent.nRestart = nRestart;
+      RankNet.nIteration = rankNetIterations;
+      ListNet.nIteration = listNetIterations;
+    }
+  }
+
+  @Test
+  public void testConcurrentTrainings() throws Exception {
+    boolean verbose = Ranker.verbose;
+    int nBag = RFRanker.nBag;
+    Ranker.verbose = false;
+    RFRanker.nBag = 5;
+    ExecutorService trials = Executors.newFixedThreadPool(3);
+    try {
+      final List<RankList> samples = data();
+      String expected = trainLambdaMART(samples, new ExecutionContext(1));
+
+      // a random forest samples features for its trees; trained alongside, it must not change the other models
+      List<Future<String>> models = new ArrayList<>();
+      models.add(trials.submit(() -> trainLambdaMART(samples, new ExecutionContext(1))));
+      models.add(trials.submit(() -> trainLambdaMART(samples, new ExecutionContext(2))));
+      Future<Ranker> forest = trials.submit(() -> new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null,
+          FEATURES, new NDCGScorer(10), new ExecutionContext(2, 7)));
+      for (Future<String> model : models) {
+        assertEquals(expected, model.get());
+      }
+      assertEquals(1f, new LambdaMART().getContext().featureSamplingRate, 0f);
+      assertTrue(forest.get().getScoreOnTrainingData() > 0);
+    } finally {
+      trials.shutdown();
+      Ranker.verbose = verbose;
+      RFRanker.nBag = nBag;
+    }
+  }
+}
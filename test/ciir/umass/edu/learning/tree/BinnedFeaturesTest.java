@@ -0,0 +1,158 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.utilities.RankLibError;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class BinnedFeaturesTest {
+
+  private static float[] evenThresholds(int n) {
+    float[] threshold = new float[n];
+    for (int t = 0; t < n - 1; t++) {
+      threshold[t] = t;
+    }
+    threshold[n - 1] = Float.MAX_VALUE;
+    return threshold;
+  }
+
+  @Test
+  public void testFindBin() {
+    float[] threshold = {0.5f, 1f, 2f, Float.MAX_VALUE};
+    assertEquals(0, BinnedFeatures.findBin(threshold, -3f));
+    assertEquals(0, BinnedFeatures.findBin(threshold, 0.5f));
+    assertEquals(1, BinnedFeatures.findBin(threshold, 0.6f));
+    assertEquals(2, BinnedFeatures.findBin(threshold, 2f));
+    assertEquals(3, BinnedFeatures.findBin(threshold, 7f));
+    assertEquals(3, BinnedFeatures.findBin(threshold, Float.POSITIVE_INFINITY));
+  }
+
+  @Test
+  public void testAllWidths() {
+    Random rand = new Random(42);
+    int n = 1000;
+    // one feature per storage width: byte, short, int
+    int[] sizes = {BinnedFeatures.MAX_BYTE_BINS, BinnedFeatures.MAX_SHORT_BINS, BinnedFeatures.MAX_SHORT_BINS + 10};
+    float[][] values = new float[sizes.length][n];
+    float[][] thresholds = new float[sizes.length][];
+    for (int f = 0; f < sizes.length; f++) {
+      thresholds[f] = evenThresholds(sizes[f]);
+      for (int k = 0; k < n; k++) {
+        values[f][k] = rand.nextInt(sizes[f] + 5) - 0.5f;
+      }
+    }
+    BinnedFeatures bins = new BinnedFeatures(values, thresholds);
+    assertEquals(sizes.length, bins.featureCount());
+    assertEquals(n, bins.sampleCount());
+
+    double[] labels = new double[n];
+    for (int k = 0; k < n; k++) {
+      labels[k] = rand.nextGaussian();
+    }
+    int[] subset = {3, 1, 4, 159, 265, 358, 979};
+
+    for (int f = 0; f < sizes.length; f++) {
+      double[] sum = new double[sizes[f]];
+      int[] count = new int[sizes[f]];
+      double[] expectedSum = new double[sizes[f]];
+      int[] expectedCount = new int[sizes[f]];
+      for (int k = 0; k < n; k++) {
+        int t = BinnedFeatures.findBin(thresholds[f], values[f][k]);
+        assertEquals(t, bins.bin(f, k));
+        expectedSum[t] += labels[k];
+        expectedCount[t]++;
+      }
+      bins.accumulate(f, labels, sum);
+      bins.count(f, count);
+      assertArrayEquals(expectedSum, sum, 0);
+      assertArrayEquals(expectedCount, count);
+
+      // only the subset, and split it around a threshold
+      int cut = sizes[f] / 2;
+      double[] subSum = new double[sizes[f]];
+      int[] subCount = new int[sizes[f]];
+      bins.accumulate(f, subset, labels, subSum, subCount);
+      int nLeft = 0;
+      for (int t = 0; t <= cut; t++) {
+        nLeft += subCount[t];
+      }
+      int[] left = new int[nLeft];
+      int[] right = new int[subset.length - nLeft];
+      assertEquals(nLeft, bins.partition(f, cut, subset, left, right));
+      for (int k : left) {
+        assertTrue(values[f][k] <= thresholds[f][cut]);
+      }
+      for (int k : right) {
+        assertTrue(values[f][k] > thresholds[f][cut]);
+      }
+    }
+  }
+
+  @Test
+  public void testView() {
+    Random rand = new Random(7);
+    int n = 50;
+    float[][] values = new float[2][n];
+    float[][] thresholds = {evenThresholds(10), evenThresholds(BinnedFeatures.MAX_BYTE_BINS + 10)};
+    for (int f = 0; f < values.length; f++) {
+      for (int k = 0; k < n; k++) {
+        values[f][k] = rand.nextInt(thresholds[f].length) - 0.5f;
+      }
+    }
+    BinnedFeatures bins = new BinnedFeatures(values, thresholds);
+    // a bag: samples drawn with replacement, then a bag of that bag
+    int[] rows = new int[n];
+    for (int k = 0; k < n; k++) {
+      rows[k] = rand.nextInt(n);
+    }
+    int[] subRows = {0, 0, 3, 49, 17};
+    BinnedFeatures view = bins.view(rows);
+    BinnedFeatures subView = view.view(subRows);
+    assertEquals(n, view.sampleCount());
+    assertEquals(subRows.length, subView.sampleCount());
+    assertSame(bins.getThresholds(), view.getThresholds());
+
+    double[] labels = new double[n];
+    for (int k = 0; k < n; k++) {
+      labels[k] = rand.nextGaussian();
+    }
+    int[] subset = {2, 2, 5, 30};
+    for (int f = 0; f < values.length; f++) {
+      int nBins = thresholds[f].length;
+      double[] expectedSum = new double[nBins];
+      double[] expectedSubsetSum = new double[nBins];
+      int[] expectedSubsetCount = new int[nBins];
+      for (int k = 0; k < n; k++) {
+        assertEquals(bins.bin(f, rows[k]), view.bin(f, k));
+        expectedSum[bins.bin(f, rows[k])] += labels[k];
+      }
+      for (int k : subset) {
+        expectedSubsetSum[bins.bin(f, rows[k])] += labels[k];
+        expectedSubsetCount[bins.bin(f, rows[k])]++;
+      }
+      for (int k = 0; k < subRows.length; k++) {
+        assertEquals(bins.bin(f, rows[subRows[k]]), subView.bin(f, k));
+      }
+      double[] sum = new double[nBins];
+      view.accumulate(f, labels, sum);
+      assertArrayEquals(expectedSum, sum, 0);
+      double[] subsetSum = new double[nBins];
+      int[] subsetCount = new int[nBins];
+      view.accumulate(f, subset, labels, subsetSum, subsetCount);
+      assertArrayEquals(expectedSubsetSum, subsetSum, 0);
+      assertArrayEquals(expectedSubsetCount, subsetCount);
+    }
+
+    try {
+      view.set(0, new float[n], thresholds[0]);
+      fail();
+    } catch (RankLibError expected) {
+      // ok
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the ways of scoring a tree ensemble against each other: walking the Split objects (Ensemble.eval), walking the
+ * flattened trees (FlatEnsemble) and QuickScorer, one document at a time and a list at a time (in lists of LIST documents),
+ * and trees compiled into Java code (GeneratedEnsemble, by the list), for trees of 8 to 64 leaves, and checks that they
+ * agree.
+ * Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes ciir.umass.edu.learning.tree.EnsembleScoringBenchmark [trees] [features] [zeros]
+ * </pre>
+ * Trees split on random features at random thresholds in (0, 1). Documents have a fraction [zeros] of their features at 0,
+ * the others uniform in (0, 1): QuickScorer does less work the more features are below most thresholds, as with the
+ * many zeros of LETOR-style data, and the most with none (0).
+ *
+ * @author jfoley.
+ */
+public class EnsembleScoringBenchmark {
+  private static final int DOCS = 5000;
+  private static final int REPS = 10;
+  private static final int LIST = 1000;
+
+  private static Ensemble ensemble(Random rand, int nTrees, int nLeaves, int nFeatures) {
+    Ensemble e = new Ensemble();
+    for (int t = 0; t < nTrees; t++) {
+      // split random leaves until there are enough
+      Split root = new Split();
+      List<Split> leaves = new ArrayList<>();
+      leaves.add(root);
+      while (leaves.size() < nLeaves) {
+        Split s = leaves.remove(rand.nextInt(leaves.size()));
+        s.set(1 + rand.nextInt(nFeatures), rand.nextFloat(), 0);
+        s.setLeft(new Split());
+        s.setRight(new Split());
+        leaves.add(s.getLeft());
+        leaves.add(s.getRight());
+      }
+      for (Split leaf : leaves) {
+        leaf.setOutput((float) rand.nextGaussian());
+      }
+      e.add(new RegressionTree(root), 0.1f);
+    }
+    return e;
+  }
+
+  private static List<DataPoint> documents(Random rand, int nFeatures, double zeros) {
+    List<DataPoint> docs = new ArrayList<>();
+    for (int d = 0; d < DOCS; d++) {
+      StringBuilder line = new StringBuilder("0 qid:1");
+      for (int f = 1; f <= nFeatures; f++) {
+        line.append(' ').append(f).append(':').append(rand.nextDouble() < zeros ? 0f : rand.nextFloat());
+      }
+      docs.add(new DenseDataPoint(line.toString()));
+    }
+    return docs;
+  }
+
+  private interface Scorer {
+    float eval(DataPoint dp);
+  }
+
+  /** @return the best time per document, in microseconds; the scores go to @scores. */
+  private static double time(Scorer scorer, List<DataPoint> docs, float[] scores) {
+    long best = Long.MAX_VALUE;
+    for (int rep = 0; rep < REPS; rep++) {
+      long start = System.nanoTime();
+      for (int d = 0; d < docs.size(); d++) {
+        scores[d] = scorer.eval(docs.get(d));
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1e3 / docs.size();
+  }
+
+  private interface BatchScorer {
+    void eval(RankList rl, double[] out);
+  }
+
+  /** As time(), scoring LIST documents at a time. */
+  private static double timeBatch(BatchScorer scorer, List<DataPoint> docs, float[] scores) {
+    List<RankList> lists = new ArrayList<>();
+    for (int d = 0; d < docs.size(); d += LIST) {
+      lists.add(new RankList(docs.subList(d, Math.min(docs.size(), d + LIST))));
+    }
+    double[] out = new double[LIST];
+    long best = Long.MAX_VALUE;
+    for (int rep = 0; rep < REPS; rep++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < lists.size(); i++) {
+        scorer.eval(lists.get(i), out);
+        for (int d = 0; d < lists.get(i).size(); d++) {
+          scores[i * LIST + d] = (float) out[d];
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1e3 / docs.size();
+  }
+
+  public static void main(String[] args) {
+    int nTrees = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int nFeatures = args.length > 1 ? Integer.parseInt(args[1]) : 136;
+    double zeros = args.length > 2 ? Double.parseDouble(args[2]) : 0.5;
+    Random rand = new Random(11);
+    List<DataPoint> docs = documents(rand, nFeatures, zeros);
+
+    System.out.printf("%d trees, %d documents of %d features (%.0f%% zeros); best of %d runs, us per document%n",
+        nTrees, DOCS, nFeatures, 100 * zeros, REPS);
+    System.out.printf("%8s %10s %10s %12s %10s %12s %10s %10s%n", "leaves", "Splits", "flat", "QuickScorer", "flat list",
+        "QS list", "codegen", "same");
+    for (int nLeaves : new int[]{8, 16, 32, 64}) {
+      Ensemble e = ensemble(rand, nTrees, nLeaves, nFeatures);
+      FlatEnsemble flat = new FlatEnsemble(e);
+      QuickScorer qs = new QuickScorer(e);
+      GeneratedEnsemble generated = new GeneratedEnsemble(e);
+      float[] expected = new float[DOCS];
+      float[] flatScores = new float[DOCS];
+      float[] qsScores = new float[DOCS];
+      float[] flatListScores = new float[DOCS];
+      float[] qsListScores = new float[DOCS];
+      float[] generatedScores = new float[DOCS];
+      double splitsUs = time(e::eval, docs, expected);
+      double flatUs = time(flat::eval, docs, flatScores);
+      double qsUs = time(qs::eval, docs, qsScores);
+      double flatListUs = timeBatch(flat::eval, docs, flatListScores);
+      double qsListUs = timeBatch(qs::eval, docs, qsListScores);
+      double generatedUs = timeBatch(generated::eval, docs, generatedScores);
+      boolean same = java.util.Arrays.equals(expected, flatScores) && java.util.Arrays.equals(expected, qsScores)
+          && java.util.Arrays.equals(expected, flatListScores) && java.util.Arrays.equals(expected, qsListScores)
+          && java.util.Arrays.equals(expected, generatedScores);
+      System.out.printf("%8d %10.2f %10.2f %12.2f %10.2f %12.2f %10.2f %10s%n", nLeaves, splitsUs, flatUs, qsUs,
+          flatListUs, qsListUs, generatedUs, same);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.learning.RankerFactory;
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class EnsembleTest {
+
+  @Test
+  public void testRoundTrip() {
+    Random rand = new Random(17);
+    Ensemble e = FlatEnsembleTest.ensemble(rand, 20);
+    Split leaf = new Split();
+    leaf.setOutput(-0.5f);
+    e.add(new RegressionTree(leaf), 1f);
+
+    Ensemble copy = new Ensemble(e.toString());
+    assertEquals(e.toString(), copy.toString());
+    assertEquals(e.treeCount(), copy.treeCount());
+    for (DataPoint dp : FlatEnsembleTest.documents(rand)) {
+      assertEquals(e.eval(dp), copy.eval(dp), 0f);
+    }
+  }
+
+  @Test
+  public void testEnsembleReader() throws IOException {
+    Random rand = new Random(18);
+    Ensemble first = FlatEnsembleTest.ensemble(rand, 3);
+    Ensemble second = FlatEnsembleTest.ensemble(rand, 4);
+    String text = "## a comment\n\n" + first + "\n## another\n" + second + "\n\n";
+
+    EnsembleReader in = new EnsembleReader(new StringReader(text));
+    assertTrue(in.next());
+    assertEquals(first.toString(), new Ensemble(in).toString());
+    assertTrue(in.next());
+    assertEquals(second.toString(), new Ensemble(in).toString());
+    assertFalse(in.next());
+    assertFalse(in.next());
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    Random rand = new Random(19);
+    List<DataPoint> docs = FlatEnsembleTest.documents(rand);
+    RankerFactory factory = new RankerFactory();
+    String lambdaMART = "## LambdaMART\n## No. of trees = 5\n\n" + FlatEnsembleTest.ensemble(rand, 5);
+    String forest = "## Random Forests\n## No. of bags = 3\n\n" + FlatEnsembleTest.ensemble(rand, 2) + "\n"
+        + FlatEnsembleTest.ensemble(rand, 1) + "\n" + FlatEnsembleTest.ensemble(rand, 3) + "\n";
+    for (String text : new String[]{lambdaMART, forest}) {
+      Ranker ranker = factory.loadRankerFromString(text);
+      try (TmpFile model = new TmpFile()) {
+        ranker.save(model.getPath());
+        Ranker loaded = factory.loadRankerFromFile(model.getPath());
+        assertEquals(ranker.getClass(), loaded.getClass());
+        assertEquals(ranker.model(), loaded.model());
+        assertArrayEquals(ranker.getFeatures(), loaded.getFeatures());
+        for (DataPoint dp : docs) {
+          assertEquals(ranker.eval(dp), loaded.eval(dp), 0.0);
+        }
+      }
+    }
+  }
+}
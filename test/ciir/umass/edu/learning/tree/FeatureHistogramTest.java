@@ -0,0 +1,132 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.ExecutionContext;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class FeatureHistogramTest {
+  private static final int N = 3000;
+
+  private static float[][] thresholds(int nFeatures, int nBins) {
+    float[][] thresholds = new float[nFeatures][nBins + 1];
+    for (int f = 0; f < nFeatures; f++) {
+      for (int t = 0; t < nBins; t++) {
+        thresholds[f][t] = t;
+      }
+      thresholds[f][nBins] = Float.MAX_VALUE;
+    }
+    return thresholds;
+  }
+
+  private static void assertSameHistogram(FeatureHistogram expected, FeatureHistogram actual) {
+    assertEquals(expected.sumResponse, actual.sumResponse, 1e-9);
+    assertEquals(expected.sqSumResponse, actual.sqSumResponse, 1e-9);
+    for (int f = 0; f < expected.sum.length; f++) {
+      assertArrayEquals(expected.count[f], actual.count[f]);
+      assertArrayEquals(expected.sum[f], actual.sum[f], 1e-9);
+    }
+  }
+
+  @Test
+  public void testChildrenMatchDirectConstruction() {
+    Random rand = new Random(11);
+    float[][] values = new float[3][N];
+    double[] labels = new double[N];
+    for (int k = 0; k < N; k++) {
+      for (int f = 0; f < 3; f++) {
+        // feature 0 is skewed, so that one child is much smaller than the other
+        values[f][k] = f == 0 ? (rand.nextInt(20) == 0 ? 1 : 0) : rand.nextInt(50);
+      }
+      labels[k] = values[0][k] * 3 + rand.nextGaussian();
+    }
+    BinnedFeatures bins = new BinnedFeatures(values, thresholds(3, 50));
+    int[] features = {1, 2, 3};
+    int[] all = new int[N];
+    for (int k = 0; k < N; k++) {
+      all[k] = k;
+    }
+
+    FeatureHistogram root = new FeatureHistogram();
+    root.construct(bins, labels, features);
+    Split sp = new Split(all, root, Float.MAX_VALUE, 0);
+    sp.setRoot(true);
+    assertTrue(sp.findBestSplit(1));
+    assertEquals(0, sp.getBestFeatureIdx());
+    double[][] rootSum = root.sum;
+    sp.split(labels, true);
+    // the root keeps its tables for the next tree
+    assertSame(rootSum, root.sum);
+
+    Split left = sp.getLeft();
+    Split right = sp.getRight();
+    assertEquals(N, left.getSamples().length + right.getSamples().length);
+    assertTrue(right.getSamples().length < left.getSamples().length);
+    for (Split child : new Split[]{left, right}) {
+      FeatureHistogram direct = new FeatureHistogram();
+      direct.construct(root, child.getSamples(), labels);
+      assertSameHistogram(direct, child.hist);
+    }
+
+    // splitting the (non-root) left child hands its tables down to one of its own children
+    double[][] leftSum = left.hist.sum;
+    assertTrue(left.findBestSplit(1));
+    left.split(labels, true);
+    assertTrue(leftSum == left.getLeft().hist.sum || leftSum == left.getRight().hist.sum);
+
+    // released tables are handed out again
+    FeatureHistogram grandChild = left.getLeft().hist;
+    double[][] released = grandChild.sum;
+    grandChild.release();
+    assertNull(grandChild.sum);
+    FeatureHistogram next = new FeatureHistogram();
+    next.construct(root, right.getSamples(), labels);
+    assertSame(released, next.sum);
+    assertSameHistogram(right.hist, next);
+  }
+
+  @Test
+  public void testParallelFillMatchesSerial() {
+    // enough rows for the threads to split them, rather than the features
+    int n = 4 * FeatureHistogram.MIN_ROWS_PER_THREAD + 17;
+    Random rand = new Random(5);
+    float[][] values = new float[3][n];
+    double[] labels = new double[n];
+    for (int k = 0; k < n; k++) {
+      for (int f = 0; f < 3; f++) {
+        values[f][k] = rand.nextInt(50);
+      }
+      labels[k] = rand.nextGaussian();
+    }
+    BinnedFeatures bins = new BinnedFeatures(values, thresholds(3, 50));
+    int[] features = {1, 2, 3};
+    int[] odd = new int[n / 2];
+    for (int i = 0; i < odd.length; i++) {
+      odd[i] = 2 * i + 1;
+    }
+
+    FeatureHistogram[] roots = new FeatureHistogram[2];
+    FeatureHistogram[] nodes = new FeatureHistogram[2];
+    for (int threads : new int[]{1, 4}) {
+      int i = threads == 1 ? 0 : 1;
+      roots[i] = new FeatureHistogram();
+      roots[i].construct(bins, labels, features, new ExecutionContext(threads));
+      for (int k = 0; k < n; k++) {
+        labels[k] = -labels[k];
+      }
+      roots[i].update(labels);
+      nodes[i] = new FeatureHistogram();
+      nodes[i].construct(roots[i], odd, labels);
+      for (int k = 0; k < n; k++) {
+        labels[k] = -labels[k];
+      }
+    }
+    assertSameHistogram(roots[0], roots[1]);
+    assertSameHistogram(nodes[0], nodes[1]);
+  }
+}
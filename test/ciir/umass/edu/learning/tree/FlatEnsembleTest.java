@@ -0,0 +1,126 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.FeatureMatrix;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class FlatEnsembleTest {
+  private static final int FEATURES = 6;
+
+  static Split tree(Random rand, int depth) {
+    if (depth == 0 || rand.nextInt(4) == 0) {
+      Split leaf = new Split();
+      leaf.setOutput((float) rand.nextGaussian());
+      return leaf;
+    }
+    Split s = new Split(1 + rand.nextInt(FEATURES), (float) (2 * rand.nextDouble() - 1), 0);
+    s.setLeft(tree(rand, depth - 1));
+    s.setRight(tree(rand, depth - 1));
+    return s;
+  }
+
+  static Ensemble ensemble(Random rand, int nTrees) {
+    Ensemble e = new Ensemble();
+    for (int i = 0; i < nTrees; i++) {
+      e.add(new RegressionTree(tree(rand, 6)), 0.1f + rand.nextFloat());
+    }
+    return e;
+  }
+
+  /** Dense documents, some with unknown features, and the same documents in columns (not dense). */
+  static List<DataPoint> documents(Random rand) {
+    List<DataPoint> docs = new ArrayList<>();
+    for (int d = 0; d < 300; d++) {
+      StringBuilder line = new StringBuilder("0 qid:1");
+      for (int f = 1; f <= FEATURES; f++) {
+        if (d % 3 == 0 || rand.nextInt(3) != 0 || f == FEATURES) {
+          line.append(' ').append(f).append(':').append(2 * rand.nextFloat() - 1);
+        }
+      }
+      docs.add(new DenseDataPoint(line.toString()));
+    }
+    List<RankList> lists = Collections.singletonList(new RankList(docs));
+    List<DataPoint> all = new ArrayList<>(docs);
+    for (DataPoint dp : FeatureMatrix.fromRankLists(lists, FEATURES).toRankLists().get(0)) {
+      all.add(dp);
+    }
+    return all;
+  }
+
+  @Test
+  public void testSameScores() {
+    Random rand = new Random(5);
+    Ensemble e = ensemble(rand, 50);
+    // a tree that is just a leaf
+    Split leaf = new Split();
+    leaf.setOutput(0.25f);
+    e.add(new RegressionTree(leaf), 2f);
+
+    FlatEnsemble flat = new FlatEnsemble(e);
+    assertEquals(51, flat.treeCount());
+    assertEquals(e.leafCount(), flat.leafCount());
+    for (DataPoint dp : documents(rand)) {
+      assertEquals(dp.toString(), e.eval(dp), flat.eval(dp), 0f);
+      if (dp instanceof DenseDataPoint) {
+        assertEquals(e.eval(dp), flat.eval(dp.getFeatureVector()), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void testAverage() {
+    Random rand = new Random(6);
+    Ensemble[] bags = {ensemble(rand, 1), ensemble(rand, 3), ensemble(rand, 1)};
+    FlatEnsemble flat = new FlatEnsemble(bags);
+    assertEquals(5, flat.treeCount());
+    for (DataPoint dp : documents(rand)) {
+      double s = 0;
+      for (Ensemble bag : bags) {
+        s += bag.eval(dp);
+      }
+      assertEquals(s / bags.length, flat.evalAverage(dp), 0.0);
+    }
+  }
+
+  @Test
+  public void testShortVector() {
+    FlatEnsemble flat = new FlatEnsemble(ensemble(new Random(7), 10));
+    try {
+      flat.eval(new float[flat.getMaxFeature()]);
+      fail();
+    } catch (RankLibError expected) {
+      // ok
+    }
+  }
+
+  @Test
+  public void testBatch() {
+    Random rand = new Random(10);
+    Ensemble[] bags = {ensemble(rand, 7), ensemble(rand, 3)};
+    FlatEnsemble flat = new FlatEnsemble(bags);
+    List<DataPoint> docs = documents(rand);
+    Collections.shuffle(docs, rand); // dense and other documents in the same blocks
+    RankList rl = new RankList(docs);
+    double[] sums = new double[docs.size()];
+    double[] averages = new double[docs.size()];
+    flat.eval(rl, sums);
+    flat.evalAverage(rl, averages);
+    for (int d = 0; d < docs.size(); d++) {
+      assertEquals(flat.eval(docs.get(d)), sums[d], 0.0);
+      assertEquals(flat.evalAverage(docs.get(d)), averages[d], 0.0);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.ExecutionContext;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.Ranker;
+import ciir.umass.edu.learning.RankerTrainer;
+import ciir.umass.edu.learning.RankerType;
+import ciir.umass.edu.metric.NDCGScorer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * @author jfoley.
+ */
+public class GeneratedEnsembleTest {
+  private File cache;
+  private File defaultCache;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeNotNull(ToolProvider.getSystemJavaCompiler());
+    defaultCache = GeneratedEnsemble.getCacheDirectory();
+    cache = Files.createTempDirectory("ranklib-trees").toFile();
+    GeneratedEnsemble.setCacheDirectory(cache);
+  }
+
+  @After
+  public void tearDown() {
+    if (cache != null) {
+      GeneratedEnsemble.setCacheDirectory(defaultCache);
+      delete(cache);
+    }
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File c : children) {
+        delete(c);
+      }
+    }
+    f.delete();
+  }
+
+  /** A tree that goes right @depth times: deeper than a method may nest. */
+  private static Split chain(Random rand, int depth) {
+    Split s = new Split();
+    s.setOutput((float) rand.nextGaussian());
+    for (int i = 0; i < depth; i++) {
+      Split parent = new Split(1 + rand.nextInt(6), (float) (2 * rand.nextDouble() - 1), 0);
+      Split leaf = new Split();
+      leaf.setOutput((float) rand.nextGaussian());
+      parent.setLeft(leaf);
+      parent.setRight(s);
+      s = parent;
+    }
+    return s;
+  }
+
+  /** A tree with all its 2^depth leaves: more split nodes than a method holds. */
+  private static Split full(Random rand, int depth) {
+    Split s = new Split();
+    if (depth == 0) {
+      s.setOutput((float) rand.nextGaussian());
+      return s;
+    }
+    s.set(1 + rand.nextInt(6), (float) (2 * rand.nextDouble() - 1), 0);
+    s.setLeft(full(rand, depth - 1));
+    s.setRight(full(rand, depth - 1));
+    return s;
+  }
+
+  @Test
+  public void testSameScores() {
+    Random rand = new Random(12);
+    Ensemble e = FlatEnsembleTest.ensemble(rand, 30);
+    e.add(new RegressionTree(chain(rand, 100)), 0.5f);
+    // enough split nodes for two classes
+    for (int i = 0; i < 9; i++) {
+      e.add(new RegressionTree(full(rand, 10)), 0.25f);
+    }
+    Split leaf = new Split();
+    leaf.setOutput(0.75f);
+    e.add(new RegressionTree(leaf), 1f);
+    Ensemble[] bags = {e, FlatEnsembleTest.ensemble(rand, 5)};
+
+    GeneratedEnsemble generated = new GeneratedEnsemble(bags);
+    FlatEnsemble flat = new FlatEnsemble(bags);
+    assertEquals(flat.treeCount(), generated.treeCount());
+    List<DataPoint> docs = FlatEnsembleTest.documents(rand);
+    for (DataPoint dp : docs) {
+      assertEquals(dp.toString(), flat.eval(dp), generated.eval(dp), 0f);
+      assertEquals(dp.toString(), flat.evalAverage(dp), generated.evalAverage(dp), 0.0);
+    }
+
+    Collections.shuffle(docs, rand);
+    RankList rl = new RankList(docs);
+    double[] sums = new double[docs.size()];
+    double[] averages = new double[docs.size()];
+    generated.eval(rl, sums);
+    generated.evalAverage(rl, averages);
+    for (int d = 0; d < docs.size(); d++) {
+      assertEquals(flat.eval(docs.get(d)), sums[d], 0.0);
+      assertEquals(flat.evalAverage(docs.get(d)), averages[d], 0.0);
+    }
+  }
+
+  @Test
+  public void testCache() {
+    Ensemble e = FlatEnsembleTest.ensemble(new Random(13), 20);
+    GeneratedEnsemble first = new GeneratedEnsemble(e);
+    File dir = new File(cache, first.getHash());
+    assertTrue(dir.isDirectory());
+    File[] classes = dir.listFiles();
+    assertNotNull(classes);
+    long compiled = classes[0].lastModified();
+
+    // the same model again: loaded, not compiled
+    assertTrue(classes[0].setLastModified(compiled - 60000));
+    GeneratedEnsemble second = new GeneratedEnsemble(FlatEnsembleTest.ensemble(new Random(13), 20));
+    assertEquals(first.getHash(), second.getHash());
+    assertEquals(compiled - 60000, classes[0].lastModified());
+    assertEquals(1, cache.listFiles().length);
+
+    DataPoint dp = FlatEnsembleTest.documents(new Random(14)).get(0);
+    assertEquals(first.eval(dp), second.eval(dp), 0f);
+    assertNotEquals(first.getHash(), new GeneratedEnsemble(FlatEnsembleTest.ensemble(new Random(15), 20)).getHash());
+  }
+
+  @Test
+  public void testForestCompiledOnce() {
+    CompiledEnsemble.Mode mode = CompiledEnsemble.getMode();
+    boolean verbose = Ranker.verbose;
+    int nBag = RFRanker.nBag;
+    try {
+      CompiledEnsemble.setMode(CompiledEnsemble.Mode.CODEGEN);
+      Ranker.verbose = false;
+      RFRanker.nBag = 5;
+      Random rand = new Random(17);
+      List<RankList> samples = new ArrayList<>();
+      for (int q = 0; q < 10; q++) {
+        List<DataPoint> docs = new ArrayList<>();
+        for (int d = 0; d < 10; d++) {
+          StringBuilder line = new StringBuilder().append(rand.nextInt(3)).append(" qid:").append(q);
+          for (int f = 1; f <= 3; f++) {
+            line.append(' ').append(f).append(':').append(rand.nextFloat());
+          }
+          docs.add(new DenseDataPoint(line.toString()));
+        }
+        samples.add(new RankList(docs));
+      }
+      RFRanker forest = (RFRanker) new RankerTrainer().train(RankerType.RANDOM_FOREST, samples, null, new int[]{1, 2, 3},
+          new NDCGScorer(10), new ExecutionContext(1, 3));
+      // the bags are only walked while they are trained: the forest alone is compiled
+      File[] compiled = cache.listFiles();
+      assertNotNull(compiled);
+      assertEquals(1, compiled.length);
+      assertEquals(new GeneratedEnsemble(forest.getEnsembles()).getHash(), compiled[0].getName());
+    } finally {
+      CompiledEnsemble.setMode(mode);
+      Ranker.verbose = verbose;
+      RFRanker.nBag = nBag;
+    }
+  }
+
+  @Test
+  public void testCompile() {
+    CompiledEnsemble.Mode mode = CompiledEnsemble.getMode();
+    try {
+      CompiledEnsemble.setMode(CompiledEnsemble.parseMode("codegen"));
+      assertTrue(CompiledEnsemble.compile(FlatEnsembleTest.ensemble(new Random(16), 3)) instanceof GeneratedEnsemble);
+    } finally {
+      CompiledEnsemble.setMode(mode);
+    }
+  }
+}
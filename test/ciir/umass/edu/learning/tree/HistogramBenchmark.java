@@ -0,0 +1,187 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.utilities.WorkStealingPool;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times histogram construction with FeatureHistogram against the kernel it replaced, which went sample by sample over an
+ * int[feature][sample] bin map, touching every feature for each sample and checking "f == 0" in the inner loop.
+ * Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes ciir.umass.edu.learning.tree.HistogramBenchmark [samples] [features] [bins] [threads]
+ * </pre>
+ * The defaults are about the size of MSLR-WEB30K (one fold) with 256 thresholds per feature. The legacy kernel always runs
+ * on one thread.
+ *
+ * @author jfoley.
+ */
+public class HistogramBenchmark {
+  private static final int REPS = 10;
+
+  /** The old kernel, for comparison. */
+  private static class Legacy {
+    final int[][] sampleToThresholdMap;
+    final double[][] sum;
+    final int[][] count;
+    double sumResponse;
+    double sqSumResponse;
+
+    Legacy(BinnedFeatures bins) {
+      int nFeatures = bins.featureCount();
+      sampleToThresholdMap = new int[nFeatures][bins.sampleCount()];
+      sum = new double[nFeatures][];
+      count = new int[nFeatures][];
+      for (int f = 0; f < nFeatures; f++) {
+        for (int k = 0; k < bins.sampleCount(); k++) {
+          sampleToThresholdMap[f][k] = bins.bin(f, k);
+        }
+        sum[f] = new double[bins.getThresholds()[f].length];
+        count[f] = new int[bins.getThresholds()[f].length];
+      }
+    }
+
+    void update(double[] labels) {
+      sumResponse = 0;
+      sqSumResponse = 0;
+      for (double[] s : sum) {
+        Arrays.fill(s, 0);
+      }
+      for (int k = 0; k < labels.length; k++) {
+        for (int f = 0; f < sum.length; f++) {
+          int t = sampleToThresholdMap[f][k];
+          sum[f][t] += labels[k];
+          if (f == 0) {
+            sumResponse += labels[k];
+            sqSumResponse += labels[k] * labels[k];
+          }
+        }
+      }
+      cumulate(false);
+    }
+
+    void construct(int[] soi, double[] labels) {
+      sumResponse = 0;
+      sqSumResponse = 0;
+      for (int f = 0; f < sum.length; f++) {
+        Arrays.fill(sum[f], 0);
+        Arrays.fill(count[f], 0);
+      }
+      for (int k : soi) {
+        for (int f = 0; f < sum.length; f++) {
+          int t = sampleToThresholdMap[f][k];
+          sum[f][t] += labels[k];
+          count[f][t]++;
+          if (f == 0) {
+            sumResponse += labels[k];
+            sqSumResponse += labels[k] * labels[k];
+          }
+        }
+      }
+      cumulate(true);
+    }
+
+    void cumulate(boolean withCount) {
+      for (int f = 0; f < sum.length; f++) {
+        for (int t = 1; t < sum[f].length; t++) {
+          sum[f][t] += sum[f][t - 1];
+          if (withCount) {
+            count[f][t] += count[f][t - 1];
+          }
+        }
+      }
+    }
+  }
+
+  private static double median(long[] nanos) {
+    long[] sorted = Arrays.copyOf(nanos, nanos.length);
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2] / 1e6;
+  }
+
+  private static void check(double[][] expected, double[][] actual) {
+    for (int f = 0; f < expected.length; f++) {
+      for (int t = 0; t < expected[f].length; t++) {
+        if (Math.abs(expected[f][t] - actual[f][t]) > 1e-6 * (1 + Math.abs(expected[f][t]))) {
+          throw new IllegalStateException("histograms differ at feature " + f + ", bin " + t);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    int nSamples = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int nFeatures = args.length > 1 ? Integer.parseInt(args[1]) : 136;
+    int nBins = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+    int nThreads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+    WorkStealingPool.init(nThreads);
+
+    Random rand = new Random(7);
+    float[][] thresholds = new float[nFeatures][nBins];
+    float[][] values = new float[nFeatures][nSamples];
+    for (int f = 0; f < nFeatures; f++) {
+      for (int t = 0; t < nBins - 1; t++) {
+        thresholds[f][t] = t;
+      }
+      thresholds[f][nBins - 1] = Float.MAX_VALUE;
+      for (int k = 0; k < nSamples; k++) {
+        values[f][k] = rand.nextInt(nBins);
+      }
+    }
+    BinnedFeatures bins = new BinnedFeatures(values, thresholds);
+    values = null;
+    double[] labels = new double[nSamples];
+    for (int k = 0; k < nSamples; k++) {
+      labels[k] = rand.nextGaussian();
+    }
+    // a node holding a random half of the samples, in order
+    int[] soi = new int[nSamples / 2];
+    for (int i = 0, k = 0; i < soi.length; k++) {
+      if (rand.nextInt(nSamples - k) < soi.length - i) {
+        soi[i++] = k;
+      }
+    }
+    int[] features = new int[nFeatures];
+    for (int f = 0; f < nFeatures; f++) {
+      features[f] = f + 1;
+    }
+
+    Legacy legacy = new Legacy(bins);
+    FeatureHistogram root = new FeatureHistogram();
+    root.construct(bins, labels, features);
+    FeatureHistogram node = new FeatureHistogram();
+
+    long[] legacyUpdate = new long[REPS];
+    long[] newUpdate = new long[REPS];
+    long[] legacyNode = new long[REPS];
+    long[] newNode = new long[REPS];
+    for (int rep = 0; rep < REPS; rep++) {
+      long start = System.nanoTime();
+      legacy.update(labels);
+      legacyUpdate[rep] = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      root.update(labels);
+      newUpdate[rep] = System.nanoTime() - start;
+      check(legacy.sum, root.sum);
+
+      start = System.nanoTime();
+      legacy.construct(soi, labels);
+      legacyNode[rep] = System.nanoTime() - start;
+
+      node.release();
+      start = System.nanoTime();
+      node.construct(root, soi, labels);
+      newNode[rep] = System.nanoTime() - start;
+      check(legacy.sum, node.sum);
+    }
+
+    System.out.printf("%d samples x %d features x %d bins, %d thread(s); median of %d runs%n",
+        nSamples, nFeatures, nBins, nThreads, REPS);
+    System.out.printf("all samples  (update):    legacy %8.1f ms   blocked %8.1f ms   speedup %.2fx%n",
+        median(legacyUpdate), median(newUpdate), median(legacyUpdate) / median(newUpdate));
+    System.out.printf("half samples (construct): legacy %8.1f ms   blocked %8.1f ms   speedup %.2fx%n",
+        median(legacyNode), median(newNode), median(legacyNode) / median(newNode));
+  }
+}
@@ -0,0 +1,86 @@
+package ciir.umass.edu.learning.tree;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class QuantileSketchTest {
+
+  @Test
+  public void testExactWhenFewValues() {
+    QuantileSketch sketch = new QuantileSketch(16);
+    for (int i = 0; i < 1000; i++) {
+      sketch.add((float) (i % 10));
+    }
+    assertTrue(sketch.isExact());
+    assertArrayEquals(new float[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, sketch.getValues(), 0f);
+    assertEquals(4, sketch.quantiles(4).length);
+  }
+
+  @Test
+  public void testSkewedQuantiles() {
+    Random rand = new Random(1);
+    int n = 100000;
+    float[] data = new float[n];
+    QuantileSketch sketch = new QuantileSketch(256);
+    for (int i = 0; i < n; i++) {
+      // heavily skewed, like a count feature
+      data[i] = (float) Math.floor(Math.exp(rand.nextGaussian() * 2));
+      sketch.add(data[i]);
+    }
+    assertFalse(sketch.isExact());
+    float[] sorted = Arrays.copyOf(data, n);
+    Arrays.sort(sorted);
+
+    int q = 32;
+    float[] quantiles = sketch.quantiles(q);
+    assertTrue(quantiles.length <= q);
+    assertEquals(sorted[0], quantiles[0], 0f);
+    assertEquals(sorted[n - 1], quantiles[quantiles.length - 1], 0f);
+    for (int i = 1; i < quantiles.length; i++) {
+      assertTrue(quantiles[i - 1] < quantiles[i]);
+    }
+    // every target rank k*n/(q-1) is covered by a quantile whose rank range is within a few percent of it
+    for (int k = 1; k < q - 1; k++) {
+      double target = (double) k * n / (q - 1);
+      double best = Double.MAX_VALUE;
+      for (float v : quantiles) {
+        int lo = lowerBound(sorted, v);
+        int hi = lowerBound(sorted, Math.nextUp(v));
+        best = Math.min(best, (target < lo) ? lo - target : (target > hi) ? target - hi : 0);
+      }
+      assertTrue("rank error " + best + " at " + k, best <= 0.05 * n);
+    }
+  }
+
+  @Test
+  public void testWeights() {
+    QuantileSketch sketch = new QuantileSketch(4);
+    for (int i = 0; i < 100; i++) {
+      sketch.add(i, i < 90 ? 0.01 : 10.0);
+    }
+    // nearly all the weight is on the top ten values, so should be the middle quantiles
+    float[] quantiles = sketch.quantiles(3);
+    assertEquals(3, quantiles.length);
+    assertEquals(0f, quantiles[0], 0f);
+    assertTrue(quantiles[1] >= 90f);
+    assertEquals(99f, quantiles[2], 0f);
+  }
+
+  private static int lowerBound(float[] sorted, float v) {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < v) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+}
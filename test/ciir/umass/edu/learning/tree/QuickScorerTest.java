@@ -0,0 +1,106 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class QuickScorerTest {
+
+  /** A tree with all its 2^depth leaves. */
+  private static Split fullTree(int depth) {
+    return FlatEnsembleTest.tree(new Random(0) {
+      @Override
+      public int nextInt(int bound) {
+        return bound == 4 ? 1 : super.nextInt(bound); // never stop early
+      }
+    }, depth);
+  }
+
+  @Test
+  public void testSameScores() {
+    Random rand = new Random(8);
+    Ensemble e = FlatEnsembleTest.ensemble(rand, 60);
+    // a full tree of 64 leaves, and a tree that is just a leaf
+    Split full = fullTree(6);
+    e.add(new RegressionTree(full), 0.5f);
+    Split leaf = new Split();
+    leaf.setOutput(-1.5f);
+    e.add(new RegressionTree(leaf), 1f);
+    assertEquals(64, e.getTree(60).leaves().size());
+
+    QuickScorer qs = new QuickScorer(e);
+    assertEquals(62, qs.treeCount());
+    for (DataPoint dp : FlatEnsembleTest.documents(rand)) {
+      assertEquals(dp.toString(), e.eval(dp), qs.eval(dp), 0f);
+      if (dp instanceof DenseDataPoint) {
+        assertEquals(e.eval(dp), qs.eval(dp.getFeatureVector()), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void testAverage() {
+    Random rand = new Random(9);
+    Ensemble[] bags = {FlatEnsembleTest.ensemble(rand, 2), FlatEnsembleTest.ensemble(rand, 1)};
+    QuickScorer qs = new QuickScorer(bags);
+    for (DataPoint dp : FlatEnsembleTest.documents(rand)) {
+      assertEquals(new FlatEnsemble(bags).evalAverage(dp), qs.evalAverage(dp), 0.0);
+    }
+  }
+
+  @Test
+  public void testCompile() {
+    Random rand = new Random(10);
+    Ensemble small = FlatEnsembleTest.ensemble(rand, 3);
+    Ensemble big = new Ensemble();
+    big.add(new RegressionTree(fullTree(7)), 1f);
+    CompiledEnsemble.Mode mode = CompiledEnsemble.getMode();
+    try {
+      CompiledEnsemble.setMode(CompiledEnsemble.parseMode("quickscorer"));
+      assertTrue(CompiledEnsemble.compile(small) instanceof QuickScorer);
+      // too many leaves: the trees are walked
+      assertFalse(QuickScorer.supports(small, big));
+      assertTrue(CompiledEnsemble.compile(small, big) instanceof FlatEnsemble);
+      CompiledEnsemble.setMode(CompiledEnsemble.parseMode("flat"));
+      assertTrue(CompiledEnsemble.compile(small) instanceof FlatEnsemble);
+    } finally {
+      CompiledEnsemble.setMode(mode);
+    }
+    try {
+      CompiledEnsemble.parseMode("fast");
+      fail();
+    } catch (RankLibError expected) {
+      // ok
+    }
+  }
+
+  @Test
+  public void testBatch() {
+    Random rand = new Random(11);
+    Ensemble[] bags = {FlatEnsembleTest.ensemble(rand, 7), FlatEnsembleTest.ensemble(rand, 3)};
+    bags[1].add(new RegressionTree(fullTree(6)), 0.5f);
+    QuickScorer qs = new QuickScorer(bags);
+    List<DataPoint> docs = FlatEnsembleTest.documents(rand);
+    Collections.shuffle(docs, rand); // dense and other documents in the same blocks
+    RankList rl = new RankList(docs);
+    double[] sums = new double[docs.size()];
+    double[] averages = new double[docs.size()];
+    qs.eval(rl, sums);
+    qs.evalAverage(rl, averages);
+    for (int d = 0; d < docs.size(); d++) {
+      assertEquals(qs.eval(docs.get(d)), sums[d], 0.0);
+      assertEquals(qs.evalAverage(docs.get(d)), averages[d], 0.0);
+    }
+  }
+}
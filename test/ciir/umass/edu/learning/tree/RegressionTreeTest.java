@@ -0,0 +1,104 @@
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class RegressionTreeTest {
+
+  /** Feature 1 decides the label; feature 2 is noise. */
+  private static float[][] thresholds() {
+    float[][] thresholds = new float[2][101];
+    for (int f = 0; f < 2; f++) {
+      for (int t = 0; t < 100; t++) {
+        thresholds[f][t] = t;
+      }
+      thresholds[f][100] = Float.MAX_VALUE;
+    }
+    return thresholds;
+  }
+
+  private static RegressionTree fit(int nLeaves, int maxDepth) {
+    Random rand = new Random(3);
+    int n = 2000;
+    float[][] values = new float[2][n];
+    double[] labels = new double[n];
+    for (int k = 0; k < n; k++) {
+      values[0][k] = rand.nextInt(100);
+      values[1][k] = rand.nextInt(100);
+      labels[k] = (values[0][k] < 30 ? -1 : (values[0][k] < 80 ? 0.5 : 2)) + 0.1 * rand.nextGaussian();
+    }
+    FeatureHistogram hist = new FeatureHistogram();
+    hist.construct(new BinnedFeatures(values, thresholds()), labels, new int[]{1, 2});
+    RegressionTree rt = new RegressionTree(nLeaves, maxDepth, labels, hist, 1);
+    rt.fit();
+    return rt;
+  }
+
+  private static int depth(Split s) {
+    if (s.getLeft() == null) {
+      return 0;
+    }
+    return 1 + Math.max(depth(s.getLeft()), depth(s.getRight()));
+  }
+
+  @Test
+  public void testBestFirst() {
+    RegressionTree rt = fit(3, -1);
+    assertEquals(3, rt.leaves().size());
+    // the two best splits are both on feature 1, at its two steps
+    String model = rt.toString();
+    assertTrue(model, model.contains("<feature> 1 </feature>"));
+    assertTrue(model, model.contains("<threshold> 29.0 </threshold>"));
+    assertTrue(model, model.contains("<threshold> 79.0 </threshold>"));
+    for (Split leaf : rt.leaves()) {
+      assertNull(leaf.hist);
+    }
+  }
+
+  @Test
+  public void testManyLeaves() {
+    RegressionTree rt = fit(500, -1);
+    assertTrue(rt.leaves().size() > 100);
+    assertTrue(rt.leaves().size() <= 500);
+  }
+
+  @Test
+  public void testMaxDepth() {
+    RegressionTree rt = fit(100, 3);
+    assertEquals(8, rt.leaves().size());
+    assertEquals(3, depth(rt.root));
+    // depth 0: the root is not split
+    rt = fit(100, 0);
+    assertEquals(1, rt.leaves().size());
+    assertEquals(0, depth(rt.root));
+    rt = fit(100, 1);
+    assertEquals(2, rt.leaves().size());
+  }
+
+  @Test
+  public void testEvalBinned() {
+    RegressionTree rt = fit(20, -1);
+    // unseen samples, some of them beyond the thresholds
+    Random rand = new Random(4);
+    int n = 500;
+    float[][] values = new float[2][n];
+    DataPoint[] points = new DataPoint[n];
+    for (int k = 0; k < n; k++) {
+      values[0][k] = rand.nextFloat() * 120 - 10;
+      values[1][k] = rand.nextInt(102);
+      points[k] = new DenseDataPoint("0 qid:1 1:" + values[0][k] + " 2:" + values[1][k]);
+    }
+    BinnedFeatures bins = new BinnedFeatures(values, thresholds());
+    for (int k = 0; k < n; k++) {
+      assertEquals(rt.eval(points[k]), rt.eval(bins, k), 0.0);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package ciir.umass.edu.metric;
+
+import ciir.umass.edu.learning.RankList;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author jfoley.
+ */
+public class SwapDeltaTest extends MeasureTestUtil {
+
+  @Test
+  public void testMatchesSwapChange() {
+    Random rand = new Random(2);
+    // AP against a judged count of relevant documents larger than any list here
+    APScorer judgedAP = new APScorer();
+    judgedAP.relDocCount = new HashMap<>();
+    judgedAP.relDocCount.put(list(1).getID(), 30);
+    MetricScorer[] scorers = {new NDCGScorer(5), new DCGScorer(5), new ERRScorer(5), new ERRScorer(30), new APScorer(),
+        judgedAP, new PrecisionScorer(5), new ReciprocalRankScorer(), new ReciprocalRankScorer(5)};
+    for (MetricScorer scorer : scorers) {
+      // one calculator, re-used over lists of different lengths
+      MetricScorer.SwapDelta delta = scorer.swapDelta();
+      for (int n : new int[]{20, 3, 12}) {
+        int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+          labels[i] = rand.nextInt(4);
+        }
+        RankList orig = list(labels);
+        // the list ranked in reverse, given by where each rank's document sits in orig (plus an offset)
+        int offset = 100;
+        int[] order = new int[n + 5];
+        int[] rel = new int[n + 5];
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+          order[i] = offset + (n - 1 - i);
+          sorted[i] = order[i] - offset;
+          rel[i] = labels[sorted[i]];
+        }
+        double[][] expected = scorer.swapChange(new RankList(orig, sorted));
+        delta.prepare(orig, order, offset, rel, n);
+        for (int i = 0; i < n; i++) {
+          for (int j = 0; j < n; j++) {
+            if (i != j) {
+              assertEquals(scorer.name() + " " + i + "," + j, expected[i][j], delta.delta(i, j), 1e-12);
+            }
+          }
+        }
+      }
+    }
+  }
+}
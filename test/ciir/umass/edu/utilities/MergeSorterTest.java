@@ -2,7 +2,9 @@ package ciir.umass.edu.utilities;
 
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
+import java.util.Random;
+
+import static org.junit.Assert.*;
 
 /**
  * @author jfoley.
@@ -32,4 +34,34 @@ public class MergeSorterTest {
       assertEquals(rwd[i] , fwd[idx2[i]], 0.00001);
     }
   }
+
+  @Test
+  public void testResortMatchesSort() {
+    Random rand = new Random(5);
+    int offset = 7;
+    double[] list = new double[offset + 300];
+    for (boolean asc : new boolean[]{true, false}) {
+      int[] idx = new int[list.length];
+      for (int i = 0; i < idx.length; i++) {
+        idx[i] = i;
+        list[i] = rand.nextInt(50); // plenty of ties
+      }
+      int end = list.length - 1;
+      assertFalse(MergeSorter.resort(list, idx, offset, end, asc, 10));
+      for (int round = 0; round < 20; round++) {
+        assertTrue(MergeSorter.resort(list, idx, offset, end, asc, Long.MAX_VALUE));
+        int[] expected = MergeSorter.sort(list, offset, end, asc);
+        for (int i = 0; i < expected.length; i++) {
+          assertEquals(expected[i], idx[offset + i]);
+        }
+        // small moves, as from one boosting iteration to the next
+        for (int i = offset; i <= end; i++) {
+          list[i] += rand.nextInt(3) - 1;
+        }
+      }
+      for (int i = 0; i < offset; i++) {
+        assertEquals(i, idx[i]);
+      }
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package ciir.umass.edu.utilities;
+
+import java.util.Random;
+
+/**
+ * Times the table-based {@link Sigmoid} against the exact one (Math.exp), and reports how far apart they are.
+ * Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes ciir.umass.edu.utilities.SigmoidBenchmark [range] [resolution]
+ * </pre>
+ * Inputs are drawn like pairwise score differences: mostly small, sometimes beyond the range of the table.
+ *
+ * @author jfoley.
+ */
+public class SigmoidBenchmark {
+  private static final int N = 1 << 22;
+  private static final int REPS = 15;
+
+  private static double time(Sigmoid sigmoid, double[] x, boolean softplus, double[] sink) {
+    long best = Long.MAX_VALUE;
+    for (int rep = 0; rep < REPS; rep++) {
+      long start = System.nanoTime();
+      double sum = 0;
+      if (softplus) {
+        for (double v : x) {
+          sum += sigmoid.softplus(v);
+        }
+      } else {
+        for (double v : x) {
+          sum += sigmoid.value(v);
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+      sink[0] += sum;
+    }
+    return (double) best / x.length;
+  }
+
+  public static void main(String[] args) {
+    double range = args.length > 0 ? Double.parseDouble(args[0]) : Sigmoid.DEFAULT_RANGE;
+    int resolution = args.length > 1 ? Integer.parseInt(args[1]) : Sigmoid.DEFAULT_RESOLUTION;
+    Sigmoid exact = Sigmoid.exact();
+    Sigmoid table = Sigmoid.table(range, resolution);
+
+    Random rand = new Random(3);
+    double[] x = new double[N];
+    for (int i = 0; i < N; i++) {
+      x[i] = rand.nextGaussian() * 4;
+    }
+
+    double maxErr = 0;
+    double sumErr = 0;
+    double maxSoftplusErr = 0;
+    for (double v : x) {
+      double err = Math.abs(exact.value(v) - table.value(v));
+      maxErr = Math.max(maxErr, err);
+      sumErr += err;
+      maxSoftplusErr = Math.max(maxSoftplusErr, Math.abs(exact.softplus(v) - table.softplus(v)));
+    }
+
+    double[] sink = new double[1];
+    double exactNs = time(exact, x, false, sink);
+    double tableNs = time(table, x, false, sink);
+    double exactSoftplusNs = time(exact, x, true, sink);
+    double tableSoftplusNs = time(table, x, true, sink);
+
+    System.out.printf("%s vs exact, %d inputs ~ N(0, 4^2); best of %d runs%n", table, N, REPS);
+    System.out.printf("logistic: exact %6.2f ns   table %6.2f ns   speedup %.2fx   max abs err %.2e   mean abs err %.2e%n",
+        exactNs, tableNs, exactNs / tableNs, maxErr, sumErr / N);
+    System.out.printf("softplus: exact %6.2f ns   table %6.2f ns   speedup %.2fx   max abs err %.2e%n",
+        exactSoftplusNs, tableSoftplusNs, exactSoftplusNs / tableSoftplusNs, maxSoftplusErr);
+    if (sink[0] == 42) {
+      System.out.println();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package ciir.umass.edu.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class SigmoidTest {
+
+  @Test
+  public void testExact() {
+    Sigmoid exact = Sigmoid.exact();
+    assertTrue(exact.isExact());
+    for (double x = -40; x <= 40; x += 0.37) {
+      assertEquals(1.0 / (1.0 + Math.exp(-x)), exact.value(x), 0.0);
+      assertEquals(Math.log(1 + Math.exp(x)), exact.softplus(x), 0.0);
+    }
+  }
+
+  @Test
+  public void testTable() {
+    Sigmoid exact = Sigmoid.exact();
+    Sigmoid table = Sigmoid.table(Sigmoid.DEFAULT_RANGE, Sigmoid.DEFAULT_RESOLUTION);
+    assertFalse(table.isExact());
+    for (double x = -30; x <= 30; x += 0.0123) {
+      assertEquals("logistic " + x, exact.value(x), table.value(x), 1e-6);
+      assertEquals("softplus " + x, exact.softplus(x), table.softplus(x), 1e-6);
+    }
+    // beyond the table, the ends and the asymptotes
+    assertEquals(0, table.value(-1000), 1e-6);
+    assertEquals(1, table.value(1000), 1e-6);
+    assertEquals(0, table.softplus(-1000), 0.0);
+    assertEquals(1000, table.softplus(1000), 0.0);
+    assertEquals(0.5, table.value(0), 1e-9);
+  }
+
+  @Test
+  public void testParse() {
+    assertTrue(Sigmoid.parse("exact").isExact());
+    assertEquals("table:16.0:256", Sigmoid.parse("table").toString());
+    assertEquals("table:8.0:64", Sigmoid.parse("table:8:64").toString());
+    for (String bad : new String[]{"fast", "table:8", "table:0:64", "table:8:-1"}) {
+      try {
+        Sigmoid.parse(bad);
+        fail(bad);
+      } catch (RankLibError expected) {
+        // ok
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package ciir.umass.edu.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jfoley.
+ */
+public class WorkStealingPoolTest {
+
+  /** Counts how many times each task ran; with @inner > 0, each task also runs a nested region of @inner tasks. */
+  private static class Counter extends WorkerThread {
+    final AtomicIntegerArray hits;
+    final int inner;
+
+    Counter(AtomicIntegerArray hits, int inner) {
+      this.hits = hits;
+      this.inner = inner;
+    }
+
+    @Override
+    public void run() {
+      for (int i = start; i <= end; i++) {
+        hits.incrementAndGet(i);
+        if (inner > 0) {
+          AtomicIntegerArray nested = new AtomicIntegerArray(inner);
+          WorkStealingPool.getInstance().execute(new Counter(nested, 0), inner);
+          for (int j = 0; j < inner; j++) {
+            assertEquals(1, nested.get(j));
+          }
+        }
+      }
+    }
+
+    @Override
+    public WorkerThread clone() {
+      return new Counter(hits, inner);
+    }
+  }
+
+  private static class Failing extends WorkerThread {
+    @Override
+    public void run() {
+      if (start <= 5 && 5 <= end) {
+        throw RankLibError.create("task 5");
+      }
+    }
+
+    @Override
+    public WorkerThread clone() {
+      return new Failing();
+    }
+  }
+
+  @After
+  public void reset() {
+    WorkStealingPool.init(Runtime.getRuntime().availableProcessors());
+  }
+
+  @Test
+  public void testPartition() {
+    assertArrayEquals(new int[]{0, 4, 7, 10}, WorkStealingPool.partition(10, 3));
+    assertArrayEquals(new int[]{0, 1, 2}, WorkStealingPool.partition(2, 8));
+    assertArrayEquals(new int[]{0, 0}, WorkStealingPool.partition(0, 8));
+  }
+
+  @Test
+  public void testEveryTaskRunsOnce() {
+    WorkStealingPool.init(3);
+    WorkStealingPool p = WorkStealingPool.getInstance();
+    AtomicIntegerArray hits = new AtomicIntegerArray(1001);
+    WorkerThread[] workers = p.execute(new Counter(hits, 0), hits.length());
+    assertEquals(3 * WorkStealingPool.CHUNKS_PER_THREAD, workers.length);
+    for (int i = 0; i < hits.length(); i++) {
+      assertEquals(1, hits.get(i));
+    }
+    // the clones come back in the order of their ranges
+    assertEquals(0, workers[0].start);
+    for (int i = 1; i < workers.length; i++) {
+      assertEquals(workers[i - 1].end + 1, workers[i].start);
+    }
+    assertEquals(hits.length() - 1, workers[workers.length - 1].end);
+  }
+
+  @Test(timeout = 10000)
+  public void testNestedRegions() {
+    WorkStealingPool.init(2);
+    AtomicIntegerArray hits = new AtomicIntegerArray(16);
+    WorkStealingPool.getInstance().execute(new Counter(hits, 50), hits.length());
+    for (int i = 0; i < hits.length(); i++) {
+      assertEquals(1, hits.get(i));
+    }
+  }
+
+  @Test
+  public void testExceptionsPropagate() {
+    WorkStealingPool.init(2);
+    try {
+      WorkStealingPool.getInstance().execute(new Failing(), 10);
+      fail();
+    } catch (RankLibError e) {
+      // when thrown on another thread, the pool may re-throw a copy that wraps the original
+      assertTrue(e.getMessage(), e.getMessage().contains("task 5"));
+    }
+  }
+}